@@ -1,8 +1,11 @@
 package ai.platon.pulsar.test.component
 
 import ai.platon.pulsar.common.LinkExtractors
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.crawl.component.LoadComponent
 import ai.platon.pulsar.persist.WebPage
+import ai.platon.pulsar.persist.metadata.Name
 import ai.platon.pulsar.test.TestBase
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.asFlow
@@ -13,6 +16,7 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import org.springframework.beans.factory.annotation.Autowired
 import java.text.MessageFormat
+import java.time.Duration
 import java.util.concurrent.CompletableFuture
 import kotlin.test.*
 
@@ -102,4 +106,26 @@ class LoadComponentTests: TestBase() {
         }
         println("Done!")
     }
+
+    @Test
+    fun whenLoadIsTraced_ThenPageCarriesStageTimings() {
+        LoadSpans.isEnabled = true
+        try {
+            val numNormalizes = LoadSpans.histogram(LoadStage.NORMALIZE).count
+            val normURL = session.normalize(url, "$args -refresh")
+            assertTrue { LoadSpans.histogram(LoadStage.NORMALIZE).count > numNormalizes }
+
+            val page = loadComponent.load(normURL)
+            val timings = assertNotNull(page.stageTimings)
+            assertTrue { timings[LoadStage.LOAD] > Duration.ZERO }
+            assertTrue { timings[LoadStage.FETCH] > Duration.ZERO }
+            assertTrue { timings[LoadStage.PERSIST] > Duration.ZERO }
+            // the metadata is written after the load, so it holds the complete timings
+            assertEquals(timings.format(), page.metadata[Name.LOAD_STAGE_TIMINGS])
+            assertContains(timings.format(), "load:")
+        } finally {
+            LoadSpans.isEnabled = false
+            LoadSpans.reset()
+        }
+    }
 }
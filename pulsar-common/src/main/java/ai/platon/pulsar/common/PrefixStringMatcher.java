@@ -17,6 +17,7 @@
 
 package ai.platon.pulsar.common;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -133,4 +134,28 @@ public class PrefixStringMatcher extends TrieStringMatcher {
         }
         return result;
     }
+
+    /**
+     * Returns the lengths of all the prefixes of <code>input<code> that are matched,
+     * from the shortest to the longest, the trie is walked only once.
+     *
+     * @param input the string to match
+     * @return the lengths of the matched prefixes, or an empty array if no match exists.
+     */
+    public int[] allMatchLengths(String input) {
+        TrieNode node = root;
+        int[] lengths = new int[4];
+        int n = 0;
+        for (int i = 0; i < input.length(); i++) {
+            node = node.getChild(input.charAt(i));
+            if (node == null)
+                break;
+            if (node.isTerminal()) {
+                if (n == lengths.length)
+                    lengths = Arrays.copyOf(lengths, n * 2);
+                lengths[n++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(lengths, n);
+    }
 }
@@ -246,6 +246,35 @@ public final class Strings {
     return 1.0 * countChinese(text) / text.length() >= percentage;
   }
 
+  /**
+   * Count the bytes of the text encoded in UTF-8 without encoding it, an unpaired surrogate is counted as one byte
+   * since it's replaced by '?' by the encoder.
+   *
+   * @param text the text
+   * @return the length of the text in UTF-8 bytes
+   */
+  public static long utf8Length(CharSequence text) {
+    long count = 0;
+    int length = text.length();
+    for (int i = 0; i < length; ++i) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        ++count;
+      } else if (c < 0x800) {
+        count += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        count += 4;
+        ++i;
+      } else if (Character.isSurrogate(c)) {
+        ++count;
+      } else {
+        count += 3;
+      }
+    }
+
+    return count;
+  }
+
   public static int countChinese(String text) {
     if ("".equals(text)) return 0;
 
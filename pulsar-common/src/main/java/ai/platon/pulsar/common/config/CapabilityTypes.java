@@ -28,6 +28,22 @@ public interface CapabilityTypes {
      * Main loop
      * */
     String MAIN_LOOP_CONCURRENCY_OVERRIDE = "main.loop.concurrency.override";
+    /**
+     * The minimal interval between two tasks of the same host in the main loop, zero means no limit
+     * */
+    String MAIN_LOOP_HOST_CRAWL_DELAY = "main.loop.host.crawl.delay";
+    /**
+     * The maximal number of running tasks of the same host in the main loop, zero means no limit
+     * */
+    String MAIN_LOOP_HOST_MAX_CONCURRENCY = "main.loop.host.max.concurrency";
+    /**
+     * The capacity of the waiting queue of each host in the main loop, the overflowed urls are delayed
+     * */
+    String MAIN_LOOP_HOST_QUEUE_CAPACITY = "main.loop.host.queue.capacity";
+    /**
+     * The maximal backoff time of a failing host in the main loop
+     * */
+    String MAIN_LOOP_HOST_MAX_BACKOFF = "main.loop.host.max.backoff";
 
     /**
      * Args
@@ -58,6 +74,23 @@ public interface CapabilityTypes {
      * Application metrics
      * */
     String METRICS_ENABLED = "metrics.enabled";
+    /**
+     * Export the metrics as JMX MBeans
+     * */
+    String METRICS_EXPORT_JMX_ENABLED = "metrics.export.jmx.enabled";
+    /**
+     * The port of the embedded HTTP server which serves the metrics in OpenMetrics text format on /metrics,
+     * zero means the server is disabled
+     * */
+    String METRICS_EXPORT_HTTP_PORT = "metrics.export.http.port";
+    /**
+     * Comma separated substrings, only the metrics whose names contain any of them are exported, all by default
+     * */
+    String METRICS_EXPORT_INCLUDES = "metrics.export.includes";
+    /**
+     * Comma separated substrings, the metrics whose names contain any of them are not exported
+     * */
+    String METRICS_EXPORT_EXCLUDES = "metrics.export.excludes";
 
     /**
      * Distribution
@@ -86,8 +119,44 @@ public interface CapabilityTypes {
     String STORAGE_PREFERRED_SCHEMA_NAME = "preferred.schema.name";
 
     String STORAGE_DATA_STORE_CLASS = "storage.data.store.class";
+    /**
+     * The data store class used if no database is detected, FileBackendPageStore or SegmentFilePageStore
+     * */
+    String STORAGE_LOCAL_DATA_STORE_CLASS = "storage.local.data.store.class";
 
     String STORAGE_DATUM_EXPIRES = "storage.datum.expires";
+    /**
+     * Write pages to the data store asynchronously in batches, WebDb.put returns once the page is queued
+     * */
+    String STORAGE_WRITE_BEHIND = "storage.write.behind";
+    /**
+     * The max number of pages waiting to be written, WebDb.put blocks if it's reached
+     * */
+    String STORAGE_WRITE_BEHIND_CAPACITY = "storage.write.behind.capacity";
+    /**
+     * The max number of pages written in a batch
+     * */
+    String STORAGE_WRITE_BEHIND_BATCH_SIZE = "storage.write.behind.batch.size";
+    /**
+     * The max time a page waits in the queue before it's written
+     * */
+    String STORAGE_WRITE_BEHIND_MAX_DELAY = "storage.write.behind.max.delay";
+    /**
+     * The codec to compress page content before it's written to the data store, "none" to write the content as is
+     * */
+    String STORAGE_CONTENT_CODEC = "storage.content.codec";
+    /**
+     * The compression level of the content codec
+     * */
+    String STORAGE_CONTENT_CODEC_LEVEL = "storage.content.codec.level";
+    /**
+     * Content smaller than this size in bytes is written as is
+     * */
+    String STORAGE_CONTENT_CODEC_MIN_SIZE = "storage.content.codec.min.size";
+    /**
+     * The directory of the shared compression dictionaries, a dictionary file is named by the domain, e.g. amazon.com.dict
+     * */
+    String STORAGE_CONTENT_CODEC_DICTIONARY_DIR = "storage.content.codec.dictionary.dir";
 
     ///////////////////////////////////////////////////////////////////////////
     // Spring
@@ -124,6 +193,26 @@ public interface CapabilityTypes {
      * */
     @Deprecated
     String LOAD_DISABLE_FETCH = "load.disable.fetch";
+    /**
+     * Coalesce concurrent loads of the same url, the later loads await the fetch in flight and share its result
+     * instead of fetching the page again.
+     * */
+    String LOAD_COALESCE_FETCHES = "load.coalesce.fetches";
+    /**
+     * The max time a blocking load awaits a fetch in flight before it fetches the page by itself, a blocking
+     * follower parks its thread, so the wait is bounded shorter than the fetch task timeout.
+     * */
+    String LOAD_COALESCE_BLOCKING_TIMEOUT = "load.coalesce.blocking.timeout";
+    /**
+     * Trace the time spent in each stage of the load pipeline, the per-stage latency percentiles are reported
+     * by the core metrics, and the stage timings of a page are written into its metadata.
+     * */
+    String LOAD_TRACE_ENABLED = "load.trace.enabled";
+    /**
+     * Normalize a batch of urls in parallel if there are more distinct urls than this threshold, the parallel
+     * normalization is disabled by default, enable it only if all the url normalizers are thread safe.
+     * */
+    String LOAD_NORMALIZE_PARALLEL_THRESHOLD = "load.normalize.parallel.threshold";
 
     ///////////////////////////////////////////////////////////////////////////
     // Fetch phrase
@@ -290,6 +379,18 @@ public interface CapabilityTypes {
     String PROXY_MAX_ALLOWED_PROXY_ABSENCE = "proxy.max.allowed.proxy.absence";
     String PROXY_POOL_CAPACITY = "proxy.pool.size";
     String PROXY_POOL_POLLING_TIMEOUT = "proxy.pool.polling.interval";
+    /**
+     * If true, the proxy pool refills in the background and ranks the free proxies by health score
+     */
+    String PROXY_POOL_ASYNC = "proxy.pool.async";
+    /**
+     * The async proxy pool starts to refill when the number of free proxies is below this threshold
+     */
+    String PROXY_POOL_REFILL_THRESHOLD = "proxy.pool.refill.threshold";
+    /**
+     * The minimal interval between two refills of the async proxy pool
+     */
+    String PROXY_POOL_REFILL_INTERVAL = "proxy.pool.refill.interval";
     String PROXY_IDLE_TIMEOUT = "proxy.idle.timeout";
     String PROXY_ENABLE_DEFAULT_PROVIDERS = "proxy.enable.default.providers";
 
@@ -414,6 +515,38 @@ public interface CapabilityTypes {
      * The size of global document cache
      * */
     String GLOBAL_DOCUMENT_CACHE_SIZE = "global.document.cache.size";
+    /**
+     * The estimated heap size in bytes the global page cache can use
+     * */
+    String GLOBAL_PAGE_CACHE_MEMORY_BUDGET = "global.page.cache.memory.budget";
+    /**
+     * The estimated heap size in bytes the global document cache can use
+     * */
+    String GLOBAL_DOCUMENT_CACHE_MEMORY_BUDGET = "global.document.cache.memory.budget";
+    /**
+     * If true, the global url pool spills the overflowed urls to disk
+     * */
+    String GLOBAL_URL_POOL_SPILL = "global.url.pool.spill";
+    /**
+     * The number of urls each queue of the spilling url pool keeps in memory
+     * */
+    String GLOBAL_URL_POOL_SPILL_CAPACITY = "global.url.pool.spill.capacity";
+    /**
+     * The seen set the url pool queues use to remember the history, "exact" or "bloom"
+     * */
+    String GLOBAL_URL_POOL_HISTORY = "global.url.pool.history";
+    /**
+     * The expected number of urls of the first bloom filter
+     * */
+    String GLOBAL_URL_POOL_HISTORY_EXPECTED_INSERTIONS = "global.url.pool.history.expected.insertions";
+    /**
+     * The false positive probability of the bloom filter history
+     * */
+    String GLOBAL_URL_POOL_HISTORY_FPP = "global.url.pool.history.fpp";
+    /**
+     * The number of recent urls the bloom filter history counts exactly
+     * */
+    String GLOBAL_URL_POOL_HISTORY_RECENT_CAPACITY = "global.url.pool.history.recent.capacity";
 
     /**
      * Sites may request that search engines don't provide access to cached
@@ -423,6 +556,24 @@ public interface CapabilityTypes {
 
     String PULSAR_DOMAIN = "pulsar.domain";
 
+    // Scrape REST API
+    /**
+     * The time to keep a finished scrape response for status queries
+     */
+    String SCRAPE_RESPONSE_RETENTION_TTL = "scrape.response.retention.ttl";
+    /**
+     * The maximal number of finished scrape responses to keep for status queries
+     */
+    String SCRAPE_RESPONSE_RETENTION_CAPACITY = "scrape.response.retention.capacity";
+    /**
+     * The maximal number of unfinished scrape responses to track
+     */
+    String SCRAPE_PENDING_CAPACITY = "scrape.pending.capacity";
+    /**
+     * The timeout to wait for a scrape task executed synchronously
+     */
+    String SCRAPE_EXECUTE_TIMEOUT = "scrape.execute.timeout";
+
     // H2
     String H2_SESSION_FACTORY_CLASS = "h2.sessionFactory";
 
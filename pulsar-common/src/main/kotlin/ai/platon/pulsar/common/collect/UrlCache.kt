@@ -4,6 +4,7 @@ import ai.platon.pulsar.common.Priority13
 import ai.platon.pulsar.common.collect.queue.*
 import ai.platon.pulsar.common.urls.UrlAware
 import com.google.common.cache.LoadingCache
+import java.nio.file.Path
 import java.time.Instant
 import java.util.*
 import java.util.concurrent.ConcurrentLinkedQueue
@@ -60,6 +61,10 @@ interface UrlCache {
      * The estimated, imprecise count of all urls both in local cache and the external source.
      * */
     val estimatedSize get() = size + estimatedExternalSize
+    /**
+     * The estimated memory in bytes used to remember the history of the queues.
+     * */
+    val historyMemoryBytes: Long get() = queues.sumOf { it.historyMemoryBytes }
     /**
      * Remove dead urls.
      * */
@@ -90,13 +95,55 @@ abstract class AbstractUrlCache(
 
 open class ConcurrentUrlCache(
     name: String = "",
-    priority: Int = Priority13.NORMAL.value
+    priority: Int = Priority13.NORMAL.value,
+    /**
+     * Create the seen sets to remember the history of the queues
+     * */
+    seenSetFactory: () -> SeenSet<UrlAware> = { ExactSeenSet() }
 ) : AbstractUrlCache(name, priority) {
-    override val nonReentrantQueue = ConcurrentNonReentrantQueue<UrlAware>()
-    override val nReentrantQueue = ConcurrentNEntrantQueue<UrlAware>(3)
+    override val nonReentrantQueue = ConcurrentNonReentrantQueue(seenSetFactory())
+    override val nReentrantQueue = ConcurrentNEntrantQueue(3, seenSetFactory())
     override val reentrantQueue = ConcurrentLinkedQueue<UrlAware>()
 }
 
+/**
+ * A url cache keeps at most [capacity] urls in memory for each queue, the overflowed urls are spilled to
+ * the files in [directory] and loaded back lazily, so the cache can hold a very large number of urls with
+ * bounded heap usage.
+ * */
+class SpillingUrlCache constructor(
+    name: String,
+    priority: Int,
+    /**
+     * The directory to hold the spilled urls
+     * */
+    val directory: Path,
+    /**
+     * The capacity of the in-memory part of each queue
+     * */
+    val capacity: Int = 10_000,
+    /**
+     * Create the seen sets to remember the history of the queues
+     * */
+    seenSetFactory: () -> SeenSet<UrlAware> = { ExactSeenSet() }
+) : AbstractUrlCache(name, priority), AutoCloseable {
+    override val nonReentrantQueue =
+        SpillingQueue(ConcurrentNonReentrantQueue(seenSetFactory()), store("non-reentrant"), capacity)
+    override val nReentrantQueue =
+        SpillingQueue(ConcurrentNEntrantQueue(3, seenSetFactory()), store("n-reentrant"), capacity)
+    override val reentrantQueue = SpillingQueue(ConcurrentLinkedQueue(), store("reentrant"), capacity)
+    /**
+     * The number of urls spilled to disk
+     * */
+    val spilledSize get() = listOf(nonReentrantQueue, nReentrantQueue, reentrantQueue).sumOf { it.spilledSize }
+
+    override fun close() {
+        listOf(nonReentrantQueue, nReentrantQueue, reentrantQueue).forEach { it.store.close() }
+    }
+
+    private fun store(group: String) = UrlSpillStore(directory.resolve(name.lowercase()).resolve(group))
+}
+
 /**
  * Contains a sets of loading queues which can load urls from external source using [urlLoader].
  * */
@@ -2,12 +2,14 @@ package ai.platon.pulsar.common.collect
 
 import ai.platon.pulsar.common.Priority13
 import ai.platon.pulsar.common.collect.UrlPool.Companion.REAL_TIME_PRIORITY
+import ai.platon.pulsar.common.collect.queue.SeenSets
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.urls.Hyperlink
 import ai.platon.pulsar.common.urls.PlainUrl
 import ai.platon.pulsar.common.urls.UrlAware
 import com.google.common.primitives.Ints
 import org.apache.commons.collections4.queue.SynchronizedQueue
+import java.nio.file.Path
 import java.time.Duration
 import java.time.Instant
 import java.util.*
@@ -16,6 +18,7 @@ import java.util.concurrent.DelayQueue
 import java.util.concurrent.Delayed
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * The delay url. A delay url is a url with a delay.
@@ -78,6 +81,11 @@ interface UrlPool {
      * Total number of items in all url caches.
      * */
     val totalCount: Int
+    /**
+     * The estimated memory in bytes used to remember the history of the real time cache and the ordered caches.
+     * */
+    val historyMemoryBytes: Long
+        get() = realTimeCache.historyMemoryBytes + orderedCaches.values.sumOf { it.historyMemoryBytes }
     /**
      * A shortcut to the cache with the lowest priority in the ordered caches
      * */
@@ -251,9 +259,57 @@ open class ConcurrentUrlPool(conf: ImmutableConfig) : AbstractUrlPool(conf) {
 
     override fun initialize() {
         if (initialized.compareAndSet(false, true)) {
-            Priority13.entries.forEach { orderedCaches[it.value] = ConcurrentUrlCache(it.name, it.value) }
+            val seenSetFactory = SeenSets.factory<UrlAware>(conf)
+            Priority13.entries.forEach {
+                orderedCaches[it.value] = ConcurrentUrlCache(it.name, it.value, seenSetFactory)
+            }
+        }
+    }
+}
+
+/**
+ * A [SpillingUrlPool] is a [UrlPool] whose ordered caches spill the overflowed urls to the files under [directory],
+ * it's used for the very large crawls which can not hold all the urls in memory.
+ *
+ * Every pool spills to its own subdirectory of [directory], so pools sharing the same [directory] never delete
+ * each other's files. The pool must be closed to release the files.
+ * */
+class SpillingUrlPool(
+    conf: ImmutableConfig,
+    val directory: Path,
+    val capacity: Int = 10_000,
+) : ConcurrentUrlPool(conf), AutoCloseable {
+    companion object {
+        private val instanceSequence = AtomicInteger()
+    }
+
+    /**
+     * The directory of this pool
+     * */
+    val poolDirectory: Path = directory.resolve("pool-" + instanceSequence.incrementAndGet())
+
+    override fun initialize() {
+        if (initialized.compareAndSet(false, true)) {
+            val seenSetFactory = SeenSets.factory<UrlAware>(conf)
+            Priority13.entries.forEach {
+                orderedCaches[it.value] = SpillingUrlCache(it.name, it.value, poolDirectory, capacity, seenSetFactory)
+            }
         }
     }
+
+    override fun clear() {
+        closeCaches()
+        super.clear()
+    }
+
+    override fun close() {
+        closeCaches()
+        runCatching { poolDirectory.toFile().deleteRecursively() }
+    }
+
+    private fun closeCaches() {
+        orderedCaches.values.filterIsInstance<AutoCloseable>().forEach { it.close() }
+    }
 }
 
 /**
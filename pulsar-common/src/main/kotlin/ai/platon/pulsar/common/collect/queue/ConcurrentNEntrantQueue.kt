@@ -1,30 +1,24 @@
 package ai.platon.pulsar.common.collect.queue
 
-import com.google.common.collect.ConcurrentHashMultiset
 import java.util.*
 import java.util.concurrent.ConcurrentSkipListSet
 
+/**
+ * A queue accepts the same item for n times at most, the accepted items are remembered in [history].
+ * */
 open class ConcurrentNEntrantQueue<E>(
-        val n: Int
+    val n: Int,
+    val history: SeenSet<E> = ExactSeenSet()
 ): AbstractQueue<E>() {
     private val set = ConcurrentSkipListSet<E>()
-    private val historyHash = ConcurrentHashMultiset.create<Int>()
 
-    open fun count(e: E) = historyHash.count(e.hashCode())
+    open fun count(e: E) = history.count(e)
 
     override fun add(e: E) = offer(e)
 
     override fun offer(e: E): Boolean {
-        val hashCode = e.hashCode()
-
-        synchronized(this) {
-            if (historyHash.count(hashCode) <= n) {
-                historyHash.add(hashCode)
-                return set.add(e)
-            }
-        }
-
-        return false
+        // an item is accepted while its count is not greater than n, which is the same as the former behavior
+        return history.tryAdd(e, n + 1) && set.add(e)
     }
 
     override fun iterator(): MutableIterator<E> = set.iterator()
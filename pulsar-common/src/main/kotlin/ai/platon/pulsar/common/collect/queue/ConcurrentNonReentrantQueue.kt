@@ -2,27 +2,21 @@ package ai.platon.pulsar.common.collect.queue
 
 import java.util.*
 import java.util.concurrent.ConcurrentSkipListSet
-import kotlin.collections.HashSet
 
-open class ConcurrentNonReentrantQueue<E>: AbstractQueue<E>() {
+/**
+ * A queue accepts the same item only once, the accepted items are remembered in [history].
+ * */
+open class ConcurrentNonReentrantQueue<E>(
+    val history: SeenSet<E> = ExactSeenSet()
+): AbstractQueue<E>() {
     private val set = ConcurrentSkipListSet<E>()
-    private val historyHash = HashSet<Int>()
 
-    open fun count(e: E) = if (historyHash.contains(e.hashCode())) 1 else 0
+    open fun count(e: E) = if (history.count(e) > 0) 1 else 0
 
     override fun add(element: E) = offer(element)
 
     override fun offer(e: E): Boolean {
-        val hashCode = e.hashCode()
-
-        synchronized(this) {
-            if (!historyHash.contains(hashCode)) {
-                historyHash.add(hashCode)
-                return set.add(e)
-            }
-        }
-
-        return false
+        return history.tryAdd(e, 1) && set.add(e)
     }
 
     override fun iterator(): MutableIterator<E> = set.iterator()
@@ -0,0 +1,292 @@
+package ai.platon.pulsar.common.collect.queue
+
+import ai.platon.pulsar.common.config.CapabilityTypes.*
+import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.urls.UrlAware
+import com.google.common.hash.BloomFilter
+import com.google.common.hash.Funnels
+import com.google.common.hash.Hashing
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ln
+import kotlin.math.pow
+
+/**
+ * A seen set remembers how many times an item is added, it's used by the queues to reject the items
+ * which are added too many times.
+ * */
+interface SeenSet<E> {
+    /**
+     * The number of times the item is added
+     * */
+    fun count(e: E): Int
+    /**
+     * Add the item if it's added less than [maxCount] times.
+     *
+     * @return true if the item is added
+     * */
+    fun tryAdd(e: E, maxCount: Int = 1): Boolean
+    /**
+     * The estimated memory in bytes used by the seen set
+     * */
+    val estimatedMemoryBytes: Long
+    /**
+     * Forget all the items
+     * */
+    fun clear()
+}
+
+object SeenSets {
+    const val EXACT = "exact"
+    const val BLOOM = "bloom"
+
+    private val murmur = Hashing.murmur3_128()
+
+    /**
+     * A 64-bit fingerprint of the item, urls are fingerprinted by the url string.
+     * */
+    fun fingerprint(e: Any?): Long {
+        val s = when (e) {
+            null -> return 0L
+            is UrlAware -> e.url
+            is CharSequence -> e
+            else -> e.toString()
+        }
+        return murmur.hashUnencodedChars(s).asLong()
+    }
+
+    /**
+     * Create a seen set factory from the configuration.
+     * */
+    fun <E> factory(conf: ImmutableConfig): () -> SeenSet<E> {
+        return when (conf.get(GLOBAL_URL_POOL_HISTORY, EXACT)) {
+            BLOOM -> {
+                val expectedInsertions = conf.getLong(GLOBAL_URL_POOL_HISTORY_EXPECTED_INSERTIONS, 1_000_000L)
+                val fpp = conf.getDouble(GLOBAL_URL_POOL_HISTORY_FPP, 0.001)
+                val recentCapacity = conf.getUint(GLOBAL_URL_POOL_HISTORY_RECENT_CAPACITY, 10_000)
+                { BloomSeenSet<E>(expectedInsertions, fpp, recentCapacity) }
+            }
+            else -> { { ExactSeenSet<E>() } }
+        }
+    }
+}
+
+/**
+ * The estimated memory in bytes used by the history of the queue
+ * */
+val Queue<*>.historyMemoryBytes: Long
+    get() = when (this) {
+        is ConcurrentNonReentrantQueue<*> -> history.estimatedMemoryBytes
+        is ConcurrentNEntrantQueue<*> -> history.estimatedMemoryBytes
+        is SpillingQueue -> head.historyMemoryBytes
+        else -> 0L
+    }
+
+/**
+ * A seen set which remembers every item exactly by its 64-bit fingerprint.
+ *
+ * The memory grows with the number of distinct items, it's the right choice if the history is not very large.
+ * */
+class ExactSeenSet<E>(
+    private val fingerprint: (E) -> Long = { SeenSets.fingerprint(it) }
+) : SeenSet<E> {
+    companion object {
+        /**
+         * Estimated bytes of an entry: the node, the boxed key, the counter and the table slot
+         * */
+        const val ENTRY_BYTES = 32 + 24 + 16 + 8
+    }
+
+    private val counts = ConcurrentHashMap<Long, AtomicInteger>()
+
+    override val estimatedMemoryBytes get() = counts.size.toLong() * ENTRY_BYTES
+
+    override fun count(e: E) = counts[fingerprint(e)]?.get() ?: 0
+
+    override fun tryAdd(e: E, maxCount: Int): Boolean {
+        val counter = counts.computeIfAbsent(fingerprint(e)) { AtomicInteger() }
+        return counter.getAndIncrementIfLessThan(maxCount) >= 0
+    }
+
+    override fun clear() = counts.clear()
+}
+
+/**
+ * A seen set backed by a scalable bloom filter, the memory is bounded by the expected number of items and the
+ * false positive probability rather than the number of items.
+ *
+ * A new, larger filter is added once the current one is full, the false positive probability of the new
+ * filters is tightened so the overall probability stays below [fpp]. The k-th addition of an item is recorded as
+ * a separate fingerprint, so an item can be counted up to a small limit.
+ *
+ * A false positive makes the set reject an item it never saw, that is, a url might be dropped with a
+ * probability of at most [fpp]. The [recentCapacity] most recently added items are also kept in an exact tier,
+ * they are counted exactly, and concurrent additions of the same hot url are atomic.
+ * */
+class BloomSeenSet<E>(
+    /**
+     * The expected number of items of the first filter
+     * */
+    val expectedInsertions: Long = 1_000_000L,
+    /**
+     * The false positive probability
+     * */
+    val fpp: Double = 0.001,
+    /**
+     * The capacity of the exact tier, 0 to disable it
+     * */
+    val recentCapacity: Int = 10_000,
+    private val fingerprint: (E) -> Long = { SeenSets.fingerprint(it) }
+) : SeenSet<E> {
+    companion object {
+        /**
+         * Each new filter has a capacity larger by this factor
+         * */
+        const val GROWTH_FACTOR = 2
+        /**
+         * Each new filter has a false positive probability smaller by this factor
+         * */
+        const val TIGHTENING_RATIO = 0.5
+        /**
+         * The max count an item can be recorded
+         * */
+        const val MAX_COUNT = 64
+    }
+
+    private class Stage(val capacity: Long, val fpp: Double) {
+        val filter: BloomFilter<Long> = BloomFilter.create(Funnels.longFunnel(), capacity, fpp)
+        val insertions = AtomicLong()
+        // the optimal number of bits, see BloomFilter.optimalNumOfBits
+        val bytes = (-capacity * ln(fpp) / ln(2.0).pow(2)).toLong() / 8
+    }
+
+    private val stages = CopyOnWriteArrayList<Stage>()
+    private val recentCounts = ConcurrentHashMap<Long, AtomicInteger>()
+    private val recentOrder = ConcurrentLinkedQueue<Long>()
+
+    init {
+        require(fpp > 0 && fpp < 1) { "The false positive probability should be in (0, 1)" }
+        stages.add(Stage(expectedInsertions, fpp * (1 - TIGHTENING_RATIO)))
+    }
+
+    /**
+     * The number of filters
+     * */
+    val numFilters get() = stages.size
+
+    override val estimatedMemoryBytes: Long
+        get() = stages.sumOf { it.bytes } + recentCounts.size.toLong() * (ExactSeenSet.ENTRY_BYTES + 24)
+
+    override fun count(e: E): Int {
+        val fp = fingerprint(e)
+        return recentCounts[fp]?.get() ?: countInFilters(fp)
+    }
+
+    override fun tryAdd(e: E, maxCount: Int): Boolean {
+        val fp = fingerprint(e)
+        val limit = maxCount.coerceAtMost(MAX_COUNT)
+
+        val counter = recentCounts[fp]
+        if (counter != null) {
+            val k = counter.getAndIncrementIfLessThan(limit)
+            if (k < 0) {
+                return false
+            }
+
+            put(occurrence(fp, k))
+            return true
+        }
+
+        var k = countInFilters(fp)
+        while (k < limit) {
+            // put returns false if the bits are already set, another thread recorded this occurrence
+            if (put(occurrence(fp, k))) {
+                remember(fp, k + 1)
+                return true
+            }
+            ++k
+        }
+
+        return false
+    }
+
+    override fun clear() {
+        synchronized(stages) {
+            stages.clear()
+            stages.add(Stage(expectedInsertions, fpp * (1 - TIGHTENING_RATIO)))
+        }
+        recentCounts.clear()
+        recentOrder.clear()
+    }
+
+    private fun countInFilters(fp: Long): Int {
+        var k = 0
+        while (k < MAX_COUNT && mightContain(occurrence(fp, k))) {
+            ++k
+        }
+        return k
+    }
+
+    private fun mightContain(key: Long) = stages.any { it.filter.mightContain(key) }
+
+    private fun put(key: Long): Boolean {
+        if (mightContain(key)) {
+            return false
+        }
+
+        val stage = stages.last()
+        val changed = stage.filter.put(key)
+        if (stage.insertions.incrementAndGet() >= stage.capacity) {
+            grow(stage)
+        }
+        return changed
+    }
+
+    private fun grow(full: Stage) {
+        synchronized(stages) {
+            if (stages.last() === full) {
+                stages.add(Stage(full.capacity * GROWTH_FACTOR, full.fpp * TIGHTENING_RATIO))
+            }
+        }
+    }
+
+    private fun remember(fp: Long, count: Int) {
+        if (recentCapacity <= 0) {
+            return
+        }
+
+        if (recentCounts.putIfAbsent(fp, AtomicInteger(count)) == null) {
+            recentOrder.add(fp)
+            while (recentCounts.size > recentCapacity) {
+                val eldest = recentOrder.poll() ?: break
+                recentCounts.remove(eldest)
+            }
+        }
+    }
+
+    /**
+     * The fingerprint of the k-th occurrence of an item
+     * */
+    private fun occurrence(fp: Long, k: Int): Long {
+        return if (k == 0) fp else fp xor (k * -0x61c8864680b583ebL)
+    }
+}
+
+/**
+ * Increment the counter if it's less than [limit], return the previous value, or -1 if the limit is reached.
+ * */
+private fun AtomicInteger.getAndIncrementIfLessThan(limit: Int): Int {
+    while (true) {
+        val c = get()
+        if (c >= limit) {
+            return -1
+        }
+        if (compareAndSet(c, c + 1)) {
+            return c
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package ai.platon.pulsar.common.collect.queue
+
+import ai.platon.pulsar.common.urls.Hyperlink
+import ai.platon.pulsar.common.urls.PlainUrl
+import ai.platon.pulsar.common.urls.UrlAware
+import org.slf4j.LoggerFactory
+import java.io.*
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.io.path.name
+
+/**
+ * A compact binary codec for plain urls.
+ *
+ * Only [PlainUrl] and [Hyperlink] can be encoded, subclasses might carry states or event handlers
+ * which can not be restored from bytes.
+ * */
+object UrlAwareCodec {
+    private const val TYPE_PLAIN_URL: Byte = 1
+    private const val TYPE_HYPERLINK: Byte = 2
+
+    fun canEncode(url: UrlAware) = url.javaClass == PlainUrl::class.java || url.javaClass == Hyperlink::class.java
+
+    @Throws(IOException::class)
+    fun encode(url: UrlAware, out: DataOutput) {
+        require(canEncode(url)) { "Unsupported url type | ${url.javaClass}" }
+
+        out.writeByte(if (url is Hyperlink) TYPE_HYPERLINK.toInt() else TYPE_PLAIN_URL.toInt())
+        writeString(out, url.url)
+        writeNullableString(out, url.args)
+        writeNullableString(out, url.referrer)
+        writeNullableString(out, url.href)
+        out.writeInt(url.priority)
+        writeString(out, url.lang)
+        writeString(out, url.country)
+        writeString(out, url.district)
+        out.writeInt(url.nMaxRetry)
+
+        if (url is Hyperlink) {
+            writeString(out, url.text)
+            out.writeInt(url.order)
+            out.writeInt(url.depth)
+        }
+    }
+
+    @Throws(IOException::class)
+    fun decode(input: DataInput): UrlAware {
+        val type = input.readByte()
+        val url = readString(input)
+        val args = readNullableString(input)
+        val referrer = readNullableString(input)
+        val href = readNullableString(input)
+        val priority = input.readInt()
+        val lang = readString(input)
+        val country = readString(input)
+        val district = readString(input)
+        val nMaxRetry = input.readInt()
+
+        val link = when (type) {
+            TYPE_HYPERLINK -> {
+                val text = readString(input)
+                val order = input.readInt()
+                Hyperlink(url, text, order, referrer, args, href).also { it.depth = input.readInt() }
+            }
+            TYPE_PLAIN_URL -> PlainUrl(url, args, referrer).also { it.href = href }
+            else -> throw IOException("Unknown url type $type")
+        }
+
+        return link.also {
+            it.priority = priority
+            it.lang = lang
+            it.country = country
+            it.district = district
+            it.nMaxRetry = nMaxRetry
+        }
+    }
+
+    private fun writeString(out: DataOutput, s: String) {
+        val bytes = s.toByteArray(Charsets.UTF_8)
+        out.writeInt(bytes.size)
+        out.write(bytes)
+    }
+
+    private fun writeNullableString(out: DataOutput, s: String?) {
+        if (s == null) {
+            out.writeInt(-1)
+        } else {
+            writeString(out, s)
+        }
+    }
+
+    private fun readString(input: DataInput): String {
+        return readNullableString(input) ?: throw IOException("Unexpected null string")
+    }
+
+    private fun readNullableString(input: DataInput): String? {
+        val length = input.readInt()
+        if (length < 0) {
+            return null
+        }
+
+        val bytes = ByteArray(length)
+        input.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
+
+/**
+ * An append only disk store for urls.
+ *
+ * Urls are appended to the newest file and loaded from the eldest file, a file is sealed before it's read, and
+ * is deleted once all its urls are loaded, so urls are loaded in the same order as they are appended.
+ * */
+class UrlSpillStore(
+    val directory: Path,
+    /**
+     * The max number of urls in a file
+     * */
+    val maxFileRecords: Int = 100_000
+) : AutoCloseable {
+    private val logger = LoggerFactory.getLogger(UrlSpillStore::class.java)
+
+    private val sealedFiles = LinkedList<Path>()
+    private var fileSequence = 0
+
+    private var writingFile: Path? = null
+    private var writer: DataOutputStream? = null
+    private var writingRecords = 0
+
+    private var readingFile: Path? = null
+    private var reader: DataInputStream? = null
+
+    private val count = AtomicInteger()
+
+    /**
+     * The number of urls in the store
+     * */
+    val size get() = count.get()
+
+    init {
+        Files.createDirectories(directory)
+        // spilled urls do not survive a restart
+        Files.list(directory).use { files -> files.filter { it.name.endsWith(".spill") }.forEach { Files.delete(it) } }
+    }
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun append(url: UrlAware) {
+        val out = writer ?: openWriter()
+        UrlAwareCodec.encode(url, out)
+        count.incrementAndGet()
+
+        if (++writingRecords >= maxFileRecords) {
+            sealWritingFile()
+        }
+    }
+
+    /**
+     * Load at most [max] urls from the store, the loaded urls are removed from the store.
+     * */
+    @Synchronized
+    @Throws(IOException::class)
+    fun load(max: Int): List<UrlAware> {
+        val urls = mutableListOf<UrlAware>()
+
+        while (urls.size < max && count.get() > 0) {
+            val input = reader ?: openReader() ?: break
+            try {
+                urls.add(UrlAwareCodec.decode(input))
+                count.decrementAndGet()
+            } catch (e: EOFException) {
+                closeReader()
+            }
+        }
+
+        return urls
+    }
+
+    @Synchronized
+    fun clear() {
+        closeReader()
+        writer?.close()
+        writer = null
+        writingRecords = 0
+        writingFile?.let { Files.deleteIfExists(it) }
+        writingFile = null
+        sealedFiles.forEach { Files.deleteIfExists(it) }
+        sealedFiles.clear()
+        count.set(0)
+    }
+
+    @Synchronized
+    override fun close() = clear()
+
+    private fun openWriter(): DataOutputStream {
+        val path = directory.resolve(String.format("%08d.spill", ++fileSequence))
+        writingFile = path
+        writingRecords = 0
+        return DataOutputStream(BufferedOutputStream(Files.newOutputStream(path))).also { writer = it }
+    }
+
+    private fun sealWritingFile() {
+        val path = writingFile ?: return
+        writer?.close()
+        writer = null
+        writingFile = null
+        sealedFiles.add(path)
+    }
+
+    /**
+     * Open the eldest sealed file, seal the writing file if there is no sealed file.
+     * */
+    private fun openReader(): DataInputStream? {
+        if (sealedFiles.isEmpty()) {
+            sealWritingFile()
+        }
+
+        val path = sealedFiles.pollFirst() ?: return null
+        readingFile = path
+        return DataInputStream(BufferedInputStream(Files.newInputStream(path))).also { reader = it }
+    }
+
+    private fun closeReader() {
+        reader?.close()
+        reader = null
+        readingFile?.let { path ->
+            runCatching { Files.deleteIfExists(path) }.onFailure { logger.warn("Failed to delete {}", path) }
+        }
+        readingFile = null
+    }
+}
+
+/**
+ * A url queue keeps at most [capacity] urls in the in-memory [head], the overflowed urls are spilled to the
+ * [store] and loaded back lazily as the head drains.
+ *
+ * Once urls are spilled, new urls are spilled too until the store is drained, so the order in which the urls
+ * reach the head is kept. The head decides the reentrance semantics when the urls reach it, so a spilled url
+ * might be dropped later by a non-reentrant head.
+ *
+ * Urls which can not be encoded by [UrlAwareCodec] are always kept in the head.
+ *
+ * The handoff between the head and the store is atomic, offer, poll and peek are serialized, so a url offered
+ * concurrently with a reload can not jump ahead of the spilled urls.
+ * */
+class SpillingQueue(
+    val head: Queue<UrlAware>,
+    val store: UrlSpillStore,
+    val capacity: Int = LoadingQueue.DEFAULT_CAPACITY
+) : AbstractQueue<UrlAware>() {
+    private val logger = LoggerFactory.getLogger(SpillingQueue::class.java)
+
+    /**
+     * The number of urls both in memory and on disk
+     * */
+    override val size: Int get() = head.size + store.size
+
+    /**
+     * The number of urls on disk
+     * */
+    val spilledSize: Int get() = store.size
+
+    @Synchronized
+    override fun offer(url: UrlAware): Boolean {
+        if (!UrlAwareCodec.canEncode(url) || (store.size == 0 && head.size < capacity)) {
+            return head.offer(url)
+        }
+
+        return try {
+            store.append(url)
+            true
+        } catch (e: IOException) {
+            logger.warn("Failed to spill url, keep it in memory | {}", e.message)
+            head.offer(url)
+        }
+    }
+
+    @Synchronized
+    override fun poll(): UrlAware? {
+        reloadIfNecessary()
+        return head.poll() ?: reload().let { head.poll() }
+    }
+
+    @Synchronized
+    override fun peek(): UrlAware? {
+        return head.peek() ?: reload().let { head.peek() }
+    }
+
+    /**
+     * Iterate over the urls in memory only.
+     * */
+    override fun iterator(): MutableIterator<UrlAware> = head.iterator()
+
+    @Synchronized
+    override fun clear() {
+        head.clear()
+        store.clear()
+    }
+
+    private fun reloadIfNecessary() {
+        if (store.size > 0 && head.size < capacity / 2) {
+            reload()
+        }
+    }
+
+    private fun reload() {
+        if (store.size == 0) {
+            return
+        }
+
+        try {
+            store.load(capacity - head.size).forEach { head.offer(it) }
+        } catch (e: IOException) {
+            logger.warn("Failed to load spilled urls | {}", e.message)
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package ai.platon.pulsar.common.concurrent
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.withTimeoutOrNull
+import java.time.Duration
+
+/**
+ * A suspending permit pool whose size can be changed at runtime.
+ *
+ * Tasks are admitted by [acquire] and leave by [release]. When no permit is available, [acquire] suspends
+ * until a permit is released, the waiter is resumed at once and no polling is involved.
+ *
+ * The number of permits is [capacity] minus the permits taken away by resource pressure: [shrink] halves the permits
+ * at most once in [shrinkInterval], and [grow] doubles them, so the pool backs off at a bounded rate and recovers quickly
+ * once the pressure is gone. The number of permits is never less than one, so the pool always makes progress.
+ * */
+class AdmissionController(
+    capacity: Int,
+    /**
+     * The min interval between two shrinks, the resource pressure is sampled much more often than it changes,
+     * and every sample in the interval sees the same pressure
+     * */
+    val shrinkInterval: Duration = Duration.ofSeconds(1),
+) {
+    private val lock = Any()
+    private val waiters = ArrayDeque<CompletableDeferred<Unit>>()
+    private var acquired = 0
+    private var throttled = 0
+    private var _capacity = capacity.coerceAtLeast(1)
+    private var lastShrinkTime: Long? = null
+
+    /**
+     * The number of permits when there is no resource pressure
+     * */
+    var capacity: Int
+        get() = _capacity
+        set(value) {
+            synchronized(lock) {
+                _capacity = value.coerceAtLeast(1)
+                throttled = throttled.coerceAtMost(_capacity - 1)
+                dispatch()
+            }
+        }
+
+    /**
+     * The permit limit, the max number of permits which can be held at the same time, it's [capacity] minus
+     * [numThrottled], and the permits available to be acquired are this value minus [numAcquired]
+     * */
+    val numPermits: Int get() = synchronized(lock) { permits() }
+
+    /**
+     * The number of permits taken away by resource pressure
+     * */
+    val numThrottled: Int get() = synchronized(lock) { throttled }
+
+    /**
+     * The number of permits held by running tasks
+     * */
+    val numAcquired: Int get() = synchronized(lock) { acquired }
+
+    /**
+     * The number of tasks waiting for a permit
+     * */
+    val numWaiters: Int get() = synchronized(lock) { waiters.size }
+
+    /**
+     * Acquire a permit if one is available, without suspending.
+     * */
+    fun tryAcquire(): Boolean {
+        synchronized(lock) {
+            if (waiters.isEmpty() && acquired < permits()) {
+                ++acquired
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Acquire a permit, suspending until one is available.
+     *
+     * Waiters are admitted in FIFO order. If the caller is cancelled while waiting, no permit is held on return.
+     * */
+    suspend fun acquire() {
+        val waiter = CompletableDeferred<Unit>()
+        synchronized(lock) {
+            if (waiters.isEmpty() && acquired < permits()) {
+                ++acquired
+                return
+            }
+            waiters.addLast(waiter)
+        }
+
+        try {
+            waiter.await()
+        } catch (e: CancellationException) {
+            synchronized(lock) {
+                if (!waiters.remove(waiter)) {
+                    // the permit has been handed over just before the cancellation, give it back
+                    --acquired
+                    dispatch()
+                }
+            }
+            throw e
+        }
+    }
+
+    /**
+     * Acquire a permit, suspending until one is available or the timeout elapses.
+     *
+     * @return true if a permit is acquired, false if the timeout elapses
+     * */
+    suspend fun acquire(timeout: Duration): Boolean {
+        val waiter = CompletableDeferred<Unit>()
+        synchronized(lock) {
+            if (waiters.isEmpty() && acquired < permits()) {
+                ++acquired
+                return true
+            }
+            waiters.addLast(waiter)
+        }
+
+        try {
+            if (withTimeoutOrNull(timeout.toMillis()) { waiter.await() } != null) {
+                return true
+            }
+        } catch (e: CancellationException) {
+            synchronized(lock) {
+                if (!waiters.remove(waiter)) {
+                    --acquired
+                    dispatch()
+                }
+            }
+            throw e
+        }
+
+        // the permit might be handed over right after the timeout
+        return synchronized(lock) { !waiters.remove(waiter) }
+    }
+
+    /**
+     * Release a permit, the first waiter, if any, is admitted immediately.
+     * */
+    fun release() {
+        synchronized(lock) {
+            check(acquired > 0) { "No permit to release" }
+            --acquired
+            dispatch()
+        }
+    }
+
+    /**
+     * Halve the permits because of resource pressure, running tasks are not affected,
+     * but no new task is admitted until the number of running tasks drops below the new limit.
+     *
+     * The permits are halved at most once in [shrinkInterval], the later calls in the interval are ignored.
+     *
+     * @return true if the permits are halved
+     * */
+    fun shrink(): Boolean {
+        synchronized(lock) {
+            val now = System.nanoTime()
+            val last = lastShrinkTime
+            if (last != null && now - last < shrinkInterval.toNanos()) {
+                return false
+            }
+
+            lastShrinkTime = now
+            val permits = (permits() / 2).coerceAtLeast(1)
+            throttled = _capacity - permits
+            return true
+        }
+    }
+
+    /**
+     * Double the permits taken away by resource pressure, up to [capacity], and admit waiters if possible.
+     * */
+    fun grow() {
+        synchronized(lock) {
+            grow(permits())
+        }
+    }
+
+    /**
+     * Give back [n] permits taken away by resource pressure, and admit waiters if possible.
+     * */
+    fun grow(n: Int) {
+        synchronized(lock) {
+            if (throttled > 0) {
+                throttled = (throttled - n).coerceAtLeast(0)
+                dispatch()
+            }
+        }
+    }
+
+    override fun toString(): String {
+        return synchronized(lock) {
+            "permits: ${permits()}/$_capacity acquired: $acquired waiters: ${waiters.size}"
+        }
+    }
+
+    private fun permits() = (_capacity - throttled).coerceAtLeast(1)
+
+    /**
+     * Hand over the available permits to the waiters, must be called with the lock held.
+     * */
+    private fun dispatch() {
+        while (acquired < permits() && waiters.isNotEmpty()) {
+            ++acquired
+            waiters.removeFirst().complete(Unit)
+        }
+    }
+}
@@ -18,19 +18,50 @@ class ExpiringItem<T>(
     }
 }
 
+/**
+ * A concurrent LRU cache whose items expire after [ttl].
+ *
+ * The cache is backed by a [ConcurrentStripedLRUCache], every item records its own expiry timestamp,
+ * and threads accessing different segments never contend.
+ *
+ * The cache is bounded by [capacity], and also by [maxWeight] if a [weigher] is specified.
+ * */
 class ConcurrentExpiringLRUCache<K, T>(
     val ttl: Duration = CACHE_TTL,
     val capacity: Int = CACHE_CAPACITY,
+    /**
+     * The max total weight of the cache, the weight is not bounded if it's zero or negative
+     * */
+    val maxWeight: Long = 0,
+    /**
+     * Estimate the weight of a datum, for example, the retained size in bytes
+     * */
+    weigher: ((K, T) -> Long)? = null
 ) {
     companion object {
         val CACHE_TTL = Duration.ofMinutes(5)
         const val CACHE_CAPACITY = 200
     }
 
-    private val cache = ConcurrentLRUCache<K, ExpiringItem<T>>(ttl.seconds, capacity)
+    private val cache = ConcurrentStripedLRUCache<K, ExpiringItem<T>>(
+        ttl, capacity,
+        maxWeight = maxWeight,
+        weigher = weigher?.let { w -> { key: K, item: ExpiringItem<T> -> w(key, item.datum) } }
+    )
 
     val size get() = cache.size
 
+    /**
+     * The total weight of all items, it's always zero if no weigher is specified
+     * */
+    val weight get() = cache.weight
+
+    val hitCount get() = cache.hitCount
+
+    val missCount get() = cache.missCount
+
+    val evictionCount get() = cache.evictionCount
+
     fun put(key: K, item: ExpiringItem<T>) {
         cache.put(key, item)
     }
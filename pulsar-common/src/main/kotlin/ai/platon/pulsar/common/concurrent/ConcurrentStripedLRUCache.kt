@@ -0,0 +1,261 @@
+package ai.platon.pulsar.common.concurrent
+
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * A lock striped LRU cache with per-entry expiry support.
+ *
+ * The cache is split into segments by the key's hash, each segment is an access ordered [LinkedHashMap]
+ * guarded by its own lock, so threads accessing different segments never contend. The eviction is LRU
+ * within a segment, which is a close approximation of the global LRU if the keys are well distributed.
+ *
+ * Every entry records its own expiry timestamp, an expired entry is removed when it's accessed.
+ *
+ * If a [weigher] is specified, every entry records its own weight, and the eldest entries are evicted once
+ * the total weight exceeds [maxWeight], so the cache can be bounded by the estimated memory usage besides the
+ * number of entries.
+ *
+ * Unlike [ConcurrentLRUCache], [computeIfAbsent] runs the mapping function without holding any lock,
+ * if two threads compute the same key at the same time, the first value put into the cache wins.
+ */
+class ConcurrentStripedLRUCache<K, V : Any>(
+    /**
+     * Time to live for items, items never expire if the ttl is zero or negative
+     * */
+    val ttl: Duration,
+    /**
+     * The max size of the cache
+     * */
+    val capacity: Int,
+    /**
+     * The expected number of concurrently accessing threads, it's a hint for the number of segments
+     * */
+    concurrencyLevel: Int = DEFAULT_CONCURRENCY_LEVEL,
+    /**
+     * The max total weight of the cache, the weight is not bounded if it's zero or negative
+     * */
+    val maxWeight: Long = 0,
+    /**
+     * Estimate the weight of an entry, for example, the retained size in bytes
+     * */
+    private val weigher: ((K, V) -> Long)? = null
+) {
+    companion object {
+        const val DEFAULT_CONCURRENCY_LEVEL = 16
+        /**
+         * The min number of entries in a segment, small caches have fewer segments to keep the LRU order meaningful
+         * */
+        const val MIN_SEGMENT_CAPACITY = 8
+    }
+
+    private class Entry<V>(val value: V, val expireAt: Long, val weight: Long)
+
+    private inner class Segment(val capacity: Int, val maxWeight: Long) {
+        var weight = 0L
+
+        val map = object : LinkedHashMap<K, Entry<V>>(capacity, 0.75f, true) {
+            override fun removeEldestEntry(eldest: Map.Entry<K, Entry<V>>): Boolean {
+                if (size > this@Segment.capacity) {
+                    weight -= eldest.value.weight
+                    evictions.increment()
+                    return true
+                }
+                return false
+            }
+        }
+
+        fun put(key: K, entry: Entry<V>): Entry<V>? {
+            weight += entry.weight
+            val old = map.put(key, entry)
+            if (old != null) {
+                weight -= old.weight
+            }
+            evictOverweight()
+            return old
+        }
+
+        fun remove(key: K): Entry<V>? {
+            return map.remove(key)?.also { weight -= it.weight }
+        }
+
+        fun clear() {
+            map.clear()
+            weight = 0L
+        }
+
+        private fun evictOverweight() {
+            if (maxWeight <= 0) {
+                return
+            }
+
+            // the most recently used entry is always kept, even if it's overweight itself
+            val it = map.values.iterator()
+            while (weight > maxWeight && map.size > 1 && it.hasNext()) {
+                weight -= it.next().weight
+                it.remove()
+                evictions.increment()
+            }
+        }
+    }
+
+    private val ttlMillis = ttl.toMillis()
+    private val segmentShift: Int
+    private val segments: List<Segment>
+
+    private val hits = LongAdder()
+    private val misses = LongAdder()
+    private val evictions = LongAdder()
+
+    val size get() = segments.sumOf { synchronized(it) { it.map.size } }
+
+    /**
+     * The total weight of all entries, it's always zero if no weigher is specified
+     * */
+    val weight get() = segments.sumOf { synchronized(it) { it.weight } }
+
+    /**
+     * The sum of the segment capacities, it equals to [capacity]
+     * */
+    internal val totalSegmentCapacity get() = segments.sumOf { it.capacity }
+
+    val hitCount get() = hits.sum()
+
+    val missCount get() = misses.sum()
+
+    val evictionCount get() = evictions.sum()
+
+    init {
+        require(capacity >= 0) { "Capacity must not be negative" }
+
+        val maxSegments = (capacity / MIN_SEGMENT_CAPACITY).coerceIn(1, concurrencyLevel.coerceAtLeast(1))
+        val numSegments = Integer.highestOneBit(maxSegments)
+        // the first capacity % numSegments segments take one more entry, so the total equals the capacity exactly
+        val segmentCapacity = capacity / numSegments
+        val remainder = capacity % numSegments
+        val segmentMaxWeight = if (maxWeight > 0) (maxWeight / numSegments).coerceAtLeast(1L) else 0L
+        segmentShift = 32 - Integer.numberOfTrailingZeros(numSegments)
+        segments = List(numSegments) { i ->
+            Segment(if (i < remainder) segmentCapacity + 1 else segmentCapacity, segmentMaxWeight)
+        }
+    }
+
+    constructor(capacity: Int) : this(Duration.ZERO, capacity)
+
+    operator fun get(key: K): V? {
+        val segment = segmentFor(key)
+        synchronized(segment) {
+            val entry = segment.map[key]
+            if (entry == null) {
+                misses.increment()
+                return null
+            }
+
+            if (isExpired(entry)) {
+                segment.remove(key)
+                misses.increment()
+                return null
+            }
+
+            hits.increment()
+            return entry.value
+        }
+    }
+
+    fun put(key: K, value: V): V? {
+        val segment = segmentFor(key)
+        val entry = createEntry(key, value)
+        synchronized(segment) {
+            return segment.put(key, entry)?.takeUnless { isExpired(it) }?.value
+        }
+    }
+
+    /**
+     * Remove the eldest entry of the first non-empty segment.
+     * */
+    fun remove(): V? {
+        for (segment in segments) {
+            synchronized(segment) {
+                val key = segment.map.keys.firstOrNull()
+                if (key != null) {
+                    return segment.remove(key)?.value
+                }
+            }
+        }
+
+        return null
+    }
+
+    fun remove(key: K): V? {
+        val segment = segmentFor(key)
+        synchronized(segment) { return segment.remove(key)?.value }
+    }
+
+    fun computeIfAbsent(key: K, mappingFunction: (K) -> V): V {
+        val value = get(key)
+        if (value != null) {
+            return value
+        }
+
+        // the mapping function is called without holding the lock
+        val newValue = mappingFunction(key)
+        val newEntry = createEntry(key, newValue)
+        val segment = segmentFor(key)
+        synchronized(segment) {
+            val entry = segment.map[key]
+            if (entry != null && !isExpired(entry)) {
+                return entry.value
+            }
+            segment.put(key, newEntry)
+        }
+
+        return newValue
+    }
+
+    /**
+     * Remove all the expired entries.
+     * */
+    fun removeExpired() {
+        val now = System.currentTimeMillis()
+        segments.forEach { segment ->
+            synchronized(segment) {
+                val it = segment.map.values.iterator()
+                while (it.hasNext()) {
+                    val entry = it.next()
+                    if (isExpired(entry, now)) {
+                        segment.weight -= entry.weight
+                        it.remove()
+                    }
+                }
+            }
+        }
+    }
+
+    fun clear() = segments.forEach { synchronized(it) { it.clear() } }
+
+    private fun segmentFor(key: K): Segment {
+        if (segments.size == 1) {
+            return segments[0]
+        }
+
+        // spread the hash code by Fibonacci hashing, the top bits select the segment
+        var h = key.hashCode()
+        h = h xor (h ushr 16)
+        h *= -0x61c88647
+        return segments[h ushr segmentShift]
+    }
+
+    private fun createEntry(key: K, value: V): Entry<V> {
+        val weight = weigher?.invoke(key, value)?.coerceAtLeast(0L) ?: 0L
+        return Entry(value, computeExpireAt(), weight)
+    }
+
+    private fun computeExpireAt(): Long {
+        return if (ttlMillis > 0) System.currentTimeMillis() + ttlMillis else Long.MAX_VALUE
+    }
+
+    private fun isExpired(entry: Entry<V>, now: Long = System.currentTimeMillis()): Boolean {
+        return entry.expireAt < now
+    }
+}
@@ -0,0 +1,113 @@
+package ai.platon.pulsar.common.measure
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock free latency histogram with log-linear buckets, the values are recorded in nanoseconds.
+ *
+ * Values less than [SUB_BUCKETS] are recorded exactly, and each power of two above is split into [SUB_BUCKETS]
+ * linear sub-buckets, so the relative error of a percentile is less than 1 / [SUB_BUCKETS]. Unlike a reservoir,
+ * the memory usage is fixed and the tail latency is never sampled away.
+ *
+ * This class is thread safe.
+ * */
+class LatencyHistogram {
+    companion object {
+        const val SUB_BUCKET_BITS = 5
+        const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        /**
+         * Exact buckets, plus [SUB_BUCKETS] sub-buckets for every exponent from [SUB_BUCKET_BITS] to 62
+         * */
+        const val NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS
+
+        fun bucketIndex(value: Long): Int {
+            val v = value.coerceAtLeast(0)
+            if (v < SUB_BUCKETS) {
+                return v.toInt()
+            }
+
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(v)
+            val shift = exponent - SUB_BUCKET_BITS
+            val subBucket = (v ushr shift).toInt() - SUB_BUCKETS
+            return (shift + 1) * SUB_BUCKETS + subBucket
+        }
+
+        /**
+         * The middle value of the bucket, it's the value reported for all the values recorded in the bucket.
+         * */
+        fun bucketValue(index: Int): Long {
+            if (index < SUB_BUCKETS) {
+                return index.toLong()
+            }
+
+            val shift = index / SUB_BUCKETS - 1
+            val lower = (SUB_BUCKETS + index % SUB_BUCKETS).toLong() shl shift
+            return lower + ((1L shl shift) - 1) / 2
+        }
+    }
+
+    private val buckets = AtomicLongArray(NUM_BUCKETS)
+    private val totalCount = AtomicLong()
+    private val totalNanos = AtomicLong()
+    private val maxNanos = AtomicLong()
+
+    /**
+     * The number of recorded values
+     * */
+    val count get() = totalCount.get()
+
+    val mean: Duration get() = Duration.ofNanos(totalNanos.get() / count.coerceAtLeast(1))
+
+    val max: Duration get() = Duration.ofNanos(maxNanos.get())
+
+    val p50 get() = percentile(0.5)
+
+    val p99 get() = percentile(0.99)
+
+    /**
+     * Record a latency in nanoseconds, negative values are recorded as zero.
+     * */
+    fun record(nanos: Long) {
+        val v = nanos.coerceAtLeast(0)
+        buckets.incrementAndGet(bucketIndex(v))
+        totalCount.incrementAndGet()
+        totalNanos.addAndGet(v)
+        maxNanos.accumulateAndGet(v) { a, b -> maxOf(a, b) }
+    }
+
+    fun record(duration: Duration) = record(duration.toNanos())
+
+    /**
+     * The latency at the given percentile, [percentile] is in range [0.0, 1.0].
+     *
+     * @return the latency, or zero if nothing is recorded
+     * */
+    fun percentile(percentile: Double): Duration {
+        val total = count
+        if (total == 0L) {
+            return Duration.ZERO
+        }
+
+        val rank = Math.ceil(percentile.coerceIn(0.0, 1.0) * total).toLong().coerceAtLeast(1)
+        var accumulated = 0L
+        for (i in 0 until NUM_BUCKETS) {
+            accumulated += buckets.get(i)
+            if (accumulated >= rank) {
+                return Duration.ofNanos(minOf(bucketValue(i), maxNanos.get()))
+            }
+        }
+
+        return max
+    }
+
+    fun reset() {
+        for (i in 0 until NUM_BUCKETS) {
+            buckets.set(i, 0)
+        }
+        totalCount.set(0)
+        totalNanos.set(0)
+        maxNanos.set(0)
+    }
+}
@@ -0,0 +1,134 @@
+package ai.platon.pulsar.common.measure
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * The stages of the load pipeline, a stage might be nested in another one, for example,
+ * [FEATURE] is a part of [INTERACT], and [NAVIGATE] is a part of [FETCH].
+ * */
+enum class LoadStage(val label: String) {
+    /**
+     * The whole load, from the page shell creation to the persist
+     * */
+    LOAD("load"),
+    /**
+     * Normalize the url or a batch of urls before the load, the page is not created yet, so the stage is recorded
+     * by the stage histogram only, and it's not a part of the stage timings of a page
+     * */
+    NORMALIZE("normalize"),
+    /**
+     * Look up the page in the page cache and in the database
+     * */
+    CACHE_LOOKUP("cacheLookup"),
+    /**
+     * Fetch the page, including waiting for a driver and browsing
+     * */
+    FETCH("fetch"),
+    /**
+     * Wait for a web driver from the driver pool
+     * */
+    DRIVER_POLL("driverPoll"),
+    /**
+     * Browse the page with a web driver
+     * */
+    BROWSE("browse"),
+    NAVIGATE("navigate"),
+    INTERACT("interact"),
+    /**
+     * Compute the document features in the browser
+     * */
+    FEATURE("feature"),
+    /**
+     * Retrieve the page source from the browser
+     * */
+    PAGE_SOURCE("pageSource"),
+    PARSE("parse"),
+    PERSIST("persist"),
+}
+
+/**
+ * The time spent in each stage when loading a page.
+ *
+ * This class is thread safe.
+ * */
+class StageTimings {
+    private val nanos = AtomicLongArray(LoadStage.values().size)
+
+    fun add(stage: LoadStage, nanos: Long) {
+        this.nanos.addAndGet(stage.ordinal, nanos)
+    }
+
+    operator fun get(stage: LoadStage): Duration = Duration.ofNanos(nanos.get(stage.ordinal))
+
+    /**
+     * Format the stages taking time in milliseconds, for example, `fetch:3201.52,navigate:2301.07,parse:35.2`.
+     * */
+    fun format(): String {
+        return LoadStage.values().filter { nanos.get(it.ordinal) > 0 }
+            .joinToString(",") { "${it.label}:${nanos.get(it.ordinal) / 10_000 / 100.0}" }
+    }
+
+    override fun toString() = format()
+}
+
+/**
+ * A lightweight span API to measure the latency of the load pipeline stages.
+ *
+ * A span records the time of a stage to the histogram of the stage, and to the [StageTimings] of the page if
+ * provided. Tracing is disabled by default, a disabled span costs a volatile read.
+ *
+ * Usage:
+ * ```kotlin
+ * val result = LoadSpans.trace(LoadStage.PARSE, page.stageTimings) { parser.parse(page) }
+ * ```
+ * */
+object LoadSpans {
+    @Volatile
+    @JvmStatic
+    var isEnabled = false
+
+    private val histograms = LoadStage.values().map { LatencyHistogram() }
+
+    fun histogram(stage: LoadStage) = histograms[stage.ordinal]
+
+    fun record(stage: LoadStage, nanos: Long, timings: StageTimings? = null) {
+        histograms[stage.ordinal].record(nanos)
+        timings?.add(stage, nanos)
+    }
+
+    /**
+     * Run [block] and record its time as a span of [stage], the span is recorded even if [block] throws.
+     * */
+    inline fun <T> trace(stage: LoadStage, timings: StageTimings? = null, block: () -> T): T {
+        if (!isEnabled) {
+            return block()
+        }
+
+        val startTime = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(stage, System.nanoTime() - startTime, timings)
+        }
+    }
+
+    /**
+     * Format the latency percentiles of the traced stages as a table.
+     * */
+    fun format(): String {
+        val sb = StringBuilder()
+        sb.append(String.format("%-12s %8s %10s %10s %10s\n", "stage", "count", "p50(ms)", "p99(ms)", "max(ms)"))
+        LoadStage.values().map { it to histogram(it) }.filter { it.second.count > 0 }.forEach { (stage, h) ->
+            sb.append(String.format("%-12s %8d %10.2f %10.2f %10.2f\n",
+                stage.label, h.count, millis(h.p50), millis(h.p99), millis(h.max)))
+        }
+        return sb.toString()
+    }
+
+    fun reset() {
+        histograms.forEach { it.reset() }
+    }
+
+    private fun millis(duration: Duration) = duration.toNanos() / 1e6
+}
@@ -1,19 +1,34 @@
 package ai.platon.pulsar.common.proxy
 
 import ai.platon.pulsar.common.AppPaths
+import ai.platon.pulsar.common.config.CapabilityTypes.*
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.readable
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
 import org.slf4j.LoggerFactory
 import java.io.IOException
 import java.nio.file.Files
 import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Manage all external proxies.
  * Check all unavailable proxies, recover them if possible.
  * This might take a long time, so it should be run in a separate thread.
+ *
+ * If [PROXY_POOL_ASYNC] is enabled, the pool works in async mode:
+ * 1. the pool is refilled by a background thread before the free proxies run out
+ * 2. the caller never waits for the proxy vendor, [takeDeferred] suspends until a refill is done
+ * 3. the proxy with the highest [ProxyEntry.healthScore] is taken first, instead of the FIFO order
  */
 class LoadingProxyPool(
         val proxyLoader: ProxyLoader,
@@ -25,16 +40,41 @@ class LoadingProxyPool(
     private val bannedIps get() = proxyLoader.bannedIps
     private val bannedSegments get() = proxyLoader.bannedSegments
 
+    private val maxRetry = 10
+
+    val isAsync = conf.getBoolean(PROXY_POOL_ASYNC, false)
+    private val refillThreshold = conf.getInt(PROXY_POOL_REFILL_THRESHOLD, 5)
+    private val refillInterval = conf.getDuration(PROXY_POOL_REFILL_INTERVAL, Duration.ofSeconds(1))
+    private val refilling = AtomicBoolean()
+    @Volatile
+    private var lastRefillTime = Instant.EPOCH
+    /**
+     * Increased after every refill, waiting takers are woken up when it changes
+     * */
+    private val refillSequence = MutableStateFlow(0L)
+    private val refillExecutor = lazy {
+        val threadFactory = ThreadFactoryBuilder().setNameFormat("proxy-refill-%d").setDaemon(true).build()
+        Executors.newSingleThreadExecutor(threadFactory)
+    }
+
+    /**
+     * The number of background refills
+     * */
+    val numRefills = AtomicInteger()
+
     /**
      * Try to take a proxy from the pool, if the pool is empty, load proxies using a [ProxyLoader].
      *
      * */
     @Throws(ProxyException::class, InterruptedException::class)
     override fun take(): ProxyEntry? {
+        if (isAsync) {
+            return runBlocking { takeDeferred() }
+        }
+
         lastActiveTime = Instant.now()
 
         var i = 0
-        val maxRetry = 10
         var proxy: ProxyEntry? = null
         while (isActive && proxy == null && i++ < maxRetry && !Thread.currentThread().isInterrupted) {
             if (freeProxies.isEmpty()) {
@@ -49,6 +89,29 @@ class LoadingProxyPool(
         return proxy
     }
 
+    /**
+     * Take the healthiest proxy in async mode, the caller suspends rather than waiting for the proxy vendor.
+     * */
+    @Throws(ProxyException::class)
+    override suspend fun takeDeferred(): ProxyEntry? {
+        if (!isAsync) {
+            return super.takeDeferred()
+        }
+
+        lastActiveTime = Instant.now()
+
+        var i = 0
+        while (isActive && i++ < maxRetry) {
+            val sequence = refillSequence.value
+            pollHealthiest()?.let { return it }
+
+            // suspend until the next refill is done or timeout
+            withTimeoutOrNull(pollingTimeout.toMillis()) { refillSequence.first { it != sequence } }
+        }
+
+        return null
+    }
+
     /**
      * The proxy may be recovered later
      */
@@ -137,6 +200,73 @@ class LoadingProxyPool(
         }
     }
 
+    /**
+     * Take the free proxy with the highest health score, a refill is started if the pool is running out.
+     * */
+    private fun pollHealthiest(): ProxyEntry? {
+        while (isActive) {
+            refillIfNecessary()
+
+            val proxy = freeProxies.maxByOrNull { it.healthScore } ?: return null
+            if (!freeProxies.remove(proxy)) {
+                // taken by another thread
+                continue
+            }
+
+            if (handleBanState(proxy).isBanned) {
+                numProxyBanned++
+                logger.info("Proxy is banned | bp: {}, bh: {}, bs: {} | {}",
+                    numProxyBanned, bannedIps.size, bannedSegments.size, proxy.display)
+                continue
+            }
+
+            if (freeProxies.size < refillThreshold) {
+                refillIfNecessary()
+            }
+
+            return proxy
+        }
+
+        return null
+    }
+
+    private fun refillIfNecessary() {
+        if (freeProxies.size >= refillThreshold || !isActive) {
+            return
+        }
+
+        if (Duration.between(lastRefillTime, Instant.now()) < refillInterval) {
+            return
+        }
+
+        if (refilling.compareAndSet(false, true)) {
+            refillExecutor.value.execute { refill() }
+        }
+    }
+
+    private fun refill() {
+        try {
+            load()
+            numRefills.incrementAndGet()
+        } catch (e: ProxyException) {
+            logger.warn("Failed to refill proxy pool | {}", e.message)
+        } catch (t: Throwable) {
+            logger.warn("Unexpected exception when refill proxy pool", t)
+        } finally {
+            lastRefillTime = Instant.now()
+            refilling.set(false)
+            refillSequence.update { it + 1 }
+        }
+    }
+
+    override fun close() {
+        super.close()
+
+        if (refillExecutor.isInitialized()) {
+            refillExecutor.value.shutdownNow()
+        }
+    }
+
     override fun dump() {
         synchronized(AppPaths.PROXY_ARCHIVE_DIR) {
             try {
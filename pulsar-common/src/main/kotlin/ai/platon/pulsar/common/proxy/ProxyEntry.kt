@@ -115,9 +115,12 @@ open class ProxyEntry(
     val numFailedPages = AtomicInteger()
     // number of success pages
     val numSuccessPages = AtomicInteger()
+    // accumulated response time of success pages
+    val accumPageMillis = AtomicLong()
     val servedDomains = ConcurrentHashMultiset.create<String>()
     val status = AtomicReference(Status.FREE)
     val testSpeed get() = accumResponseMillis.get() / numTests.get().coerceAtLeast(1) / 1000.0
+    val pageSpeed get() = accumPageMillis.get() / numSuccessPages.get().coerceAtLeast(1) / 1000.0
     val ttl get() = declaredTTL ?: (availableTime + PROXY_EXPIRED)
     val ttlDuration get() = Duration.between(Instant.now(), ttl).takeIf { !it.isNegative }
     val isExpired get() = willExpireAt(Instant.now())
@@ -141,6 +144,32 @@ open class ProxyEntry(
      * Note: idle proxy can still be ready. It's very common to visit a web page for more than 10 minutes.
      * */
     val isReady get() = !isGone && !isExpired && !isRetired && !isBanned
+    /**
+     * The health score in [0, 1], a proxy with a higher score is preferred.
+     *
+     * The score is the product of:
+     * 1. the success rate of pages, smoothed so a new proxy starts at 0.5
+     * 2. a penalty of the continuous connection losses
+     * 3. a penalty of the latency, the page latency is used if any, otherwise the test latency
+     * 4. the remaining time to live, a proxy expiring soon is less preferred
+     *
+     * A proxy which is not ready scores 0.
+     * */
+    val healthScore: Double get() {
+        if (!isReady) {
+            return 0.0
+        }
+
+        val numSuccess = numSuccessPages.get()
+        val successRate = (numSuccess + 1.0) / (numSuccess + numFailedPages.get() + 2.0)
+        val connectionFactor = 1.0 / (1 + numConnectionLosses.get())
+        val latency = if (numSuccess > 0) pageSpeed else testSpeed
+        val latencyFactor = 1.0 / (1 + latency / HEALTH_LATENCY_BASE_SECONDS)
+        val ttlSeconds = ttlDuration?.seconds ?: 0
+        val ttlFactor = ttlSeconds.coerceAtMost(HEALTH_TTL_BASE_SECONDS) / HEALTH_TTL_BASE_SECONDS.toDouble()
+
+        return successRate * connectionFactor * latencyFactor * ttlFactor
+    }
     
     /**
      * Get the readable proxy state.
@@ -321,6 +350,10 @@ open class ProxyEntry(
         // if a proxy server can not be connected in an hour, we announce it's dead and remove it from the file
         private val MISSING_PROXY_DEAD_TIME = Duration.ofHours(1)
         private const val DEFAULT_PROXY_SERVER_PORT = 80
+        // a proxy with this latency scores half of a proxy without latency
+        private const val HEALTH_LATENCY_BASE_SECONDS = 5.0
+        // a proxy lives longer than this time is not preferred any more
+        private const val HEALTH_TTL_BASE_SECONDS = 300L
         const val PROXY_TEST_WEB_SITES_FILE = "proxy.test.web.sites.txt"
         val DEFAULT_TEST_URL = URL("https://www.baidu.com")
         // Jan 2 18:06 2021, there is a strange bug in mutableSetOf<URL>(), add items to the set hungs up the process
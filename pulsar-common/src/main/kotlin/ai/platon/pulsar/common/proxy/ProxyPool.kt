@@ -4,6 +4,8 @@ import ai.platon.pulsar.common.*
 import ai.platon.pulsar.common.config.CapabilityTypes.PROXY_POOL_CAPACITY
 import ai.platon.pulsar.common.config.CapabilityTypes.PROXY_POOL_POLLING_TIMEOUT
 import ai.platon.pulsar.common.config.ImmutableConfig
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
 import org.slf4j.LoggerFactory
 import java.io.IOException
 import java.nio.file.Files
@@ -69,6 +71,16 @@ open class ProxyPool(conf: ImmutableConfig): AutoCloseable {
         return null
     }
 
+    /**
+     * Take a proxy from the pool without blocking the caller thread.
+     *
+     * The default implementation runs the blocking [take] in the IO dispatcher.
+     * */
+    @Throws(ProxyException::class)
+    open suspend fun takeDeferred(): ProxyEntry? {
+        return runInterruptible(Dispatchers.IO) { take() }
+    }
+
     /**
      * The proxy may be recovered later
      */
@@ -0,0 +1,89 @@
+package ai.platon.pulsar.common
+
+import ai.platon.pulsar.common.concurrent.AdmissionController
+import kotlinx.coroutines.*
+import java.time.Duration
+import kotlin.test.*
+
+class TestAdmissionController {
+
+    @Test
+    fun whenPermitIsReleased_ThenWaiterIsAdmittedImmediately() = runBlocking {
+        val admission = AdmissionController(2)
+        admission.acquire()
+        admission.acquire()
+        assertFalse { admission.tryAcquire() }
+
+        val waiter = launch { admission.acquire() }
+        yield()
+        assertEquals(1, admission.numWaiters)
+
+        admission.release()
+        withTimeout(1000) { waiter.join() }
+        assertEquals(0, admission.numWaiters)
+        assertEquals(2, admission.numAcquired)
+    }
+
+    @Test
+    fun whenShrinkAndGrow_ThenPermitsAreChanged() = runBlocking {
+        val admission = AdmissionController(8, shrinkInterval = Duration.ZERO)
+        admission.shrink()
+        assertEquals(4, admission.numPermits)
+        assertEquals(4, admission.numThrottled)
+        repeat(10) { admission.shrink() }
+        assertEquals(1, admission.numPermits)
+
+        admission.acquire()
+        assertFalse { admission.acquire(Duration.ofMillis(100)) }
+
+        val waiter = async { admission.acquire(Duration.ofSeconds(5)) }
+        yield()
+        admission.grow()
+        assertTrue { waiter.await() }
+        assertEquals(2, admission.numAcquired)
+
+        admission.grow(100)
+        assertEquals(8, admission.numPermits)
+    }
+
+    @Test
+    fun whenPressureIsSampledOften_ThenPermitsShrinkOncePerIntervalAndRecover() {
+        val admission = AdmissionController(16, shrinkInterval = Duration.ofMinutes(1))
+        // many critical samples in one interval
+        assertTrue { admission.shrink() }
+        repeat(100) { assertFalse { admission.shrink() } }
+        assertEquals(8, admission.numPermits)
+
+        // normal samples
+        admission.grow()
+        assertEquals(16, admission.numPermits)
+        assertEquals(0, admission.numThrottled)
+        admission.grow()
+        assertEquals(16, admission.numPermits)
+    }
+
+    @Test
+    fun whenPressureIsGone_ThenPermitsGrowMultiplicatively() {
+        val admission = AdmissionController(64, shrinkInterval = Duration.ZERO)
+        repeat(10) { admission.shrink() }
+        assertEquals(1, admission.numPermits)
+
+        val permits = generateSequence { admission.grow(); admission.numPermits }.take(6).toList()
+        assertEquals(listOf(2, 4, 8, 16, 32, 64), permits)
+    }
+
+    @Test
+    fun whenWaiterIsCancelled_ThenNoPermitIsLeaked() = runBlocking {
+        val admission = AdmissionController(1)
+        admission.acquire()
+
+        val waiter = launch { admission.acquire() }
+        yield()
+        waiter.cancelAndJoin()
+        assertEquals(0, admission.numWaiters)
+
+        admission.release()
+        assertEquals(0, admission.numAcquired)
+        assertTrue { admission.tryAcquire() }
+    }
+}
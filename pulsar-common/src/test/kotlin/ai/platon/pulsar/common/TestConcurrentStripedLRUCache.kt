@@ -0,0 +1,144 @@
+package ai.platon.pulsar.common
+
+import ai.platon.pulsar.common.concurrent.ConcurrentExpiringLRUCache
+import ai.platon.pulsar.common.concurrent.ConcurrentLRUCache
+import ai.platon.pulsar.common.concurrent.ConcurrentStripedLRUCache
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+import kotlin.test.*
+
+class TestConcurrentStripedLRUCache {
+
+    @Test
+    fun testSmallCacheIsLRU() {
+        val cache = ConcurrentStripedLRUCache<Int, String>(Duration.ofMinutes(10), 20)
+        for (i in 0 until 100) {
+            if (i > 10) {
+                // keep 1..4 fresh
+                (1..4).forEach { cache[it] }
+            }
+            cache.put(i, "a$i")
+        }
+
+        (1..4).forEach { assertNotNull(cache[it]) }
+        assertNull(cache[5])
+        assertNull(cache[6])
+        assertTrue { cache.size <= 20 }
+    }
+
+    @Test
+    fun testCapacityIsBounded() {
+        val cache = ConcurrentStripedLRUCache<Int, Int>(Duration.ZERO, 1000)
+        assertEquals(1000, cache.totalSegmentCapacity)
+        repeat(100_000) { cache.put(it, it) }
+        assertTrue("Size: ${cache.size}") { cache.size <= 1000 }
+        assertNotNull(cache[99_999])
+
+        // 200 is not a multiple of the 16 segments
+        listOf(200, 201, 7, 0).forEach { capacity ->
+            assertEquals(capacity, ConcurrentStripedLRUCache<Int, Int>(Duration.ZERO, capacity).totalSegmentCapacity)
+        }
+    }
+
+    @Test
+    fun testPerEntryExpiry() {
+        val cache = ConcurrentStripedLRUCache<Int, String>(Duration.ofMillis(200), 100)
+        cache.put(1, "a")
+        assertEquals("a", cache[1])
+        sleepMillis(300)
+        assertNull(cache[1])
+
+        assertEquals("b", cache.computeIfAbsent(1) { "b" })
+        assertEquals("b", cache.computeIfAbsent(1) { "c" })
+    }
+
+    @Test
+    fun testWeightIsBounded() {
+        val cache = ConcurrentStripedLRUCache<Int, String>(Duration.ZERO, 1000,
+            maxWeight = 10_000, weigher = { _, value -> value.length.toLong() })
+        repeat(1000) { cache.put(it, "a".repeat(100)) }
+
+        assertTrue("Weight: ${cache.weight}") { cache.weight <= 10_000 }
+        assertTrue { cache.evictionCount >= 900 }
+        assertNotNull(cache[999])
+
+        cache.clear()
+        assertEquals(0L, cache.weight)
+    }
+
+    @Test
+    fun testHitsAndMisses() {
+        val cache = ConcurrentExpiringLRUCache<String, Int>(Duration.ofMinutes(1), 10)
+        cache.putDatum("a", 1)
+        cache.getDatum("a")
+        cache.getDatum("b")
+        assertEquals(1L, cache.hitCount)
+        assertEquals(1L, cache.missCount)
+    }
+
+    @Test
+    fun testExpiringLRUCache() {
+        val cache = ConcurrentExpiringLRUCache<String, Int>(Duration.ofMinutes(1), 10)
+        cache.putDatum("a", 1)
+        assertTrue { cache.contains("a") }
+        assertEquals(1, cache.getDatum("a"))
+        assertEquals(2, cache.computeIfAbsent("b") { 2 })
+        cache.remove("a")
+        assertFalse { cache.contains("a") }
+    }
+
+    /**
+     * Compare the throughput of the global locked cache and the striped cache under contention.
+     * */
+    @Ignore("Time consuming task, should be run separately")
+    @Test
+    fun benchContention() {
+        val threads = 64
+        val opsPerThread = 200_000
+        val capacity = 200
+
+        val lruCache = ConcurrentLRUCache<Int, Int>(Duration.ofMinutes(5), capacity)
+        val lruMillis = bench(threads, opsPerThread) { key -> lruCache.computeIfAbsent(key) { it } }
+
+        val stripedCache = ConcurrentStripedLRUCache<Int, Int>(Duration.ofMinutes(5), capacity)
+        val stripedMillis = bench(threads, opsPerThread) { key -> stripedCache.computeIfAbsent(key) { it } }
+
+        println("Contention bench, $threads threads x $opsPerThread ops | " +
+                "ConcurrentLRUCache: ${lruMillis}ms, ConcurrentStripedLRUCache: ${stripedMillis}ms")
+    }
+
+    private fun bench(threads: Int, opsPerThread: Int, op: (Int) -> Int): Long {
+        val executor = Executors.newFixedThreadPool(threads)
+        val ready = CountDownLatch(threads)
+        val start = CountDownLatch(1)
+        val done = CountDownLatch(threads)
+        val checksum = AtomicInteger()
+
+        repeat(threads) {
+            executor.execute {
+                val random = Random(it)
+                var sum = 0
+                ready.countDown()
+                start.await()
+                repeat(opsPerThread) { sum += op(random.nextInt(400)) }
+                checksum.addAndGet(sum)
+                done.countDown()
+            }
+        }
+
+        ready.await()
+        val startTime = System.currentTimeMillis()
+        start.countDown()
+        done.await()
+        val elapsed = System.currentTimeMillis() - startTime
+
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+        assertTrue { checksum.get() != 0 }
+        return elapsed
+    }
+}
@@ -0,0 +1,71 @@
+package ai.platon.pulsar.common
+
+import ai.platon.pulsar.common.measure.LatencyHistogram
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
+import ai.platon.pulsar.common.measure.StageTimings
+import java.time.Duration
+import kotlin.test.*
+
+class TestLoadSpans {
+
+    @AfterTest
+    fun tearDown() {
+        LoadSpans.isEnabled = false
+        LoadSpans.reset()
+    }
+
+    @Test
+    fun whenValuesAreRecorded_ThenPercentilesAreAccurate() {
+        val histogram = LatencyHistogram()
+        assertEquals(Duration.ZERO, histogram.p50)
+
+        (1..1000).forEach { histogram.record(Duration.ofMillis(it.toLong())) }
+        assertEquals(1000, histogram.count)
+        assertEquals(Duration.ofMillis(1000), histogram.max)
+
+        val p50 = histogram.p50.toNanos() / 1e6
+        val p99 = histogram.p99.toNanos() / 1e6
+        assertTrue("p50: $p50") { p50 in 500.0 * 0.97..500.0 * 1.03 }
+        assertTrue("p99: $p99") { p99 in 990.0 * 0.97..990.0 * 1.03 }
+
+        histogram.reset()
+        assertEquals(0, histogram.count)
+    }
+
+    @Test
+    fun whenBucketIndexIsCalculated_ThenBucketValueIsInTheBucket() {
+        listOf(0L, 1L, 31L, 32L, 63L, 64L, 1000L, 123_456_789L, Long.MAX_VALUE).forEach { v ->
+            val index = LatencyHistogram.bucketIndex(v)
+            assertTrue { index in 0 until LatencyHistogram.NUM_BUCKETS }
+            val value = LatencyHistogram.bucketValue(index)
+            assertTrue("$v -> $value") { Math.abs(v - value) <= v / LatencyHistogram.SUB_BUCKETS }
+        }
+    }
+
+    @Test
+    fun whenTracingIsDisabled_ThenNothingIsRecorded() {
+        val timings = StageTimings()
+        val result = LoadSpans.trace(LoadStage.PARSE, timings) { 1 + 1 }
+        assertEquals(2, result)
+        assertEquals(0, LoadSpans.histogram(LoadStage.PARSE).count)
+        assertEquals("", timings.format())
+    }
+
+    @Test
+    fun whenTracingIsEnabled_ThenSpansAreRecordedEvenIfFailed() {
+        LoadSpans.isEnabled = true
+        val timings = StageTimings()
+
+        LoadSpans.trace(LoadStage.NAVIGATE, timings) { Thread.sleep(20) }
+        assertFailsWith<IllegalStateException> {
+            LoadSpans.trace(LoadStage.PARSE, timings) { throw IllegalStateException() }
+        }
+
+        assertEquals(1, LoadSpans.histogram(LoadStage.NAVIGATE).count)
+        assertEquals(1, LoadSpans.histogram(LoadStage.PARSE).count)
+        assertTrue { timings[LoadStage.NAVIGATE] >= Duration.ofMillis(20) }
+        assertTrue { timings.format().startsWith("navigate:") }
+        assertContains(LoadSpans.format(), "navigate")
+    }
+}
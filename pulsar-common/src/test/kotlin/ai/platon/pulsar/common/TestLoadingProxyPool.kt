@@ -0,0 +1,121 @@
+package ai.platon.pulsar.common
+
+import ai.platon.pulsar.common.config.CapabilityTypes.*
+import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.config.MutableConfig
+import ai.platon.pulsar.common.proxy.LoadingProxyPool
+import ai.platon.pulsar.common.proxy.ProxyEntry
+import ai.platon.pulsar.common.proxy.ProxyLoader
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.*
+
+class TestLoadingProxyPool {
+    private class MockProxyLoader(
+        conf: ImmutableConfig,
+        val batchSize: Int = 10,
+        val latency: Duration = Duration.ZERO
+    ) : ProxyLoader(conf) {
+        val port = AtomicInteger(10000)
+        val loadingThreads = ConcurrentLinkedQueue<String>()
+        val history = ConcurrentHashMap<Int, (ProxyEntry) -> Unit>()
+
+        override fun updateProxies(reloadInterval: Duration): List<ProxyEntry> {
+            loadingThreads.add(Thread.currentThread().name)
+            Thread.sleep(latency.toMillis())
+            return IntRange(1, batchSize).map { ProxyEntry("127.0.0.2", port.incrementAndGet()) }
+                .onEach { proxy -> history[proxy.port]?.invoke(proxy) }
+        }
+    }
+
+    private val conf = MutableConfig().also {
+        it.setBoolean(PROXY_POOL_ASYNC, true)
+        it.setInt(PROXY_POOL_REFILL_THRESHOLD, 3)
+        it.setDuration(PROXY_POOL_REFILL_INTERVAL, Duration.ZERO)
+    }
+
+    /**
+     * Poll the condition until it's true or the timeout is reached.
+     * */
+    private fun awaitUntil(timeout: Duration = Duration.ofSeconds(5), condition: () -> Boolean): Boolean {
+        val deadline = Instant.now() + timeout
+        while (!condition() && Instant.now() < deadline) {
+            sleepMillis(10)
+        }
+        return condition()
+    }
+
+    @Test
+    fun testHealthScore() {
+        val fresh = ProxyEntry("127.0.0.2", 10001)
+        val failed = ProxyEntry("127.0.0.2", 10002).also { it.numFailedPages.set(5) }
+        val slow = ProxyEntry("127.0.0.2", 10003).also { it.numSuccessPages.set(10); it.accumPageMillis.set(200_000) }
+        val fast = ProxyEntry("127.0.0.2", 10004).also { it.numSuccessPages.set(10); it.accumPageMillis.set(10_000) }
+        val retired = ProxyEntry("127.0.0.2", 10005).also { it.retire() }
+
+        assertTrue { fresh.healthScore > 0 }
+        assertTrue { fresh.healthScore > failed.healthScore }
+        assertTrue { fast.healthScore > slow.healthScore }
+        assertTrue { fast.healthScore > fresh.healthScore }
+        assertEquals(0.0, retired.healthScore)
+    }
+
+    @Test
+    fun whenTakeDeferred_ThenProxiesAreLoadedInBackground() {
+        val loader = MockProxyLoader(conf)
+        LoadingProxyPool(loader, conf).use { pool ->
+            val proxies = runBlocking { IntRange(1, 25).map { async { pool.takeDeferred() } }.awaitAll() }
+
+            assertTrue { proxies.all { it != null } }
+            assertEquals(25, proxies.toSet().size)
+            assertTrue { pool.numRefills.get() >= 3 }
+            assertTrue { loader.loadingThreads.all { it.startsWith("proxy-refill") } }
+        }
+    }
+
+    @Test
+    fun whenPoolIsRunningOut_ThenRefillIsStartedBeforeEmpty() {
+        val loader = MockProxyLoader(conf)
+        LoadingProxyPool(loader, conf).use { pool ->
+            assertNotNull(pool.take())
+            // 10 loaded, 1 taken, the pool is not running out
+            assertEquals(1, pool.numRefills.get())
+
+            repeat(7) { assertNotNull(pool.take()) }
+            // only 2 left, a refill is started in background
+            assertTrue("Refills: ${pool.numRefills.get()}, size: ${pool.size}") {
+                awaitUntil { pool.numRefills.get() == 2 && pool.size > 2 }
+            }
+            assertEquals(2, pool.numRefills.get())
+        }
+    }
+
+    @Test
+    fun whenTake_ThenTheHealthiestProxyIsTakenFirst() {
+        val loader = MockProxyLoader(conf, batchSize = 5)
+        loader.history[10002] = { it.numFailedPages.set(10) }
+        loader.history[10004] = { it.numSuccessPages.set(10); it.accumPageMillis.set(10_000) }
+
+        LoadingProxyPool(loader, conf).use { pool ->
+            assertEquals(10004, pool.take()?.port)
+            assertNotEquals(10002, pool.take()?.port)
+        }
+    }
+
+    @Test
+    fun whenVendorIsSlow_ThenTakersDoNotBlockEachOther() {
+        val loader = MockProxyLoader(conf, batchSize = 30, latency = Duration.ofMillis(300))
+        LoadingProxyPool(loader, conf).use { pool ->
+            val proxies = runBlocking { IntRange(1, 20).map { async { pool.takeDeferred() } }.awaitAll() }
+            assertTrue { proxies.all { it != null } }
+            // all the takers are served by a single load
+            assertEquals(1, loader.loadingThreads.size)
+        }
+    }
+}
@@ -5,6 +5,7 @@ import ai.platon.pulsar.common.AppPaths
 import ai.platon.pulsar.common.config.AppConstants.INTERNAL_URL_PREFIX
 import ai.platon.pulsar.common.math.vectors.isNotEmpty
 import ai.platon.pulsar.common.urls.Hyperlink
+import ai.platon.pulsar.dom.features.NodeFeatureStore
 import ai.platon.pulsar.dom.nodes.*
 import ai.platon.pulsar.dom.nodes.node.ext.*
 import ai.platon.pulsar.dom.select.*
@@ -23,7 +24,8 @@ import java.util.concurrent.atomic.AtomicInteger
  * calculated, and these numerical features can be used to locate nodes or utilized by machine learning algorithms.
  *
  * [FeaturedDocument] is a wrapper for [org.jsoup.nodes.Document], every node's numerical features are
- * calculated by a [ai.platon.pulsar.dom.features.FeatureCalculator] which can be customized.
+ * calculated by a [ai.platon.pulsar.dom.features.FeatureCalculator] which can be customized. The features are
+ * calculated on the first access, a document used only with CSS selectors never calculates them.
  *
  * [FeaturedDocument] provides a set of powerful methods to select elements, text contexts, attributes
  * and so on:
@@ -45,17 +47,23 @@ import java.util.concurrent.atomic.AtomicInteger
 open class FeaturedDocument(val document: Document) {
     companion object {
         private val instanceSequencer = AtomicInteger()
+        private val featuredDocumentCounter = AtomicInteger()
 
         var SELECTOR_IN_BOX_DEVIATION = 25
         var primaryGridDimension = Dimension(30, 15) // about 1 em
         var secondaryGridDimension = Dimension(5, 5)
         var densityUnitArea = 400 * 400
         val globalNumDocuments get() = instanceSequencer.get()
+        /**
+         * The number of documents whose features are actually calculated. Features are calculated on demand,
+         * so the number is usually much smaller than [globalNumDocuments].
+         * */
+        val globalNumFeaturedDocuments get() = featuredDocumentCounter.get()
 
         /**
          * The NIL document which is a wrapper for a nil [org.jsoup.nodes.Document]
          * */
-        val NIL = FeaturedDocument(NILDocument)
+        val NIL = FeaturedDocument(NILDocument).also { ensureFeatures(it.document) }
         /**
          * The HTML content of a NIL document
          * */
@@ -74,6 +82,62 @@ open class FeaturedDocument(val document: Document) {
             return FeaturedDocument(document)
         }
 
+        /**
+         * Calculate the numerical features of all the nodes in the document if they are not calculated yet.
+         *
+         * Features are calculated on the first access, so a document used only with CSS selectors never pays for
+         * them. If the features of the document are disabled, nothing is calculated.
+         *
+         * This method is thread safe, the features are calculated only once.
+         * */
+        fun ensureFeatures(document: Document) {
+            if (document.isFeatureDisabled || document.isInitialized.get()) {
+                return
+            }
+
+            // The flag is set only after the calculation finishes, so a concurrent reader either waits for the
+            // lock or sees the complete features, never the partial ones
+            synchronized(document) {
+                // a nested call from the calculation itself returns immediately
+                if (document.isInitialized.get() || document.isCalculatingFeatures) {
+                    return
+                }
+
+                document.isCalculatingFeatures = true
+                try {
+                    calculateFeatures(document)
+                    featuredDocumentCounter.incrementAndGet()
+                    document.isInitialized.set(true)
+                } finally {
+                    document.isCalculatingFeatures = false
+                }
+            }
+        }
+
+        private fun calculateFeatures(document: Document) {
+            FeatureCalculatorFactory.calculator.calculate(document)
+            require(document.extension.features.isNotEmpty)
+
+            document.unitArea = densityUnitArea
+            document.primaryGrid = primaryGridDimension
+            document.secondaryGrid = secondaryGridDimension
+            document.grid = document.primaryGrid
+
+            calculateInducedFeatures(document)
+        }
+
+        /**
+         * Calculate features depend on other features
+         * */
+        private fun calculateInducedFeatures(document: Document) {
+            // Calculate text node density
+            val unitArea = document.unitArea
+            document.forEach {
+                // add a smooth number to make sure the dividend is not zero
+                it.textNodeDensity = 1.0 * it.numTextNodes / it.area.coerceAtLeast(1) * unitArea
+            }
+        }
+
         /**
          * Check if this document is NIL.
          * */
@@ -279,12 +343,21 @@ open class FeaturedDocument(val document: Document) {
         }
 
     /**
-     * Get this document's numeric feature vector.
+     * Get this document's numeric feature vector, the features are calculated on the first access.
      *
      * @return a real-valued vector with basic algebraic operations.
      */
     val features: RealVector
-        get() = document.extension.features
+        get() = document.features
+
+    /**
+     * Get the columnar store of the numeric features of all nodes in this document, the features of a node are
+     * stored in the row equals to the node's sequence.
+     *
+     * @return the feature store, or null if the features are disabled or not calculated by a store backed calculator.
+     */
+    val featureStore: NodeFeatureStore?
+        get() = document.also { ensureFeatures(it) }.featureStore
 
     /**
      * The constructor
@@ -299,10 +372,6 @@ open class FeaturedDocument(val document: Document) {
      * */
     constructor(other: FeaturedDocument) : this(other.unbox())
 
-    init {
-        initialize()
-    }
-
     /**
      * Get the underlying document.
      *
@@ -780,45 +849,4 @@ open class FeaturedDocument(val document: Document) {
      * Get the string representation of the document.
      * */
     override fun toString() = document.uniqueName
-    
-    private fun initialize() {
-        // Only one thread is allow to access the document
-        // NIL document might be accessed by multiple threads
-        val threadId = Thread.currentThread().id
-        document.threadIds.add(threadId)
-        if(document.threadIds.size != 1) {
-            val threads = document.threadIds.joinToString()
-            System.err.println("Warning: multiple threads ($threads) are process document | $location")
-        }
-
-        if (document.isInitialized.compareAndSet(false, true)) {
-            calculateFeatures()
-        }
-
-        document.threadIds.remove(threadId)
-    }
-
-    private fun calculateFeatures() {
-        FeatureCalculatorFactory.calculator.calculate(document)
-        require(features.isNotEmpty)
-        
-        document.unitArea = densityUnitArea
-        document.primaryGrid = primaryGridDimension
-        document.secondaryGrid = secondaryGridDimension
-        document.grid = document.primaryGrid
-        
-        calculateInducedFeatures()
-    }
-    
-    /**
-     * Calculate features depend on other features
-     * */
-    private fun calculateInducedFeatures() {
-        // Calculate text node density
-        val unitArea = document.unitArea
-        document.forEach {
-            // add a smooth number to make sure the dividend is not zero
-            it.textNodeDensity = 1.0 * it.numTextNodes / it.area.coerceAtLeast(1) * unitArea
-        }
-    }
 }
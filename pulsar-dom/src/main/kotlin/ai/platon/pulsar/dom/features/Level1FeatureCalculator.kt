@@ -7,7 +7,6 @@ import ai.platon.pulsar.dom.features.defined.*
 import ai.platon.pulsar.dom.nodes.DOMRect
 import ai.platon.pulsar.dom.nodes.forEachElement
 import ai.platon.pulsar.dom.nodes.node.ext.*
-import org.apache.commons.math3.linear.ArrayRealVector
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
@@ -31,7 +30,9 @@ class Level1FeatureCalculator: AbstractFeatureCalculator() {
     }
 
     override fun calculate(document: Document) {
-        NodeTraversor.traverse(Level1NodeFeatureCalculatorVisitor(), document)
+        val store = NodeFeatureStore(FeatureRegistry.registeredFeatures.size)
+        document.featureStore = store
+        NodeTraversor.traverse(Level1NodeFeatureCalculatorVisitor(store), document)
     }
 }
 
@@ -49,14 +50,17 @@ class ClassFactory : ResourceLoader.ClassFactory {
     }
 }
 
-private class Level1NodeFeatureCalculatorVisitor: NodeVisitor {
+private class Level1NodeFeatureCalculatorVisitor(
+    private val store: NodeFeatureStore
+): NodeVisitor {
     var sequence: Int = 0
         private set
 
     // hit when the node is first seen
     override fun head(node: Node, depth: Int) {
         val extension = node.extension
-        extension.features = ArrayRealVector(FeatureRegistry.registeredFeatures.size)
+        // the row of the node in the store equals to the node sequence
+        extension.features = store.newVector()
 
         extension.features[DEP] = depth.toDouble()
         extension.features[SEQ] = sequence.toDouble()
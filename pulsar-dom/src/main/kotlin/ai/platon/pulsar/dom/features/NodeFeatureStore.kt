@@ -0,0 +1,149 @@
+package ai.platon.pulsar.dom.features
+
+import org.apache.commons.math3.exception.OutOfRangeException
+import org.apache.commons.math3.linear.ArrayRealVector
+import org.apache.commons.math3.linear.RealVector
+import org.apache.commons.math3.util.MathUtils
+import org.jsoup.nodes.Node
+
+/**
+ * A columnar feature store owned by a document, every feature is kept in a primitive array indexed by
+ * the node sequence.
+ *
+ * Comparing to allocate a feature vector for each node, the store allocates a few large arrays for the whole
+ * document, which saves memory and makes scanning a feature over many nodes cache friendly.
+ *
+ * The store is not thread safe, a document is processed by only one thread.
+ *
+ * @param dimension The number of features of each node
+ * @param initialCapacity The initial number of nodes the store can hold without growing
+ * */
+class NodeFeatureStore(
+    val dimension: Int,
+    initialCapacity: Int = DEFAULT_CAPACITY
+) {
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+
+        /**
+         * Get the row of the node in its feature store, or -1 if the features of the node are not stored in a store.
+         * */
+        fun rowOf(node: Node): Int = (node.extension.features as? NodeFeatureVector)?.row ?: -1
+    }
+
+    private var columns = Array(dimension) { DoubleArray(initialCapacity.coerceAtLeast(1)) }
+
+    /**
+     * The number of nodes in the store
+     * */
+    var size: Int = 0
+        private set
+
+    /**
+     * The number of nodes the store can hold without growing
+     * */
+    val capacity get() = if (dimension == 0) Int.MAX_VALUE else columns[0].size
+
+    /**
+     * Add a new row filled with zeros and return a feature vector backed by the row.
+     * */
+    fun newVector(): NodeFeatureVector {
+        if (size >= capacity) {
+            grow()
+        }
+        return NodeFeatureVector(this, size++)
+    }
+
+    operator fun get(row: Int, key: Int): Double {
+        return columns[key][row]
+    }
+
+    operator fun set(row: Int, key: Int, value: Double) {
+        columns[key][row] = value
+    }
+
+    /**
+     * Get the column of the feature. The returned array is the backing array, only the first [size] values are
+     * valid, and it's replaced by a larger one when the store grows.
+     * */
+    fun column(key: Int): DoubleArray = columns[key]
+
+    /**
+     * Copy the features of the row to a new array.
+     * */
+    fun copyRow(row: Int): DoubleArray {
+        return DoubleArray(dimension) { columns[it][row] }
+    }
+
+    private fun grow() {
+        val newCapacity = capacity + (capacity shr 1) + 1
+        columns = Array(dimension) { columns[it].copyOf(newCapacity) }
+    }
+}
+
+/**
+ * A feature vector of a node, which is a view of a row in a [NodeFeatureStore].
+ *
+ * Modifications to the vector are written through to the store. Operations creating new vectors, for example,
+ * [copy], [append] and [getSubVector], return detached [ArrayRealVector]s.
+ * */
+class NodeFeatureVector(
+    val store: NodeFeatureStore,
+    val row: Int
+) : RealVector() {
+
+    override fun getDimension(): Int = store.dimension
+
+    override fun getEntry(index: Int): Double {
+        checkIndex(index)
+        return store[row, index]
+    }
+
+    override fun setEntry(index: Int, value: Double) {
+        checkIndex(index)
+        store[row, index] = value
+    }
+
+    override fun toArray(): DoubleArray = store.copyRow(row)
+
+    override fun copy(): RealVector = ArrayRealVector(toArray(), false)
+
+    override fun append(v: RealVector): RealVector = copy().append(v)
+
+    override fun append(d: Double): RealVector = copy().append(d)
+
+    override fun getSubVector(index: Int, n: Int): RealVector = copy().getSubVector(index, n)
+
+    override fun setSubVector(index: Int, v: RealVector) {
+        checkIndex(index)
+        checkIndex(index + v.dimension - 1)
+        for (i in 0 until v.dimension) {
+            store[row, index + i] = v.getEntry(i)
+        }
+    }
+
+    override fun isNaN(): Boolean = (0 until dimension).any { store[row, it].isNaN() }
+
+    override fun isInfinite(): Boolean {
+        return !isNaN() && (0 until dimension).any { store[row, it].isInfinite() }
+    }
+
+    override fun ebeMultiply(v: RealVector): RealVector = copy().ebeMultiply(v)
+
+    override fun ebeDivide(v: RealVector): RealVector = copy().ebeDivide(v)
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is RealVector || other.dimension != dimension) return false
+        if (isNaN()) return other.isNaN()
+        return (0 until dimension).all { store[row, it] == other.getEntry(it) }
+    }
+
+    override fun hashCode(): Int = if (isNaN()) 9 else MathUtils.hash(toArray())
+
+    private fun checkIndex(index: Int) {
+        if (index < 0 || index >= dimension) {
+            throw OutOfRangeException(index, 0, dimension - 1)
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package ai.platon.pulsar.dom.nodes
 
-import ai.platon.pulsar.common.math.vectors.get
 import ai.platon.pulsar.dom.FeaturedDocument
 import ai.platon.pulsar.dom.nodes.node.ext.*
 import org.apache.commons.lang3.StringUtils.SPACE
@@ -328,7 +327,7 @@ fun Node.accumulate(featureKey: Int, includeRoot: Boolean = true, filter: (Node)
     var sum = 0.0
     forEach(includeRoot = includeRoot) {
         if (filter(it)) {
-            sum += it.extension.features[featureKey]
+            sum += it.getFeature(featureKey)
         }
     }
     return sum
@@ -338,7 +337,7 @@ fun Node.minmax(featureKey: Int): Pair<Double, Double> {
     var min = Double.MAX_VALUE
     var max = Double.MIN_VALUE
     forEach {
-        val v = it.extension.features[featureKey]
+        val v = it.getFeature(featureKey)
         if (v > max) {
             max = v
         }
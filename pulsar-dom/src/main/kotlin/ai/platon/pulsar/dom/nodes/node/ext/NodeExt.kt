@@ -8,16 +8,20 @@ import ai.platon.pulsar.common.config.AppConstants.*
 import ai.platon.pulsar.common.math.geometric.str
 import ai.platon.pulsar.common.math.geometric.str2
 import ai.platon.pulsar.common.math.vectors.get
+import ai.platon.pulsar.common.math.vectors.isEmpty
 import ai.platon.pulsar.common.math.vectors.set
+import ai.platon.pulsar.dom.FeaturedDocument
 import ai.platon.pulsar.dom.features.FeatureEntry
 import ai.platon.pulsar.dom.features.FeatureFormatter
 import ai.platon.pulsar.dom.features.NodeFeature
+import ai.platon.pulsar.dom.features.NodeFeatureStore
 import ai.platon.pulsar.dom.features.defined.*
 import ai.platon.pulsar.dom.model.createLink
 import ai.platon.pulsar.dom.nodes.*
 import ai.platon.pulsar.dom.select.selectFirstOrNull
 import org.apache.commons.lang3.StringUtils
 import org.apache.commons.math3.linear.ArrayRealVector
+import org.apache.commons.math3.linear.RealVector
 import org.jsoup.nodes.*
 import org.jsoup.select.NodeTraversor
 import java.awt.Dimension
@@ -25,23 +29,22 @@ import java.awt.Point
 import java.awt.Rectangle
 import java.nio.file.Path
 import java.util.*
-import java.util.concurrent.ConcurrentSkipListSet
 import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.reflect.KProperty
 
 class DoubleFeature(val name: Int) {
-    operator fun getValue(thisRef: Node, property: KProperty<*>): Double = thisRef.extension.features[name]
+    operator fun getValue(thisRef: Node, property: KProperty<*>): Double = thisRef.getFeature(name)
 
     operator fun setValue(thisRef: Node, property: KProperty<*>, value: Double) {
-        thisRef.extension.features[name] = value
+        thisRef.setFeature(name, value)
     }
 }
 
 class IntFeature(val name: Int) {
-    operator fun getValue(thisRef: Node, property: KProperty<*>): Int = thisRef.extension.features[name].toInt()
+    operator fun getValue(thisRef: Node, property: KProperty<*>): Int = thisRef.getFeature(name).toInt()
 
     operator fun setValue(thisRef: Node, property: KProperty<*>, value: Int) {
-        thisRef.extension.features[name] = value.toDouble()
+        thisRef.setFeature(name, value)
     }
 }
 
@@ -143,7 +146,10 @@ val Document.normalizedURI: String? get() {
  * */
 var Document.isInitialized by field { AtomicBoolean() }
 
-internal val Document.threadIds by field { ConcurrentSkipListSet<Long>() }
+/**
+ * Whether the features of the document are being calculated.
+ * */
+internal var Document.isCalculatingFeatures by field { false }
 /**
  * The view port of the document.
  * */
@@ -166,6 +172,20 @@ var Document.grid by field { Dimension(0, 0) }
  * The unit area of the document.
  * */
 var Document.unitArea by field { 0 }
+/**
+ * Whether the numerical features of the document are disabled. If disabled, the features are never calculated
+ * and all of them are read as zero.
+ * */
+var Document.isFeatureDisabled by field { false }
+/**
+ * The length of the source the document is parsed from in characters, 0 if unknown.
+ * */
+var Document.sourceLength by field { 0L }
+/**
+ * The columnar store of the numerical features of all the nodes in the document, which is created
+ * when the features are calculated.
+ * */
+var Document.featureStore by nullableField<NodeFeatureStore>()
 /**
  * Various paths to export different views of the document.
  * */
@@ -828,34 +848,56 @@ val Node.caption get() = getCaptionWords().joinToString(";")
  * */
 fun Node.attrOrNull(attrName: String): String? = (this as? Element)?.attr(attrName)?.takeIf { it.isNotBlank() }
 /**
- * Get the feature value by the given key.
+ * The numerical feature vector of the node. The features of the owner document are calculated on the first access.
+ * */
+val Node.features: RealVector get() = ensureFeatures().extension.features
+/**
+ * Make sure the features of the owner document are calculated, unless they are disabled.
+ *
+ * The features of a node are set before the calculation of the document finishes, so the document's initialized
+ * flag is checked rather than the features of the node.
  * */
-fun Node.getFeature(key: Int): Double = extension.features[key]
+fun Node.ensureFeatures(): Node {
+    val document = (this as? Document) ?: (extension.ownerDocumentNode as? Document)
+    document?.let { FeaturedDocument.ensureFeatures(it) }
+    return this
+}
+/**
+ * Get the feature value by the given key, or zero if the feature is not available, for example, the features
+ * of the document are disabled.
+ * */
+fun Node.getFeature(key: Int): Double {
+    val vector = features
+    return if (key < vector.dimension) vector[key] else 0.0
+}
 /**
  * Get the feature value by the given name.
  * */
-fun Node.getFeature(name: String): Double = extension.features[NodeFeature.getKey(name)]
+fun Node.getFeature(name: String): Double = getFeature(NodeFeature.getKey(name))
 /**
  * Get the feature entry by the given key.
  * */
 fun Node.getFeatureEntry(key: Int): FeatureEntry = FeatureEntry(key, getFeature(key))
 /**
- * Associate the given value with the given key.
+ * Associate the given value with the given key. The value is ignored if the feature is not available, for example,
+ * the features of the document are disabled, the same as [getFeature] reads it as zero.
  * */
 fun Node.setFeature(key: Int, value: Double) {
-    extension.features[key] = value
+    val vector = features
+    if (key < vector.dimension) {
+        vector[key] = value
+    }
 }
 /**
- * Associate the given value with the given key.
+ * Associate the given value with the given key. The value is ignored if the feature is not available.
  * */
-fun Node.setFeature(key: Int, value: Int) {
-    extension.features[key] = value.toDouble()
-}
+fun Node.setFeature(key: Int, value: Int) = setFeature(key, value.toDouble())
 /**
  * Remove a feature specified by the given key. The removal is done by setting the value to 0.0.
+ * Nothing happens if the feature is not available.
  * */
 fun Node.removeFeature(key: Int): Node {
-    extension.features[key] = 0.0
+    setFeature(key, 0.0)
     return this
 }
 /**
@@ -1083,14 +1125,14 @@ fun Node.removeAttrsIf(filter: (Attribute) -> Boolean): Node {
 fun Node.formatEachFeatures(vararg featureKeys: Int): String {
     val sb = StringBuilder()
     NodeTraversor.traverse({ node: Node, _ ->
-        FeatureFormatter.format(node.extension.features, featureKeys.asIterable(), sb = sb)
+        FeatureFormatter.format(node.features, featureKeys.asIterable(), sb = sb)
         sb.append('\n')
     }, this)
     return sb.toString()
 }
 
 fun Node.formatFeatures(vararg featureKeys: Int): String {
-    return FeatureFormatter.format(extension.features, featureKeys.asIterable()).toString()
+    return FeatureFormatter.format(features, featureKeys.asIterable()).toString()
 }
 
 fun Node.formatNamedFeatures(): String {
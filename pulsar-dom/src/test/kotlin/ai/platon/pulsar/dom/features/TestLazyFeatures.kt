@@ -0,0 +1,129 @@
+package ai.platon.pulsar.dom.features
+
+import ai.platon.pulsar.common.math.vectors.isNotEmpty
+import ai.platon.pulsar.dom.FeatureCalculatorFactory
+import ai.platon.pulsar.dom.FeaturedDocument
+import ai.platon.pulsar.dom.features.defined.A
+import ai.platon.pulsar.dom.nodes.node.ext.*
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Document
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+import kotlin.test.*
+
+class TestLazyFeatures {
+    private val html = IntRange(1, 100).joinToString("\n", "<html><body><ul>", "</ul></body></html>") {
+        "<li id='item-$it'><a href='/item/$it'>Item $it</a></li>"
+    }
+
+    @Test
+    fun whenSelectText_ThenFeaturesAreNotCalculated() {
+        val numFeaturedDocuments = FeaturedDocument.globalNumFeaturedDocuments
+        val doc = FeaturedDocument(Jsoup.parse(html))
+
+        assertEquals("Item 1", doc.selectFirstTextOrNull("#item-1 a"))
+        assertEquals(100, doc.select("li").size)
+        assertFalse { doc.unbox().isInitialized.get() }
+        assertEquals(numFeaturedDocuments, FeaturedDocument.globalNumFeaturedDocuments)
+    }
+
+    @Test
+    fun whenGetFeature_ThenFeaturesAreCalculatedOnce() {
+        val numFeaturedDocuments = FeaturedDocument.globalNumFeaturedDocuments
+        val doc = FeaturedDocument(Jsoup.parse(html))
+        val ul = doc.selectFirst("ul")
+
+        assertEquals(100, ul.numChildren)
+        assertEquals(100.0, ul.getFeature(A))
+        assertEquals(100, doc.selectFirst("#item-1").numSiblings)
+        assertTrue { doc.unbox().isInitialized.get() }
+        assertEquals(numFeaturedDocuments + 1, FeaturedDocument.globalNumFeaturedDocuments)
+    }
+
+    @Test
+    fun whenFeaturesAreDisabled_ThenFeaturesAreReadAsZero() {
+        val numFeaturedDocuments = FeaturedDocument.globalNumFeaturedDocuments
+        val document = Jsoup.parse(html).also { it.isFeatureDisabled = true }
+        val doc = FeaturedDocument(document)
+        val ul = doc.selectFirst("ul")
+
+        assertEquals(0, ul.numChildren)
+        assertEquals(0.0, ul.getFeature(A))
+        assertNull(doc.featureStore)
+        assertEquals(numFeaturedDocuments, FeaturedDocument.globalNumFeaturedDocuments)
+    }
+
+    @Test
+    fun whenFeaturesAreDisabled_ThenWritesAreIgnored() {
+        val document = Jsoup.parse(html).also { it.isFeatureDisabled = true }
+        val ul = FeaturedDocument(document).selectFirst("ul")
+
+        ul.setFeature(A, 10.0)
+        ul.removeFeature(A)
+        assertEquals(0.0, ul.getFeature(A))
+    }
+
+    @Test
+    fun whenReadFeaturesConcurrently_ThenFeaturesAreComplete() {
+        val numFeaturedDocuments = FeaturedDocument.globalNumFeaturedDocuments
+        val doc = FeaturedDocument(Jsoup.parse(html))
+        val ul = doc.selectFirst("ul")
+
+        val start = CountDownLatch(1)
+        val values = ConcurrentLinkedQueue<Double>()
+        val threads = IntRange(1, 8).map {
+            thread {
+                start.await()
+                values.add(ul.getFeature(A))
+            }
+        }
+        start.countDown()
+        threads.forEach { it.join() }
+
+        assertEquals(8, values.size)
+        assertTrue("Values: $values") { values.all { it == 100.0 } }
+        assertEquals(numFeaturedDocuments + 1, FeaturedDocument.globalNumFeaturedDocuments)
+    }
+
+    @Test
+    fun whenReadFeaturesWhileCalculating_ThenReaderWaitsForTheCalculation() {
+        val calculator = FeatureCalculatorFactory.calculator
+        val calculated = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        // the features of the nodes are set, but the calculation of the document is not finished
+        FeatureCalculatorFactory.calculator = object : FeatureCalculator {
+            override fun calculate(document: Document) {
+                calculator.calculate(document)
+                calculated.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            }
+        }
+
+        try {
+            val doc = FeaturedDocument(Jsoup.parse(html))
+            val ul = doc.selectFirst("ul")
+            val calculating = thread { ul.ensureFeatures() }
+            assertTrue { calculated.await(10, TimeUnit.SECONDS) }
+            assertTrue { ul.extension.features.isNotEmpty }
+
+            val isInitialized = AtomicBoolean()
+            val reader = thread {
+                ul.getFeature(A)
+                isInitialized.set(doc.unbox().isInitialized.get())
+            }
+            reader.join(500)
+            assertTrue("The reader should wait for the calculation") { reader.isAlive }
+
+            release.countDown()
+            reader.join()
+            calculating.join()
+            assertTrue { isInitialized.get() }
+        } finally {
+            release.countDown()
+            FeatureCalculatorFactory.calculator = calculator
+        }
+    }
+}
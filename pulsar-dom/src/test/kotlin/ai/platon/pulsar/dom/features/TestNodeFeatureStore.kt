@@ -0,0 +1,65 @@
+package ai.platon.pulsar.dom.features
+
+import ai.platon.pulsar.common.math.vectors.get
+import ai.platon.pulsar.common.math.vectors.set
+import ai.platon.pulsar.dom.FeaturedDocument
+import ai.platon.pulsar.dom.features.defined.*
+import ai.platon.pulsar.dom.nodes.node.ext.*
+import org.apache.commons.math3.exception.OutOfRangeException
+import org.apache.commons.math3.linear.ArrayRealVector
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Node
+import org.jsoup.select.NodeTraversor
+import kotlin.test.*
+
+class TestNodeFeatureStore {
+    private val html = IntRange(1, 500).joinToString("\n", "<html><body><ul>", "</ul></body></html>") {
+        "<li id='item-$it'><a href='/item/$it'>Item $it</a><img src='/img/$it.png'/></li>"
+    }
+
+    @Test
+    fun whenCalculateFeatures_ThenFeaturesAreStoredInColumns() {
+        val doc = FeaturedDocument(Jsoup.parse(html))
+        val store = doc.featureStore
+        assertNotNull(store)
+        assertEquals(FeatureRegistry.registeredFeatures.size, store.dimension)
+
+        var numNodes = 0
+        NodeTraversor.traverse({ node: Node, _ ->
+            val vector = node.extension.features
+            assertIs<NodeFeatureVector>(vector)
+            assertSame(store, vector.store)
+            // the row of a node equals to its sequence
+            assertEquals(node.sequence, vector.row)
+            ++numNodes
+        }, doc.unbox())
+        assertEquals(numNodes, store.size)
+
+        val ul = doc.selectFirst("ul")
+        assertEquals(500, ul.numChildren)
+        assertEquals(500, ul.numAnchors)
+        assertEquals(500, ul.numImages)
+        assertEquals(500.0, store[NodeFeatureStore.rowOf(ul), C])
+        assertEquals(500, doc.selectFirst("#item-1").numSiblings)
+    }
+
+    @Test
+    fun whenWriteToVector_ThenStoreIsUpdated() {
+        val store = NodeFeatureStore(F.entries.size, initialCapacity = 2)
+        val vectors = IntRange(1, 10).map { store.newVector() }
+        assertEquals(10, store.size)
+        assertTrue { store.capacity >= 10 }
+
+        vectors.forEachIndexed { i, vector -> vector[SIB] = i.toDouble() }
+        vectors.forEachIndexed { i, vector -> assertEquals(i.toDouble(), vector[SIB]) }
+        assertContentEquals(DoubleArray(10) { it.toDouble() }, store.column(SIB).copyOf(store.size))
+
+        val copy = vectors[3].copy()
+        assertIs<ArrayRealVector>(copy)
+        assertEquals(vectors[3], copy)
+        copy[SIB] = 100.0
+        assertEquals(3.0, vectors[3][SIB])
+
+        assertFailsWith<OutOfRangeException> { vectors[0][store.dimension] }
+    }
+}
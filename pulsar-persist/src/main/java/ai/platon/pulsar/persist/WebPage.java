@@ -5,6 +5,8 @@ import ai.platon.pulsar.common.HtmlIntegrity;
 import ai.platon.pulsar.common.Strings;
 import ai.platon.pulsar.common.browser.BrowserType;
 import ai.platon.pulsar.common.config.VolatileConfig;
+import ai.platon.pulsar.common.measure.LoadSpans;
+import ai.platon.pulsar.common.measure.StageTimings;
 import ai.platon.pulsar.common.urls.UrlUtils;
 import ai.platon.pulsar.persist.experimental.WebAsset;
 import ai.platon.pulsar.persist.gora.generated.*;
@@ -19,7 +21,9 @@ import org.jetbrains.annotations.Nullable;
 import org.xml.sax.InputSource;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -113,11 +117,28 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
      */
     private volatile ByteBuffer tmpContent = null;
 
+    /**
+     * The decoded content if the persisted content is encoded by a {@link ContentCodec}.
+     */
+    private volatile ByteBuffer decodedContent = null;
+
+    /**
+     * The content source, e.g. the page source rendered by a browser.
+     * The content bytes are created from the source lazily, usually just before the page is persisted,
+     * and the source is released once the bytes are created.
+     */
+    private volatile CharSequence contentSource = null;
+
     /**
      * The delay time to retry if a retry is needed
      */
     private Duration retryDelay = Duration.ZERO;
 
+    /**
+     * The time spent in each stage of the load pipeline, it's created only if load tracing is enabled.
+     */
+    private volatile StageTimings stageTimings = null;
+
     /**
      * The field loader to load fields lazily.
      */
@@ -352,11 +373,17 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
 
     @NotNull
     public GWebPage unbox() {
+        // the underlying persistent object is always complete
+        materializeContent();
         return page;
     }
 
     public void unsafeSetGPage(@NotNull GWebPage page) {
-        this.page = page;
+        synchronized (CONTENT_MONITOR) {
+            this.page = page;
+            decodedContent = null;
+            contentSource = null;
+        }
     }
 
     public void unsafeCloneGPage(WebPage page) {
@@ -555,6 +582,29 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
         this.retryDelay = retryDelay;
     }
 
+    /**
+     * Get the time spent in each stage of the load pipeline.
+     *
+     * @return the stage timings, or null if load tracing is disabled
+     * */
+    @Nullable
+    public StageTimings getStageTimings() {
+        if (!LoadSpans.isEnabled()) {
+            return null;
+        }
+
+        StageTimings timings = stageTimings;
+        if (timings == null) {
+            synchronized (this) {
+                if (stageTimings == null) {
+                    stageTimings = new StageTimings();
+                }
+                timings = stageTimings;
+            }
+        }
+        return timings;
+    }
+
     /**
      * Set a field loader, the loader takes a parameter as the field name,
      * and returns a GWebPage containing the field.
@@ -1066,6 +1116,8 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
     @Nullable
     public ByteBuffer getPersistContent() {
         synchronized (CONTENT_MONITOR) {
+            materializeContent();
+
             String fieldName = GWebPage.Field.CONTENT.getName();
             // load content lazily
             if (page.getContent() == null && lazyFieldLoader != null && !lazyLoadedFields.contains(fieldName)) {
@@ -1074,7 +1126,56 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
                 page.setContent(lazyPage.getContent());
             }
 
-            return page.getContent();
+            return decodeContent(page.getContent());
+        }
+    }
+
+    /**
+     * Decode the persisted content lazily if it's encoded, the decoded content is cached.
+     */
+    @Nullable
+    private ByteBuffer decodeContent(@Nullable ByteBuffer content) {
+        if (content == null || !ContentCodecs.isEncoded(content)) {
+            return content;
+        }
+
+        if (decodedContent == null) {
+            try {
+                decodedContent = ContentCodecs.decode(content);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to decode content | " + url, e);
+            }
+        }
+        return decodedContent;
+    }
+
+    /**
+     * Encode the persisted content by the codec, the content is decoded lazily when it's required again.
+     *
+     * @param codec the codec to compress the content
+     * @param dictionary the shared dictionary, or null if no dictionary is used
+     * @return true if the content is encoded, false if there is no content, the content is already encoded,
+     * or the content can not be compressed enough
+     */
+    public boolean encodeContent(@NotNull ContentCodec codec, @Nullable byte[] dictionary) {
+        synchronized (CONTENT_MONITOR) {
+            materializeContent();
+
+            ByteBuffer content = page.getContent();
+            if (content == null || ContentCodecs.isEncoded(content)) {
+                return false;
+            }
+
+            ByteBuffer encoded = ContentCodecs.encode(content, codec, dictionary);
+            if (encoded == null) {
+                return false;
+            }
+
+            // the persisted content length is still the length of the original content
+            decodedContent = content;
+            page.setContent(encoded);
+            getMetadata().set(Name.CONTENT_CODEC, codec.getName());
+            return true;
         }
     }
 
@@ -1097,6 +1198,11 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
      */
     @NotNull
     public String getContentAsString() {
+        CharSequence source = getContentSource();
+        if (source != null) {
+            return source.toString();
+        }
+
         ByteBuffer buffer = getContent();
         if (buffer == null || buffer.remaining() == 0) {
             return "";
@@ -1166,6 +1272,9 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
         synchronized (CONTENT_MONITOR) {
             if (value != null) {
                 page.setContent(value);
+                contentSource = null;
+                decodedContent = null;
+                getMetadata().remove(Name.CONTENT_CODEC);
                 isContentUpdated = true;
 
                 long length = value.array().length;
@@ -1185,13 +1294,71 @@ final public class WebPage implements Comparable<WebPage>, WebAsset {
         }
     }
 
+    /**
+     * Get the content source if the content is set by {@link #setContentSource} and the content bytes are not
+     * created yet.
+     *
+     * The content source is the same as the content decoded in UTF-8, a parser prefers the source to skip the
+     * decoding and the encoding detection. The cached content overrides the source, the same as {@link #getContent}.
+     *
+     * @return the content source, or null if the content is in bytes or overridden by the cached content
+     */
+    @Nullable
+    public CharSequence getContentSource() {
+        return tmpContent == null ? contentSource : null;
+    }
+
+    /**
+     * Set the page content as text, e.g. the page source rendered by a browser.
+     *
+     * The content bytes in UTF-8 are created lazily when they are required, e.g. when the page is persisted,
+     * so the source can be parsed without being encoded and decoded again.
+     *
+     * @param source the content source
+     */
+    public void setContentSource(@NotNull CharSequence source) {
+        synchronized (CONTENT_MONITOR) {
+            page.setContent(null);
+            decodedContent = null;
+            getMetadata().remove(Name.CONTENT_CODEC);
+            contentSource = source;
+            isContentUpdated = true;
+
+            long length = Strings.utf8Length(source);
+            setPersistedContentLength(length);
+
+            long originalLength = getOriginalContentLength();
+            computeContentLength(originalLength > 0 ? originalLength : length);
+        }
+    }
+
+    /**
+     * Create the content bytes from the content source if they are not created yet, and release the source.
+     */
+    private void materializeContent() {
+        if (contentSource == null) {
+            return;
+        }
+
+        synchronized (CONTENT_MONITOR) {
+            CharSequence source = contentSource;
+            if (source != null) {
+                page.setContent(ByteBuffer.wrap(source.toString().getBytes(StandardCharsets.UTF_8)));
+                contentSource = null;
+            }
+        }
+    }
+
     /**
      * Clear persist content, so the content will not write to the disk.
      * */
     public void clearPersistContent() {
         synchronized (CONTENT_MONITOR) {
-            tmpContent = page.getContent();
+            materializeContent();
+            tmpContent = decodeContent(page.getContent());
+            decodedContent = null;
             page.setContent(null);
+            getMetadata().remove(Name.CONTENT_CODEC);
             setPersistedContentLength(0);
             // TODO: check consistency
             // lazyLoadedFields.remove(GWebPage.Field.CONTENT.getName());
@@ -40,6 +40,7 @@ public enum Name {
     FETCH_MAX_RETRY("F_MR"),
     REDIRECT_DISCOVERED("F_RD"),
     RESPONSE_TIME("F_RT"),
+    LOAD_STAGE_TIMINGS("F_LST"),
     ACTIVE_DOM_MULTI_STATUS("F_ADMS"),
     ACTIVE_DOM_URLS("F_ADU"),
     FETCHED_LINK_COUNT("FFLC"),
@@ -84,6 +85,7 @@ public enum Name {
     /**
      * content
      */
+    CONTENT_CODEC("C_CC"),
 
     META_KEYWORDS("meta_keywords"),
     META_DESCRIPTION("meta_description"),
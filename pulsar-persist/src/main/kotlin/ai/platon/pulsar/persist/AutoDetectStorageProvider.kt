@@ -5,6 +5,7 @@ import ai.platon.pulsar.common.ResourceLoader
 import ai.platon.pulsar.common.Runtimes
 import ai.platon.pulsar.common.config.AppConstants.*
 import ai.platon.pulsar.common.config.CapabilityTypes.STORAGE_DATA_STORE_CLASS
+import ai.platon.pulsar.common.config.CapabilityTypes.STORAGE_LOCAL_DATA_STORE_CLASS
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.persist.gora.GoraStorage
 import ai.platon.pulsar.persist.gora.generated.GWebPage
@@ -50,29 +51,33 @@ class AutoDetectStorageProvider(val conf: ImmutableConfig) {
                 return specified
             }
 
+            // the file backend store is a mock site in dry run mode, so it's always used
+            val localStoreClass = if (conf.isDryRun) FILE_BACKEND_STORE_CLASS
+                else conf.get(STORAGE_LOCAL_DATA_STORE_CLASS, FILE_BACKEND_STORE_CLASS)
+
             var dataStoreClass = when {
                 SystemUtils.IS_OS_WINDOWS -> when {
-                    conf.isDryRun -> FILE_BACKEND_STORE_CLASS
+                    conf.isDryRun -> localStoreClass
                     Runtimes.checkIfProcessRunning(".*mongod.exe .+") -> MONGO_STORE_CLASS
-                    else -> FILE_BACKEND_STORE_CLASS
+                    else -> localStoreClass
                 }
                 SystemUtils.IS_OS_LINUX -> when {
-                    conf.isDryRun -> FILE_BACKEND_STORE_CLASS
+                    conf.isDryRun -> localStoreClass
                     conf.isDistributedFs -> HBASE_STORE_CLASS
                     Runtimes.checkIfProcessRunning(".+HMaster.+") -> HBASE_STORE_CLASS
                     Runtimes.checkIfProcessRunning(".+/usr/bin/mongod .+") -> MONGO_STORE_CLASS
                     Runtimes.checkIfProcessRunning(".+/tmp/.+extractmongod .+") -> MONGO_STORE_CLASS
-                    else -> FILE_BACKEND_STORE_CLASS
+                    else -> localStoreClass
                 }
-                else -> FILE_BACKEND_STORE_CLASS
+                else -> localStoreClass
             }
 
             /**
              * Sometimes MongoClient is not available or not configured
              * */
             if (MONGO_STORE_CLASS == dataStoreClass && !checkIfMongoClientAvailable()) {
-                logger.info("MongoDB is running but mongo client is not available, fallback to FileBackendPageStore")
-                dataStoreClass = FILE_BACKEND_STORE_CLASS
+                logger.info("MongoDB is running but mongo client is not available, fallback to {}", localStoreClass)
+                dataStoreClass = localStoreClass
             }
 
             return dataStoreClass
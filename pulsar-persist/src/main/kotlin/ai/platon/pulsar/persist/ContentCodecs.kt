@@ -0,0 +1,302 @@
+package ai.platon.pulsar.persist
+
+import ai.platon.pulsar.common.urls.UrlUtils
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.CRC32
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import kotlin.streams.asSequence
+
+/**
+ * A codec to compress page content in the storage.
+ * */
+interface ContentCodec {
+    /**
+     * The name of the codec, it's used in the configuration and the page metadata
+     * */
+    val name: String
+    /**
+     * The id of the codec in the content header, in range [1, 127]
+     * */
+    val id: Int
+    /**
+     * Compress the input and write the compressed bytes to the output stream.
+     * */
+    fun compress(input: ByteArray, offset: Int, length: Int, dictionary: ByteArray?, out: OutputStream)
+    /**
+     * Decompress the input to the output array, the output array has exactly the size of the original content.
+     * */
+    @Throws(IOException::class)
+    fun decompress(input: ByteArray, offset: Int, length: Int, dictionary: ByteArray?, output: ByteArray)
+}
+
+/**
+ * A [ContentCodec] based on [Deflater], a dictionary is supported as a preset dictionary.
+ * */
+class DeflateContentCodec(val level: Int = Deflater.DEFAULT_COMPRESSION) : ContentCodec {
+    override val name = NAME
+    override val id = 1
+
+    override fun compress(input: ByteArray, offset: Int, length: Int, dictionary: ByteArray?, out: OutputStream) {
+        val deflater = Deflater(level)
+        try {
+            dictionary?.let { deflater.setDictionary(it) }
+            deflater.setInput(input, offset, length)
+            deflater.finish()
+            val buffer = ByteArray(BUFFER_SIZE)
+            while (!deflater.finished()) {
+                val n = deflater.deflate(buffer)
+                out.write(buffer, 0, n)
+            }
+        } finally {
+            deflater.end()
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun decompress(input: ByteArray, offset: Int, length: Int, dictionary: ByteArray?, output: ByteArray) {
+        val inflater = Inflater()
+        try {
+            inflater.setInput(input, offset, length)
+            var n = 0
+            while (!inflater.finished()) {
+                val k = inflater.inflate(output, n, output.size - n)
+                n += k
+                if (k == 0) {
+                    when {
+                        inflater.needsDictionary() -> inflater.setDictionary(dictionary ?: throw IOException("Dictionary required"))
+                        inflater.needsInput() -> throw IOException("Truncated content")
+                        n == output.size -> throw IOException("Content is longer than expected")
+                        else -> throw IOException("Failed to inflate content")
+                    }
+                }
+            }
+
+            if (n != output.size) {
+                throw IOException("Content length mismatch, expected ${output.size}, actual $n")
+            }
+        } catch (e: DataFormatException) {
+            throw IOException(e)
+        } finally {
+            inflater.end()
+        }
+    }
+
+    companion object {
+        const val NAME = "deflate"
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+}
+
+/**
+ * The registry of content codecs and the shared dictionaries.
+ *
+ * An encoded content is self-describing, it starts with a header:
+ * ```
+ * | magic: 3 bytes | codec id: 1 byte | dictionary id: 4 bytes | original length: 4 bytes | compressed bytes |
+ * ```
+ * so it can be decoded even if the page metadata is not loaded, e.g. the content field is loaded lazily.
+ * Content without the header is returned as is, which keeps the uncompressed rows readable.
+ * */
+object ContentCodecs {
+    const val NONE = "none"
+    const val HEADER_SIZE = 12
+    private val MAGIC = byteArrayOf(0, 'P'.code.toByte(), 'C'.code.toByte())
+    private const val DICTIONARY_FILE_SUFFIX = ".dict"
+
+    private val logger = LoggerFactory.getLogger(ContentCodecs::class.java)
+
+    private val codecsByName = ConcurrentHashMap<String, ContentCodec>()
+    private val codecsById = ConcurrentHashMap<Int, ContentCodec>()
+    private val dictionariesByDomain = ConcurrentHashMap<String, ByteArray>()
+    private val dictionariesById = ConcurrentHashMap<Int, ByteArray>()
+
+    /**
+     * The number of encoded contents
+     * */
+    val numEncoded = AtomicLong()
+    /**
+     * The number of contents not encoded since it can not be compressed enough
+     * */
+    val numIncompressible = AtomicLong()
+    /**
+     * The number of decoded contents
+     * */
+    val numDecoded = AtomicLong()
+    /**
+     * The total size in bytes of the original contents which are encoded
+     * */
+    val encodedOriginalBytes = AtomicLong()
+    /**
+     * The total size in bytes of the encoded contents
+     * */
+    val encodedBytes = AtomicLong()
+    /**
+     * The total bytes saved by encoding
+     * */
+    val bytesSaved get() = encodedOriginalBytes.get() - encodedBytes.get()
+
+    init {
+        register(DeflateContentCodec())
+    }
+
+    /**
+     * Register a codec, a registered codec with the same name or the same id is replaced.
+     * */
+    @JvmStatic
+    fun register(codec: ContentCodec) {
+        require(codec.id in 1..127) { "Codec id should be in [1, 127]" }
+        codecsByName[codec.name] = codec
+        codecsById[codec.id] = codec
+    }
+
+    @JvmStatic
+    fun getCodec(name: String): ContentCodec? = codecsByName[name]
+
+    /**
+     * Register a shared dictionary for the domain, it's used to compress all pages in the domain and its subdomains.
+     * */
+    @JvmStatic
+    fun registerDictionary(domain: String, dictionary: ByteArray) {
+        dictionariesByDomain[domain] = dictionary
+        dictionariesById[dictionaryId(dictionary)] = dictionary
+    }
+
+    /**
+     * Load the dictionaries in the directory, a dictionary file is named by the domain, e.g. amazon.com.dict
+     * */
+    @JvmStatic
+    fun loadDictionaries(directory: Path) {
+        if (!Files.isDirectory(directory)) {
+            return
+        }
+
+        Files.list(directory).use { paths ->
+            paths.asSequence().filter { it.fileName.toString().endsWith(DICTIONARY_FILE_SUFFIX) }.forEach { path ->
+                val domain = path.fileName.toString().removeSuffix(DICTIONARY_FILE_SUFFIX)
+                registerDictionary(domain, Files.readAllBytes(path))
+                logger.info("Loaded content dictionary for {} | {}", domain, path)
+            }
+        }
+    }
+
+    /**
+     * Find the dictionary for the url, the dictionary of the closest parent domain is chosen.
+     * */
+    @JvmStatic
+    fun findDictionary(url: String): ByteArray? {
+        if (dictionariesByDomain.isEmpty()) {
+            return null
+        }
+
+        var host = UrlUtils.getURLOrNull(url)?.host ?: return null
+        while (true) {
+            dictionariesByDomain[host]?.let { return it }
+            val dot = host.indexOf('.')
+            if (dot < 0) {
+                return null
+            }
+            host = host.substring(dot + 1)
+        }
+    }
+
+    /**
+     * Check if the content is encoded by a registered codec.
+     * */
+    @JvmStatic
+    fun isEncoded(content: ByteBuffer): Boolean {
+        if (content.remaining() < HEADER_SIZE) {
+            return false
+        }
+
+        val p = content.position()
+        return content.get(p) == MAGIC[0] && content.get(p + 1) == MAGIC[1] && content.get(p + 2) == MAGIC[2]
+                && codecsById.containsKey(content.get(p + 3).toInt())
+    }
+
+    /**
+     * Encode the content.
+     *
+     * @param content the content to encode
+     * @param codec the codec
+     * @param dictionary the shared dictionary, or null if no dictionary is used
+     * @param maxRatio the max ratio of the encoded size to the original size, the content is not encoded if it
+     * can not be compressed enough
+     * @return the encoded content, or null if the content can not be compressed enough
+     * */
+    @JvmStatic
+    @JvmOverloads
+    fun encode(content: ByteBuffer, codec: ContentCodec, dictionary: ByteArray? = null, maxRatio: Double = 0.9): ByteBuffer? {
+        val length = content.remaining()
+        val input = if (content.hasArray()) content.array() else ByteArray(length).also { content.duplicate().get(it) }
+        val offset = if (content.hasArray()) content.arrayOffset() + content.position() else 0
+
+        val out = ByteArrayOutputStream(length / 4 + HEADER_SIZE)
+        out.write(MAGIC)
+        out.write(codec.id)
+        writeInt(out, dictionary?.let { dictionaryId(it) } ?: 0)
+        writeInt(out, length)
+        codec.compress(input, offset, length, dictionary, out)
+
+        if (out.size() > length * maxRatio) {
+            numIncompressible.incrementAndGet()
+            return null
+        }
+
+        numEncoded.incrementAndGet()
+        encodedOriginalBytes.addAndGet(length.toLong())
+        encodedBytes.addAndGet(out.size().toLong())
+        return ByteBuffer.wrap(out.toByteArray())
+    }
+
+    /**
+     * Decode the content if it's encoded, otherwise return the content itself.
+     * */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun decode(content: ByteBuffer): ByteBuffer {
+        if (!isEncoded(content)) {
+            return content
+        }
+
+        val buffer = content.duplicate()
+        buffer.position(buffer.position() + MAGIC.size)
+        val codec = codecsById[buffer.get().toInt()]!!
+        val dictionaryId = buffer.getInt()
+        val length = buffer.getInt()
+        val dictionary = if (dictionaryId == 0) null else {
+            dictionariesById[dictionaryId] ?: throw IOException("Content dictionary not found | $dictionaryId")
+        }
+
+        val input = if (buffer.hasArray()) buffer.array() else ByteArray(buffer.remaining()).also { buffer.duplicate().get(it) }
+        val offset = if (buffer.hasArray()) buffer.arrayOffset() + buffer.position() else 0
+        val output = ByteArray(length)
+        codec.decompress(input, offset, buffer.remaining(), dictionary, output)
+
+        numDecoded.incrementAndGet()
+        return ByteBuffer.wrap(output)
+    }
+
+    private fun dictionaryId(dictionary: ByteArray): Int {
+        val crc = CRC32()
+        crc.update(dictionary)
+        // 0 means no dictionary
+        return crc.value.toInt().takeIf { it != 0 } ?: 1
+    }
+
+    private fun writeInt(out: OutputStream, v: Int) {
+        out.write(v ushr 24 and 0xFF)
+        out.write(v ushr 16 and 0xFF)
+        out.write(v ushr 8 and 0xFF)
+        out.write(v and 0xFF)
+    }
+}
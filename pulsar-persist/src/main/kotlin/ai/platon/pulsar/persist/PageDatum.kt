@@ -19,6 +19,7 @@
 package ai.platon.pulsar.persist
 
 import ai.platon.pulsar.common.HtmlIntegrity
+import ai.platon.pulsar.common.Strings
 import ai.platon.pulsar.common.browser.BrowserType
 import ai.platon.pulsar.common.proxy.ProxyEntry
 import ai.platon.pulsar.persist.metadata.MultiMetadata
@@ -97,6 +98,11 @@ class PageDatum(
      * The page URLs in a real browser calculated by javascript.
      * */
     var activeDOMUrls: ActiveDOMUrls? = null
+    /**
+     * The text content retrieved, e.g. the page source rendered by a browser, it's used if [content] is not set,
+     * and the bytes in UTF-8 are created lazily.
+     * */
+    var contentText: CharSequence? = null
     /**
      * The length of the original page content in bytes, the content has no inserted pulsar metadata.
      */
@@ -104,7 +110,7 @@ class PageDatum(
     /**
      * The length of the final page content in bytes, the content might has inserted pulsar metadata.
      */
-    val contentLength get() = (content?.size ?: 0).toLong()
+    val contentLength get() = content?.size?.toLong() ?: contentText?.let { Strings.utf8Length(it) } ?: 0L
     /**
      * The page object, it's a weak reference to avoid circular reference.
      * */
@@ -125,6 +131,7 @@ class PageDatum(
                 && location == other.location
                 && contentType == other.contentType
                 && Arrays.equals(content, other.content)
+                && contentText?.toString() == other.contentText?.toString()
     }
 
     override fun hashCode() = url.hashCode()
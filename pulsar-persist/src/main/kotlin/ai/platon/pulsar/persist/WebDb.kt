@@ -2,22 +2,29 @@ package ai.platon.pulsar.persist
 
 import ai.platon.pulsar.common.brief
 import ai.platon.pulsar.common.config.AppConstants.UNICODE_LAST_CODE_POINT
+import ai.platon.pulsar.common.config.CapabilityTypes.*
 import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.stringify
 import ai.platon.pulsar.common.urls.UrlUtils
 import ai.platon.pulsar.common.urls.UrlUtils.reverseUrlOrNull
 import ai.platon.pulsar.persist.gora.db.DbIterator
 import ai.platon.pulsar.persist.gora.db.DbQuery
 import ai.platon.pulsar.persist.gora.generated.GWebPage
+import ai.platon.pulsar.persist.metadata.Name
 import org.apache.gora.filter.Filter
 import org.apache.gora.filter.FilterOp
 import org.apache.gora.filter.SingleFieldValueFilter
 import org.apache.gora.store.DataStore
 import org.slf4j.LoggerFactory
 import java.nio.ByteBuffer
+import java.nio.file.Paths
+import java.time.Duration
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.Deflater
 
 /**
  * A simple interface to query and store web pages.
@@ -36,6 +43,12 @@ class WebDb(
         val accumulatePutNanos = AtomicLong()
         val dbPutAveMillis get() = TimeUnit.MILLISECONDS.convert(
             accumulatePutNanos.get(),  TimeUnit.NANOSECONDS) / dbPutCount.get().coerceAtLeast(1)
+
+        /**
+         * The number of puts blocked because too many pages are waiting to be written behind
+         * */
+        val dbPutBlockedCount = AtomicLong()
+        val accumulatePutBlockedNanos = AtomicLong()
     }
 
     private val logger = LoggerFactory.getLogger(WebDb::class.java)
@@ -50,6 +63,33 @@ class WebDb(
     val dataStoreOrNull: DataStore<String, GWebPage>? get() = if (dataStoreDelegate.isInitialized()) dataStore else null
     val schemaName: String get() = dataStoreOrNull?.schemaName?:"(unknown, not initialized)"
 
+    /**
+     * Write pages asynchronously in batches, the data store is flushed once for a batch.
+     * */
+    val isWriteBehind = conf.getBoolean(STORAGE_WRITE_BEHIND, false)
+
+    private val writeBehindDelegate = lazy {
+        WriteBehindPageWriter(
+            capacity = conf.getUint(STORAGE_WRITE_BEHIND_CAPACITY, 1000),
+            batchSize = conf.getUint(STORAGE_WRITE_BEHIND_BATCH_SIZE, 100),
+            maxDelay = conf.getDuration(STORAGE_WRITE_BEHIND_MAX_DELAY, Duration.ofSeconds(1)),
+            writer = ::writeBatch
+        )
+    }
+
+    private val writeBehind: WriteBehindPageWriter? get() = if (isWriteBehind) writeBehindDelegate.value else null
+
+    /**
+     * The codec to compress page content before it's written, or null if the content is written as is
+     * */
+    private val contentCodec: ContentCodec? = createContentCodec()
+    private val contentCodecMinSize = conf.getUint(STORAGE_CONTENT_CODEC_MIN_SIZE, 4 * 1024)
+
+    /**
+     * The number of pages waiting to be written behind
+     * */
+    val numPendingWrites get() = if (writeBehindDelegate.isInitialized()) writeBehindDelegate.value.numPending else 0
+
     /**
      * Test if the WebDB can be connected.
      * @return true if the WebDB can be connected.
@@ -150,7 +190,7 @@ class WebDb(
     @Throws(WebDBException::class)
     fun getContent(originalUrl: String): ByteBuffer? {
         val fields = arrayOf(GWebPage.Field.CONTENT.toString())
-        return getOrNull0(originalUrl, false, fields)?.content
+        return getOrNull0(originalUrl, false, fields)?.content?.let { ContentCodecs.decode(it) }
     }
 
     @Throws(WebDBException::class)
@@ -165,7 +205,15 @@ class WebDb(
 
     @Throws(WebDBException::class)
     @JvmOverloads
-    fun put(page: WebPage, replaceIfExists: Boolean = false) = putInternal(page, replaceIfExists)
+    fun put(page: WebPage, replaceIfExists: Boolean = false): Boolean {
+        val timings = page.stageTimings ?: return putInternal(page, replaceIfExists)
+
+        // the stage timings known so far are written before the page is stored, they are partial if the page is
+        // stored during a load: the load and persist stages are not finished yet. LoadComponent writes the
+        // complete timings into the page metadata after the load.
+        page.metadata.set(Name.LOAD_STAGE_TIMINGS, timings.format())
+        return LoadSpans.trace(LoadStage.PERSIST, timings) { putInternal(page, replaceIfExists) }
+    }
 
     /**
      * Notice:
@@ -190,6 +238,14 @@ class WebDb(
         
         tracer?.trace("Putting {} {} {} {}", page.fetchCount, page.prevFetchTime, page.fetchTime, key)
 
+        encodeContent(page)
+
+        val writeBehind = writeBehind
+        if (writeBehind != null && !replaceIfExists) {
+            putBehind(writeBehind, key, page.unbox())
+            return true
+        }
+
         val startTime = System.nanoTime()
         performDSAction("put") { dataStore.put(key, page.unbox()) }
         dbPutCount.incrementAndGet()
@@ -198,6 +254,66 @@ class WebDb(
         return true
     }
 
+    /**
+     * Compress the page content if a content codec is configured, the content is decoded lazily when it's required.
+     * */
+    private fun encodeContent(page: WebPage) {
+        val codec = contentCodec ?: return
+        if (page.persistedContentLength < contentCodecMinSize) {
+            return
+        }
+
+        page.encodeContent(codec, ContentCodecs.findDictionary(page.url))
+    }
+
+    private fun createContentCodec(): ContentCodec? {
+        // pages written with a dictionary are still readable after the codec is turned off
+        conf.get(STORAGE_CONTENT_CODEC_DICTIONARY_DIR)?.let { ContentCodecs.loadDictionaries(Paths.get(it)) }
+
+        val name = conf.get(STORAGE_CONTENT_CODEC, ContentCodecs.NONE)
+        if (name == ContentCodecs.NONE) {
+            return null
+        }
+
+        val codec = if (name == DeflateContentCodec.NAME) {
+            DeflateContentCodec(conf.getInt(STORAGE_CONTENT_CODEC_LEVEL, Deflater.DEFAULT_COMPRESSION))
+        } else {
+            ContentCodecs.getCodec(name)
+        }
+
+        if (codec == null) {
+            logger.warn("Unknown content codec {}, page content is written as is", name)
+        }
+        return codec
+    }
+
+    /**
+     * Queue the page to write behind, block if there are too many pages waiting.
+     * */
+    private fun putBehind(writeBehind: WriteBehindPageWriter, key: String, page: GWebPage) {
+        val numBlocked = writeBehind.numBlockedPuts
+        val startTime = System.nanoTime()
+        writeBehind.put(key, page)
+        if (writeBehind.numBlockedPuts != numBlocked) {
+            dbPutBlockedCount.incrementAndGet()
+            accumulatePutBlockedNanos.addAndGet(System.nanoTime() - startTime)
+        }
+    }
+
+    /**
+     * Write a batch of pages queued by the write behind writer, the data store is flushed once for the batch.
+     * */
+    @Throws(WebDBException::class)
+    private fun writeBatch(pages: List<Pair<String, GWebPage>>) {
+        val startTime = System.nanoTime()
+        performDSAction("putAll") {
+            pages.forEach { (key, page) -> dataStore.put(key, page) }
+            dataStore.flush()
+        }
+        dbPutCount.addAndGet(pages.size.toLong())
+        accumulatePutNanos.addAndGet(System.nanoTime() - startTime)
+    }
+
     @Throws(WebDBException::class)
     fun putAll(pages: Iterable<WebPage>) = pages.forEach { put(it, false) }
 
@@ -209,6 +325,7 @@ class WebDb(
             return false
         }
 
+        writeBehind?.discard(key)
         return performDSAction("delete", originalUrl) { dataStore.delete(key) }
     }
 
@@ -339,6 +456,8 @@ class WebDb(
         }
 
         try {
+            // the pages written behind are flushed by the writer
+            writeBehind?.flush()
             performDSAction("flush") { dataStore.flush() }
         } catch (e: IllegalStateException) {
             logger.warn(e.message)
@@ -353,6 +472,11 @@ class WebDb(
     @Throws(WebDBException::class)
     override fun close() {
         if (closed.compareAndSet(false, true)) {
+            // write all the pages waiting before the data store is closed
+            if (writeBehindDelegate.isInitialized()) {
+                writeBehindDelegate.value.close()
+            }
+
             if (dataStoreDelegate.isInitialized()) {
                 // flush()
                 // Note: mongo store does not close actually
@@ -375,6 +499,9 @@ class WebDb(
 
         tracer?.trace("Getting $key")
 
+        // the page waiting to be written is the latest version
+        writeBehind?.getPending(key)?.let { return it }
+
         val startTime = System.nanoTime()
 
         val page = performDSAction("get", originalUrl) {
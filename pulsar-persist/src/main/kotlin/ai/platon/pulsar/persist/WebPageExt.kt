@@ -8,6 +8,7 @@ import ai.platon.pulsar.persist.gora.generated.GWebPage
 import ai.platon.pulsar.persist.metadata.Name
 import ai.platon.pulsar.persist.model.ActiveDOMStat
 import ai.platon.pulsar.persist.model.ActiveDOMStatus
+import java.nio.charset.StandardCharsets
 import java.time.Instant
 import java.time.temporal.ChronoUnit
 
@@ -135,9 +136,17 @@ class WebPageExt(private val page: WebPage) {
         var contentType = contentTypeHint
 
         page.setOriginalContentLength(pageDatum.originalContentLength)
-        page.setContent(pageDatum.content)
+        val contentText = pageDatum.contentText
+        if (pageDatum.content == null && contentText != null) {
+            // the text is parsed directly, the bytes are created only when the page is persisted
+            page.setContentSource(contentText)
+            page.encoding = StandardCharsets.UTF_8.name()
+        } else {
+            page.setContent(pageDatum.content)
+        }
         // clear content immediately to release resource as soon as possible
         pageDatum.content = null
+        pageDatum.contentText = null
 
         if (contentType != null) {
             pageDatum.contentType = contentType
@@ -0,0 +1,286 @@
+package ai.platon.pulsar.persist
+
+import ai.platon.pulsar.persist.gora.generated.GWebPage
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.withLock
+import kotlin.concurrent.write
+
+/**
+ * Write pages to the data store asynchronously.
+ *
+ * Pages are queued by [put] and written by a single writer thread in batches, a batch is written once it's full
+ * or the eldest page has waited for [maxDelay]. If a page is put again before it's written, only the latest
+ * version is written. [put] blocks if there are [capacity] pages waiting, which is the back-pressure to the
+ * producers.
+ *
+ * A snapshot of the page is queued, so the caller is free to modify the page after [put], and a modification
+ * is written only if the page is put again. A failed batch is retried at most [maxRetries] times, after that,
+ * the pages are dropped and counted by [numFailedPages].
+ *
+ * The pages waiting to be written can be read by [getPending], so a reader always sees its own writes.
+ * */
+class WriteBehindPageWriter(
+    /**
+     * The max number of pages waiting to be written
+     * */
+    val capacity: Int = 1000,
+    /**
+     * The max number of pages written in a batch
+     * */
+    val batchSize: Int = 100,
+    /**
+     * The max time a page waits before it's written
+     * */
+    val maxDelay: Duration = Duration.ofSeconds(1),
+    /**
+     * The max number of times to retry a failed batch
+     * */
+    val maxRetries: Int = 3,
+    /**
+     * Write a batch of pages to the data store, the pages are keyed by the reversed urls
+     * */
+    private val writer: (List<Pair<String, GWebPage>>) -> Unit
+) : AutoCloseable {
+    companion object {
+        /**
+         * Copy the page, the copy keeps the dirty fields of the page, so the same fields are written.
+         * */
+        fun snapshot(page: GWebPage): GWebPage {
+            val copy = GWebPage.newBuilder(page).build()
+            copy.clearDirty()
+            for (i in 0 until page.fieldsCount) {
+                if (page.isDirty(i)) {
+                    copy.setDirty(i)
+                }
+            }
+            return copy
+        }
+    }
+
+    /**
+     * A page waiting to be written, every put creates a new entry, so a page put again while it's being written
+     * is never mistaken for the written one.
+     * */
+    private class Entry(val page: GWebPage, val retries: Int = 0)
+
+    private val logger = LoggerFactory.getLogger(WriteBehindPageWriter::class.java)
+
+    private val pending = ConcurrentHashMap<String, Entry>()
+    private val queue = LinkedBlockingQueue<String>()
+
+    private val lock = ReentrantLock()
+    private val notFull = lock.newCondition()
+    private val drained = lock.newCondition()
+
+    private val closed = AtomicBoolean()
+    /**
+     * A put holds the read lock while it's queuing, and close holds the write lock, so every page accepted
+     * before close is queued before the writer thread sees the closed flag
+     * */
+    private val closeLock = ReentrantReadWriteLock()
+    private val flushRequests = AtomicLong()
+    private val writerThread = Thread(this::runWriteLoop, "write-behind").also { it.isDaemon = true }
+
+    private val blockedPuts = AtomicLong()
+    private val accumulateBlockedNanos = AtomicLong()
+    private val writtenBatches = AtomicLong()
+    private val failedBatches = AtomicLong()
+    private val failedPages = AtomicLong()
+
+    /**
+     * The number of pages waiting to be written
+     * */
+    val numPending get() = pending.size
+
+    /**
+     * The number of puts blocked because the queue is full
+     * */
+    val numBlockedPuts get() = blockedPuts.get()
+
+    /**
+     * The accumulated time the producers are blocked because the queue is full
+     * */
+    val blockedTime: Duration get() = Duration.ofNanos(accumulateBlockedNanos.get())
+
+    val numWrittenBatches get() = writtenBatches.get()
+
+    /**
+     * The number of batch writes failed, including the retried ones
+     * */
+    val numFailedBatches get() = failedBatches.get()
+
+    /**
+     * The number of pages dropped because they are failed to write after [maxRetries] retries
+     * */
+    val numFailedPages get() = failedPages.get()
+
+    init {
+        writerThread.start()
+    }
+
+    /**
+     * Queue a snapshot of the page to write, block if there are too many pages waiting.
+     * */
+    @Throws(InterruptedException::class)
+    fun put(key: String, page: GWebPage) {
+        check(!closed.get()) { "Write behind writer is closed" }
+
+        if (pending.size >= capacity) {
+            awaitNotFull()
+        }
+
+        val entry = Entry(snapshot(page))
+        closeLock.read {
+            check(!closed.get()) { "Write behind writer is closed" }
+            pending[key] = entry
+            // always queue the key, a page put while it's being written is written again in a later batch
+            queue.put(key)
+        }
+    }
+
+    /**
+     * Get a copy of the page waiting to be written.
+     * */
+    fun getPending(key: String): GWebPage? = pending[key]?.page?.let { snapshot(it) }
+
+    /**
+     * Discard the page waiting to be written, for example, the page is deleted.
+     * */
+    fun discard(key: String) {
+        pending.remove(key)
+    }
+
+    /**
+     * Write all the pages waiting and wait until they are written.
+     * */
+    @Throws(InterruptedException::class)
+    fun flush() {
+        flushRequests.incrementAndGet()
+        lock.withLock {
+            while (pending.isNotEmpty() && writerThread.isAlive) {
+                drained.await(100, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    override fun close() {
+        if (closeLock.write { closed.compareAndSet(false, true) }) {
+            // the writer thread exits after all the pages are written
+            writerThread.join(TimeUnit.MINUTES.toMillis(1))
+            if (pending.isNotEmpty()) {
+                logger.warn("{} pages are not written when the write behind writer is closed", pending.size)
+            }
+        }
+    }
+
+    private fun awaitNotFull() {
+        val startTime = System.nanoTime()
+        blockedPuts.incrementAndGet()
+        lock.withLock {
+            while (pending.size >= capacity && writerThread.isAlive) {
+                notFull.await(100, TimeUnit.MILLISECONDS)
+            }
+        }
+        accumulateBlockedNanos.addAndGet(System.nanoTime() - startTime)
+    }
+
+    private fun runWriteLoop() {
+        val keys = ArrayList<String>(batchSize)
+        while (!closed.get() || queue.isNotEmpty()) {
+            try {
+                collectBatch(keys)
+                if (keys.isNotEmpty()) {
+                    writeBatch(keys)
+                }
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                break
+            } catch (e: Throwable) {
+                logger.warn("Failed to write a batch of {} pages", keys.size, e)
+            } finally {
+                keys.clear()
+            }
+
+            lock.withLock {
+                notFull.signalAll()
+                if (pending.isEmpty()) {
+                    drained.signalAll()
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect keys until the batch is full, or the max delay of the first key is reached, or a flush is requested.
+     * */
+    private fun collectBatch(keys: MutableList<String>) {
+        val first = queue.poll(maxDelay.toMillis(), TimeUnit.MILLISECONDS) ?: return
+        keys.add(first)
+
+        val flushRequest = flushRequests.get()
+        val deadline = System.nanoTime() + maxDelay.toNanos()
+        while (keys.size < batchSize) {
+            queue.drainTo(keys, batchSize - keys.size)
+            val remaining = deadline - System.nanoTime()
+            if (keys.size >= batchSize || remaining <= 0 || closed.get() || flushRequests.get() != flushRequest) {
+                break
+            }
+
+            val key = queue.poll(remaining.coerceAtMost(TimeUnit.MILLISECONDS.toNanos(50)), TimeUnit.NANOSECONDS)
+            if (key != null) {
+                keys.add(key)
+            }
+        }
+    }
+
+    private fun writeBatch(keys: List<String>) {
+        val batch = keys.distinct().mapNotNull { key -> pending[key]?.let { key to it } }
+        try {
+            writer(batch.map { (key, entry) -> key to entry.page })
+            writtenBatches.incrementAndGet()
+        } catch (e: Throwable) {
+            failedBatches.incrementAndGet()
+            retryLater(batch, e)
+            return
+        }
+
+        // if the page is put again while it's being written, the entry is replaced and the new version is
+        // written in a later batch
+        batch.forEach { (key, entry) -> pending.remove(key, entry) }
+    }
+
+    /**
+     * Queue the pages of a failed batch again, or drop them if they are retried too many times.
+     * */
+    private fun retryLater(batch: List<Pair<String, Entry>>, e: Throwable) {
+        var numDropped = 0
+        batch.forEach { (key, entry) ->
+            if (entry.retries >= maxRetries) {
+                if (pending.remove(key, entry)) {
+                    ++numDropped
+                }
+            } else if (pending.replace(key, entry, Entry(entry.page, entry.retries + 1))) {
+                queue.offer(key)
+            }
+        }
+
+        if (numDropped > 0) {
+            failedPages.addAndGet(numDropped.toLong())
+            logger.error("Dropped {} pages failed to write after {} retries", numDropped, maxRetries, e)
+        } else {
+            logger.warn("Failed to write a batch of {} pages, retry later | {}", batch.size, e.toString())
+        }
+
+        // back off before the retry
+        Thread.sleep(maxDelay.toMillis())
+    }
+}
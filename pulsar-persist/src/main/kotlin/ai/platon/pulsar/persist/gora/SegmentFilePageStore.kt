@@ -0,0 +1,551 @@
+package ai.platon.pulsar.persist.gora
+
+import ai.platon.pulsar.common.AppPaths
+import ai.platon.pulsar.common.brief
+import ai.platon.pulsar.persist.gora.generated.GWebPage
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.io.EncoderFactory
+import org.apache.avro.specific.SpecificDatumReader
+import org.apache.avro.specific.SpecificDatumWriter
+import org.apache.gora.memory.store.MemStore
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedByInterruptException
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import java.util.stream.Collectors
+import java.util.zip.CRC32
+import kotlin.concurrent.withLock
+import kotlin.io.path.name
+
+/**
+ * A log structured file backend storage for webpages.
+ *
+ * Pages are appended as Avro records to rolling segment files, and an in-memory index maps every reversed url
+ * to the position of its latest record. Readers read the segment files concurrently by positional reads, while
+ * writes are buffered and appended in batches by one writer at a time. Segments with too many stale records are
+ * compacted in the background.
+ *
+ * Unlike [FileBackendPageStore], the number of files does not grow with the number of pages, and the pages are
+ * not kept in memory.
+ *
+ * Queries are not supported, [execute] only sees the records of the underlying [MemStore].
+ * */
+class SegmentFilePageStore(
+    private val persistDirectory: Path = AppPaths.LOCAL_STORAGE_DIR.resolve("segments"),
+    /**
+     * A segment is sealed and a new one is created once the size exceeds this value
+     * */
+    private val maxSegmentSize: Long = System.getProperty(MAX_SEGMENT_SIZE_PROPERTY)?.toLongOrNull()
+        ?: DEFAULT_MAX_SEGMENT_SIZE,
+    /**
+     * The buffered records are appended to the segment file once the size of the batch exceeds this value
+     * */
+    private val maxBatchSize: Int = DEFAULT_MAX_BATCH_SIZE,
+    /**
+     * The buffered records are appended to the segment file at least once in this interval
+     * */
+    private val flushInterval: Duration = Duration.ofSeconds(1),
+    /**
+     * The interval to check if there are segments to compact
+     * */
+    private val compactInterval: Duration = Duration.ofMinutes(10),
+    /**
+     * A sealed segment is compacted if the ratio of the live records is less than this value
+     * */
+    private val compactThreshold: Double = 0.5
+) : MemStore<String, GWebPage>() {
+
+    companion object {
+        const val MAX_SEGMENT_SIZE_PROPERTY = "storage.segment.max.size"
+        const val DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024
+        const val DEFAULT_MAX_BATCH_SIZE = 1024 * 1024
+
+        /**
+         * Record header: crc32 of the key and the value, the key length and the value length,
+         * the value length is -1 for a tombstone
+         * */
+        private const val HEADER_SIZE = 12
+        private const val TOMBSTONE = -1
+        private const val MAX_KEY_LENGTH = 64 * 1024
+        private const val SEGMENT_FILE_PREFIX = "segment-"
+        private const val SEGMENT_FILE_SUFFIX = ".dat"
+
+        private val DATUM_WRITER = ThreadLocal.withInitial { SpecificDatumWriter(GWebPage::class.java) }
+        private val DATUM_READER = ThreadLocal.withInitial { SpecificDatumReader(GWebPage::class.java) }
+    }
+
+    private class Segment(val id: Int, val path: Path) {
+        /**
+         * The channel is closed if a thread is interrupted while it's reading or writing, in which case it's reopened
+         * */
+        @Volatile
+        var channel: FileChannel = open()
+            private set
+        @Volatile
+        private var closed = false
+        /**
+         * The size of the records written to the file
+         * */
+        @Volatile
+        var size = 0L
+        /**
+         * The size of the records still referenced by the index
+         * */
+        val liveBytes = AtomicLong()
+
+        /**
+         * Reopen the channel if it's closed by an interrupted thread, a segment closed by [close] is not reopened.
+         *
+         * @return true if the channel is open
+         * */
+        @Synchronized
+        fun reopen(): Boolean {
+            if (!closed && !channel.isOpen) {
+                channel = open()
+            }
+            return channel.isOpen
+        }
+
+        @Synchronized
+        fun close() {
+            closed = true
+            channel.close()
+        }
+
+        private fun open() = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    }
+
+    private class RecordPointer(val segment: Segment, val offset: Long, val length: Int)
+
+    private data class PendingRecord(val key: String, val record: ByteBuffer)
+
+    private val logger = LoggerFactory.getLogger(SegmentFilePageStore::class.java)
+
+    private val index = ConcurrentHashMap<String, RecordPointer>()
+    /**
+     * The records not yet written to the segment file, readers have to check them first
+     * */
+    private val pendingRecords = ConcurrentHashMap<String, ByteBuffer>()
+    private val segments = CopyOnWriteArrayList<Segment>()
+
+    /**
+     * Guards the batch, the active segment and the index updates
+     * */
+    private val writeLock = ReentrantLock()
+    private val batch = mutableListOf<PendingRecord>()
+    private var batchSize = 0
+    @Volatile
+    private lateinit var activeSegment: Segment
+
+    private val closed = AtomicBoolean()
+    private val scheduler = Executors.newSingleThreadScheduledExecutor { r ->
+        Thread(r, "segment-store").also { it.isDaemon = true }
+    }
+
+    /**
+     * The number of pages in the store
+     * */
+    val size get() = index.size
+
+    /**
+     * The number of segment files
+     * */
+    val numSegments get() = segments.size
+
+    init {
+        Files.createDirectories(persistDirectory)
+        recover()
+
+        scheduler.scheduleWithFixedDelay({ runCatching { writeLock.withLock { flushBatch() } }
+            .onFailure { logger.warn("Failed to flush segment store | {}", it.brief()) } },
+            flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS)
+        scheduler.scheduleWithFixedDelay({ runCatching { compact() }
+            .onFailure { logger.warn("Failed to compact segment store", it) } },
+            compactInterval.toMillis(), compactInterval.toMillis(), TimeUnit.MILLISECONDS)
+    }
+
+    override fun get(reversedUrl: String, vararg fields: String): GWebPage? {
+        pendingRecords[reversedUrl]?.let { return decodeRecord(it.duplicate()) }
+
+        var lastException: ClosedChannelException? = null
+        repeat(3) {
+            val pointer = index[reversedUrl] ?: return null
+            try {
+                return decodeRecord(readRecord(pointer))
+            } catch (e: ClosedByInterruptException) {
+                // this thread is interrupted, reopen the channel for the other threads
+                pointer.segment.reopen()
+                throw e
+            } catch (e: ClosedChannelException) {
+                // the segment can be closed by compaction after the pointer is taken, in which case the index is
+                // already updated, or the channel can be closed by an interrupted thread, so reopen it and retry
+                pointer.segment.reopen()
+                lastException = e
+            }
+        }
+
+        throw IOException("Failed to read record | $reversedUrl", lastException)
+    }
+
+    override fun put(reversedUrl: String, page: GWebPage) {
+        append(reversedUrl, encodeRecord(reversedUrl, encodePage(page)))
+    }
+
+    override fun delete(reversedUrl: String): Boolean {
+        val exists = pendingRecords.containsKey(reversedUrl) || index.containsKey(reversedUrl)
+        append(reversedUrl, encodeRecord(reversedUrl, null))
+        return exists
+    }
+
+    override fun flush() {
+        writeLock.withLock {
+            flushBatch()
+            activeSegment.reopen()
+            activeSegment.channel.force(false)
+        }
+    }
+
+    override fun truncateSchema() {
+        writeLock.withLock {
+            batch.clear()
+            batchSize = 0
+            pendingRecords.clear()
+            index.clear()
+            segments.forEach { it.close(); Files.deleteIfExists(it.path) }
+            segments.clear()
+            activeSegment = createSegment(1)
+        }
+    }
+
+    override fun deleteSchema() = truncateSchema()
+
+    override fun getSchemaName() = "SegmentFilePageStore"
+
+    override fun getFields(): Array<String> = GWebPage._ALL_FIELDS
+
+    override fun close() {
+        if (closed.compareAndSet(false, true)) {
+            // do not interrupt the running flush or compaction, an interrupted thread closes the channel it's using
+            scheduler.shutdown()
+            try {
+                if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Background tasks of segment store are still running")
+                }
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+
+            writeLock.withLock {
+                runCatching { flush() }.onFailure { logger.warn("Failed to flush segment store | {}", it.brief()) }
+                segments.forEach { runCatching { it.close() } }
+            }
+        }
+    }
+
+    /**
+     * Compact the sealed segments which have too many stale records, the live records are appended to the active
+     * segment, and the compacted segments are deleted.
+     *
+     * @return The number of compacted segments
+     * */
+    @Synchronized
+    fun compact(): Int {
+        val candidates = segments.filter {
+            it !== activeSegment && it.liveBytes.get() < it.size * compactThreshold
+        }
+        candidates.forEach { compact(it) }
+        return candidates.size
+    }
+
+    private fun compact(segment: Segment) {
+        val hasOlderSegment = segments.any { it.id < segment.id }
+        var numMoved = 0
+
+        var position = 0L
+        while (position < segment.size) {
+            val record = readRecord(segment, position) ?: break
+            val key = readKey(record)
+            val offset = position
+            position += record.remaining()
+
+            writeLock.withLock {
+                if (pendingRecords.containsKey(key)) {
+                    // a newer record is on the way
+                    return@withLock
+                }
+
+                val pointer = index[key]
+                val isLive = pointer != null && pointer.segment === segment && pointer.offset == offset
+                // a tombstone has to be kept as long as an older segment might hold the deleted record
+                val isTombstone = pointer == null && hasOlderSegment && isTombstone(record)
+                if (isLive || isTombstone) {
+                    appendLocked(key, record)
+                    ++numMoved
+                }
+            }
+        }
+
+        writeLock.withLock {
+            flushBatch()
+            activeSegment.channel.force(false)
+            segments.remove(segment)
+        }
+        segment.close()
+        Files.deleteIfExists(segment.path)
+
+        logger.info("Compacted segment {}, {} records are moved", segment.path.name, numMoved)
+    }
+
+    private fun append(key: String, record: ByteBuffer) {
+        check(!closed.get()) { "Segment store is closed" }
+        writeLock.withLock { appendLocked(key, record) }
+    }
+
+    private fun appendLocked(key: String, record: ByteBuffer) {
+        pendingRecords[key] = record
+        batch.add(PendingRecord(key, record))
+        batchSize += record.remaining()
+        if (batchSize >= maxBatchSize) {
+            flushBatch()
+        }
+    }
+
+    /**
+     * Append the buffered records to the active segment and update the index, must be called with the write lock.
+     * */
+    @Throws(IOException::class)
+    private fun flushBatch() {
+        if (batch.isEmpty()) {
+            return
+        }
+
+        if (activeSegment.size >= maxSegmentSize) {
+            activeSegment.channel.force(false)
+            activeSegment = createSegment(activeSegment.id + 1)
+        }
+
+        val segment = activeSegment
+        segment.reopen()
+        val channel = segment.channel
+        val buffers = batch.map { it.record.duplicate() }.toTypedArray()
+        channel.position(segment.size)
+        while (buffers.last().hasRemaining()) {
+            channel.write(buffers)
+        }
+
+        var offset = segment.size
+        batch.forEach { (key, record) ->
+            val length = record.remaining()
+            if (isTombstone(record)) {
+                index.remove(key)?.let { it.segment.liveBytes.addAndGet(-it.length.toLong()) }
+            } else {
+                index.put(key, RecordPointer(segment, offset, length))
+                    ?.let { it.segment.liveBytes.addAndGet(-it.length.toLong()) }
+                segment.liveBytes.addAndGet(length.toLong())
+            }
+            // the index is updated before the pending record is removed, so readers never miss the record
+            pendingRecords.remove(key, record)
+            offset += length
+        }
+
+        segment.size = offset
+        batch.clear()
+        batchSize = 0
+    }
+
+    private fun recover() {
+        val files = Files.list(persistDirectory).use { stream ->
+            stream.filter { it.name.startsWith(SEGMENT_FILE_PREFIX) && it.name.endsWith(SEGMENT_FILE_SUFFIX) }
+                .collect(Collectors.toList())
+        }
+
+        files.mapNotNull { path -> parseSegmentId(path)?.let { it to path } }
+            .sortedBy { it.first }
+            .forEach { (id, path) -> segments.add(Segment(id, path)) }
+
+        segments.forEachIndexed { i, segment ->
+            // only the last segment can be partially written, so only its records are fully verified
+            recover(segment, verify = i == segments.lastIndex)
+        }
+
+        activeSegment = segments.lastOrNull() ?: createSegment(1)
+
+        logger.info("Segment store is opened, {} pages in {} segments | {}", index.size, segments.size, persistDirectory)
+    }
+
+    private fun recover(segment: Segment, verify: Boolean) {
+        val fileSize = segment.channel.size()
+        var position = 0L
+        while (position < fileSize) {
+            val record = if (verify) readRecord(segment, position, fileSize) else readHeaderAndKey(segment, position, fileSize)
+            if (record == null) {
+                break
+            }
+
+            val key = readKey(record)
+            val valueLength = record.getInt(8)
+            val length = HEADER_SIZE + record.getInt(4) + valueLength.coerceAtLeast(0)
+            val old = if (valueLength == TOMBSTONE) {
+                index.remove(key)
+            } else {
+                segment.liveBytes.addAndGet(length.toLong())
+                index.put(key, RecordPointer(segment, position, length))
+            }
+            old?.let { it.segment.liveBytes.addAndGet(-it.length.toLong()) }
+
+            position += length
+        }
+
+        if (position < fileSize) {
+            logger.warn("Segment {} is corrupted at {}, truncate the tail of {} bytes",
+                segment.path.name, position, fileSize - position)
+            segment.channel.truncate(position)
+        }
+
+        segment.size = position
+    }
+
+    private fun createSegment(id: Int): Segment {
+        val path = persistDirectory.resolve(String.format("%s%08d%s", SEGMENT_FILE_PREFIX, id, SEGMENT_FILE_SUFFIX))
+        return Segment(id, path).also { segments.add(it) }
+    }
+
+    private fun parseSegmentId(path: Path): Int? {
+        return path.name.removePrefix(SEGMENT_FILE_PREFIX).removeSuffix(SEGMENT_FILE_SUFFIX).toIntOrNull()
+    }
+
+    @Throws(IOException::class)
+    private fun readRecord(pointer: RecordPointer): ByteBuffer {
+        val buffer = ByteBuffer.allocate(pointer.length)
+        readFully(pointer.segment.channel, buffer, pointer.offset)
+        buffer.flip()
+        return buffer
+    }
+
+    /**
+     * Read and verify the record at the position, return null if the record is incomplete or corrupted.
+     * */
+    @Throws(IOException::class)
+    private fun readRecord(segment: Segment, position: Long, limit: Long = segment.size): ByteBuffer? {
+        val header = readHeader(segment, position, limit) ?: return null
+        val keyLength = header.getInt(4)
+        val valueLength = header.getInt(8).coerceAtLeast(0)
+        val length = HEADER_SIZE + keyLength + valueLength
+
+        val buffer = ByteBuffer.allocate(length)
+        if (!readFully(segment.channel, buffer, position)) {
+            return null
+        }
+        buffer.flip()
+
+        val crc = CRC32()
+        crc.update(buffer.array(), HEADER_SIZE, keyLength + valueLength)
+        return buffer.takeIf { crc.value.toInt() == header.getInt(0) }
+    }
+
+    @Throws(IOException::class)
+    private fun readHeaderAndKey(segment: Segment, position: Long, limit: Long): ByteBuffer? {
+        val header = readHeader(segment, position, limit) ?: return null
+        val keyLength = header.getInt(4)
+
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + keyLength)
+        if (!readFully(segment.channel, buffer, position)) {
+            return null
+        }
+        buffer.flip()
+        return buffer
+    }
+
+    @Throws(IOException::class)
+    private fun readHeader(segment: Segment, position: Long, limit: Long): ByteBuffer? {
+        if (position + HEADER_SIZE > limit) {
+            return null
+        }
+
+        val header = ByteBuffer.allocate(HEADER_SIZE)
+        if (!readFully(segment.channel, header, position)) {
+            return null
+        }
+
+        val keyLength = header.getInt(4)
+        val valueLength = header.getInt(8)
+        if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || valueLength < TOMBSTONE) {
+            return null
+        }
+        if (position + HEADER_SIZE + keyLength + valueLength.coerceAtLeast(0) > limit) {
+            return null
+        }
+
+        return header
+    }
+
+    @Throws(IOException::class)
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long): Boolean {
+        while (buffer.hasRemaining()) {
+            val n = channel.read(buffer, position + buffer.position())
+            if (n < 0) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun readKey(record: ByteBuffer): String {
+        return String(record.array(), record.arrayOffset() + HEADER_SIZE, record.getInt(4), Charsets.UTF_8)
+    }
+
+    private fun isTombstone(record: ByteBuffer) = record.getInt(8) == TOMBSTONE
+
+    private fun encodePage(page: GWebPage): ByteArray {
+        val out = ByteArrayOutputStream(8 * 1024)
+        val encoder = EncoderFactory.get().binaryEncoder(out, null)
+        DATUM_WRITER.get().write(page, encoder)
+        encoder.flush()
+        return out.toByteArray()
+    }
+
+    private fun encodeRecord(key: String, value: ByteArray?): ByteBuffer {
+        val keyBytes = key.toByteArray(Charsets.UTF_8)
+        require(keyBytes.size <= MAX_KEY_LENGTH) { "Key is too long | $key" }
+
+        val crc = CRC32()
+        crc.update(keyBytes)
+        value?.let { crc.update(it) }
+
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.size + (value?.size ?: 0))
+        buffer.putInt(crc.value.toInt())
+        buffer.putInt(keyBytes.size)
+        buffer.putInt(value?.size ?: TOMBSTONE)
+        buffer.put(keyBytes)
+        value?.let { buffer.put(it) }
+        buffer.flip()
+        return buffer
+    }
+
+    private fun decodeRecord(record: ByteBuffer): GWebPage? {
+        val keyLength = record.getInt(4)
+        val valueLength = record.getInt(8)
+        if (valueLength == TOMBSTONE) {
+            return null
+        }
+
+        val offset = record.arrayOffset() + HEADER_SIZE + keyLength
+        val decoder = DecoderFactory.get().binaryDecoder(record.array(), offset, valueLength, null)
+        return DATUM_READER.get().read(null, decoder)
+    }
+}
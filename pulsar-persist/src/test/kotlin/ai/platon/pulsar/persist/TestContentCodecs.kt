@@ -0,0 +1,116 @@
+package ai.platon.pulsar.persist
+
+import ai.platon.pulsar.common.AppPaths
+import ai.platon.pulsar.common.config.AppConstants
+import ai.platon.pulsar.common.config.CapabilityTypes
+import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.common.urls.UrlUtils
+import ai.platon.pulsar.persist.gora.FileBackendPageStore
+import ai.platon.pulsar.persist.metadata.Name
+import org.apache.commons.io.FileUtils
+import org.apache.commons.lang3.RandomStringUtils
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import kotlin.test.*
+
+class TestContentCodecs {
+    private val url = "https://www.amazon.com/dp/B0C1H26C46"
+    private val html = IntRange(1, 2000).joinToString("\n", "<html><body>", "</body></html>") {
+        "<div class='item' id='item-$it'><a href='/dp/B0C1H26C${it % 100}'>Product $it</a></div>"
+    }
+    private val codec = DeflateContentCodec()
+
+    @Test
+    fun whenEncodeContent_ThenDecodedToTheOriginal() {
+        val encoded = ContentCodecs.encode(ByteBuffer.wrap(html.toByteArray()), codec)
+        assertNotNull(encoded)
+        assertTrue { ContentCodecs.isEncoded(encoded) }
+        assertTrue { encoded.remaining() < html.length / 5 }
+        assertEquals(html, String(ContentCodecs.decode(encoded).array()))
+    }
+
+    @Test
+    fun whenEncodeWithDictionary_ThenDecodedToTheOriginal() {
+        ContentCodecs.registerDictionary("amazon.com", "<div class='item' id='item-'><a href='/dp/B0C1H26C".toByteArray())
+        val dictionary = ContentCodecs.findDictionary(url)
+        assertNotNull(dictionary)
+
+        val encoded = ContentCodecs.encode(ByteBuffer.wrap(html.toByteArray()), codec, dictionary)
+        assertNotNull(encoded)
+        assertEquals(html, String(ContentCodecs.decode(encoded).array()))
+    }
+
+    @Test
+    fun whenContentIsNotEncoded_ThenDecodeReturnsItAsIs() {
+        val content = ByteBuffer.wrap(html.toByteArray())
+        assertFalse { ContentCodecs.isEncoded(content) }
+        assertSame(content, ContentCodecs.decode(content))
+    }
+
+    @Test
+    fun whenPageContentIsEncoded_ThenGetContentDecodesLazily() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContent(html)
+        val length = page.persistedContentLength
+
+        assertTrue { page.encodeContent(codec, null) }
+        assertFalse { page.encodeContent(codec, null) }
+        assertEquals(DeflateContentCodec.NAME, page.metadata.get(Name.CONTENT_CODEC))
+        assertTrue { ContentCodecs.isEncoded(page.unbox().content) }
+        assertEquals(length, page.persistedContentLength)
+
+        // a page loaded from the storage
+        val loadedPage = WebPage.box(url, page.unbox(), VolatileConfig.UNSAFE)
+        assertEquals(html, loadedPage.contentAsString)
+        assertEquals(html, String(loadedPage.contentAsInputStream.readBytes()))
+
+        page.setContent("<html></html>")
+        assertNull(page.metadata.get(Name.CONTENT_CODEC))
+        assertEquals("<html></html>", page.contentAsString)
+    }
+
+    @Test
+    fun whenCodecIsNone_ThenDictionaryCompressedPageIsStillReadable() {
+        val dictionaryDir = AppPaths.TEST_DIR.resolve("unittests/TestContentCodecs-dictionaries")
+        // a unique dictionary, so it's not registered by the other tests
+        val dictionary = "<div class='item' id='${RandomStringUtils.randomAlphanumeric(16)}'>".toByteArray()
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContent(html)
+        assertTrue { page.encodeContent(codec, dictionary) }
+
+        val conf = VolatileConfig().apply {
+            set(CapabilityTypes.STORAGE_DATA_STORE_CLASS, AppConstants.MEM_STORE_CLASS)
+            set(CapabilityTypes.STORAGE_CONTENT_CODEC, ContentCodecs.NONE)
+            set(CapabilityTypes.STORAGE_CONTENT_CODEC_DICTIONARY_DIR, dictionaryDir.toString())
+        }
+        try {
+            Files.createDirectories(dictionaryDir)
+            Files.write(dictionaryDir.resolve("test.amazon.com.dict"), dictionary)
+
+            WebDb(conf).use {
+                val loadedPage = WebPage.box(url, page.unbox(), VolatileConfig.UNSAFE)
+                assertEquals(html, loadedPage.contentAsString)
+            }
+        } finally {
+            runCatching { FileUtils.deleteDirectory(dictionaryDir.toFile()) }
+        }
+    }
+
+    @Test
+    fun whenWriteEncodedPage_ThenReadFromAvro() {
+        val persistDirectory = AppPaths.TEST_DIR.resolve("unittests/TestContentCodecs")
+        val store = FileBackendPageStore(persistDirectory)
+        try {
+            val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+            page.setContent(html)
+            page.encodeContent(codec, null)
+            store.writeAvro(page)
+
+            val loadedGPage = store.readAvro(UrlUtils.reverseUrl(url))
+            assertNotNull(loadedGPage)
+            assertEquals(html, WebPage.box(url, loadedGPage, VolatileConfig.UNSAFE).contentAsString)
+        } finally {
+            runCatching { FileUtils.deleteDirectory(persistDirectory.toFile()) }
+        }
+    }
+}
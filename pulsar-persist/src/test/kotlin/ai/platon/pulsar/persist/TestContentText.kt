@@ -0,0 +1,149 @@
+package ai.platon.pulsar.persist
+
+import ai.platon.pulsar.common.Strings
+import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.persist.gora.generated.GWebPage
+import org.junit.Ignore
+import org.slf4j.LoggerFactory
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import kotlin.test.*
+
+class TestContentText {
+    private val logger = LoggerFactory.getLogger(TestContentText::class.java)
+    private val url = "https://www.amazon.com/dp/B0C1H26C46"
+    private val html = IntRange(1, 2000).joinToString("\n", "<html><body>", "</body></html>") {
+        "<div class='item' id='item-$it'><a href='/dp/B0C1H26C${it % 100}'>商品 $it € 😀</a></div>"
+    }
+
+    @Test
+    fun testUtf8Length() {
+        listOf("", "abc", "é", "商品", "€", "😀", "a\uD83Db", html).forEach {
+            assertEquals(it.toByteArray().size.toLong(), Strings.utf8Length(it), it.take(20))
+        }
+    }
+
+    @Test
+    fun whenSetContentText_ThenBytesAreCreatedLazily() {
+        val gPage = GWebPage.newBuilder().build()
+        val page = WebPage.box(url, gPage, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+
+        val bytes = html.toByteArray()
+        assertSame(html, page.contentSource)
+        assertEquals(bytes.size.toLong(), page.persistedContentLength)
+        assertEquals(html, page.contentAsString)
+        // the content bytes are not created yet
+        assertNull(gPage.content)
+
+        assertContentEquals(bytes, page.contentAsBytes)
+        assertContentEquals(bytes, page.unbox().content.array())
+    }
+
+    @Test
+    fun whenContentIsMaterialized_ThenContentSourceIsReleased() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+        page.unbox()
+
+        assertNull(page.contentSource)
+        assertEquals(html, page.contentAsString)
+    }
+
+    @Test
+    fun whenTmpContentIsSet_ThenItOverridesContentSource() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+        page.tmpContent = ByteBuffer.wrap("<html></html>".toByteArray())
+
+        assertNull(page.contentSource)
+        assertEquals("<html></html>", page.contentAsString)
+    }
+
+    @Test
+    fun whenUnbox_ThenContentTextIsMaterialized() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+
+        val loadedPage = WebPage.box(url, page.unbox(), VolatileConfig.UNSAFE)
+        assertNull(loadedPage.contentSource)
+        assertEquals(html, loadedPage.contentAsString)
+    }
+
+    @Test
+    fun whenEncodeContentText_ThenDecodedToTheOriginal() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+
+        assertTrue { page.encodeContent(DeflateContentCodec(), null) }
+        assertTrue { ContentCodecs.isEncoded(page.unbox().content) }
+        assertEquals(html, WebPage.box(url, page.unbox(), VolatileConfig.UNSAFE).contentAsString)
+    }
+
+    @Test
+    fun whenSetContentAfterContentText_ThenContentTextIsCleared() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+        page.setContent("<html></html>")
+
+        assertNull(page.contentSource)
+        assertEquals("<html></html>", page.contentAsString)
+        assertEquals("<html></html>", String(page.unbox().content.array()))
+    }
+
+    @Test
+    fun whenClearPersistContent_ThenContentIsStillReadable() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        page.setContentSource(html)
+        page.clearPersistContent()
+
+        assertNull(page.unbox().content)
+        assertEquals(html, page.contentAsString)
+    }
+
+    @Test
+    fun whenUpdateContentWithPageDatum_ThenContentTextIsUsed() {
+        val page = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+        val pageDatum = PageDatum(page).also { it.contentText = html }
+        assertEquals(html.toByteArray().size.toLong(), pageDatum.contentLength)
+
+        WebPageExt(page).updateContent(pageDatum)
+        assertNull(pageDatum.contentText)
+        assertSame(html, page.contentSource)
+        assertEquals("UTF-8", page.encoding)
+    }
+
+    @Ignore("Time consuming task, should be run separately")
+    @Test
+    fun benchAllocationPerPage() {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        val round = 1000
+
+        fun allocatedBytesPerPage(block: (WebPage) -> Unit): Long {
+            val start = threadMXBean.getThreadAllocatedBytes(threadId)
+            repeat(round) { block(WebPage.newWebPage(url, VolatileConfig.UNSAFE)) }
+            return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / round
+        }
+
+        // the old path: encode the page source to bytes, and decode the bytes to parse
+        val bytePath: (WebPage) -> Unit = { page ->
+            page.setContent(html.toByteArray())
+            page.contentAsString
+            page.unbox().content
+        }
+        // the new path: parse the page source directly, and encode it once to persist
+        val textPath: (WebPage) -> Unit = { page ->
+            page.setContentSource(html)
+            page.contentAsString
+            page.unbox().content
+        }
+
+        repeat(3) { allocatedBytesPerPage(bytePath); allocatedBytesPerPage(textPath) }
+        val bytePathBytes = allocatedBytesPerPage(bytePath)
+        val textPathBytes = allocatedBytesPerPage(textPath)
+        logger.info("Page source: {} chars | allocated per page, byte path: {} text path: {}",
+            html.length, bytePathBytes, textPathBytes)
+        assertTrue("byte path: $bytePathBytes, text path: $textPathBytes") { textPathBytes < bytePathBytes }
+    }
+}
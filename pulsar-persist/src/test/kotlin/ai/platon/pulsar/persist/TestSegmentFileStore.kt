@@ -0,0 +1,115 @@
+package ai.platon.pulsar.persist
+
+import ai.platon.pulsar.common.AppPaths
+import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.common.urls.UrlUtils
+import ai.platon.pulsar.persist.gora.SegmentFilePageStore
+import ai.platon.pulsar.persist.gora.generated.GWebPage
+import org.apache.commons.io.FileUtils
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedByInterruptException
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import kotlin.io.path.name
+import kotlin.test.*
+
+class TestSegmentFileStore {
+    private val url = "https://www.amazon.com/dp/B0C1H26C46"
+    private val persistDirectory = AppPaths.TEST_DIR.resolve("unittests/TestSegmentFileStore")
+    private lateinit var store: SegmentFilePageStore
+
+    @BeforeTest
+    fun setup() {
+        store = SegmentFilePageStore(persistDirectory)
+    }
+
+    @AfterTest
+    fun tearDown() {
+        store.close()
+        runCatching { FileUtils.deleteDirectory(persistDirectory.toFile()) }.onFailure { it.printStackTrace() }
+    }
+
+    @Test
+    fun whenPutPage_ThenReadSuccess() {
+        val page = WebPageExt.newTestWebPage(url)
+        page.setContent("<html><body><h1>Segment file store</h1></body></html>")
+        val key = UrlUtils.reverseUrl(url)
+        store.put(key, page.unbox())
+
+        // read the pending record
+        assertEquals(page.contentAsString, box(store.get(key)).contentAsString)
+
+        // read the record in the segment file
+        store.flush()
+        assertEquals(page.contentAsString, box(store.get(key)).contentAsString)
+        assertEquals("b", box(store.get(key)).ensurePageModel().findValue(1, "a"))
+    }
+
+    @Test
+    fun whenReopen_ThenPagesAreRecovered() {
+        val urls = (1..100).map { "$url/$it" }
+        urls.forEach { store.put(UrlUtils.reverseUrl(it), WebPageExt.newTestWebPage(it).unbox()) }
+        store.delete(UrlUtils.reverseUrl(urls[0]))
+        store.close()
+
+        store = SegmentFilePageStore(persistDirectory)
+        assertEquals(99, store.size)
+        assertNull(store.get(UrlUtils.reverseUrl(urls[0])))
+        assertNotNull(store.get(UrlUtils.reverseUrl(urls[1])))
+    }
+
+    @Test
+    fun whenTailIsCorrupted_ThenItIsTruncated() {
+        store.put(UrlUtils.reverseUrl(url), WebPageExt.newTestWebPage(url).unbox())
+        store.close()
+
+        val segmentFile = Files.list(persistDirectory).use { it.filter { it.name.endsWith(".dat") }.findFirst().get() }
+        Files.newByteChannel(segmentFile, StandardOpenOption.APPEND).use { it.write(ByteBuffer.wrap(byteArrayOf(1, 2, 3))) }
+
+        store = SegmentFilePageStore(persistDirectory)
+        assertEquals(1, store.size)
+        assertNotNull(store.get(UrlUtils.reverseUrl(url)))
+    }
+
+    @Test
+    fun whenCompact_ThenLivePagesAreKept() {
+        store.close()
+        store = SegmentFilePageStore(persistDirectory, maxSegmentSize = 4 * 1024, maxBatchSize = 1)
+
+        val key = UrlUtils.reverseUrl(url)
+        repeat(50) { store.put(key, WebPageExt.newTestWebPage(url).unbox()) }
+        val numSegments = store.numSegments
+        assertTrue { numSegments > 1 }
+
+        store.compact()
+        assertTrue { store.numSegments < numSegments }
+        assertNotNull(store.get(key))
+    }
+
+    @Test
+    fun whenReaderIsInterrupted_ThenOtherReadersStillRead() {
+        val key = UrlUtils.reverseUrl(url)
+        store.put(key, WebPageExt.newTestWebPage(url).unbox())
+        store.flush()
+
+        // an interrupted thread closes the channel it's reading
+        var error: Throwable? = null
+        val reader = Thread {
+            Thread.currentThread().interrupt()
+            error = runCatching { store.get(key) }.exceptionOrNull()
+        }
+        reader.start()
+        reader.join()
+        assertIs<ClosedByInterruptException>(error)
+
+        assertNotNull(store.get(key))
+        store.put(key, WebPageExt.newTestWebPage(url).unbox())
+        store.flush()
+        assertNotNull(store.get(key))
+    }
+
+    private fun box(page: GWebPage?): WebPage {
+        assertNotNull(page)
+        return WebPage.box(url, page, VolatileConfig.UNSAFE)
+    }
+}
@@ -0,0 +1,137 @@
+package ai.platon.pulsar.persist
+
+import ai.platon.pulsar.common.urls.UrlUtils
+import ai.platon.pulsar.persist.gora.generated.GWebPage
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.*
+
+class TestWriteBehindPageWriter {
+    private val url = "https://www.amazon.com/dp/B0C1H26C46"
+    private val store = ConcurrentHashMap<String, GWebPage>()
+    private val batches = CopyOnWriteArrayList<Int>()
+
+    @Test
+    fun whenPutPages_ThenWrittenInBatches() {
+        val writer = WriteBehindPageWriter(batchSize = 10, maxDelay = Duration.ofSeconds(5)) { batch ->
+            batches.add(batch.size)
+            batch.forEach { (key, page) -> store[key] = page }
+        }
+
+        val keys = (1..100).map { UrlUtils.reverseUrl("$url/$it") }
+        keys.forEach { writer.put(it, WebPageExt.newTestWebPage(url).unbox()) }
+        // readers see the pages waiting to be written
+        assertNotNull(writer.getPending(keys[99]) ?: store[keys[99]])
+
+        writer.flush()
+        assertEquals(0, writer.numPending)
+        assertEquals(100, store.size)
+        assertTrue("Batches: $batches") { batches.size < 100 && batches.all { it <= 10 } }
+
+        writer.close()
+    }
+
+    @Test
+    fun whenPutTheSamePage_ThenOnlyTheLatestIsWritten() {
+        val writer = WriteBehindPageWriter(maxDelay = Duration.ofMillis(500)) { batch ->
+            batch.forEach { (key, page) -> store[key] = page }
+        }
+
+        val key = UrlUtils.reverseUrl(url)
+        val pages = (1..10).map { i -> WebPageExt.newTestWebPage(url).unbox().also { it.fetchCount = i } }
+        pages.forEach { writer.put(key, it) }
+
+        writer.close()
+        assertEquals(10, store[key]?.fetchCount)
+    }
+
+    @Test
+    fun whenPageIsModifiedAfterPut_ThenTheSnapshotIsWritten() {
+        val writer = WriteBehindPageWriter(maxDelay = Duration.ofMillis(100)) { batch ->
+            batch.forEach { (key, page) -> store[key] = page }
+        }
+
+        val key = UrlUtils.reverseUrl(url)
+        val page = WebPageExt.newTestWebPage(url).unbox().also { it.fetchCount = 1 }
+        writer.put(key, page)
+        page.fetchCount = 2
+        assertEquals(1, writer.getPending(key)?.fetchCount)
+
+        writer.close()
+        assertEquals(1, store[key]?.fetchCount)
+    }
+
+    @Test
+    fun whenTheSamePageIsPutWhileWriting_ThenTheUpdateIsWritten() {
+        val writing = CountDownLatch(1)
+        val resume = CountDownLatch(1)
+        val writer = WriteBehindPageWriter(maxDelay = Duration.ofMillis(10)) { batch ->
+            writing.countDown()
+            resume.await()
+            batch.forEach { (key, page) -> store[key] = page }
+        }
+
+        val key = UrlUtils.reverseUrl(url)
+        val page = WebPageExt.newTestWebPage(url).unbox().also { it.fetchCount = 1 }
+        writer.put(key, page)
+        assertTrue { writing.await(5, TimeUnit.SECONDS) }
+        page.fetchCount = 2
+        writer.put(key, page)
+        resume.countDown()
+
+        writer.close()
+        assertEquals(2, store[key]?.fetchCount)
+    }
+
+    @Test
+    fun whenBatchFails_ThenItIsRetried() {
+        val failures = AtomicInteger()
+        val writer = WriteBehindPageWriter(maxDelay = Duration.ofMillis(10)) { batch ->
+            if (failures.incrementAndGet() <= 2) {
+                throw IllegalStateException("Store is not available")
+            }
+            batch.forEach { (key, page) -> store[key] = page }
+        }
+
+        val key = UrlUtils.reverseUrl(url)
+        writer.put(key, WebPageExt.newTestWebPage(url).unbox())
+        writer.close()
+
+        assertEquals(2, writer.numFailedBatches)
+        assertEquals(0, writer.numFailedPages)
+        assertNotNull(store[key])
+    }
+
+    @Test
+    fun whenBatchKeepsFailing_ThenPagesAreDropped() {
+        val writer = WriteBehindPageWriter(maxDelay = Duration.ofMillis(10), maxRetries = 2) {
+            throw IllegalStateException("Store is not available")
+        }
+
+        writer.put(UrlUtils.reverseUrl(url), WebPageExt.newTestWebPage(url).unbox())
+        writer.flush()
+
+        assertEquals(3, writer.numFailedBatches)
+        assertEquals(1, writer.numFailedPages)
+        assertEquals(0, writer.numPending)
+        writer.close()
+    }
+
+    @Test
+    fun whenQueueIsFull_ThenPutIsBlocked() {
+        val writer = WriteBehindPageWriter(capacity = 2, batchSize = 1, maxDelay = Duration.ofMillis(10)) { batch ->
+            Thread.sleep(50)
+            batch.forEach { (key, page) -> store[key] = page }
+        }
+
+        (1..10).forEach { writer.put(UrlUtils.reverseUrl("$url/$it"), WebPageExt.newTestWebPage(url).unbox()) }
+        writer.close()
+
+        assertTrue { writer.numBlockedPuts > 0 }
+        assertEquals(10, store.size)
+    }
+}
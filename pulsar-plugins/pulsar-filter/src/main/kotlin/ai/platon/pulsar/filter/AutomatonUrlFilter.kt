@@ -5,6 +5,7 @@ import ai.platon.pulsar.common.config.CapabilityTypes
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.filter.common.RegexRule
 import ai.platon.pulsar.filter.common.AbstractRegexUrlFilter
+import ai.platon.pulsar.filter.common.CompiledRuleSet
 import dk.brics.automaton.RegExp
 import dk.brics.automaton.RunAutomaton
 import java.io.IOException
@@ -39,6 +40,8 @@ class AutomatonUrlFilter(reader: Reader?, conf: ImmutableConfig) : AbstractRegex
 
     constructor(conf: ImmutableConfig): this(null, conf)
 
+    override val ruleSyntax get() = CompiledRuleSet.RuleSyntax.AUTOMATON
+
     /**
      * Rules specified as a config property will override rules specified as a
      * config file.
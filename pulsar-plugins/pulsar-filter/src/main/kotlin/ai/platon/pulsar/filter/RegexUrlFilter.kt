@@ -24,6 +24,7 @@ import ai.platon.pulsar.common.config.CapabilityTypes
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.filter.common.RegexRule
 import ai.platon.pulsar.filter.common.AbstractRegexUrlFilter
+import ai.platon.pulsar.filter.common.CompiledRuleSet
 import java.io.FileNotFoundException
 import java.io.Reader
 import java.util.regex.Pattern
@@ -39,6 +40,8 @@ class RegexUrlFilter(
 
     constructor(conf: ImmutableConfig): this(null, conf)
 
+    override val ruleSyntax get() = CompiledRuleSet.RuleSyntax.JAVA
+
     /**
      * Rules specified as a config property will override rules specified as a
      * config file.
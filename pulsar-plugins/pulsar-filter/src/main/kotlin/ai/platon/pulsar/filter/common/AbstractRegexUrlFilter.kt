@@ -51,6 +51,16 @@ abstract class AbstractRegexUrlFilter(
      */
     protected var rules: List<RegexRule> = listOf()
 
+    /**
+     * The syntax of the rules, or null if the rules can not be compiled to a [CompiledRuleSet]
+     * */
+    protected open val ruleSyntax: CompiledRuleSet.RuleSyntax? get() = null
+
+    /**
+     * The rules compiled to match a url in a single pass, or null if the compiled mode is not enabled
+     * */
+    val compiledRules: CompiledRuleSet? by lazy { compileRules() }
+
     /**
      * Constructs a new RegexUrlFilter and init it with a Reader of rules.
      *
@@ -95,6 +105,12 @@ abstract class AbstractRegexUrlFilter(
     protected abstract fun getRulesReader(conf: ImmutableConfig): Reader
 
     override fun filter(url: String): String? {
+        val compiled = compiledRules
+        if (compiled != null) {
+            val i = compiled.firstMatch(url)
+            return if (i >= 0 && rules[i].accept()) url else null
+        }
+
         for (rule in rules) {
             if (rule.match(url)) {
                 return if (rule.accept()) url else null
@@ -103,6 +119,18 @@ abstract class AbstractRegexUrlFilter(
         return null
     }
 
+    private fun compileRules(): CompiledRuleSet? {
+        val syntax = ruleSyntax
+        if (syntax == null || !conf.getBoolean(URLFILTER_COMPILE_RULES, false)) {
+            return null
+        }
+
+        return CompiledRuleSet(rules.map { it.regex }, syntax).also {
+            LOG.info("Compiled {} url filter rules | prefix: {} automaton: {} fallback: {}",
+                rules.size, it.numPrefixRules, it.numAutomatonRules, it.numFallbackRules)
+        }
+    }
+
     /**
      * Read the specified file of rules.
      *
@@ -136,6 +164,11 @@ abstract class AbstractRegexUrlFilter(
     }
 
     companion object {
+        /**
+         * Whether to compile the rules to match a url in a single pass
+         * */
+        const val URLFILTER_COMPILE_RULES = "urlfilter.compile.rules"
+
         /**
          * Filter the standard input using a RegexUrlFilterBase.
          *
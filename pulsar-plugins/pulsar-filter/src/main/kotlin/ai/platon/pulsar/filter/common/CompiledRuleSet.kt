@@ -0,0 +1,180 @@
+package ai.platon.pulsar.filter.common
+
+import ai.platon.pulsar.common.PrefixStringMatcher
+import dk.brics.automaton.RegExp
+import dk.brics.automaton.RunAutomaton
+import org.slf4j.LoggerFactory
+import java.util.regex.Pattern
+
+/**
+ * A list of regular expression rules compiled to match a string in a single pass.
+ *
+ * The rules are split into three groups:
+ * 1. the literal prefix rules, which are matched by a [PrefixStringMatcher]
+ * 2. the rules can be expressed by a finite automaton, which are merged into a [MultiPatternAutomaton]
+ * 3. the other rules, which are matched by java patterns one by one
+ *
+ * The results of the groups are merged by the rule index, so the result is the same as trying the rules one by one.
+ * */
+class CompiledRuleSet(
+    /**
+     * The regular expressions of the rules
+     * */
+    val regexes: List<String>,
+    /**
+     * The syntax of the regular expressions
+     * */
+    val syntax: RuleSyntax,
+    /**
+     * Whether only the first matching rule is required
+     * */
+    val firstMatchOnly: Boolean = true
+) {
+    /**
+     * The syntax of the rules.
+     * */
+    enum class RuleSyntax {
+        /**
+         * [java.util.regex.Pattern], a rule matches a string if the pattern is found in the string
+         * */
+        JAVA,
+        /**
+         * [dk.brics.automaton.RegExp] with all optional features, a rule matches a string if the automaton
+         * accepts the whole string
+         * */
+        AUTOMATON
+    }
+
+    private val logger = LoggerFactory.getLogger(CompiledRuleSet::class.java)
+
+    /**
+     * The rule indexes of a prefix in ascending order
+     * */
+    private val prefixRules = mutableMapOf<String, IntArray>()
+    private val prefixMatcher: PrefixStringMatcher?
+
+    /**
+     * The rule indexes of the patterns in the automaton
+     * */
+    private val automatonRules: IntArray
+    private val automaton: MultiPatternAutomaton
+
+    /**
+     * The rule indexes and the java patterns of the rules can not be compiled
+     * */
+    private val fallbackRules: IntArray
+    private val fallbackPatterns: Array<Pattern>
+
+    init {
+        val automatonRuleList = mutableListOf<Int>()
+        val patterns = mutableListOf<RunAutomaton>()
+        val fallbackRuleList = mutableListOf<Int>()
+
+        regexes.forEachIndexed { i, regex ->
+            val prefix = when (syntax) {
+                RuleSyntax.JAVA -> RegexRuleTranslator.javaLiteralPrefix(regex)
+                RuleSyntax.AUTOMATON -> RegexRuleTranslator.automatonLiteralPrefix(regex)
+            }
+            if (prefix != null) {
+                prefixRules[prefix] = prefixRules[prefix]?.plus(i) ?: intArrayOf(i)
+                return@forEachIndexed
+            }
+
+            val pattern = compileAutomaton(regex)
+            if (pattern != null) {
+                automatonRuleList.add(i)
+                patterns.add(pattern)
+            } else {
+                fallbackRuleList.add(i)
+            }
+        }
+
+        prefixMatcher = if (prefixRules.isNotEmpty()) PrefixStringMatcher(prefixRules.keys) else null
+        automatonRules = automatonRuleList.toIntArray()
+        automaton = MultiPatternAutomaton(patterns, firstMatchOnly)
+        fallbackRules = fallbackRuleList.toIntArray()
+        fallbackPatterns = fallbackRules.map { Pattern.compile(regexes[it]) }.toTypedArray()
+
+        logger.debug("Compiled {} rules | prefix: {} automaton: {} fallback: {}",
+            regexes.size, prefixRules.values.sumOf { it.size }, automatonRules.size, fallbackRules.size)
+    }
+
+    /**
+     * The number of rules matched by the prefix matcher
+     * */
+    val numPrefixRules get() = prefixRules.values.sumOf { it.size }
+
+    /**
+     * The number of rules merged into the automaton
+     * */
+    val numAutomatonRules get() = automatonRules.size
+
+    /**
+     * The number of rules matched by java patterns one by one
+     * */
+    val numFallbackRules get() = fallbackRules.size
+
+    /**
+     * The index of the first rule matching the string, or -1 if no rule matches.
+     * */
+    fun firstMatch(s: String): Int {
+        var first = Int.MAX_VALUE
+
+        if (prefixMatcher != null) {
+            prefixMatcher.allMatchLengths(s).forEach { length ->
+                val i = prefixRules[s.substring(0, length)]!![0]
+                if (i < first) first = i
+            }
+        }
+
+        val k = automaton.firstMatch(s)
+        if (k >= 0 && automatonRules[k] < first) {
+            first = automatonRules[k]
+        }
+
+        // only the fallback rules before the first match found so far need to be tried
+        for (j in fallbackRules.indices) {
+            if (fallbackRules[j] >= first) {
+                break
+            }
+            if (fallbackPatterns[j].matcher(s).find()) {
+                first = fallbackRules[j]
+                break
+            }
+        }
+
+        return if (first == Int.MAX_VALUE) -1 else first
+    }
+
+    /**
+     * The indexes of all the rules matching the string, in ascending order.
+     * */
+    fun allMatches(s: String): IntArray {
+        require(!firstMatchOnly) { "The rule set is compiled for the first match only" }
+
+        val matches = mutableListOf<Int>()
+        prefixMatcher?.allMatchLengths(s)?.forEach { length -> prefixRules[s.substring(0, length)]!!.toCollection(matches) }
+        automaton.run(s).mapTo(matches) { automatonRules[it] }
+        fallbackRules.indices.filter { fallbackPatterns[it].matcher(s).find() }.mapTo(matches) { fallbackRules[it] }
+
+        return matches.toIntArray().also { it.sort() }
+    }
+
+    private fun compileAutomaton(regex: String): RunAutomaton? {
+        val expression = when (syntax) {
+            RuleSyntax.JAVA -> RegexRuleTranslator.javaToAutomaton(regex) ?: return null
+            RuleSyntax.AUTOMATON -> regex
+        }
+
+        return try {
+            RunAutomaton(RegExp(expression, RegExp.ALL).toAutomaton())
+        } catch (e: IllegalArgumentException) {
+            if (syntax == RuleSyntax.AUTOMATON) {
+                throw e
+            }
+
+            logger.debug("Failed to compile rule to automaton, fallback to java pattern | {}", regex)
+            null
+        }
+    }
+}
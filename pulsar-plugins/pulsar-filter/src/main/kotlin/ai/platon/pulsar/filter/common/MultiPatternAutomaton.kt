@@ -0,0 +1,194 @@
+package ai.platon.pulsar.filter.common
+
+import dk.brics.automaton.RunAutomaton
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A deterministic automaton which runs many patterns in a single pass, and tells which patterns match the whole
+ * string.
+ *
+ * The automaton is the product of the automata of the patterns, the product states are built lazily the first time
+ * they are reached, so only the states visited by the real inputs are ever built. If there are more than
+ * [maxStates] product states, the new states are computed on the fly without being cached.
+ *
+ * If [firstMatchOnly] is true, only the first matching pattern is required: once a pattern reaches a state accepting
+ * any suffix, the patterns after it are dropped from the product state, and the run stops as soon as the first
+ * match is certain.
+ * */
+class MultiPatternAutomaton(
+    /**
+     * The patterns, the index of a pattern is its position in the list
+     * */
+    patterns: List<RunAutomaton>,
+    /**
+     * Whether only the first matching pattern is required
+     * */
+    val firstMatchOnly: Boolean = true,
+    /**
+     * The max number of cached product states
+     * */
+    val maxStates: Int = DEFAULT_MAX_STATES
+) {
+    companion object {
+        const val DEFAULT_MAX_STATES = 10_000
+        private val NO_MATCH = IntArray(0)
+    }
+
+    private val automata = patterns.toTypedArray()
+
+    /**
+     * The states accepting any suffix of every pattern
+     * */
+    private val acceptAll = automata.map { computeAcceptAll(it) }
+
+    /**
+     * The start points of the char classes of all patterns, chars in the same class make the same transitions
+     * */
+    private val points = automata.flatMap { it.charIntervals.asIterable() }.plus(Char.MIN_VALUE).toSortedSet().toCharArray()
+    private val asciiClasses = IntArray(128) { classOf(it.toChar()) }
+
+    private val states = ConcurrentHashMap<StateKey, State>()
+
+    private val initialState = intern(IntArray(automata.size) { it }, IntArray(automata.size) { automata[it].initialState })
+
+    /**
+     * The number of patterns
+     * */
+    val size get() = automata.size
+
+    /**
+     * The number of cached product states
+     * */
+    val numStates get() = states.size
+
+    /**
+     * Run all patterns on the string.
+     *
+     * @return the indexes of the patterns matching the whole string in ascending order, if [firstMatchOnly] is true,
+     * at most the first matching pattern is returned
+     * */
+    fun run(s: CharSequence): IntArray {
+        var state = initialState
+        for (i in 0 until s.length) {
+            if (state.isTerminal) {
+                break
+            }
+
+            val c = s[i]
+            val cls = if (c.code < 128) asciiClasses[c.code] else classOf(c)
+            state = state.next[cls] ?: step(state, cls)
+        }
+
+        return state.accepted
+    }
+
+    /**
+     * The index of the first pattern matching the whole string, or -1 if no pattern matches.
+     * */
+    fun firstMatch(s: CharSequence): Int = run(s).firstOrNull() ?: -1
+
+    private fun step(state: State, cls: Int): State {
+        val c = points[cls]
+        var n = 0
+        val patterns = IntArray(state.patterns.size)
+        val patternStates = IntArray(state.patterns.size)
+        for (k in state.patterns.indices) {
+            val p = state.patterns[k]
+            val s = automata[p].step(state.patternStates[k], c)
+            if (s >= 0) {
+                patterns[n] = p
+                patternStates[n] = s
+                ++n
+            }
+        }
+
+        val next = intern(patterns.copyOf(n), patternStates.copyOf(n))
+        if (next.cached) {
+            // racing threads compute the same state, so the plain write is harmless
+            state.next[cls] = next
+        }
+        return next
+    }
+
+    private fun intern(patterns: IntArray, patternStates: IntArray): State {
+        var n = patterns.size
+        if (firstMatchOnly) {
+            // the patterns after a pattern accepting any suffix are never the first match
+            val k = patterns.indices.firstOrNull { acceptAll[patterns[it]][patternStates[it]] }
+            if (k != null) {
+                n = k + 1
+            }
+        }
+
+        val key = StateKey(patterns.copyOf(n), patternStates.copyOf(n))
+        states[key]?.let { return it }
+
+        if (states.size >= maxStates) {
+            return newState(key, false)
+        }
+        return states.computeIfAbsent(key) { newState(it, true) }
+    }
+
+    private fun newState(key: StateKey, cached: Boolean): State {
+        val patterns = key.patterns
+        val patternStates = key.patternStates
+        val accepted = patterns.indices.filter { automata[patterns[it]].isAccept(patternStates[it]) }.map { patterns[it] }
+        val isTerminal = when {
+            patterns.isEmpty() -> true
+            // the first live pattern is certain to match
+            firstMatchOnly -> acceptAll[patterns[0]][patternStates[0]]
+            else -> false
+        }
+
+        val finalAccepted = when {
+            accepted.isEmpty() -> NO_MATCH
+            firstMatchOnly -> intArrayOf(accepted.first())
+            else -> accepted.toIntArray()
+        }
+        return State(patterns, patternStates, finalAccepted, isTerminal, cached, arrayOfNulls(points.size))
+    }
+
+    private fun classOf(c: Char): Int {
+        val i = Arrays.binarySearch(points, c)
+        return if (i >= 0) i else -i - 2
+    }
+
+    private fun computeAcceptAll(automaton: RunAutomaton): BooleanArray {
+        val intervals = automaton.charIntervals
+        return BooleanArray(automaton.size) { s ->
+            automaton.isAccept(s) && intervals.all { automaton.step(s, it) == s }
+        }
+    }
+
+    private class StateKey(val patterns: IntArray, val patternStates: IntArray) {
+        private val hash = 31 * patterns.contentHashCode() + patternStates.contentHashCode()
+
+        override fun hashCode() = hash
+
+        override fun equals(other: Any?): Boolean {
+            return other is StateKey && patterns.contentEquals(other.patterns) && patternStates.contentEquals(other.patternStates)
+        }
+    }
+
+    private class State(
+        /**
+         * The live patterns in ascending order
+         * */
+        val patterns: IntArray,
+        /**
+         * The states of the live patterns
+         * */
+        val patternStates: IntArray,
+        /**
+         * The patterns accepting if the string ends here
+         * */
+        val accepted: IntArray,
+        /**
+         * The result never changes whatever the rest of the string is
+         * */
+        val isTerminal: Boolean,
+        val cached: Boolean,
+        val next: Array<State?>
+    )
+}
@@ -0,0 +1,241 @@
+package ai.platon.pulsar.filter.common
+
+/**
+ * Translate rules to the forms a [CompiledRuleSet] can compile.
+ *
+ * A java regular expression is translated to a [dk.brics.automaton.RegExp] only if it uses the common subset of
+ * the two syntaxes: literals, `.`, character classes, groups, alternations, greedy or lazy quantifiers, `\d`, `\w`,
+ * and the `^`, `$` anchors at the two ends. The translated expression matches the whole string iff the java
+ * pattern finds a match in the string. Any other regular expression, for example, one with back references,
+ * look-arounds or flags, is not translated, and the caller falls back to the java pattern.
+ * */
+object RegexRuleTranslator {
+    private const val AUTOMATON_RESERVED = "|&?*+{}[]~\"()#@<>.\\"
+    private const val JAVA_RESERVED = ".*+?()[]{}|^$\\"
+
+    /**
+     * Translate a java regular expression to an automaton regular expression with the same find semantics.
+     *
+     * @return the automaton regular expression, or null if the regular expression is not supported
+     * */
+    fun javaToAutomaton(regex: String): String? {
+        val startAnchored = regex.startsWith("^")
+        val endAnchored = regex.length > (if (startAnchored) 1 else 0) && regex.endsWith("$") && !isEscaped(regex, regex.length - 1)
+        val body = regex.substring(if (startAnchored) 1 else 0, if (endAnchored) regex.length - 1 else regex.length)
+
+        val translated = translateBody(body) ?: return null
+        if (translated.topLevelAlternation && (startAnchored || endAnchored)) {
+            // ^a|b$ is (^a)|(b$) in java
+            return null
+        }
+
+        val sb = StringBuilder()
+        if (!startAnchored) sb.append(".*")
+        if (translated.expression.isEmpty()) {
+            sb.append("\"\"")
+        } else {
+            sb.append('(').append(translated.expression).append(')')
+        }
+        if (!endAnchored) sb.append(".*")
+        return sb.toString()
+    }
+
+    /**
+     * Find out the literal prefix of a java regular expression like `^http://www\.example\.com/` or
+     * `^http://www\.example\.com/.*`, a url is found by such a regular expression iff it starts with the prefix.
+     *
+     * @return the literal prefix, or null if the regular expression is not a literal prefix rule
+     * */
+    fun javaLiteralPrefix(regex: String): String? {
+        if (!regex.startsWith("^")) {
+            return null
+        }
+
+        val end = if (regex.endsWith(".*") && !isEscaped(regex, regex.length - 2)) regex.length - 2 else regex.length
+        return unescapeLiteral(regex, 1, end, JAVA_RESERVED)
+    }
+
+    /**
+     * Find out the literal prefix of an automaton regular expression like `http://www\.example\.com/.*`, a url is
+     * matched by such a regular expression iff it starts with the prefix.
+     *
+     * @return the literal prefix, or null if the regular expression is not a literal prefix rule
+     * */
+    fun automatonLiteralPrefix(regex: String): String? {
+        val end = when {
+            regex.endsWith(".*") && !isEscaped(regex, regex.length - 2) -> regex.length - 2
+            regex.endsWith("@") && !isEscaped(regex, regex.length - 1) -> regex.length - 1
+            else -> return null
+        }
+
+        return unescapeLiteral(regex, 0, end, AUTOMATON_RESERVED)
+    }
+
+    private class Translated(val expression: String, val topLevelAlternation: Boolean)
+
+    private fun translateBody(body: String): Translated? {
+        val sb = StringBuilder()
+        var depth = 0
+        var topLevelAlternation = false
+        var i = 0
+        while (i < body.length) {
+            val c = body[i]
+            when (c) {
+                '\\' -> {
+                    val next = body.getOrNull(i + 1) ?: return null
+                    sb.append(translateEscape(next, false) ?: return null)
+                    i += 2
+                }
+                '.' -> { sb.append('.'); ++i }
+                '*', '+', '?' -> {
+                    sb.append(c)
+                    i = skipQuantifierModifier(body, i + 1)
+                    if (i < 0) return null
+                }
+                '{' -> {
+                    val close = body.indexOf('}', i)
+                    if (close < 0) return null
+                    val bound = body.substring(i + 1, close)
+                    if (!bound.matches("\\d+(,\\d*)?".toRegex())) return null
+                    sb.append('{').append(bound).append('}')
+                    i = skipQuantifierModifier(body, close + 1)
+                    if (i < 0) return null
+                }
+                '(' -> {
+                    if (body.getOrNull(i + 1) == '?') {
+                        // only non-capturing groups are supported
+                        if (body.getOrNull(i + 2) != ':') return null
+                        i += 3
+                    } else {
+                        ++i
+                    }
+                    sb.append('(')
+                    ++depth
+                }
+                ')' -> {
+                    if (--depth < 0) return null
+                    sb.append(')')
+                    ++i
+                }
+                '|' -> {
+                    if (depth == 0) topLevelAlternation = true
+                    sb.append('|')
+                    ++i
+                }
+                '[' -> {
+                    i = translateCharClass(body, i, sb)
+                    if (i < 0) return null
+                }
+                '^', '$', ']', '}' -> return null
+                else -> {
+                    appendLiteral(c, sb)
+                    ++i
+                }
+            }
+        }
+
+        return if (depth == 0) Translated(sb.toString(), topLevelAlternation) else null
+    }
+
+    /**
+     * Lazy quantifiers find the same urls as greedy ones, possessive quantifiers do not.
+     * */
+    private fun skipQuantifierModifier(body: String, i: Int): Int {
+        return when (body.getOrNull(i)) {
+            '?' -> i + 1
+            '+' -> -1
+            else -> i
+        }
+    }
+
+    private fun translateCharClass(body: String, start: Int, sb: StringBuilder): Int {
+        var i = start + 1
+        sb.append('[')
+        if (body.getOrNull(i) == '^') {
+            sb.append('^')
+            ++i
+        }
+        // a leading ']' is a literal in java but not in automaton
+        if (body.getOrNull(i) == ']') return -1
+
+        while (i < body.length) {
+            val c = body[i]
+            when {
+                c == ']' -> {
+                    sb.append(']')
+                    return i + 1
+                }
+                c == '\\' -> {
+                    val next = body.getOrNull(i + 1) ?: return -1
+                    sb.append(translateEscape(next, true) ?: return -1)
+                    i += 2
+                }
+                // union and intersection of classes
+                c == '[' || (c == '&' && body.getOrNull(i + 1) == '&') -> return -1
+                c == '-' -> { sb.append('-'); ++i }
+                else -> { appendLiteral(c, sb); ++i }
+            }
+        }
+
+        return -1
+    }
+
+    private fun translateEscape(c: Char, inClass: Boolean): String? {
+        val range = when (c) {
+            'd' -> "0-9"
+            'w' -> "a-zA-Z_0-9"
+            else -> null
+        }
+        if (range != null) {
+            return if (inClass) range else "[$range]"
+        }
+
+        if (!inClass) {
+            when (c) {
+                'D' -> return "[^0-9]"
+                'W' -> return "[^a-zA-Z_0-9]"
+            }
+        }
+
+        // back references, boundaries, quotations, unicode escapes and so on
+        return if (c.isLetterOrDigit()) null else "\\$c"
+    }
+
+    private fun appendLiteral(c: Char, sb: StringBuilder) {
+        if (c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9') {
+            sb.append(c)
+        } else {
+            sb.append('\\').append(c)
+        }
+    }
+
+    private fun unescapeLiteral(regex: String, start: Int, end: Int, reserved: String): String? {
+        val sb = StringBuilder()
+        var i = start
+        while (i < end) {
+            val c = regex[i]
+            if (c == '\\') {
+                val next = regex.getOrNull(i + 1)?.takeIf { i + 1 < end } ?: return null
+                if (next.isLetterOrDigit()) return null
+                sb.append(next)
+                i += 2
+            } else {
+                if (c in reserved) return null
+                sb.append(c)
+                ++i
+            }
+        }
+
+        return sb.toString().takeIf { it.isNotEmpty() }
+    }
+
+    private fun isEscaped(s: String, index: Int): Boolean {
+        var n = 0
+        var i = index - 1
+        while (i >= 0 && s[i] == '\\') {
+            ++n
+            --i
+        }
+        return n % 2 == 1
+    }
+}
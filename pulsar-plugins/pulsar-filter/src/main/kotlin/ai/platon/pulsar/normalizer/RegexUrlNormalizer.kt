@@ -24,6 +24,7 @@ import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.stringify
 import ai.platon.pulsar.crawl.filter.AbstractScopedUrlNormalizer
 import ai.platon.pulsar.crawl.filter.UrlNormalizer
+import ai.platon.pulsar.filter.common.CompiledRuleSet
 import org.slf4j.LoggerFactory
 import org.w3c.dom.Element
 import org.w3c.dom.Text
@@ -32,6 +33,7 @@ import java.io.FileNotFoundException
 import java.io.IOException
 import java.io.Reader
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 import java.util.regex.PatternSyntaxException
 import javax.xml.parsers.DocumentBuilderFactory
@@ -51,14 +53,14 @@ import javax.xml.parsers.DocumentBuilderFactory
  * @author Andrzej Bialecki
  */
 class RegexUrlNormalizer(private val conf: ImmutableConfig) : AbstractScopedUrlNormalizer() {
-    private val scopedRulesThreadLocal = object : ThreadLocal<HashMap<String, List<Rule>>>() {
-        override fun initialValue(): HashMap<String, List<Rule>> {
-            return HashMap()
-        }
-    }
+    /**
+     * Whether to compile the rules, so the rules not matching a url are skipped in a single pass
+     * */
+    private val compileRules = conf.getBoolean(URLNORMALIZER_COMPILE_RULES, false)
+    private val scopedRuleSets = ConcurrentHashMap<String, RuleSet>()
 
-    private val defaultRules: List<Rule>
-    val scopedRules: HashMap<String, List<Rule>> get() = scopedRulesThreadLocal.get()
+    private val defaultRules: RuleSet
+    val scopedRules: Map<String, List<Rule>> get() = scopedRuleSets.mapValues { it.value.rules }
 
     @Throws(FileNotFoundException::class)
     protected fun getRulesReader(conf: ImmutableConfig): Reader {
@@ -72,7 +74,7 @@ class RegexUrlNormalizer(private val conf: ImmutableConfig) : AbstractScopedUrlN
     // used in JUnit test.
     fun setConfiguration(reader: Reader, scope: String) {
         val rules = readConfiguration(reader)
-        scopedRules[scope] = rules
+        scopedRuleSets[scope] = RuleSet(rules)
         LOG.debug("Set config for scope '" + scope + "': " + rules.size + " rules.")
     }
 
@@ -80,35 +82,43 @@ class RegexUrlNormalizer(private val conf: ImmutableConfig) : AbstractScopedUrlN
      * This function does the replacements by iterating through all the regex
      * patterns. It accepts a string url as input and returns the altered string.
      */
-    fun regexNormalize(urlString_: String, scope: String): String? {
-        var urlString = urlString_
-        var curRules = scopedRules[scope]
-        if (curRules == null) { // try to populate
-            val fileResource = conf["$URLNORMALIZER_REGEX_FILE.$scope"]
-            if (fileResource != null) {
-                val resourcePrefix = conf[CapabilityTypes.LEGACY_CONFIG_PROFILE, ""]
-                LOG.debug("resource for scope '$scope': $fileResource")
-                ResourceLoader.getResourceAsReader(fileResource, resourcePrefix).use {
-                    reader -> curRules = readConfiguration(reader!!)
-                }
-            }
-            if (curRules == null) {
-                curRules = EMPTY_RULES
-            }
-
-            scopedRules[scope] = curRules!!
+    fun regexNormalize(urlString: String, scope: String): String? {
+        var ruleSet = scopedRuleSets.computeIfAbsent(scope) { RuleSet(loadScopedRules(it)) }
+        if (ruleSet.rules.isEmpty()) {
+            ruleSet = defaultRules
         }
 
-        if (curRules!!.isEmpty()) {
-            curRules = defaultRules
+        val compiled = ruleSet.compiled
+        if (compiled == null) {
+            return ruleSet.rules.fold(urlString) { url, r -> r.pattern!!.matcher(url).replaceAll(r.substitution) }
         }
 
-        for (r in curRules!!) {
-            val matcher = r.pattern!!.matcher(urlString)
-            urlString = matcher.replaceAll(r.substitution)
+        // only the matching rules are applied, the later rules are matched again once the url is changed
+        var url = urlString
+        var matches = compiled.allMatches(url)
+        var k = 0
+        while (k < matches.size) {
+            val i = matches[k]
+            val r = ruleSet.rules[i]
+            val normalized = r.pattern!!.matcher(url).replaceAll(r.substitution)
+            if (normalized != url) {
+                url = normalized
+                matches = compiled.allMatches(url)
+                k = matches.indexOfFirst { it > i }.takeIf { it >= 0 } ?: matches.size
+            } else {
+                ++k
+            }
         }
 
-        return urlString
+        return url
+    }
+
+    private fun loadScopedRules(scope: String): List<Rule> {
+        val fileResource = conf["$URLNORMALIZER_REGEX_FILE.$scope"] ?: return EMPTY_RULES
+
+        val resourcePrefix = conf[CapabilityTypes.LEGACY_CONFIG_PROFILE, ""]
+        LOG.debug("resource for scope '$scope': $fileResource")
+        return ResourceLoader.getResourceAsReader(fileResource, resourcePrefix)?.use { readConfiguration(it) } ?: EMPTY_RULES
     }
 
     override fun normalize(url: String, scope: String): String? {
@@ -176,9 +186,21 @@ class RegexUrlNormalizer(private val conf: ImmutableConfig) : AbstractScopedUrlN
         var substitution: String? = null
     }
 
+    /**
+     * The rules of a scope, and the rules compiled to find out the matching rules in a single pass.
+     * */
+    private inner class RuleSet(val rules: List<Rule>) {
+        val compiled: CompiledRuleSet? by lazy {
+            if (compileRules && rules.isNotEmpty()) {
+                CompiledRuleSet(rules.map { it.pattern!!.pattern() }, CompiledRuleSet.RuleSyntax.JAVA, firstMatchOnly = false)
+            } else null
+        }
+    }
+
     companion object {
         const val URLNORMALIZER_REGEX_FILE = "urlnormalizer.regex.file"
         const val URLNORMALIZER_REGEX_RULES = "urlnormalizer.regex.rules"
+        const val URLNORMALIZER_COMPILE_RULES = "urlnormalizer.compile.rules"
         private val LOG = LoggerFactory.getLogger(RegexUrlNormalizer::class.java)
         private val EMPTY_RULES: List<Rule> = emptyList()
     }
@@ -190,6 +212,6 @@ class RegexUrlNormalizer(private val conf: ImmutableConfig) : AbstractScopedUrlN
         } catch (e: IOException) {
             LOG.error(e.stringify())
         }
-        defaultRules = rules
+        defaultRules = RuleSet(rules)
     }
 }
@@ -0,0 +1,180 @@
+package ai.platon.pulsar.filter
+
+import ai.platon.pulsar.common.ResourceLoader
+import ai.platon.pulsar.common.config.MutableConfig
+import ai.platon.pulsar.filter.common.AbstractRegexUrlFilter
+import ai.platon.pulsar.filter.common.CompiledRuleSet
+import ai.platon.pulsar.filter.common.CompiledRuleSet.RuleSyntax
+import ai.platon.pulsar.filter.common.RegexRuleTranslator
+import ai.platon.pulsar.normalizer.RegexUrlNormalizer
+import dk.brics.automaton.RegExp
+import dk.brics.automaton.RunAutomaton
+import org.junit.Ignore
+import java.io.StringReader
+import java.util.regex.Pattern
+import kotlin.system.measureTimeMillis
+import kotlin.test.*
+
+class TestCompiledRuleSet {
+    private val urls = listOf(
+        "http://www.example.com/",
+        "https://www.example.com/a/b/c.html?x=1",
+        "http://item.jd.com/100012043978.html",
+        "http://list.jd.com/list.html?cat=9987&page=2",
+        "http://list.yhd.com/c1-0/b/a-s1-v4-p1-price-d0-f0-m1-rt0-pid-mid0-k?page=3&sort=1",
+        "http://detail.tmall.com/item.htm?id=42&sort=s&cat=50072330",
+        "ftp://ftp.example.org/file.zip",
+        "mailto:someone@example.com",
+        "http://www.example.fr/images/logo.GIF",
+        "http://a.b.example.net/x/y/x/y/x/",
+        "http://www.example.com/x/y/x/y/x/",
+        ""
+    )
+
+    private val javaRules = listOf(
+        "^(file|ftp|mailto):",
+        "\\.(gif|GIF|jpg|JPG|ico|ICO|css|zip)$",
+        "[?*!@=]",
+        "^http://item\\.jd\\.com/",
+        "^http://list\\.jd\\.com/(.+)page=\\d",
+        "^http://([a-z0-9]*\\.)*tmall.com/(.+)sort=s(.+)(50072330|50099663)",
+        "-.*(/.+?)/.*?\\1/.*?\\1/",
+        "^.*//.*\\.(fr|net)/",
+        "^http://www\\.example\\.com/",
+        "\\w+\\.html$",
+        "^$",
+        "."
+    )
+
+    @Test
+    fun testTranslateJavaRegex() {
+        assertEquals("http://www.example.com/", RegexRuleTranslator.javaLiteralPrefix("^http://www\\.example\\.com/"))
+        assertEquals("http://a.com/", RegexRuleTranslator.javaLiteralPrefix("^http://a\\.com/.*"))
+        assertNull(RegexRuleTranslator.javaLiteralPrefix("^http://a.com/"))
+        assertNull(RegexRuleTranslator.javaLiteralPrefix("http://a\\.com/"))
+        assertNull(RegexRuleTranslator.javaLiteralPrefix("^http://a\\.com/$"))
+
+        assertNotNull(RegexRuleTranslator.javaToAutomaton("^http://list\\.jd\\.com/(?:.+?)page=\\d{1,3}"))
+        // back reference
+        assertNull(RegexRuleTranslator.javaToAutomaton("(/.+?)/.*?\\1/"))
+        // anchor in the middle
+        assertNull(RegexRuleTranslator.javaToAutomaton("-.+^http://item"))
+        // anchors with a top level alternation
+        assertNull(RegexRuleTranslator.javaToAutomaton("^a|b$"))
+        // possessive quantifier
+        assertNull(RegexRuleTranslator.javaToAutomaton("a*+b"))
+        // look around
+        assertNull(RegexRuleTranslator.javaToAutomaton("a(?=b)"))
+    }
+
+    @Test
+    fun testTranslatedAutomatonFindsTheSameAsJavaPattern() {
+        javaRules.forEach { regex ->
+            val translated = RegexRuleTranslator.javaToAutomaton(regex) ?: return@forEach
+            val automaton = RunAutomaton(RegExp(translated, RegExp.ALL).toAutomaton())
+            val pattern = Pattern.compile(regex)
+            urls.forEach { url ->
+                assertEquals(pattern.matcher(url).find(), automaton.run(url), "$regex | $translated | $url")
+            }
+        }
+    }
+
+    @Test
+    fun testFirstMatchIsTheSameAsSequentialMatch() {
+        val ruleSet = CompiledRuleSet(javaRules, RuleSyntax.JAVA)
+        assertTrue { ruleSet.numPrefixRules > 0 }
+        assertTrue { ruleSet.numAutomatonRules > 0 }
+        assertEquals(1, ruleSet.numFallbackRules)
+
+        val patterns = javaRules.map { Pattern.compile(it) }
+        urls.forEach { url ->
+            assertEquals(patterns.indexOfFirst { it.matcher(url).find() }, ruleSet.firstMatch(url), url)
+        }
+    }
+
+    @Test
+    fun testAllMatchesAreTheSameAsSequentialMatch() {
+        val ruleSet = CompiledRuleSet(javaRules, RuleSyntax.JAVA, firstMatchOnly = false)
+        val patterns = javaRules.map { Pattern.compile(it) }
+        urls.forEach { url ->
+            val expected = patterns.indices.filter { patterns[it].matcher(url).find() }
+            assertEquals(expected, ruleSet.allMatches(url).toList(), url)
+        }
+    }
+
+    @Test
+    fun testCompiledFiltersAreTheSameAsSequentialFilters() {
+        val conf = MutableConfig()
+        val compiledConf = MutableConfig().also { it.setBoolean(AbstractRegexUrlFilter.URLFILTER_COMPILE_RULES, true) }
+
+        listOf("WholeWebCrawling", "IntranetCrawling", "Benchmarks", "Tmail", "Bigbit", "Ccc").forEach { name ->
+            val rules = readResource("sample/$name.rules")
+            val expected = RegexUrlFilter(StringReader(rules), conf)
+            val actual = RegexUrlFilter(StringReader(rules), compiledConf)
+            assertNotNull(actual.compiledRules)
+            readSampleUrls("sample/$name.urls").forEach { url ->
+                assertEquals(expected.filter(url), actual.filter(url), "$name | $url")
+            }
+        }
+
+        listOf("WholeWebCrawling", "IntranetCrawling", "Benchmarks").forEach { name ->
+            val rules = readResource("automaton/sample/$name.rules")
+            val expected = AutomatonUrlFilter(StringReader(rules), conf)
+            val actual = AutomatonUrlFilter(StringReader(rules), compiledConf)
+            readSampleUrls("automaton/sample/$name.urls").forEach { url ->
+                assertEquals(expected.filter(url), actual.filter(url), "$name | $url")
+            }
+        }
+    }
+
+    @Test
+    fun testCompiledNormalizerIsTheSameAsSequentialNormalizer() {
+        val rules = readResource("normregex/sample/regex-normalize-default.xml")
+        val conf = MutableConfig().also { it[RegexUrlNormalizer.URLNORMALIZER_REGEX_RULES] = rules }
+        val compiledConf = MutableConfig(conf).also { it.setBoolean(RegexUrlNormalizer.URLNORMALIZER_COMPILE_RULES, true) }
+        val expected = RegexUrlNormalizer(conf)
+        val actual = RegexUrlNormalizer(compiledConf)
+
+        readResource("normregex/sample/regex-normalize-default.test").lines()
+            .map { it.trim() }.filter { it.isNotEmpty() && !it.startsWith("#") }
+            .map { it.split("\\s+".toRegex())[0] }
+            .forEach { url -> assertEquals(expected.normalize(url), actual.normalize(url), url) }
+    }
+
+    @Ignore("Time consuming task, should be run separately")
+    @Test
+    fun benchFirstMatch() {
+        val testUrls = IntRange(1, 10_000).map { "https://www.site${it % 2000}.com/category/${it % 37}/item-$it.html?page=${it % 10}" }
+        listOf(10, 100, 1000).forEach { numRules ->
+            // site rules, extension rules, query rules and a final catch all rule
+            val rules = IntRange(1, numRules - 1).map { i ->
+                when (i % 3) {
+                    0 -> "^https://www\\.site$i\\.com/"
+                    1 -> "^https://([a-z0-9]*\\.)*site$i\\.com/(.+)page=\\d"
+                    else -> "\\.(gif|jpg|png|css|x$i)$"
+                }
+            } + "."
+
+            val patterns = rules.map { Pattern.compile(it) }
+            val ruleSet = CompiledRuleSet(rules, RuleSyntax.JAVA)
+            // warm up and check
+            testUrls.forEach { url -> assertEquals(patterns.indexOfFirst { it.matcher(url).find() }, ruleSet.firstMatch(url)) }
+
+            val sequentialTime = measureTimeMillis {
+                repeat(5) { testUrls.forEach { url -> patterns.indexOfFirst { it.matcher(url).find() } } }
+            }
+            val compiledTime = measureTimeMillis {
+                repeat(5) { testUrls.forEach { url -> ruleSet.firstMatch(url) } }
+            }
+            println("$numRules rules | sequential: ${sequentialTime}ms compiled: ${compiledTime}ms")
+        }
+    }
+
+    private fun readResource(resource: String): String {
+        return ResourceLoader.getResourceAsReader(resource)!!.use { it.readText() }
+    }
+
+    private fun readSampleUrls(resource: String): List<String> {
+        return readResource(resource).lines().filter { it.length > 1 }.map { it.substring(1) }
+    }
+}
@@ -5,6 +5,8 @@ import ai.platon.pulsar.common.config.AppConstants.DEFAULT_BROWSER_MAX_ACTIVE_TA
 import ai.platon.pulsar.common.config.CapabilityTypes.BROWSER_MAX_ACTIVE_TABS
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.config.Parameterized
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.metrics.MetricsSystem
 import ai.platon.pulsar.common.persist.ext.event
 import ai.platon.pulsar.crawl.fetch.FetchResult
@@ -486,10 +488,14 @@ open class WebDriverPoolManager(
     @Throws(BrowserLaunchException::class, WebDriverPoolExhaustedException::class, InterruptedException::class)
     private suspend fun runWithDriverPool(task: WebDriverTask, driverPool: LoadingWebDriverPool): FetchResult? {
         var driver: WebDriver? = null
+        val timings = task.page.stageTimings
         try {
-            driver = driverPool.poll(task.priority, task.volatileConfig, task.page.event?.browseEvent, task.page)
+            val polledDriver = LoadSpans.trace(LoadStage.DRIVER_POLL, timings) {
+                driverPool.poll(task.priority, task.volatileConfig, task.page.event?.browseEvent, task.page)
+            }
+            driver = polledDriver
             
-            return runWithDriver(task, driver)
+            return LoadSpans.trace(LoadStage.BROWSE, timings) { runWithDriver(task, polledDriver) }
         } finally {
             driver?.let { driverPool.put(it) }
         }
@@ -20,11 +20,13 @@ import com.fasterxml.jackson.module.kotlin.readValue
 import com.github.kklisura.cdt.protocol.v2023.events.network.RequestWillBeSent
 import com.github.kklisura.cdt.protocol.v2023.events.network.ResponseReceived
 import com.github.kklisura.cdt.protocol.v2023.events.page.WindowOpen
+import com.github.kklisura.cdt.protocol.v2023.types.dom.Node
 import com.github.kklisura.cdt.protocol.v2023.types.fetch.RequestPattern
 import com.github.kklisura.cdt.protocol.v2023.types.network.Cookie
 import com.github.kklisura.cdt.protocol.v2023.types.network.ErrorReason
 import com.github.kklisura.cdt.protocol.v2023.types.network.LoadNetworkResourceOptions
 import com.github.kklisura.cdt.protocol.v2023.types.network.ResourceType
+import com.github.kklisura.cdt.protocol.v2023.types.page.FrameTree
 import com.github.kklisura.cdt.protocol.v2023.types.runtime.Evaluate
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
@@ -150,15 +152,27 @@ class ChromeDevtoolsDriver(
     }
     
     override suspend fun deleteCookies(name: String) {
-        invokeOnPage("deleteCookies") { networkAPI?.deleteCookies(name) }
+        invokeOnPageSuspending("deleteCookies") {
+            devTools.invokeDeferred("Network.deleteCookies", mapOf("name" to name), null, Void.TYPE)
+        }
     }
     
     override suspend fun deleteCookies(name: String, url: String?, domain: String?, path: String?) {
-        invokeOnPage("deleteCookies") { networkAPI?.deleteCookies(name, url, domain, path) }
+        val params = buildMap<String, Any> {
+            put("name", name)
+            url?.let { put("url", it) }
+            domain?.let { put("domain", it) }
+            path?.let { put("path", it) }
+        }
+        invokeOnPageSuspending("deleteCookies") {
+            devTools.invokeDeferred("Network.deleteCookies", params, null, Void.TYPE)
+        }
     }
     
     override suspend fun clearBrowserCookies() {
-        invokeOnPage("clearBrowserCookies") { networkAPI?.clearBrowserCookies() }
+        invokeOnPageSuspending("clearBrowserCookies") {
+            devTools.invokeDeferred("Network.clearBrowserCookies", null, null, Void.TYPE)
+        }
     }
     
     override suspend fun selectFirstAttributeOrNull(selector: String, attrName: String): String? {
@@ -184,7 +198,9 @@ class ChromeDevtoolsDriver(
     
     @Throws(WebDriverException::class)
     override suspend fun currentUrl(): String {
-        navigateUrl = invokeOnPage("currentUrl") { mainFrameAPI?.url } ?: navigateUrl
+        navigateUrl = invokeOnPageSuspending("currentUrl") {
+            devTools.invokeDeferred("Page.getFrameTree", null, "frameTree", FrameTree::class.java)?.frame?.url
+        } ?: navigateUrl
         return navigateUrl
     }
     
@@ -461,7 +477,9 @@ class ChromeDevtoolsDriver(
     
     @Throws(WebDriverException::class)
     override suspend fun outerHTML(): String? {
-        return invokeOnPage("outerHTML") { domAPI?.outerHTML }
+        return invokeOnPageSuspending("outerHTML") {
+            devTools.invokeDeferred("DOM.getOuterHTML", null, "outerHTML", String::class.java)
+        }
     }
     
     @Throws(WebDriverException::class)
@@ -513,7 +531,7 @@ class ChromeDevtoolsDriver(
         return try {
             val nodeId = page.scrollIntoViewIfNeeded(selector) ?: return null
             // Force the page stop all navigations and pending resource fetches.
-            rpc.invokeDeferred("stopLoading") { pageAPI?.stopLoading() }
+            rpc.invokeSuspending("stopLoading") { devTools.invokeDeferred("Page.stopLoading", null, null, Void.TYPE) }
             rpc.invokeDeferred("captureScreenshot") { screenshot.captureScreenshot(selector) }
         } catch (e: ChromeRPCException) {
             rpc.handleRPCException(e, "captureScreenshot")
@@ -525,7 +543,7 @@ class ChromeDevtoolsDriver(
     override suspend fun captureScreenshot(rect: RectD): String? {
         return try {
             // Force the page stop all navigations and pending resource fetches.
-            rpc.invokeDeferred("stopLoading") { pageAPI?.stopLoading() }
+            rpc.invokeSuspending("stopLoading") { devTools.invokeDeferred("Page.stopLoading", null, null, Void.TYPE) }
             rpc.invokeDeferred("captureScreenshot") { screenshot.captureScreenshot(rect) }
         } catch (e: ChromeRPCException) {
             rpc.handleRPCException(e, "captureScreenshot")
@@ -555,12 +573,18 @@ class ChromeDevtoolsDriver(
     
     @Throws(WebDriverException::class)
     override suspend fun pageSource(): String? {
-        return invokeOnPage("pageSource") { domAPI?.getOuterHTML(domAPI?.document?.nodeId, null, null) }
+        return invokeOnPageSuspending("pageSource") {
+            val document = devTools.invokeDeferred("DOM.getDocument", null, "root", Node::class.java)
+            val nodeId = document?.nodeId
+            if (nodeId != null) {
+                devTools.invokeDeferred("DOM.getOuterHTML", mapOf("nodeId" to nodeId), "outerHTML", String::class.java)
+            } else null
+        }
     }
     
     override suspend fun bringToFront() {
-        rpc.invokeDeferredSilently("bringToFront") {
-            pageAPI?.bringToFront()
+        rpc.invokeSuspendingSilently("bringToFront") {
+            devTools.invokeDeferred("Page.bringToFront", null, null, Void.TYPE)
         }
     }
     
@@ -608,7 +632,7 @@ class ChromeDevtoolsDriver(
     
     @Throws(WebDriverException::class)
     override suspend fun pause() {
-        invokeOnPage("pause") { pageAPI?.stopLoading() }
+        invokeOnPageSuspending("pause") { devTools.invokeDeferred("Page.stopLoading", null, null, Void.TYPE) }
     }
     
     @Throws(WebDriverException::class)
@@ -941,6 +965,22 @@ class ChromeDevtoolsDriver(
         return null
     }
     
+    /**
+     * Invokes an action which sends CDP messages by [RemoteDevTools.invokeDeferred], the action suspends
+     * instead of parking a thread while waiting for the response.
+     * */
+    private suspend fun <T> invokeOnPageSuspending(name: String, message: String? = null, action: suspend () -> T): T? {
+        try {
+            return rpc.invokeSuspending(name) {
+                action()
+            }
+        } catch (e: ChromeRPCException) {
+            rpc.handleRPCException(e, name, message)
+        }
+        
+        return null
+    }
+    
     private suspend fun <T> invokeOnElement(
         selector: String, name: String, focus: Boolean = false, scrollIntoView: Boolean = false,
         action: suspend (Int) -> T
@@ -1,5 +1,6 @@
 package ai.platon.pulsar.protocol.browser.driver.cdt.detail
 
+import ai.platon.pulsar.browser.driver.chrome.RemoteDevTools
 import ai.platon.pulsar.browser.driver.chrome.util.ChromeDevToolsClosedException
 import ai.platon.pulsar.browser.driver.chrome.util.ChromeRPCException
 import ai.platon.pulsar.common.AppContext
@@ -8,6 +9,7 @@ import ai.platon.pulsar.common.getLogger
 import ai.platon.pulsar.common.stringify
 import ai.platon.pulsar.protocol.browser.driver.SessionLostException
 import ai.platon.pulsar.protocol.browser.driver.cdt.ChromeDevtoolsDriver
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
@@ -23,6 +25,27 @@ internal class RobustRPC(
         private val exceptionCounts = ConcurrentHashMap<Long, AtomicInteger>()
         private val exceptionMessages = ConcurrentHashMap<Long, String>()
         var MAX_RPC_FAILURES = 5
+
+        /**
+         * Run [block], and retry at most [maxRetry] times if it throws a [ChromeRPCException] and [canRetry] returns
+         * true. Other exceptions, including [CancellationException], are thrown immediately, so a cancelled coroutine
+         * never issues another call.
+         * */
+        @Throws(ChromeRPCException::class)
+        internal suspend fun <T> retryOnRPCException(
+            maxRetry: Int, canRetry: () -> Boolean, block: suspend () -> T
+        ): T {
+            var i = maxRetry
+            while (true) {
+                try {
+                    return block()
+                } catch (e: ChromeRPCException) {
+                    if (i-- <= 0 || !canRetry()) {
+                        throw e
+                    }
+                }
+            }
+        }
     }
     
     private val logger = getLogger(this)
@@ -61,6 +84,20 @@ internal class RobustRPC(
         return result.getOrElse { throw it }
     }
     
+    /**
+     * Invokes a suspending block on the calling coroutine's context. Unlike [invokeDeferred], the block is not
+     * dispatched to [Dispatchers.IO], so it must not block, e.g., it should use [RemoteDevTools.invokeDeferred]
+     * to send CDP messages, which never parks a thread.
+     * */
+    @Throws(ChromeRPCException::class)
+    suspend fun <T> invokeSuspending(action: String, maxRetry: Int = 2, block: suspend () -> T): T? {
+        if (!driver.checkState(action)) {
+            return null
+        }
+        
+        return retryOnRPCException(maxRetry, { driver.checkState() }) { invokeSuspending0(action, block) }
+    }
+    
     fun <T> invokeSilently(action: String, message: String? = null, block: () -> T): T? {
         return try {
             invoke(action, block)
@@ -80,6 +117,16 @@ internal class RobustRPC(
         }
     }
     
+    suspend fun <T> invokeSuspendingSilently(
+        action: String, message: String? = null, maxRetry: Int = 2, block: suspend () -> T): T? {
+        return try {
+            invokeSuspending(action, maxRetry, block)
+        } catch (e: ChromeRPCException) {
+            handleRPCException(e, action, message)
+            null
+        }
+    }
+    
     @Throws(SessionLostException::class)
     fun handleRPCException(e: ChromeRPCException, action: String? = null, message: String? = null) {
         if (rpcFailures.get() > maxRPCFailures) {
@@ -120,6 +167,21 @@ internal class RobustRPC(
         }
     }
 
+    @Throws(ChromeRPCException::class)
+    private suspend fun <T> invokeSuspending0(action: String, block: suspend () -> T): T? {
+        if (!driver.checkState(action)) {
+            return null
+        }
+        
+        try {
+            return block().also { decreaseRPCFailures() }
+        } catch (e: ChromeRPCException) {
+            increaseRPCFailures()
+            fixCDTAgentIfNecessary(e)
+            throw e
+        }
+    }
+
     private fun fixCDTAgentIfNecessary(e: Exception) {
         if (e.toString().contains("agent was not enabled")) {
             logger.warn(e.stringify())
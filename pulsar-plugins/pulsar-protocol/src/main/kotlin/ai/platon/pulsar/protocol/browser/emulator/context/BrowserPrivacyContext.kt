@@ -13,6 +13,8 @@ import ai.platon.pulsar.crawl.fetch.privacy.PrivacyAgent
 import ai.platon.pulsar.crawl.fetch.privacy.PrivacyContext
 import ai.platon.pulsar.protocol.browser.driver.WebDriverPoolManager
 import com.google.common.annotations.Beta
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import org.jetbrains.kotlin.ir.types.IdSignatureValues.sequence
 import org.slf4j.LoggerFactory
 
@@ -28,6 +30,7 @@ open class BrowserPrivacyContext(
     private val browserId = BrowserId(privacyAgent.contextDir, privacyAgent.fingerprint)
     private val driverContext = WebDriverContext(browserId, driverPoolManager, conf)
     private var proxyContext: ProxyContext? = null
+    private val initializeMutex = Mutex()
     /**
      * The privacy context is retired but not closed yet.
      * */
@@ -142,19 +145,23 @@ open class BrowserPrivacyContext(
     }
 
     @Throws(ProxyException::class)
-    @Synchronized
-    private fun initialize(task: FetchTask) {
+    private suspend fun initialize(task: FetchTask) {
         createProxyContextIfEnabled()
         task.page.setVar(VAR_PRIVACY_CONTEXT_NAME, display)
     }
 
-    private fun createProxyContextIfEnabled() {
+    private suspend fun createProxyContextIfEnabled() {
         if (proxyEntry == null && proxyPoolManager != null && proxyPoolManager.isEnabled) {
-            createProxyContext(proxyPoolManager)
+            // a mutex rather than a monitor, the coroutine suspends while the proxy pool is waiting for proxies
+            initializeMutex.withLock {
+                if (proxyEntry == null) {
+                    createProxyContext(proxyPoolManager)
+                }
+            }
         }
     }
 
-    private fun createProxyContext(proxyPoolManager: ProxyPoolManager) {
+    private suspend fun createProxyContext(proxyPoolManager: ProxyPoolManager) {
         if (!isActive) {
             logger.info("Do not create proxy context, system is down")
             return
@@ -38,14 +38,15 @@ open class ProxyContext(
         }
 
         @Throws(ProxyException::class)
-        fun create(
+        suspend fun create(
             id: PrivacyAgent,
             driverContext: WebDriverContext,
             proxyPoolManager: ProxyPoolManager,
             conf: ImmutableConfig
         ): ProxyContext {
             val proxyPool = proxyPoolManager.proxyPool
-            val proxy = proxyPool.take()
+            // suspend rather than block, the proxy pool might be waiting for the proxy vendor
+            val proxy = proxyPool.takeDeferred()
 
             if (proxy != null) {
                 numProxyAbsence.takeIf { it.get() > 0 }?.decrementAndGet()
@@ -125,6 +126,7 @@ open class ProxyContext(
         task: FetchTask, browseFun: suspend (FetchTask, WebDriver) -> FetchResult
     ): FetchResult {
         var success = false
+        val startTime = Instant.now()
         return try {
             beforeTaskStart(task)
             proxyPoolManager.runWith(proxyEntry) { driverContext.run(task, browseFun) }.also {
@@ -135,7 +137,7 @@ open class ProxyContext(
         } catch (e: ProxyException) {
             handleProxyException(task, e)
         } finally {
-            afterTaskFinished(task, success)
+            afterTaskFinished(task, success, Duration.between(startTime, Instant.now()))
         }
     }
 
@@ -201,12 +203,13 @@ open class ProxyContext(
         }
     }
 
-    private fun afterTaskFinished(task: FetchTask, success: Boolean) {
+    private fun afterTaskFinished(task: FetchTask, success: Boolean, elapsedTime: Duration) {
         numRunningTasks.decrementAndGet()
         proxyEntry?.apply {
             if (success) {
                 refresh()
                 numSuccessPages.incrementAndGet()
+                accumPageMillis.addAndGet(elapsedTime.toMillis())
                 lastTarget = task.url
                 servedDomains.add(task.domain)
             } else {
@@ -126,7 +126,8 @@ abstract class BrowserEmulatorImplBase(
             lastBrowser = task.driver.browserType
             htmlIntegrity = integrity
             originalContentLength = task.originalContentLength
-            content = task.pageSource.toByteArray(StandardCharsets.UTF_8)
+            // keep the page source as text, it's parsed directly and encoded only when the page is persisted
+            contentText = task.pageSource
         }
 
         // Update headers, metadata, do the logging stuff
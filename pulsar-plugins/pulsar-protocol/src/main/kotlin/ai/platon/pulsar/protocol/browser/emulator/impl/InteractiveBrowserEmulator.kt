@@ -3,6 +3,8 @@ package ai.platon.pulsar.protocol.browser.emulator.impl
 import ai.platon.pulsar.browser.common.BrowserSettings
 import ai.platon.pulsar.common.*
 import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.metrics.MetricsSystem
 import ai.platon.pulsar.common.persist.ext.browseEvent
 import ai.platon.pulsar.common.persist.ext.options
@@ -21,7 +23,6 @@ import ai.platon.pulsar.protocol.browser.driver.WebDriverPoolManager
 import ai.platon.pulsar.protocol.browser.emulator.*
 import kotlinx.coroutines.TimeoutCancellationException
 import kotlinx.coroutines.delay
-import java.nio.charset.StandardCharsets
 import java.time.Duration
 import java.time.Instant
 import kotlin.random.Random
@@ -302,7 +303,7 @@ open class InteractiveBrowserEmulator(
             it.protocolStatus = protocolStatus
             headers.forEach { (t, u) -> it.headers[t] = u.toString() }
 //            it.contentType = response.contentType()
-            it.content = navigateTask.pageSource.toByteArray(StandardCharsets.UTF_8)
+            it.contentText = navigateTask.pageSource
             it.originalContentLength = navigateTask.originalContentLength
         }
 
@@ -374,10 +375,12 @@ open class InteractiveBrowserEmulator(
             activeDOMStatTrace = interactResult.activeDOMMessage?.trace
             activeDOMUrls = interactResult.activeDOMMessage?.urls
         }
-        val content = driver.pageSource()
-        // Note: originalContentLength is already set before willComputeFeature event, (if not removed by someone)
-        navigateTask.originalContentLength = content?.length ?: 0
-        navigateTask.pageSource = preprocessPageContent(content)
+        LoadSpans.trace(LoadStage.PAGE_SOURCE, navigateTask.page.stageTimings) {
+            val content = driver.pageSource()
+            // Note: originalContentLength is already set before willComputeFeature event, (if not removed by someone)
+            navigateTask.originalContentLength = content?.length ?: 0
+            navigateTask.pageSource = preprocessPageContent(content)
+        }
 
         responseHandler.onWillCreateResponse(fetchTask, driver)
         return createResponse(navigateTask).also {
@@ -418,7 +421,7 @@ open class InteractiveBrowserEmulator(
 
         checkState(fetchTask, driver)
         try {
-            driver.navigateTo(navigateEntry)
+            LoadSpans.trace(LoadStage.NAVIGATE, page.stageTimings) { driver.navigateTo(navigateEntry) }
         } finally {
             emit1(EmulateEvents.navigated, page, driver)
         }
@@ -433,10 +436,12 @@ open class InteractiveBrowserEmulator(
         val result = try {
             emit1(EmulateEvents.willInteract, page, driver)
 
-            if (settings.isStartupScriptEnabled) {
-                interact(interactTask)
-            } else {
-                interactNoJsInvaded(interactTask)
+            LoadSpans.trace(LoadStage.INTERACT, page.stageTimings) {
+                if (settings.isStartupScriptEnabled) {
+                    interact(interactTask)
+                } else {
+                    interactNoJsInvaded(interactTask)
+                }
             }
         } finally {
             emit1(EmulateEvents.didInteract, page, driver)
@@ -499,7 +504,7 @@ open class InteractiveBrowserEmulator(
         if (result.state.isContinue) {
             emit1(EmulateEvents.willComputeFeature, page, driver)
 
-            computeDocumentFeatures(task, result)
+            LoadSpans.trace(LoadStage.FEATURE, page.stageTimings) { computeDocumentFeatures(task, result) }
 
             emit1(EmulateEvents.featureComputed, page, driver)
         }
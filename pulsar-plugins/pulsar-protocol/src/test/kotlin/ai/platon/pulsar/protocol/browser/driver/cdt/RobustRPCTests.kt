@@ -0,0 +1,62 @@
+package ai.platon.pulsar.protocol.browser.driver.cdt
+
+import ai.platon.pulsar.browser.driver.chrome.util.ChromeRPCException
+import ai.platon.pulsar.protocol.browser.driver.cdt.detail.RobustRPC
+import kotlinx.coroutines.*
+import kotlin.test.*
+
+class RobustRPCTests {
+
+    @Test
+    fun whenRPCFails_ThenRetryUntilSuccess() = runBlocking {
+        var calls = 0
+        val result = RobustRPC.retryOnRPCException(2, { true }) {
+            if (++calls < 3) throw ChromeRPCException("failed") else "ok"
+        }
+        assertEquals("ok", result)
+        assertEquals(3, calls)
+    }
+
+    @Test
+    fun whenRPCKeepsFailing_ThenThrowAfterMaxRetry() = runBlocking {
+        var calls = 0
+        assertFailsWith<ChromeRPCException> {
+            RobustRPC.retryOnRPCException(2, { true }) { ++calls; throw ChromeRPCException("failed") }
+        }
+        assertEquals(3, calls)
+    }
+
+    @Test
+    fun whenDriverIsInactive_ThenDoNotRetry() = runBlocking {
+        var calls = 0
+        assertFailsWith<ChromeRPCException> {
+            RobustRPC.retryOnRPCException(2, { false }) { ++calls; throw ChromeRPCException("failed") }
+        }
+        assertEquals(1, calls)
+    }
+
+    @Test
+    fun whenOtherExceptionIsThrown_ThenDoNotRetry() = runBlocking {
+        var calls = 0
+        assertFailsWith<IllegalStateException> {
+            RobustRPC.retryOnRPCException(2, { true }) { ++calls; throw IllegalStateException() }
+        }
+        assertEquals(1, calls)
+    }
+
+    @Test
+    fun whenCoroutineIsCancelled_ThenDoNotRetry() = runBlocking {
+        var calls = 0
+        val job = launch {
+            RobustRPC.retryOnRPCException(2, { true }) {
+                ++calls
+                delay(10_000)
+            }
+        }
+        yield()
+        job.cancelAndJoin()
+
+        assertTrue { job.isCancelled }
+        assertEquals(1, calls)
+    }
+}
@@ -1,7 +1,9 @@
 package ai.platon.pulsar.ql.h2
 
+import ai.platon.pulsar.common.AppContext
+import ai.platon.pulsar.common.config.AppConstants.FETCH_TASK_TIMEOUT_DEFAULT
+import ai.platon.pulsar.common.config.CapabilityTypes.FETCH_TASK_TIMEOUT
 import ai.platon.pulsar.common.getLogger
-import ai.platon.pulsar.common.math.vectors.get
 import ai.platon.pulsar.common.math.vectors.isEmpty
 import ai.platon.pulsar.common.options.LoadOptions
 import ai.platon.pulsar.common.sleepSeconds
@@ -12,14 +14,17 @@ import ai.platon.pulsar.dom.FeaturedDocument
 import ai.platon.pulsar.dom.features.FeatureRegistry.registeredFeatures
 import ai.platon.pulsar.dom.features.NodeFeature.Companion.isFloating
 import ai.platon.pulsar.dom.nodes.GeoAnchor
+import ai.platon.pulsar.dom.nodes.node.ext.features
 import ai.platon.pulsar.dom.select.appendSelectorIfMissing
 import ai.platon.pulsar.dom.select.select
 import ai.platon.pulsar.dom.select.selectFirstOrNull
 import ai.platon.pulsar.persist.WebPage
 import ai.platon.pulsar.persist.model.WebPageFormatter
 import ai.platon.pulsar.ql.ResultSets
+import ai.platon.pulsar.ql.h2.utils.StreamingRowSource
 import ai.platon.pulsar.ql.types.ValueDom
 import ai.platon.pulsar.session.PulsarSession
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import org.apache.commons.math3.linear.RealVector
 import org.h2.api.ErrorCode
 import org.h2.message.DbException
@@ -31,18 +36,71 @@ import org.h2.value.ValueString
 import org.jsoup.nodes.Element
 import org.jsoup.select.Elements
 import java.sql.ResultSet
+import java.time.Duration
 import java.util.*
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.math.min
 import kotlin.math.pow
 import kotlin.math.roundToInt
 import kotlin.reflect.full.memberProperties
 import kotlin.reflect.full.primaryConstructor
 
+/**
+ * The progress of a fan-out query which loads and processes many pages.
+ * */
+class FanOutProgress(
+    /**
+     * The number of pages to load
+     * */
+    val numTotal: Int
+) {
+    /**
+     * The number of pages loaded, including the failed ones
+     * */
+    val numLoaded = AtomicInteger()
+    /**
+     * The number of pages processed successfully
+     * */
+    val numProcessed = AtomicInteger()
+    /**
+     * The number of pages failed to load or process
+     * */
+    val numFailed = AtomicInteger()
+
+    override fun toString() = "$numProcessed/$numTotal processed, $numFailed failed"
+}
+
 object Queries {
     private val logger = getLogger(this::class)
 
+    /**
+     * The executor to process the loaded pages, the number of threads is bounded by the number of processors
+     * */
+    private val fanOutExecutor by lazy {
+        val threadFactory = ThreadFactoryBuilder().setNameFormat("ql-fan-out-%d").setDaemon(true).build()
+        Executors.newFixedThreadPool(AppContext.NCPU, threadFactory)
+    }
+
+    private val fanOutProgressListener = ThreadLocal<((FanOutProgress) -> Unit)?>()
+
+    /**
+     * Run the block with a listener which is notified every time a page is processed by a fan-out function
+     * called in the block, the listener is called in the current thread.
+     * */
+    fun <T> withFanOutProgressListener(listener: (FanOutProgress) -> Unit, block: () -> T): T {
+        val oldListener = fanOutProgressListener.get()
+        fanOutProgressListener.set(listener)
+        try {
+            return block()
+        } finally {
+            fanOutProgressListener.set(oldListener)
+        }
+    }
+
     /**
      * Load all Web pages
      *
@@ -113,6 +171,16 @@ object Queries {
         offset: Int = 1, limit: Int = Int.MAX_VALUE,
         normalize: Boolean = true, ignoreQuery: Boolean = false
     ): Collection<WebPage> {
+        val distinctLinks = normalizeOutLinks(session, portalUrl, restrictCss, offset, limit, normalize, ignoreQuery)
+        return loadAll(session, distinctLinks)
+    }
+
+    private fun normalizeOutLinks(
+        session: PulsarSession,
+        portalUrl: String, restrictCss: String,
+        offset: Int, limit: Int,
+        normalize: Boolean, ignoreQuery: Boolean
+    ): List<NormURL> {
         val transformer = if (ignoreQuery) this::getLinksIgnoreQuery else this::getLinks
 
         val normURL = session.normalize(portalUrl)
@@ -126,9 +194,128 @@ object Queries {
         }
 
         val itemOptions = normURL.options.createItemOptions()
-        val distinctLinks = session.normalize(links.toSet().take(limit2), itemOptions)
+        return session.normalize(links.toSet().take(limit2), itemOptions)
+    }
 
-        return loadAll(session, distinctLinks)
+    /**
+     * Load out pages from the portal page, and process every out page as soon as it's loaded.
+     *
+     * @see loadAllAndProcess
+     * */
+    fun <O> loadOutPagesAndProcess(
+        session: PulsarSession,
+        portalUrl: String, restrictCss: String,
+        offset: Int = 1, limit: Int = Int.MAX_VALUE,
+        normalize: Boolean = true, ignoreQuery: Boolean = false,
+        process: (WebPage) -> Iterable<O>
+    ): Iterator<O> {
+        val normURLs = normalizeOutLinks(session, portalUrl, restrictCss, offset, limit, normalize, ignoreQuery)
+        return loadAllAndProcess(session, normURLs, process)
+    }
+
+    /**
+     * Load all pages specified by [normUrls], and process every page in a bounded thread pool as soon as it's loaded.
+     *
+     * The caller thread is not blocked until the results are iterated, and the results are iterated in
+     * the order the pages are processed, not in the order of [normUrls], so the caller can consume the results
+     * of the pages loaded earlier while the others are still loading.
+     *
+     * A page failed to load or process is logged and skipped. If no page is processed within the fetch task
+     * timeout, the iteration ends and the results of the pages still loading are dropped.
+     *
+     * @param session The session
+     * @param normUrls The urls to load
+     * @param process The function to process a loaded page, it's called in the fan-out thread pool
+     * @return An iterator of the results of all the pages
+     * */
+    fun <O> loadAllAndProcess(
+        session: PulsarSession,
+        normUrls: Iterable<NormURL>,
+        process: (WebPage) -> Iterable<O>
+    ): Iterator<O> {
+        val distinctUrls = normUrls.distinctBy { it.spec }
+        if (distinctUrls.isEmpty()) {
+            return Collections.emptyIterator()
+        }
+
+        val timeout = session.sessionConfig.getDuration(FETCH_TASK_TIMEOUT, FETCH_TASK_TIMEOUT_DEFAULT)
+        return processAll(session.loadAllAsync(distinctUrls), timeout, process)
+    }
+
+    /**
+     * Process every page in a bounded thread pool as soon as its future is completed, the results are iterated
+     * in the order the pages are processed.
+     *
+     * @param futures The futures of the pages
+     * @param timeout The max time to wait for the next processed page
+     * @param process The function to process a loaded page
+     * @return An iterator of the results of all the pages
+     * */
+    internal fun <O> processAll(
+        futures: List<CompletableFuture<WebPage>>,
+        timeout: Duration,
+        process: (WebPage) -> Iterable<O>
+    ): Iterator<O> {
+        val progress = FanOutProgress(futures.size)
+        val listener = fanOutProgressListener.get()
+        val results = LinkedBlockingQueue<List<O>>()
+
+        logger.info("Processing {} completable hyperlinks | @{}", futures.size, futures.hashCode())
+
+        futures.forEach { future ->
+            future.handleAsync({ page: WebPage?, e: Throwable? ->
+                results.put(processLoadedPage(page, e, progress, process))
+            }, fanOutExecutor)
+        }
+
+        return object : AbstractIterator<O>() {
+            private var numReceived = 0
+            private var current: Iterator<O> = Collections.emptyIterator()
+
+            override fun computeNext() {
+                while (!current.hasNext()) {
+                    if (numReceived == futures.size) {
+                        logger.info("Finished {} | @{}", progress, futures.hashCode())
+                        done()
+                        return
+                    }
+
+                    val result = results.poll(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                    if (result == null) {
+                        logger.warn("Timeout after {}, {} pages are still loading, finished {} | @{}",
+                            timeout, futures.size - numReceived, progress, futures.hashCode())
+                        done()
+                        return
+                    }
+
+                    current = result.iterator()
+                    ++numReceived
+                    listener?.invoke(progress)
+                }
+
+                setNext(current.next())
+            }
+        }
+    }
+
+    private fun <O> processLoadedPage(
+        page: WebPage?, e: Throwable?, progress: FanOutProgress, process: (WebPage) -> Iterable<O>
+    ): List<O> {
+        try {
+            if (e != null) {
+                progress.numFailed.incrementAndGet()
+                logger.warn("Failed to load page | {}", e.message)
+            } else if (page != null && page.isNotInternal) {
+                return process(page).toList().also { progress.numProcessed.incrementAndGet() }
+            }
+        } catch (t: Throwable) {
+            progress.numFailed.incrementAndGet()
+            logger.warn("Failed to process page | {}", page?.url, t)
+        } finally {
+            progress.numLoaded.incrementAndGet()
+        }
+
+        return listOf()
     }
 
     /**
@@ -229,7 +416,7 @@ object Queries {
     }
 
     fun getFeatures(ele: Element, restrictCss: String, offset: Int, limit: Int): Collection<RealVector> {
-        return ele.select(restrictCss, offset, limit) { it.extension.features }
+        return ele.select(restrictCss, offset, limit) { it.features }
     }
 
     fun toValueArray(elements: Elements): ValueArray {
@@ -258,6 +445,24 @@ object Queries {
         return rs
     }
 
+    /**
+     * Get a result set, the result set contains just one column DOM, the rows are read from the iterator on demand
+     */
+    fun <E> toStreamingResultSet(colName: String, iterator: Iterator<E>): ResultSet {
+        val colType = if (colName.equals("DOM", ignoreCase = true)) ValueDom.type else Value.STRING
+        val rows = if (colType == ValueDom.type) {
+            iterator.asSequence().map { arrayOf<Any?>(it) }
+        } else {
+            iterator.asSequence().map { arrayOf<Any?>(ValueString.get(it.toString())) }
+        }
+
+        val rs = SimpleResultSet(StreamingRowSource(rows.iterator()))
+        rs.setAutoClose(false)
+        rs.addColumn(colName, DataType.convertTypeToSQLType(colType), 0, 0)
+
+        return rs
+    }
+
     /**
      * Get a result set, the result set contains just one column DOM
      */
@@ -340,7 +545,9 @@ object Queries {
         val columnCount = 1 + registeredFeatures.size + 1
         val values = arrayOfNulls<Any>(columnCount)
         values[0] = ValueDom.get(ele)
-        val features = if (!ele.extension.features.isEmpty) ele.extension.features else return values
+        val vector = ele.features.takeIf { !it.isEmpty } ?: return values
+        // read all the features at once, for a store backed vector, this is a single pass over the columns
+        val features = vector.toArray()
 
         // TODO: configurable
         val base = 10f
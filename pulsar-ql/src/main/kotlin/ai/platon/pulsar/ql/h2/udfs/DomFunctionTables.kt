@@ -3,8 +3,13 @@ package ai.platon.pulsar.ql.h2.udfs
 import ai.platon.pulsar.dom.FeaturedDocument
 import ai.platon.pulsar.dom.features.FeatureRegistry
 import ai.platon.pulsar.dom.features.NodeFeature
+import ai.platon.pulsar.dom.features.NodeFeatureStore
+import ai.platon.pulsar.dom.features.NodeFeatureVector
 import ai.platon.pulsar.dom.features.defined.SIB
+import ai.platon.pulsar.dom.nodes.node.ext.ensureFeatures
+import ai.platon.pulsar.dom.nodes.node.ext.featureStore
 import ai.platon.pulsar.dom.nodes.node.ext.getFeature
+import ai.platon.pulsar.dom.nodes.node.ext.ownerDocument
 import ai.platon.pulsar.dom.select.select
 import ai.platon.pulsar.dom.select.select2
 import ai.platon.pulsar.dom.select.selectAnchors
@@ -14,6 +19,7 @@ import ai.platon.pulsar.ql.annotation.UDFunction
 import ai.platon.pulsar.ql.h2.H2SessionFactory
 import ai.platon.pulsar.ql.h2.Queries
 import ai.platon.pulsar.ql.h2.Queries.toResultSet
+import ai.platon.pulsar.ql.h2.Queries.toStreamingResultSet
 import ai.platon.pulsar.ql.h2.domValue
 import ai.platon.pulsar.ql.types.ValueDom
 import ai.platon.pulsar.ql.annotation.H2Context
@@ -37,6 +43,9 @@ object DomFunctionTables {
      * Load all urls
      * For example:
      * CALL loadAll(ARRAY('http://...1', 'http://...2', 'http://...3'));
+     *
+     * The rows are in the order the pages are loaded, not in the order of the urls, use ORDER BY if the order
+     * matters.
      */
     @JvmStatic
     @UDFunction(hasShortcut = true, description = "Load all pages specified by the given urls")
@@ -46,10 +55,11 @@ object DomFunctionTables {
             return toResultSet("DOM", listOf<ValueDom>())
         }
 
-        val pages = Queries.loadAll(session, urls)
-        val doms = pages.map { session.parseValueDom(it) }
+        // parse the pages in parallel as soon as they are loaded, the rows are streamed into the result set
+        val normURLs = session.normalize(urls.list.map { it.string })
+        val doms = Queries.loadAllAndProcess(session, normURLs) { listOf(session.parseValueDom(it)) }
 
-        return toResultSet("DOM", doms)
+        return toStreamingResultSet("DOM", doms)
     }
 
     @UDFunction(hasShortcut = true, description = "Load a page and select the specified element by cssQuery")
@@ -187,16 +197,13 @@ object DomFunctionTables {
             return toResultSet("DOM", listOf<ValueDom>())
         }
 
-        val docs = Queries.loadOutPages(session, portal, restrictCss, offset, limit, normalize, ignoreQuery)
-                .map { session.parse(it) }
-
-        val elements = if (targetCss == ":root") {
-            docs.map { it.document }
-        } else {
-            docs.flatMap { it.select(targetCss) }
+        val doms = Queries.loadOutPagesAndProcess(session, portal, restrictCss, offset, limit, normalize, ignoreQuery) {
+            val doc = session.parse(it)
+            val elements = if (targetCss == ":root") listOf(doc.document) else doc.select(targetCss)
+            elements.map { domValue(it) }
         }
 
-        return toResultSet("DOM", elements.filterNotNull().map { domValue(it) })
+        return toStreamingResultSet("DOM", doms)
     }
 
     /**
@@ -239,17 +246,13 @@ object DomFunctionTables {
             return toResultSet("DOM", listOf<ValueDom>())
         }
 
-        val pages = Queries.loadOutPages(session, portalUrl, restrictCss, offset, limit, normalize, ignoreQuery)
-
-        val docs = pages.map { session.parse(it) }
-
-        val elements = if (targetCss == ":root") {
-            docs.map { it.document }
-        } else {
-            docs.map { it.selectFirst(targetCss) }
+        val doms = Queries.loadOutPagesAndProcess(session, portalUrl, restrictCss, offset, limit, normalize, ignoreQuery) {
+            val doc = session.parse(it)
+            val element = if (targetCss == ":root") doc.document else doc.selectFirstOrNull(targetCss)
+            listOfNotNull(element).map { domValue(it) }
         }
 
-        return toResultSet("DOM", elements.asIterable().filterNotNull().map { domValue(it) })
+        return toStreamingResultSet("DOM", doms)
     }
 
     /**
@@ -365,8 +368,11 @@ object DomFunctionTables {
             }
         }
 
+        // read the sibling counts from the document's feature store column if available
+        val store = dom.element.ensureFeatures().ownerDocument.featureStore
+        val siblings = store?.column(SIB)
         val drop = max(offset - 1, 0)
-        result.sortedByDescending { it.getFeature(SIB) }.asSequence()
+        result.sortedByDescending { getSiblingCount(it, store, siblings) }.asSequence()
                 .drop(drop).take(limit)
                 .map { Queries.getFeatureRow(it) }
                 .forEach { rs.addRow(it) }
@@ -374,6 +380,15 @@ object DomFunctionTables {
         return rs
     }
 
+    private fun getSiblingCount(ele: Element, store: NodeFeatureStore?, siblings: DoubleArray?): Double {
+        val vector = ele.extension.features as? NodeFeatureVector
+        return if (vector != null && siblings != null && vector.store === store) {
+            siblings[vector.row]
+        } else {
+            ele.getFeature(SIB)
+        }
+    }
+
     private fun createFeatureResultSet(): SimpleResultSet {
         val rs = ResultSets.newSimpleResultSet()
 
@@ -106,10 +106,9 @@ object NewsFunctionTables {
         val (url, args) = UrlUtils.splitUrlArgs(portalUrl)
         ss.load(url, ss.options(args))
 
-        val docs = Queries.loadOutPages(ss, portalUrl, restrictCss, offset, limit, normalize, ignoreQuery)
-            .asSequence()
-            .map { ss.parse(it) }
-        val doms = docs.map { ValueDom.get(it.document) }
+        val doms = Queries.loadOutPagesAndProcess(ss, portalUrl, restrictCss, offset, limit, normalize, ignoreQuery) {
+            listOf(ValueDom.get(ss.parse(it).document))
+        }.asSequence()
 
         return extractAllInternal(doms)
     }
@@ -0,0 +1,45 @@
+package ai.platon.pulsar.ql.h2.utils
+
+import org.h2.tools.SimpleRowSource
+
+/**
+ * A row source which reads rows from an iterator on demand, so a [org.h2.tools.SimpleResultSet] can be consumed
+ * while the rows are still being produced.
+ *
+ * The rows already read are kept to support [reset], H2 might read a result set more than once.
+ * */
+class StreamingRowSource(
+    private val rows: Iterator<Array<Any?>>
+) : SimpleRowSource {
+    private val readRows = mutableListOf<Array<Any?>>()
+    private var cursor = 0
+
+    /**
+     * The number of rows read from the iterator
+     * */
+    val numReadRows get() = readRows.size
+
+    @Synchronized
+    override fun readRow(): Array<Any?>? {
+        if (cursor < readRows.size) {
+            return readRows[cursor++]
+        }
+
+        if (!rows.hasNext()) {
+            return null
+        }
+
+        val row = rows.next()
+        readRows.add(row)
+        ++cursor
+        return row
+    }
+
+    @Synchronized
+    override fun reset() {
+        cursor = 0
+    }
+
+    override fun close() {
+    }
+}
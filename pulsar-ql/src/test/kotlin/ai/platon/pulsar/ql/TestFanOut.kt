@@ -0,0 +1,73 @@
+package ai.platon.pulsar.ql
+
+import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.persist.WebPage
+import ai.platon.pulsar.ql.h2.FanOutProgress
+import ai.platon.pulsar.ql.h2.Queries
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import kotlin.test.*
+
+class TestFanOut {
+    private val urls = IntRange(1, 5).map { "https://www.amazon.com/dp/B0C1H26C4$it" }
+    private val timeout = Duration.ofSeconds(10)
+
+    private fun newPage(url: String) = WebPage.newWebPage(url, VolatileConfig.UNSAFE)
+
+    @Test
+    fun whenSomeLoadsFail_ThenTheyAreSkippedAndCounted() {
+        val futures = urls.mapIndexed { i, url ->
+            if (i % 2 == 0) CompletableFuture.completedFuture(newPage(url))
+            else CompletableFuture.failedFuture(IllegalStateException("Failed to load $url"))
+        }
+
+        val progresses = mutableListOf<FanOutProgress>()
+        val results = Queries.withFanOutProgressListener({ progresses.add(it) }) {
+            Queries.processAll(futures, timeout) { listOf(it.url) }
+        }.asSequence().toList()
+
+        assertEquals(setOf(urls[0], urls[2], urls[4]), results.toSet())
+        assertEquals(urls.size, progresses.size)
+        val progress = progresses.last()
+        assertEquals(urls.size, progress.numTotal)
+        assertEquals(urls.size, progress.numLoaded.get())
+        assertEquals(3, progress.numProcessed.get())
+        assertEquals(2, progress.numFailed.get())
+    }
+
+    @Test
+    fun whenProcessFails_ThenThePageIsSkipped() {
+        val futures = urls.map { CompletableFuture.completedFuture(newPage(it)) }
+
+        val results = Queries.processAll(futures, timeout) {
+            if (it.url == urls[1]) throw IllegalStateException("Failed to process") else listOf(it.url)
+        }.asSequence().toList()
+
+        assertEquals(urls.size - 1, results.size)
+        assertFalse { urls[1] in results }
+    }
+
+    @Test
+    fun whenPagesAreLoaded_ThenResultsAreInCompletionOrder() {
+        val futures = urls.map { CompletableFuture<WebPage>() }
+        val iterator = Queries.processAll(futures, timeout) { listOf(it.url) }
+
+        // complete the futures in the reverse order, and consume every result before the next completion
+        val results = futures.indices.reversed().map { i ->
+            futures[i].complete(newPage(urls[i]))
+            iterator.next()
+        }
+
+        assertEquals(urls.reversed(), results)
+        assertFalse { iterator.hasNext() }
+    }
+
+    @Test
+    fun whenLoadNeverCompletes_ThenIterationEndsAfterTimeout() {
+        val futures = urls.map { CompletableFuture<WebPage>() }
+        futures.take(2).forEachIndexed { i, future -> future.complete(newPage(urls[i])) }
+
+        val results = Queries.processAll(futures, Duration.ofMillis(200)) { listOf(it.url) }.asSequence().toList()
+        assertEquals(urls.take(2).toSet(), results.toSet())
+    }
+}
@@ -0,0 +1,46 @@
+package ai.platon.pulsar.ql
+
+import ai.platon.pulsar.ql.h2.Queries
+import org.h2.value.Value
+import java.sql.ResultSet
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.*
+
+class TestStreamingResultSet {
+
+    @Test
+    fun testRowsAreReadOnDemand() {
+        val numProduced = AtomicInteger()
+        val iterator = generateSequence(1) { it + 1 }.take(5)
+            .onEach { numProduced.incrementAndGet() }.map { "item-$it" }.iterator()
+
+        val rs = Queries.toStreamingResultSet("LINK", iterator)
+        assertEquals(0, numProduced.get())
+
+        assertTrue { rs.next() }
+        assertEquals("item-1", stringValue(rs))
+        assertEquals(1, numProduced.get())
+
+        val values = mutableListOf("item-1")
+        while (rs.next()) {
+            values.add(stringValue(rs))
+        }
+        assertEquals(IntRange(1, 5).map { "item-$it" }, values)
+        assertEquals(5, numProduced.get())
+    }
+
+    @Test
+    fun testResultSetCanBeReadAgain() {
+        val rs = Queries.toStreamingResultSet("LINK", listOf("a", "b", "c").iterator())
+        var count = 0
+        while (rs.next()) ++count
+        assertEquals(3, count)
+
+        rs.beforeFirst()
+        val values = mutableListOf<String>()
+        while (rs.next()) values.add(stringValue(rs))
+        assertEquals(listOf("a", "b", "c"), values)
+    }
+
+    private fun stringValue(rs: ResultSet) = (rs.getObject(1) as Value).string
+}
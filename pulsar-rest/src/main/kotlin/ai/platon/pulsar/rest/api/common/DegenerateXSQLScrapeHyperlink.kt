@@ -8,6 +8,7 @@ import ai.platon.pulsar.crawl.common.GlobalCacheFactory
 import ai.platon.pulsar.persist.WebPage
 import ai.platon.pulsar.rest.api.entities.ScrapeRequest
 import org.slf4j.LoggerFactory
+import java.time.Instant
 import java.util.*
 
 /**
@@ -41,6 +42,9 @@ open class DegenerateXSQLScrapeHyperlink(
             throw t
         } finally {
             response.isDone = true
+            response.finishTime = Instant.now()
+            // notify the waiters, e.g. ScrapeService.executeQueryAsync
+            complete(response)
         }
     }
 
@@ -13,6 +13,8 @@ import ai.platon.pulsar.dom.FeaturedDocument
 import ai.platon.pulsar.persist.WebPage
 import ai.platon.pulsar.ql.context.AbstractSQLContext
 import ai.platon.pulsar.ql.ResultSets
+import ai.platon.pulsar.ql.h2.FanOutProgress
+import ai.platon.pulsar.ql.h2.Queries
 import ai.platon.pulsar.ql.h2.utils.ResultSetUtils
 import ai.platon.pulsar.rest.api.entities.ScrapeRequest
 import ai.platon.pulsar.rest.api.entities.ScrapeResponse
@@ -21,6 +23,7 @@ import java.sql.Connection
 import java.sql.ResultSet
 import java.time.Instant
 import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
 import kotlin.system.measureTimeMillis
 
 class ScrapeLoadEventHandlers(
@@ -62,7 +65,7 @@ open class XSQLScrapeHyperlink(
     private val connectionPool get() = sqlContext.connectionPool
     private val randomConnection get() = sqlContext.randomConnection
 
-    val response = ScrapeResponse()
+    val response = ScrapeResponse(uuid)
 
     override var args: String? = "-parse ${sql.args}"
     override var event: PageEventHandlers = PageEventHandlersFactory().create(loadEventHandlers = ScrapeLoadEventHandlers(this, response))
@@ -109,9 +112,6 @@ open class XSQLScrapeHyperlink(
             response.statusCode = ResourceStatus.SC_OK
 
             rs = executeQuery(sql.sql)
-            val resultSet = mutableListOf<Map<String, Any?>>()
-            ResultSetUtils.getEntitiesFromResultSetTo(rs, resultSet)
-            response.resultSet = resultSet
         } catch (e: JdbcSQLException) {
             response.statusCode = ResourceStatus.SC_EXPECTATION_FAILED
             logger.warn("Failed to execute sql #${response.uuid}{}", e.brief())
@@ -125,7 +125,15 @@ open class XSQLScrapeHyperlink(
 
     private fun executeQuery(sql: String): ResultSet {
         val connection = connectionPool.poll() ?: randomConnection
-        return executeQuery(sql, connection).also { connectionPool.offer(connection) }
+        // the query runs in the current thread, the partial progress is visible by ScrapeService.getStatus
+        return Queries.withFanOutProgressListener({ updateProgress(it) }) {
+            executeQuery(sql, connection)
+        }.also { connectionPool.offer(connection) }
+    }
+
+    private fun updateProgress(progress: FanOutProgress) {
+        response.numTotalPages = progress.numTotal
+        response.numProcessedPages = progress.numProcessed.get()
     }
 
     private fun executeQuery(sql: String, conn: Connection): ResultSet {
@@ -134,6 +142,10 @@ open class XSQLScrapeHyperlink(
             conn.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY)?.use { st ->
                 try {
                     st.executeQuery(sql)?.use { rs ->
+                        // publish the rows as soon as they are read, ScrapeStreamService streams them before the task is done
+                        val rows = CopyOnWriteArrayList<Map<String, Any?>>()
+                        response.resultSet = rows
+                        ResultSetUtils.getEntitiesFromResultSetTo(rs, rows)
                         result = ResultSetUtils.copyResultSet(rs)
                     }
                 } catch (e: JdbcSQLException) {
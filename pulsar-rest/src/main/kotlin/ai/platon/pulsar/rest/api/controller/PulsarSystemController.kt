@@ -1,5 +1,7 @@
 package ai.platon.pulsar.rest.api.controller
 
+import ai.platon.pulsar.common.metrics.MetricsSystem
+import ai.platon.pulsar.common.metrics.OpenMetricsWriter
 import ai.platon.pulsar.crawl.fetch.privacy.PrivacyManager
 import ai.platon.pulsar.protocol.browser.driver.WebDriverPoolManager
 import ai.platon.pulsar.protocol.browser.emulator.context.MultiPrivacyContextManager
@@ -21,6 +23,9 @@ class PulsarSystemController {
     @Autowired
     lateinit var privacyManager: PrivacyManager
 
+    @Autowired
+    lateinit var metricsSystem: MetricsSystem
+
     @GetMapping("hello")
     fun hello(): String {
         return "hello"
@@ -35,4 +40,12 @@ class PulsarSystemController {
         sb.appendLine(privacyManager.takeSnapshot())
         return sb.toString()
     }
+
+    /**
+     * The metrics in OpenMetrics text format, which can be scraped by Prometheus
+     * */
+    @GetMapping("metrics", produces = [OpenMetricsWriter.CONTENT_TYPE])
+    fun metrics(): String {
+        return metricsSystem.scrapeOpenMetrics()
+    }
 }
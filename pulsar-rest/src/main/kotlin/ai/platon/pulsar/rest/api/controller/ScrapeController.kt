@@ -4,9 +4,13 @@ import ai.platon.pulsar.rest.api.entities.ScrapeRequest
 import ai.platon.pulsar.rest.api.entities.ScrapeResponse
 import ai.platon.pulsar.rest.api.entities.ScrapeStatusRequest
 import ai.platon.pulsar.rest.api.service.ScrapeService
+import ai.platon.pulsar.rest.api.service.ScrapeStreamService
 import org.springframework.context.ApplicationContext
 import org.springframework.http.MediaType
 import org.springframework.web.bind.annotation.*
+import org.springframework.web.context.request.async.DeferredResult
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter
+import java.time.Duration
 import javax.servlet.http.HttpServletRequest
 
 @RestController
@@ -19,14 +23,32 @@ import javax.servlet.http.HttpServletRequest
 class ScrapeController(
     val applicationContext: ApplicationContext,
     val scrapeService: ScrapeService,
+    val scrapeStreamService: ScrapeStreamService,
 ) {
+    companion object {
+        /**
+         * The extra time the async request waits after the scrape timeout, so the partial response can be written
+         * */
+        val ASYNC_TIMEOUT_MARGIN: Duration = Duration.ofSeconds(20)
+    }
+
     /**
+     * Execute the sql and return the response when it's done, the servlet thread is released while waiting.
+     *
+     * The async request timeout is derived from `scrape.execute.timeout`, so the partial response of a task not
+     * finished in time is returned instead of an async timeout error.
+     *
      * @param sql The sql to execute
      * @return The response
      * */
     @PostMapping("e")
-    fun execute(@RequestBody sql: String): ScrapeResponse {
-        return scrapeService.executeQuery(ScrapeRequest(sql))
+    fun execute(@RequestBody sql: String): DeferredResult<ScrapeResponse> {
+        val timeout = scrapeService.executeTimeout + ASYNC_TIMEOUT_MARGIN
+        val result = DeferredResult<ScrapeResponse>(timeout.toMillis())
+        scrapeService.executeQueryAsync(ScrapeRequest(sql)).whenComplete { response, t ->
+            if (t != null) result.setErrorResult(t) else result.setResult(response)
+        }
+        return result
     }
 
     /**
@@ -38,6 +60,29 @@ class ScrapeController(
         return scrapeService.submitJob(ScrapeRequest(sql))
     }
 
+    /**
+     * Submit a scrape task and stream its status changes and result rows as Server-Sent Events.
+     *
+     * @param sql The sql to execute
+     * @return The event stream
+     * */
+    @PostMapping("ss", produces = [MediaType.TEXT_EVENT_STREAM_VALUE])
+    fun submitAndStream(@RequestBody sql: String): SseEmitter {
+        val hyperlink = scrapeService.submit(ScrapeRequest(sql))
+        return scrapeStreamService.stream(hyperlink.uuid)
+    }
+
+    /**
+     * Stream the status changes and the result rows of a submitted task as Server-Sent Events.
+     *
+     * @param uuid The uuid of the task last submitted
+     * @return The event stream
+     * */
+    @GetMapping("stream", consumes = [MediaType.ALL_VALUE], produces = [MediaType.TEXT_EVENT_STREAM_VALUE])
+    fun stream(@RequestParam uuid: String): SseEmitter {
+        return scrapeStreamService.stream(uuid)
+    }
+
     /**
      * @param uuid The uuid of the task last submitted
      * @return The execution result
@@ -15,18 +15,56 @@ data class ScrapeResponse(
     var pageStatusCode: Int = ProtocolStatusCodes.CREATED,
     var pageContentBytes: Int = 0,
     var isDone: Boolean = false,
+    /**
+     * The result rows, the rows are appended while the query is running, so they can be streamed before it's done
+     * */
+    @Volatile
     var resultSet: List<Map<String, Any?>>? = null,
 ) {
     val status: String get() = ResourceStatus.getStatusText(statusCode)
     val pageStatus: String get() = ProtocolStatus.getMinorName(pageStatusCode)
     val createTime: Instant = Instant.now()
     var finishTime: Instant = Instant.EPOCH
+    /**
+     * The number of pages to load by the fan-out functions in the query, e.g. loadOutPages
+     * */
+    @Volatile
+    var numTotalPages: Int = 0
+    /**
+     * The number of pages processed by the fan-out functions so far
+     * */
+    @Volatile
+    var numProcessedPages: Int = 0
 }
 
 data class ScrapeStatusRequest(
     val uuid: String,
 )
 
+/**
+ * The status of a scrape task at some point, sent to the clients streaming the task
+ * */
+data class ScrapeStatusEvent(
+    val uuid: String?,
+    val statusCode: Int,
+    val pageStatusCode: Int,
+    val isDone: Boolean,
+    val numTotalPages: Int,
+    val numProcessedPages: Int,
+) {
+    constructor(response: ScrapeResponse): this(
+        response.uuid,
+        response.statusCode,
+        response.pageStatusCode,
+        response.isDone,
+        response.numTotalPages,
+        response.numProcessedPages
+    )
+
+    val status: String get() = ResourceStatus.getStatusText(statusCode)
+    val pageStatus: String get() = ProtocolStatus.getMinorName(pageStatusCode)
+}
+
 /**
  * W3 resources
  * */
@@ -2,6 +2,8 @@ package ai.platon.pulsar.rest.api.service
 
 import ai.platon.pulsar.session.PulsarSession
 import ai.platon.pulsar.common.ResourceStatus
+import ai.platon.pulsar.common.config.CapabilityTypes.*
+import ai.platon.pulsar.common.metrics.MetricsSystem
 import ai.platon.pulsar.crawl.common.GlobalCacheFactory
 import ai.platon.pulsar.persist.metadata.ProtocolStatusCodes
 import ai.platon.pulsar.rest.api.common.DegenerateXSQLScrapeHyperlink
@@ -10,9 +12,13 @@ import ai.platon.pulsar.rest.api.common.XSQLScrapeHyperlink
 import ai.platon.pulsar.rest.api.entities.ScrapeRequest
 import ai.platon.pulsar.rest.api.entities.ScrapeResponse
 import ai.platon.pulsar.rest.api.entities.ScrapeStatusRequest
+import com.codahale.metrics.Gauge
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
-import java.util.concurrent.ConcurrentSkipListMap
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.TimeUnit
 
 @Service
@@ -21,9 +27,44 @@ class ScrapeService(
     val globalCacheFactory: GlobalCacheFactory,
 ) {
     private val logger = LoggerFactory.getLogger(ScrapeService::class.java)
-    private val responseCache = ConcurrentSkipListMap<String, ScrapeResponse>()
+    private val conf get() = session.unmodifiedConfig
     private val urlPool get() = globalCacheFactory.globalCache.urlPool
 
+    /**
+     * The timeout to wait for a scrape task, the web layer waits a little longer for the partial response
+     * */
+    val executeTimeout: Duration = conf.getDuration(SCRAPE_EXECUTE_TIMEOUT, Duration.ofMinutes(3))
+
+    /**
+     * The responses of the finished tasks, which are kept for a while for status queries
+     * */
+    private val finishedResponses: Cache<String, ScrapeResponse> = CacheBuilder.newBuilder()
+        .maximumSize(conf.getLong(SCRAPE_RESPONSE_RETENTION_CAPACITY, 10_000))
+        .expireAfterWrite(conf.getDuration(SCRAPE_RESPONSE_RETENTION_TTL, Duration.ofMinutes(30)))
+        .recordStats()
+        .build()
+
+    /**
+     * The responses of the submitted tasks which are not finished yet. A task not finished in [executeTimeout],
+     * or evicted since there are too many pending tasks, is moved to the finished responses with its partial result,
+     * and it's updated again if it finishes later.
+     * */
+    private val pendingResponses: Cache<String, ScrapeResponse> = CacheBuilder.newBuilder()
+        .maximumSize(conf.getLong(SCRAPE_PENDING_CAPACITY, 10_000))
+        .expireAfterWrite(executeTimeout)
+        .removalListener<String, ScrapeResponse> { if (it.wasEvicted()) finishedResponses.put(it.key!!, it.value!!) }
+        .build()
+
+    init {
+        mapOf(
+            "pendingResponses" to Gauge { pendingResponses.size() },
+            "retainedResponses" to Gauge { finishedResponses.size() },
+            "responseHits" to Gauge { finishedResponses.stats().hitCount() },
+            "responseMisses" to Gauge { finishedResponses.stats().missCount() },
+            "responseEvictions" to Gauge { finishedResponses.stats().evictionCount() },
+        ).let { MetricsSystem.reg.registerAll(this, it) }
+    }
+
     /**
      * Execute a scrape task and wait until the execution is done,
      * for test purpose only, no customer should access this api
@@ -31,26 +72,56 @@ class ScrapeService(
     fun executeQuery(request: ScrapeRequest): ScrapeResponse {
         val hyperlink = createScrapeHyperlink(request)
         urlPool.higher3Cache.reentrantQueue.add(hyperlink)
-        return hyperlink.get(3, TimeUnit.MINUTES)
+        return hyperlink.get(executeTimeout.toMillis(), TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Execute a scrape task without blocking the caller. If the task is not finished in time, the returned future
+     * is completed with the partial response, which is not done yet.
+     * */
+    fun executeQueryAsync(request: ScrapeRequest): CompletableFuture<ScrapeResponse> {
+        val hyperlink = createScrapeHyperlink(request)
+        urlPool.higher3Cache.reentrantQueue.add(hyperlink)
+        return hyperlink.copy().completeOnTimeout(hyperlink.response, executeTimeout.toMillis(), TimeUnit.MILLISECONDS)
     }
 
     /**
      * Submit a scraping task
      * */
     fun submitJob(request: ScrapeRequest): String {
+        return submit(request).uuid
+    }
+
+    /**
+     * Submit a scraping task and return the hyperlink which is completed when the task is finished
+     * */
+    fun submit(request: ScrapeRequest): XSQLScrapeHyperlink {
         val hyperlink = createScrapeHyperlink(request)
-        responseCache[hyperlink.uuid] = hyperlink.response
+        val uuid = hyperlink.uuid
+        pendingResponses.put(uuid, hyperlink.response)
+        hyperlink.whenComplete { _, _ -> retain(uuid, hyperlink.response) }
         urlPool.normalCache.reentrantQueue.add(hyperlink)
-        return hyperlink.uuid
+        return hyperlink
     }
 
     /**
      * Get the response
      * */
     fun getStatus(request: ScrapeStatusRequest): ScrapeResponse {
-        return responseCache.computeIfAbsent(request.uuid) {
-            ScrapeResponse(request.uuid, ResourceStatus.SC_NOT_FOUND, ProtocolStatusCodes.NOT_FOUND)
-        }
+        return getResponseOrNull(request.uuid)
+            ?: ScrapeResponse(request.uuid, ResourceStatus.SC_NOT_FOUND, ProtocolStatusCodes.NOT_FOUND)
+    }
+
+    /**
+     * Get the response of a pending task or a retained finished task
+     * */
+    fun getResponseOrNull(uuid: String): ScrapeResponse? {
+        return pendingResponses.getIfPresent(uuid) ?: finishedResponses.getIfPresent(uuid)
+    }
+
+    private fun retain(uuid: String, response: ScrapeResponse) {
+        finishedResponses.put(uuid, response)
+        pendingResponses.invalidate(uuid)
     }
 
     private fun createScrapeHyperlink(request: ScrapeRequest): XSQLScrapeHyperlink {
@@ -0,0 +1,145 @@
+package ai.platon.pulsar.rest.api.service
+
+import ai.platon.pulsar.common.ResourceStatus
+import ai.platon.pulsar.common.metrics.MetricsSystem
+import ai.platon.pulsar.persist.metadata.ProtocolStatusCodes
+import ai.platon.pulsar.rest.api.entities.ScrapeResponse
+import ai.platon.pulsar.rest.api.entities.ScrapeStatusEvent
+import com.codahale.metrics.Gauge
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import org.slf4j.LoggerFactory
+import org.springframework.http.MediaType
+import org.springframework.stereotype.Service
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Stream the status changes and the result rows of scrape tasks to the clients using Server-Sent Events.
+ *
+ * No servlet thread is held while a task is running: all the subscriptions are checked by a single scheduler thread,
+ * a `status` event is sent when the status of a task changes, a `row` event is sent for every result row as soon as
+ * it's available, and a `done` event is sent after the last row when the task is done.
+ * */
+@Service
+class ScrapeStreamService(
+    val scrapeService: ScrapeService,
+) : AutoCloseable {
+    companion object {
+        val CHECK_INTERVAL: Duration = Duration.ofMillis(500)
+        val STREAM_TIMEOUT: Duration = Duration.ofMinutes(10)
+    }
+
+    private class Subscription(
+        val response: ScrapeResponse,
+        val emitter: SseEmitter,
+    ) {
+        var lastEvent: ScrapeStatusEvent? = null
+        var numSentRows = 0
+    }
+
+    private val logger = LoggerFactory.getLogger(ScrapeStreamService::class.java)
+    private val subscriptions = ConcurrentLinkedQueue<Subscription>()
+    private val numSentEvents = AtomicLong()
+    private val scheduler = Executors.newSingleThreadScheduledExecutor(
+        ThreadFactoryBuilder().setNameFormat("scrape-stream-%d").setDaemon(true).build()
+    )
+
+    init {
+        mapOf(
+            "streamSubscriptions" to Gauge { subscriptions.size },
+            "streamSentEvents" to Gauge { numSentEvents.get() },
+        ).let { MetricsSystem.reg.registerAll(this, it) }
+
+        val interval = CHECK_INTERVAL.toMillis()
+        scheduler.scheduleWithFixedDelay({ checkSubscriptions() }, interval, interval, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Stream the status changes and the result rows of the task specified by uuid.
+     * */
+    fun stream(uuid: String): SseEmitter = stream(uuid, SseEmitter(STREAM_TIMEOUT.toMillis()))
+
+    /**
+     * Stream the status changes and the result rows of the task specified by uuid to the given emitter.
+     * */
+    fun stream(uuid: String, emitter: SseEmitter): SseEmitter {
+        val response = scrapeService.getResponseOrNull(uuid)
+        if (response == null) {
+            val notFound = ScrapeResponse(uuid, ResourceStatus.SC_NOT_FOUND, ProtocolStatusCodes.NOT_FOUND)
+            scheduler.execute {
+                runCatching { send(emitter, "status", ScrapeStatusEvent(notFound)) }
+                emitter.complete()
+            }
+            return emitter
+        }
+
+        return stream(response, emitter)
+    }
+
+    /**
+     * Stream the status changes and the result rows of the response to the given emitter.
+     * */
+    internal fun stream(response: ScrapeResponse, emitter: SseEmitter): SseEmitter {
+        val subscription = Subscription(response, emitter)
+        emitter.onCompletion { subscriptions.remove(subscription) }
+        emitter.onTimeout { subscriptions.remove(subscription) }
+        emitter.onError { subscriptions.remove(subscription) }
+        subscriptions.add(subscription)
+
+        // send the current status as soon as possible
+        scheduler.execute { check(subscription) }
+
+        return emitter
+    }
+
+    override fun close() {
+        scheduler.shutdownNow()
+        subscriptions.forEach { it.emitter.complete() }
+        subscriptions.clear()
+    }
+
+    private fun checkSubscriptions() {
+        subscriptions.forEach { check(it) }
+    }
+
+    private fun check(subscription: Subscription) {
+        try {
+            val event = ScrapeStatusEvent(subscription.response)
+            if (event != subscription.lastEvent) {
+                subscription.lastEvent = event
+                send(subscription.emitter, "status", event)
+            }
+
+            sendNewRows(subscription)
+
+            if (event.isDone && subscriptions.remove(subscription)) {
+                // rows might be appended between the status check and the done check
+                sendNewRows(subscription)
+                send(subscription.emitter, "done", event)
+                subscription.emitter.complete()
+            }
+        } catch (t: Throwable) {
+            // the client is gone, or the emitter is timeout
+            logger.debug("Failed to send scrape event #{} | {}", subscription.response.uuid, t.message)
+            subscriptions.remove(subscription)
+            subscription.emitter.completeWithError(t)
+        }
+    }
+
+    private fun sendNewRows(subscription: Subscription) {
+        val rows = subscription.response.resultSet ?: return
+        while (subscription.numSentRows < rows.size) {
+            send(subscription.emitter, "row", rows[subscription.numSentRows])
+            ++subscription.numSentRows
+        }
+    }
+
+    private fun send(emitter: SseEmitter, name: String, data: Any) {
+        emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON))
+        numSentEvents.incrementAndGet()
+    }
+}
@@ -1,6 +1,7 @@
 package ai.platon.pulsar.rest
 
 import ai.platon.pulsar.boot.autoconfigure.test.PulsarTestContextInitializer
+import ai.platon.pulsar.common.ResourceStatus
 import ai.platon.pulsar.common.getLogger
 import ai.platon.pulsar.common.serialize.json.pulsarObjectMapper
 import ai.platon.pulsar.common.sleepSeconds
@@ -19,6 +20,7 @@ import org.springframework.context.annotation.ImportResource
 import org.springframework.test.context.ContextConfiguration
 import org.springframework.test.context.junit4.SpringRunner
 import org.springframework.util.ClassUtils
+import java.util.concurrent.TimeUnit
 import kotlin.test.*
 
 @RunWith(SpringRunner::class)
@@ -60,6 +62,34 @@ class ScrapeServiceTests {
         assertEquals(2, records[0]["sum"].toString().toInt())
     }
 
+    @Test
+    fun `When execute asynchronously then the future is completed with the result`() {
+        val response = service.executeQueryAsync(ScrapeRequest("select 1+1 as sum")).get(1, TimeUnit.MINUTES)
+        assertTrue { response.isDone }
+        val records = response.resultSet
+        assertNotNull(records)
+        assertEquals(2, records[0]["sum"].toString().toInt())
+    }
+
+    @Test
+    fun `When a submitted task is done then the response is retained`() {
+        val uuid = service.submitJob(ScrapeRequest("select 1+1 as sum"))
+        val scrapeStatusRequest = ScrapeStatusRequest(uuid)
+
+        var i = 60
+        while (i-- > 0 && !service.getStatus(scrapeStatusRequest).isDone) {
+            sleepSeconds(1)
+        }
+
+        val status = service.getStatus(scrapeStatusRequest)
+        assertTrue { status.isDone }
+        assertEquals(2, status.resultSet!![0]["sum"].toString().toInt())
+
+        // status queries for unknown tasks do not take any room
+        assertEquals(ResourceStatus.SC_NOT_FOUND, service.getStatus(ScrapeStatusRequest("no-such-task")).statusCode)
+        assertNull(service.getResponseOrNull("no-such-task"))
+    }
+
     @Test
     fun `When scraping with load_and_select then the result returns synchronously`() {
         val url = "https://www.amazon.com/"
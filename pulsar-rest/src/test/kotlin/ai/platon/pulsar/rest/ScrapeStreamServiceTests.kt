@@ -0,0 +1,113 @@
+package ai.platon.pulsar.rest
+
+import ai.platon.pulsar.boot.autoconfigure.test.PulsarTestContextInitializer
+import ai.platon.pulsar.common.ResourceStatus
+import ai.platon.pulsar.rest.api.entities.ScrapeRequest
+import ai.platon.pulsar.rest.api.entities.ScrapeResponse
+import ai.platon.pulsar.rest.api.entities.ScrapeStatusEvent
+import ai.platon.pulsar.rest.api.service.ScrapeService
+import ai.platon.pulsar.rest.api.service.ScrapeStreamService
+import org.junit.runner.RunWith
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.junit4.SpringRunner
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.test.*
+
+@RunWith(SpringRunner::class)
+@SpringBootTest
+@ContextConfiguration(initializers = [PulsarTestContextInitializer::class])
+class ScrapeStreamServiceTests {
+
+    /**
+     * An emitter records the sent events instead of writing them to a http response
+     * */
+    private class RecordingEmitter : SseEmitter(60_000) {
+        val events = LinkedBlockingQueue<Pair<String, Any?>>()
+        val completed = CountDownLatch(1)
+
+        override fun send(builder: SseEventBuilder) {
+            val items = builder.build().map { it.data }
+            val name = items.filterIsInstance<String>().joinToString("")
+                .substringAfter("event:").substringBefore("\n")
+            events.add(name to items.firstOrNull { it !is String })
+        }
+
+        override fun complete() {
+            completed.countDown()
+        }
+
+        fun nextEvent(name: String): Any? {
+            while (true) {
+                val event = assertNotNull(events.poll(30, TimeUnit.SECONDS), "No $name event")
+                if (event.first == name) {
+                    return event.second
+                }
+            }
+        }
+
+        fun awaitCompletion() = assertTrue("Not completed") { completed.await(1, TimeUnit.MINUTES) }
+    }
+
+    @Autowired
+    private lateinit var service: ScrapeService
+
+    @Autowired
+    private lateinit var streamService: ScrapeStreamService
+
+    @Test
+    fun `When rows are appended then they are streamed before the task is done`() {
+        val response = ScrapeResponse("stream-test")
+        val rows = CopyOnWriteArrayList<Map<String, Any?>>()
+        response.resultSet = rows
+
+        val emitter = RecordingEmitter()
+        streamService.stream(response, emitter)
+
+        rows.add(mapOf("n" to 1))
+        assertEquals(mapOf("n" to 1), emitter.nextEvent("row"))
+        assertEquals(1L, emitter.completed.count)
+
+        rows.add(mapOf("n" to 2))
+        response.isDone = true
+        emitter.awaitCompletion()
+
+        // the first row is not sent again, the second row is sent before done
+        val remaining = emitter.events.filter { it.first != "status" }
+        assertEquals(listOf("row", "done"), remaining.map { it.first })
+        assertEquals(mapOf("n" to 2), remaining[0].second)
+    }
+
+    @Test
+    fun `When the task is unknown then a not found status is sent and the stream is completed`() {
+        val emitter = RecordingEmitter()
+        streamService.stream("no-such-task", emitter)
+
+        val event = emitter.nextEvent("status")
+        assertIs<ScrapeStatusEvent>(event)
+        assertEquals(ResourceStatus.SC_NOT_FOUND, event.statusCode)
+        emitter.awaitCompletion()
+    }
+
+    @Test
+    fun `When a submitted task is done then every row is streamed once followed by done`() {
+        val hyperlink = service.submit(ScrapeRequest("select 1+1 as sum"))
+        val emitter = RecordingEmitter()
+        streamService.stream(hyperlink.uuid, emitter)
+
+        val row = emitter.nextEvent("row")
+        assertIs<Map<*, *>>(row)
+        assertEquals(2, row["sum"].toString().toInt())
+
+        val done = emitter.nextEvent("done")
+        assertIs<ScrapeStatusEvent>(done)
+        assertTrue { done.isDone }
+        emitter.awaitCompletion()
+        assertTrue { emitter.events.none { it.first == "row" } }
+    }
+}
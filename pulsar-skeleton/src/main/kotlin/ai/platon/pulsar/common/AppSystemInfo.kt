@@ -24,6 +24,8 @@ class AppSystemInfo {
 
         var CRITICAL_CPU_THRESHOLD = System.getProperty("critical.cpu.threshold") ?.toDoubleOrNull() ?: 0.85
         var CRITICAL_MEMORY_THRESHOLD_MIB = System.getProperty("critical.memory.threshold.MiB")?.toDouble() ?: 0.0
+        var RESOURCE_SAMPLE_INTERVAL_MILLIS = System.getProperty("resource.sample.interval.millis")?.toLongOrNull() ?: 1000L
+        var DISK_SAMPLE_INTERVAL_MILLIS = System.getProperty("disk.sample.interval.millis")?.toLongOrNull() ?: 10_000L
 
         val startTime = Instant.now()
         val elapsedTime get() = Duration.between(startTime, Instant.now())
@@ -40,9 +42,28 @@ class AppSystemInfo {
         val memoryInfo get() = systemInfo?.hardware?.memory
 
         /**
-         * System cpu load in [0, 1]
+         * Samples CPU, memory and disk in the background, the hot paths read the snapshot without any system call.
+         * The sampler is started on first access.
          * */
-        val systemCpuLoad get() = computeSystemCpuLoad()
+        val resourceSampler by lazy {
+            SystemResourceSampler(
+                Duration.ofMillis(RESOURCE_SAMPLE_INTERVAL_MILLIS),
+                Duration.ofMillis(DISK_SAMPLE_INTERVAL_MILLIS),
+                cpuLoadSampler = { computeSystemCpuLoad() },
+                memorySampler = { memoryInfo?.let { it.available to it.total - it.available } },
+                diskSampler = { Runtimes.unallocatedDiskSpaces() }
+            ).start()
+        }
+
+        /**
+         * The latest resource snapshot, it's refreshed every [RESOURCE_SAMPLE_INTERVAL_MILLIS] milliseconds.
+         * */
+        val resourceSnapshot get() = resourceSampler.snapshot
+
+        /**
+         * System cpu load in [0, 1] in the latest sampling period
+         * */
+        val systemCpuLoad get() = resourceSnapshot.cpuLoad
 
         /**
          * Check whether CPU usage reaches critical status.
@@ -90,12 +111,9 @@ class AppSystemInfo {
          * Available memory is the amount of memory which is available for allocation to a new process or to existing
          * processes.
          * */
-        val availableMemory: Long? get() = memoryInfo?.available
+        val availableMemory: Long? get() = resourceSnapshot.availableMemory
 
-        val usedMemory: Long? get() {
-            val mi = memoryInfo ?: return null
-            return mi.total - mi.available
-        }
+        val usedMemory: Long? get() = resourceSnapshot.usedMemory
 
         val totalMemory get() = Runtime.getRuntime().totalMemory()
         val totalMemoryGiB get() = ByteUnit.BYTE.toGiB(totalMemory.toDouble())
@@ -121,7 +139,11 @@ class AppSystemInfo {
             return am < memoryToReserve
         }
 
-        val freeDiskSpaces get() = Runtimes.unallocatedDiskSpaces()
+        /**
+         * The number of unallocated bytes of each large file store, it's refreshed every
+         * [DISK_SAMPLE_INTERVAL_MILLIS] milliseconds.
+         * */
+        val freeDiskSpaces get() = resourceSnapshot.freeDiskSpaces
 
         /**
          * Check whether disk usage reaches critical status.
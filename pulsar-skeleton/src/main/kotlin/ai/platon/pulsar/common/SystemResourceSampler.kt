@@ -0,0 +1,135 @@
+package ai.platon.pulsar.common
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The system resource readings taken at [sampleTime].
+ * */
+data class SystemResourceSnapshot(
+    /**
+     * System cpu load in [0, 1] since the previous sample
+     * */
+    val cpuLoad: Double = 0.0,
+    /**
+     * Available memory in bytes, null if not available
+     * */
+    val availableMemory: Long? = null,
+    /**
+     * Used memory in bytes, null if not available
+     * */
+    val usedMemory: Long? = null,
+    /**
+     * The number of unallocated bytes of each large file store
+     * */
+    val freeDiskSpaces: List<Long> = listOf(),
+    val sampleTime: Instant = Instant.EPOCH,
+) {
+    val age get() = Duration.between(sampleTime, Instant.now())
+}
+
+/**
+ * Sample the system resources on its own schedule, so the hot paths read a volatile snapshot
+ * instead of issuing system calls.
+ *
+ * CPU and memory are sampled every [interval], disk spaces are sampled every [diskInterval]
+ * since enumerating the file stores is much more expensive.
+ * */
+class SystemResourceSampler(
+    val interval: Duration = Duration.ofSeconds(1),
+    val diskInterval: Duration = Duration.ofSeconds(10),
+    private val cpuLoadSampler: () -> Double,
+    private val memorySampler: () -> Pair<Long, Long>?,
+    private val diskSampler: () -> List<Long>,
+) : AutoCloseable {
+    private val logger = getLogger(SystemResourceSampler::class)
+    private val started = AtomicBoolean()
+    private val closed = AtomicBoolean()
+    private val executor = Executors.newSingleThreadScheduledExecutor(
+        ThreadFactoryBuilder().setNameFormat("resource-sampler-%d").setDaemon(true).build()
+    )
+    private var lastDiskSampleTime = Instant.EPOCH
+
+    private val _numSamples = AtomicLong()
+    private val _totalSampleNanos = AtomicLong()
+
+    /**
+     * The latest snapshot
+     * */
+    @Volatile
+    var snapshot = SystemResourceSnapshot()
+        private set
+
+    val numSamples get() = _numSamples.get()
+
+    /**
+     * The cost of the latest sample
+     * */
+    @Volatile
+    var lastSampleCost: Duration = Duration.ZERO
+        private set
+
+    val averageSampleCost: Duration get() = Duration.ofNanos(_totalSampleNanos.get() / numSamples.coerceAtLeast(1))
+
+    /**
+     * Take the first sample synchronously and schedule the following ones.
+     * */
+    fun start(): SystemResourceSampler {
+        if (started.compareAndSet(false, true)) {
+            sample()
+            val millis = interval.toMillis().coerceAtLeast(100)
+            executor.scheduleWithFixedDelay({ sampleSafely() }, millis, millis, TimeUnit.MILLISECONDS)
+        }
+        return this
+    }
+
+    /**
+     * Sample the system resources immediately.
+     * */
+    @Synchronized
+    fun sample(): SystemResourceSnapshot {
+        val startTime = System.nanoTime()
+        val now = Instant.now()
+
+        val memory = memorySampler()
+        var freeDiskSpaces = snapshot.freeDiskSpaces
+        if (Duration.between(lastDiskSampleTime, now) >= diskInterval) {
+            freeDiskSpaces = diskSampler()
+            lastDiskSampleTime = now
+        }
+
+        snapshot = SystemResourceSnapshot(
+            cpuLoadSampler(),
+            memory?.first,
+            memory?.second,
+            freeDiskSpaces,
+            now
+        )
+
+        val cost = System.nanoTime() - startTime
+        lastSampleCost = Duration.ofNanos(cost)
+        _totalSampleNanos.addAndGet(cost)
+        _numSamples.incrementAndGet()
+
+        return snapshot
+    }
+
+    override fun close() {
+        if (closed.compareAndSet(false, true)) {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun sampleSafely() {
+        try {
+            sample()
+        } catch (t: Throwable) {
+            logger.warn("Failed to sample system resources | {}", t.message)
+        }
+    }
+}
@@ -5,7 +5,53 @@ import ai.platon.pulsar.common.prependReadableClassName
 import com.codahale.metrics.*
 import kotlin.reflect.KClass
 
+/**
+ * The parts of a metric name created by [AppMetricRegistry.name], for example,
+ * `c.i.StreamingCrawler.1.g.idleTime` is parsed to component `StreamingCrawler`, ident `1`, kind `g` and name `idleTime`.
+ * */
+data class AppMetricName(
+    /**
+     * The simple class name of the object which registers the metric
+     * */
+    val component: String,
+    /**
+     * The identity of the object, empty if the metric is not registered with an ident
+     * */
+    val ident: String,
+    /**
+     * The kind symbol: c for counters, m for meters, h for histograms, t for timers, and g for gauges
+     * registered with an ident, empty if not specified
+     * */
+    val kind: String,
+    val name: String,
+)
+
 class AppMetricRegistry : MetricRegistry() {
+    companion object {
+        private val KIND_SYMBOLS = setOf("c", "m", "h", "t", "g")
+
+        /**
+         * Parse a full metric name created by [name], it's the inverse of [name].
+         * */
+        fun parseName(fullName: String): AppMetricName {
+            val parts = fullName.split(".").filter { it.isNotEmpty() }
+            // the package parts of a readable class name are abbreviated to the first letter
+            val i = parts.indexOfFirst { it.length > 1 }
+            if (i < 0 || i == parts.lastIndex) {
+                return AppMetricName("", "", "", fullName)
+            }
+
+            val component = parts[i].removeSuffix("_C")
+            var middle = parts.subList(i + 1, parts.lastIndex)
+            var kind = ""
+            if (middle.isNotEmpty() && middle.last() in KIND_SYMBOLS) {
+                kind = middle.last()
+                middle = middle.dropLast(1)
+            }
+
+            return AppMetricName(component, middle.joinToString("."), kind, parts.last())
+        }
+    }
 
     private val elapsedToday get() = DateTimes.elapsedToday.seconds.coerceAtMost(DateTimes.elapsed.seconds)
     private val elapsedThisHour get() = DateTimes.elapsedThisHour.seconds.coerceAtMost(DateTimes.elapsed.seconds)
@@ -53,6 +99,13 @@ class AppMetricRegistry : MetricRegistry() {
 
     fun histogram(obj: Any, name: String) = histogram(obj, "", name)
 
+    fun timer(obj: Any, ident: String, name: String): Timer {
+        val fullName = name(obj, "$ident.t", name, ".")
+        return (metrics[fullName] as? Timer) ?: timer(fullName)
+    }
+
+    fun timer(obj: Any, name: String) = timer(obj, "", name)
+
     fun <T : Metric> register(obj: Any, name: String, metric: T) = register(obj, "", name, metric)
 
     fun <T : Metric> register(obj: Any, ident: String, name: String, metric: T) {
@@ -0,0 +1,123 @@
+package ai.platon.pulsar.common.metrics
+
+import com.codahale.metrics.MetricFilter
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.jmx.JmxReporter
+import com.codahale.metrics.jmx.ObjectNameFactory
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.sun.net.httpserver.HttpServer
+import org.slf4j.LoggerFactory
+import java.net.InetSocketAddress
+import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import javax.management.ObjectName
+
+/**
+ * An exporter publishes the metrics to an external monitoring system.
+ * */
+interface MetricsExporter : AutoCloseable {
+    fun start()
+}
+
+/**
+ * Create JMX object names from the names created by [AppMetricRegistry.name],
+ * for example, `pulsar:component=StreamingCrawler,ident=1,name=idleTime,type=gauges`.
+ * */
+class AppObjectNameFactory : ObjectNameFactory {
+    private val logger = LoggerFactory.getLogger(AppObjectNameFactory::class.java)
+
+    override fun createName(type: String, domain: String, name: String): ObjectName {
+        val metricName = AppMetricRegistry.parseName(name)
+        val properties = Hashtable<String, String>()
+        if (metricName.component.isNotEmpty()) {
+            properties["component"] = quoteIfNecessary(metricName.component)
+        }
+        if (metricName.ident.isNotEmpty()) {
+            properties["ident"] = quoteIfNecessary(metricName.ident)
+        }
+        properties["name"] = quoteIfNecessary(metricName.name)
+        properties["type"] = type
+
+        return try {
+            ObjectName(domain, properties)
+        } catch (e: Exception) {
+            logger.warn("Failed to create object name for metric {} | {}", name, e.message)
+            ObjectName(domain, "name", ObjectName.quote(name))
+        }
+    }
+
+    private fun quoteIfNecessary(value: String): String {
+        return if (value.any { it in ",=:*?\"\n" }) ObjectName.quote(value) else value
+    }
+}
+
+/**
+ * Export the metrics as JMX MBeans.
+ * */
+class JmxMetricsExporter(
+    registry: MetricRegistry,
+    domain: String,
+    filter: MetricFilter = MetricFilter.ALL,
+) : MetricsExporter {
+    private val reporter = JmxReporter.forRegistry(registry)
+        .inDomain(domain)
+        .filter(filter)
+        .convertRatesTo(TimeUnit.SECONDS)
+        .convertDurationsTo(TimeUnit.MILLISECONDS)
+        .createsObjectNamesWith(AppObjectNameFactory())
+        .build()
+
+    override fun start() = reporter.start()
+
+    override fun close() = reporter.close()
+}
+
+/**
+ * Serve the metrics in OpenMetrics text format on `http://host:port/metrics` using an embedded HTTP server.
+ * */
+class OpenMetricsHttpExporter(
+    private val writer: OpenMetricsWriter,
+    val port: Int,
+) : MetricsExporter {
+    private val logger = LoggerFactory.getLogger(OpenMetricsHttpExporter::class.java)
+    private var server: HttpServer? = null
+    private var executor: ExecutorService? = null
+
+    @Synchronized
+    override fun start() {
+        if (server != null) {
+            return
+        }
+
+        val httpExecutor = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder().setNameFormat("metrics-http-%d").setDaemon(true).build()
+        )
+        val httpServer = HttpServer.create(InetSocketAddress(port), 0)
+        httpServer.executor = httpExecutor
+        httpServer.createContext("/metrics") { exchange ->
+            try {
+                val bytes = writer.write().toByteArray()
+                exchange.responseHeaders.add("Content-Type", OpenMetricsWriter.CONTENT_TYPE)
+                exchange.sendResponseHeaders(200, bytes.size.toLong())
+                exchange.responseBody.write(bytes)
+            } finally {
+                exchange.close()
+            }
+        }
+        httpServer.start()
+        server = httpServer
+        executor = httpExecutor
+
+        logger.info("OpenMetrics exporter is started | http://localhost:{}/metrics", port)
+    }
+
+    @Synchronized
+    override fun close() {
+        server?.stop(0)
+        server = null
+        executor?.shutdownNow()
+        executor = null
+    }
+}
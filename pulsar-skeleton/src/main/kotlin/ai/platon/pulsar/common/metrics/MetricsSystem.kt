@@ -32,6 +32,13 @@ object MetricFilters {
     fun notContains(substring: String) = MetricFilter { name, metric -> !name.contains(substring) }
 
     fun not(filter: MetricFilter) = MetricFilter { name, metric -> !filter.matches(name, metric) }
+
+    fun containsAny(substrings: Collection<String>) =
+        MetricFilter { name, metric -> substrings.any { name.contains(it) } }
+
+    fun all(vararg filters: MetricFilter) = MetricFilter { name, metric -> filters.all { it.matches(name, metric) } }
+
+    fun any(vararg filters: MetricFilter) = MetricFilter { name, metric -> filters.any { it.matches(name, metric) } }
 }
 
 class MultiMetric(
@@ -123,9 +130,16 @@ open class MetricsSystem(
 
     private val threadFactory = ThreadFactoryBuilder().setNameFormat("reporter-%d").build()
     private val executor = Executors.newSingleThreadScheduledExecutor(threadFactory)
-//    private val jmxReporter: JmxReporter = JmxReporter.forRegistry(metricRegistry)
-//        .filter(MetricFilters.notContains(SHADOW_METRIC_SYMBOL))
-//        .build()
+
+    /**
+     * The filter of the metrics published by the exporters
+     * */
+    val exportFilter = createExportFilter(conf)
+    /**
+     * Write the exported metrics in OpenMetrics text format
+     * */
+    val openMetricsWriter = OpenMetricsWriter(metricRegistry, exportFilter, name)
+    private val exporters = createExporters(conf)
 //    private val csvReporter: CsvReporter = CsvReporter.forRegistry(metricRegistry)
 //        .convertRatesTo(TimeUnit.SECONDS)
 //        .convertDurationsTo(TimeUnit.MILLISECONDS)
@@ -171,8 +185,11 @@ open class MetricsSystem(
     }
 
     open fun start() {
+        exporters.forEach { exporter ->
+            runCatching { exporter.start() }.onFailure { logger.warn("Failed to start metrics exporter | {}", it.message) }
+        }
+
         if (isEnabled) {
-            // jmxReporter.start()
             // csvReporter.start(initialDelay.seconds, csvReportInterval.seconds, TimeUnit.SECONDS)
             slf4jReporter.start(initialDelay.seconds, slf4jReportInterval.seconds, TimeUnit.SECONDS)
             counterReporter.start(initialDelay, counterReportInterval)
@@ -198,10 +215,44 @@ open class MetricsSystem(
      * and the last report may throw exceptions if some metrics depends on the creation of spring beans.
      * */
     override fun close() {
-        if (isEnabled && closed.compareAndSet(false, true)) {
-            runCatching { doClose() }.onFailure { warnForClose(this, it) }
+        if (closed.compareAndSet(false, true)) {
+            exporters.forEach { exporter -> runCatching { exporter.close() }.onFailure { warnForClose(this, it) } }
+
+            if (isEnabled) {
+                runCatching { doClose() }.onFailure { warnForClose(this, it) }
+            }
         }
     }
+
+    /**
+     * Write the exported metrics in OpenMetrics text format.
+     * */
+    fun scrapeOpenMetrics(): String = openMetricsWriter.write()
+
+    private fun createExportFilter(conf: ImmutableConfig): MetricFilter {
+        val includes = conf.getTrimmedStringCollection(CapabilityTypes.METRICS_EXPORT_INCLUDES)
+        val excludes = conf.getTrimmedStringCollection(CapabilityTypes.METRICS_EXPORT_EXCLUDES)
+        return MetricFilters.all(
+            MetricFilters.notContains(SHADOW_METRIC_SYMBOL),
+            if (includes.isEmpty()) MetricFilter.ALL else MetricFilters.containsAny(includes),
+            MetricFilters.not(MetricFilters.containsAny(excludes)),
+        )
+    }
+
+    private fun createExporters(conf: ImmutableConfig): List<MetricsExporter> {
+        val exporters = mutableListOf<MetricsExporter>()
+
+        if (conf.getBoolean(CapabilityTypes.METRICS_EXPORT_JMX_ENABLED, false)) {
+            exporters.add(JmxMetricsExporter(metricRegistry, name, exportFilter))
+        }
+
+        val port = conf.getInt(CapabilityTypes.METRICS_EXPORT_HTTP_PORT, 0)
+        if (port > 0) {
+            exporters.add(OpenMetricsHttpExporter(openMetricsWriter, port))
+        }
+
+        return exporters
+    }
     
     private fun doClose() {
         hourlyTimer.cancel()
@@ -209,7 +260,6 @@ open class MetricsSystem(
 
 //            csvReporter.close()
         slf4jReporter.close()
-//            jmxReporter.close()
         graphiteReporter?.close()
         graphiteReporter = null
         
@@ -0,0 +1,195 @@
+package ai.platon.pulsar.common.metrics
+
+import ai.platon.pulsar.common.config.AppConstants
+import com.codahale.metrics.*
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.TreeMap
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Write the metrics in a registry in the OpenMetrics text format, which can be scraped by Prometheus.
+ *
+ * Metric families and labels are derived from the names created by [AppMetricRegistry.name]:
+ * `c.i.StreamingCrawler.1.g.idleTime` is written as `pulsar_streaming_crawler_idle_time{ident="1"}`.
+ *
+ * Gauges with numeric, boolean or duration values are written as gauges, the other gauges are skipped.
+ * Counters are written as counters, meters as counters with a one-minute rate gauge, and histograms and
+ * timers as summaries.
+ *
+ * If two metrics are written to the same family with the same labels, for example, two classes with the same
+ * simple name, the later one is told apart by a `metric` label holding its full name. A metric which fails to be
+ * collected, or whose family is already written with another type, is skipped with a warning.
+ * */
+class OpenMetricsWriter(
+    private val registry: MetricRegistry,
+    private val filter: MetricFilter = MetricFilter.ALL,
+    private val prefix: String = AppConstants.DEFAULT_METRICS_NAME,
+) {
+    companion object {
+        const val CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8"
+
+        private val QUANTILES = listOf(0.5, 0.75, 0.95, 0.99)
+
+        /**
+         * Convert a camel case name to a snake case name with only the characters allowed by OpenMetrics.
+         * */
+        fun snakeCase(name: String): String {
+            return name.replace("/s", "PerSecond")
+                .replace("([a-z0-9])([A-Z])".toRegex(), "$1_$2")
+                .replace("[^a-zA-Z0-9_]".toRegex(), "_")
+                .replace("_+".toRegex(), "_")
+                .trim('_')
+                .lowercase()
+        }
+    }
+
+    private class Family(val name: String, val type: String, val help: String) {
+        val samples = mutableListOf<String>()
+    }
+
+    private val logger = LoggerFactory.getLogger(OpenMetricsWriter::class.java)
+
+    /**
+     * The full names of the skipped metrics, a skipped metric is warned only once since the metrics are scraped
+     * again and again
+     * */
+    internal val skippedMetrics: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Write all the metrics accepted by the filter.
+     * */
+    fun write(): String {
+        val sb = StringBuilder()
+        write(sb)
+        return sb.toString()
+    }
+
+    /**
+     * Write all the metrics accepted by the filter.
+     * */
+    fun write(out: Appendable) {
+        val families = TreeMap<String, Family>()
+        val series = HashSet<String>()
+
+        registry.metrics.forEach { (fullName, metric) ->
+            if (filter.matches(fullName, metric)) {
+                runCatching { collect(fullName, metric, families, series) }
+                    .onFailure { skip(fullName, "failed to collect | ${it.message}") }
+            }
+        }
+
+        families.values.forEach { family ->
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n')
+            out.append("# HELP ").append(family.name).append(' ').append(escapeHelp(family.help)).append('\n')
+            family.samples.forEach { out.append(it).append('\n') }
+        }
+        out.append("# EOF\n")
+    }
+
+    private fun collect(
+        fullName: String, metric: Metric, families: MutableMap<String, Family>, series: MutableSet<String>
+    ) {
+        val metricName = AppMetricRegistry.parseName(fullName)
+        val base = listOf(snakeCase(prefix), snakeCase(metricName.component), snakeCase(metricName.name))
+            .filter { it.isNotEmpty() }.joinToString("_")
+        var labels = if (metricName.ident.isNotEmpty()) withLabel("", "ident", metricName.ident) else ""
+        if (!series.add(base + labels)) {
+            labels = withLabel(labels, "metric", fullName)
+        }
+
+        when (metric) {
+            is Gauge<*> -> {
+                val value = toDouble(metric.value) ?: return
+                family(families, base, "gauge", fullName)?.samples?.add(sample(base, labels, value))
+            }
+            is Counter -> {
+                family(families, base, "counter", fullName)?.samples
+                    ?.add(sample("${base}_total", labels, metric.count.toDouble()))
+            }
+            is Meter -> {
+                family(families, base, "counter", fullName)?.samples
+                    ?.add(sample("${base}_total", labels, metric.count.toDouble()))
+                val rate = "${base}_rate_m1"
+                family(families, rate, "gauge", fullName, "$fullName, one-minute rate per second")?.samples
+                    ?.add(sample(rate, labels, metric.oneMinuteRate))
+            }
+            is Histogram -> {
+                val family = family(families, base, "summary", fullName) ?: return
+                addSummary(family, labels, metric.snapshot, metric.count, 1.0)
+            }
+            is Timer -> {
+                val name = "${base}_seconds"
+                val family = family(families, name, "summary", fullName) ?: return
+                addSummary(family, labels, metric.snapshot, metric.count, 1e-9)
+            }
+        }
+    }
+
+    /**
+     * Get or create the family, returns null if a family of another type has the same name, in which case the
+     * metric is skipped.
+     * */
+    private fun family(
+        families: MutableMap<String, Family>, name: String, type: String, fullName: String, help: String = fullName
+    ): Family? {
+        val family = families.getOrPut(name) { Family(name, type, help) }
+        if (family.type != type) {
+            skip(fullName, "family $name is a ${family.type}, not a $type")
+            return null
+        }
+        return family
+    }
+
+    private fun skip(fullName: String, reason: String) {
+        if (skippedMetrics.add(fullName)) {
+            logger.warn("Metric {} is skipped, {}", fullName, reason)
+        }
+    }
+
+    /**
+     * Add the quantiles, the count and the sum of a summary. Dropwizard does not track the sum, it's estimated by the
+     * mean of the reservoir snapshot.
+     * */
+    private fun addSummary(family: Family, labels: String, snapshot: Snapshot, count: Long, scale: Double) {
+        QUANTILES.forEach { q ->
+            val quantileLabels = withLabel(labels, "quantile", q.toString())
+            family.samples.add(sample(family.name, quantileLabels, snapshot.getValue(q) * scale))
+        }
+        family.samples.add(sample("${family.name}_count", labels, count.toDouble()))
+        family.samples.add(sample("${family.name}_sum", labels, snapshot.mean * count * scale))
+    }
+
+    private fun withLabel(labels: String, name: String, value: String): String {
+        val label = "$name=\"${escapeLabel(value)}\""
+        return if (labels.isEmpty()) "{$label}" else labels.dropLast(1) + ",$label}"
+    }
+
+    private fun sample(name: String, labels: String, value: Double): String {
+        val v = when {
+            value.isNaN() -> "NaN"
+            value == Double.POSITIVE_INFINITY -> "+Inf"
+            value == Double.NEGATIVE_INFINITY -> "-Inf"
+            else -> value.toString()
+        }
+        return "$name$labels $v"
+    }
+
+    private fun toDouble(value: Any?): Double? {
+        return when (value) {
+            is Number -> value.toDouble()
+            is Boolean -> if (value) 1.0 else 0.0
+            is Duration -> value.toMillis() / 1000.0
+            is CharSequence -> value.toString().toDoubleOrNull()
+            else -> null
+        }
+    }
+
+    private fun escapeLabel(value: String): String {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+    }
+
+    private fun escapeHelp(value: String): String {
+        return value.replace("\\", "\\\\").replace("\n", "\\n")
+    }
+}
@@ -0,0 +1,93 @@
+package ai.platon.pulsar.common.options
+
+import ai.platon.pulsar.common.concurrent.ConcurrentStripedLRUCache
+import ai.platon.pulsar.common.config.VolatileConfig
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A compiled argument string of [LoadOptions].
+ *
+ * An argument string is parsed by JCommander only once, the values of the options specified in the string are
+ * kept in an immutable array indexed by [LoadOptions.optionFieldList], and are copied to [LoadOptions] objects
+ * field by field. Compiled argument strings are interned in a bounded cache, so identical argument strings
+ * share one instance.
+ * */
+class CompiledLoadOptions private constructor(
+    /**
+     * The argument string
+     * */
+    val args: String,
+    /**
+     * The argument vector
+     * */
+    private val argv: Array<String>,
+    /**
+     * The values of the specified options, indexed by [LoadOptions.optionFieldList]
+     * */
+    private val values: Array<Any?>,
+    /**
+     * Whether an option is specified in the argument string, indexed by [LoadOptions.optionFieldList]
+     * */
+    private val specified: BooleanArray
+) {
+    /**
+     * True if no option is specified
+     * */
+    val isEmpty = specified.none { it }
+
+    /**
+     * Create a copy of the argument vector.
+     * */
+    fun newArgv(): Array<String> = argv.copyOf()
+
+    /**
+     * Copy the values of the specified options to [options], the options not specified are left untouched.
+     * */
+    fun applyTo(options: LoadOptions) {
+        val fields = LoadOptions.optionFieldList
+        for (i in values.indices) {
+            if (specified[i]) {
+                fields[i].set(options, values[i])
+            }
+        }
+    }
+
+    override fun toString() = args
+
+    companion object {
+        /**
+         * The max number of compiled argument strings in the cache
+         * */
+        const val CACHE_CAPACITY = 10_000
+
+        private val cache = ConcurrentStripedLRUCache<String, CompiledLoadOptions>(CACHE_CAPACITY)
+        private val compileCount = AtomicLong()
+
+        /**
+         * The number of argument strings parsed by JCommander
+         * */
+        val numCompiled get() = compileCount.get()
+
+        val cacheHits get() = cache.hitCount
+
+        val cacheMisses get() = cache.missCount
+
+        /**
+         * Compile the argument string, or return the interned instance if it's already compiled.
+         * */
+        fun compile(args: String): CompiledLoadOptions = cache.computeIfAbsent(args.trim()) { compile0(it) }
+
+        private fun compile0(args: String): CompiledLoadOptions {
+            compileCount.incrementAndGet()
+
+            val options = LoadOptions.parseUncached(args, VolatileConfig.UNSAFE)
+            val argv = options.argv.copyOf()
+            val fields = LoadOptions.optionFieldList
+            val specified = BooleanArray(fields.size)
+            argv.forEach { arg -> LoadOptions.optionFieldIndexes[arg]?.let { specified[it] = true } }
+            val values = Array(fields.size) { i -> if (specified[i]) fields[i].get(options) else null }
+
+            return CompiledLoadOptions(args, argv, values, specified)
+        }
+    }
+}
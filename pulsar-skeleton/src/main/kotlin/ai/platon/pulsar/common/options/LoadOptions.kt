@@ -12,6 +12,7 @@ import ai.platon.pulsar.crawl.event.impl.PageEventHandlersFactory
 import ai.platon.pulsar.dom.select.appendSelectorIfMissing
 import ai.platon.pulsar.persist.metadata.FetchMode
 import com.beust.jcommander.Parameter
+import java.lang.reflect.Field
 import java.time.Duration
 import java.time.Instant
 import java.time.temporal.ChronoUnit
@@ -622,6 +623,16 @@ open class LoadOptions(
     )
     var noFilter = false
 
+    /**
+     * If true, the numerical features of the parsed document are never calculated, and all of them are read as zero.
+     * Features are calculated on demand anyway, the option guarantees no calculation for CSS-only extractions.
+     * */
+    @Parameter(
+        names = ["-noFeatures", "--no-features"],
+        description = "If true, the numerical features of the parsed document are never calculated."
+    )
+    var noFeatures = false
+
     /**
      * Indicates the network condition.
      * */
@@ -668,11 +679,8 @@ open class LoadOptions(
     open val modifiedParams: Params
         get() {
             val rowFormat = "%40s: %s"
-            val fields = LoadOptions::class.java.declaredFields
-            return fields.filter { it.annotations.any { it is Parameter } && !isDefault(it.name) }
-                .onEach { it.isAccessible = true }
-                .filter { it.get(this) != null }
-                .associate { "-${it.name}" to it.get(this) }
+            return modifiedFields()
+                .associate { (field, value) -> "-${field.name}" to value }
                 .let { Params.of(it).withRowFormat(rowFormat) }
         }
 
@@ -680,13 +688,7 @@ open class LoadOptions(
      * Find out the modified fields and return a map.
      * */
     open val modifiedOptions: Map<String, Any>
-        get() {
-            val fields = LoadOptions::class.java.declaredFields
-            return fields.filter { it.annotations.any { it is Parameter } && !isDefault(it.name) }
-                .onEach { it.isAccessible = true }
-                .filter { it.get(this) != null }
-                .associate { it.name to it.get(this) }
-        }
+        get() = modifiedFields().associate { (field, value) -> field.name to value }
 
     /**
      * The constructor.
@@ -885,8 +887,25 @@ open class LoadOptions(
 
     /**
      * Create a new [LoadOptions] object with the same arguments string and event handlers.
+     *
+     * The modified option values are copied field by field, which is the same as parsing the arguments string,
+     * but no arguments string is built or parsed.
+     * */
+    open fun clone(): LoadOptions = derive(this).also { copyModifiedOptions(this, it) }
+
+    /**
+     * Find out the modified option fields and their values.
      * */
-    open fun clone() = parse(toString(), this)
+    private fun modifiedFields(): List<Pair<Field, Any>> {
+        val result = mutableListOf<Pair<Field, Any>>()
+        optionFieldList.forEachIndexed { i, field ->
+            val value = field.get(this)
+            if (value != null && value != defaultValues[i]) {
+                result.add(field to value)
+            }
+        }
+        return result
+    }
 
     /**
      * Correct [outLinkSelector].
@@ -966,6 +985,23 @@ open class LoadOptions(
          * */
         val defaultArgsMap = DEFAULT.toArgsMap()
 
+        /**
+         * A list of all option fields, the index of a field is used to access the field quickly.
+         * */
+        val optionFieldList = optionFields.toList()
+
+        /**
+         * A map from every option name to the index of its field in [optionFieldList].
+         * */
+        val optionFieldIndexes = optionFieldList.withIndex().flatMap { (i, field) ->
+            field.annotations.filterIsInstance<Parameter>().flatMap { it.names.toList() }.map { it to i }
+        }.toMap()
+
+        /**
+         * The default values, indexed by [optionFieldList].
+         * */
+        private val defaultValues = optionFieldList.map { it.get(DEFAULT) }
+
         /**
          * A list of the options who's arity is 0.
          * */
@@ -1067,33 +1103,75 @@ open class LoadOptions(
 
         /**
          * Parse the [args] with other [conf].
+         *
+         * The arguments string is compiled only once, see [CompiledLoadOptions].
          * */
-        fun parse(args: String, conf: VolatileConfig = VolatileConfig()) =
-            LoadOptions(args.trim(), conf).apply { parse() }
+        fun parse(args: String, conf: VolatileConfig = VolatileConfig()): LoadOptions {
+            val compiled = CompiledLoadOptions.compile(args)
+            return LoadOptions(compiled.newArgv(), conf).also { compiled.applyTo(it) }
+        }
 
         /**
          * Parse the [args] with other [options].
+         *
+         * The arguments string is compiled only once, see [CompiledLoadOptions].
          * */
-        fun parse(args: String, options: LoadOptions) = LoadOptions(args.trim(), options).apply {
-            referrer = options.referrer
-            parse()
+        fun parse(args: String, options: LoadOptions): LoadOptions {
+            val compiled = CompiledLoadOptions.compile(args)
+            return derive(options, compiled.newArgv()).also { compiled.applyTo(it) }
         }
 
+        /**
+         * Parse the [args] with JCommander, without the compiled arguments cache.
+         * */
+        internal fun parseUncached(args: String, conf: VolatileConfig) = LoadOptions(args.trim(), conf).apply { parse() }
+
         /**
          * Create a new LoadOptions with [o1] and [o2]'s items, [o2] overrides [o1].
          * */
-        fun merge(o1: LoadOptions, o2: LoadOptions) = parse("$o1 $o2", o2)
+        fun merge(o1: LoadOptions, o2: LoadOptions): LoadOptions {
+            return derive(o2).also {
+                copyModifiedOptions(o1, it)
+                copyModifiedOptions(o2, it)
+            }
+        }
 
         /**
          * Create a new LoadOptions with [o1] and [args], [args] overrides [o1].
          * */
-        fun merge(o1: LoadOptions, args: String?) = parse("$o1 $args", o1)
+        fun merge(o1: LoadOptions, args: String?): LoadOptions {
+            val compiled = CompiledLoadOptions.compile("$args")
+            return derive(o1).also {
+                copyModifiedOptions(o1, it)
+                compiled.applyTo(it)
+            }
+        }
 
         /**
          * Create a new LoadOptions with [args] and [args2], [args2] overrides [args].
          * */
         fun merge(args: String?, args2: String?, conf: VolatileConfig) = parse("$args $args2", conf)
 
+        /**
+         * Create a [LoadOptions] with default option values, and with the configuration, event handlers
+         * and referrer of [options].
+         * */
+        private fun derive(options: LoadOptions, argv: Array<String> = options.argv.copyOf()) =
+            LoadOptions(argv, options.conf, options.rawEvent, options.rawItemEvent, options.referrer)
+
+        /**
+         * Copy the modified option values of [source] to [target], it's the same as parsing the
+         * arguments string of [source] into [target].
+         * */
+        private fun copyModifiedOptions(source: LoadOptions, target: LoadOptions) {
+            optionFieldList.forEachIndexed { i, field ->
+                val value = field.get(source)
+                if (value != null && value != defaultValues[i]) {
+                    field.set(target, value)
+                }
+            }
+        }
+
         /**
          * Erase the specified option, the option name has to match the field name in LoadOptions.
          * */
@@ -0,0 +1,184 @@
+package ai.platon.pulsar.common.urls
+
+import ai.platon.pulsar.common.AppContext
+import ai.platon.pulsar.common.metrics.MetricsSystem
+import ai.platon.pulsar.common.options.LoadOptions
+import ai.platon.pulsar.crawl.common.url.ListenableUrl
+import ai.platon.pulsar.crawl.filter.ChainedUrlNormalizer
+import com.codahale.metrics.Timer
+import java.util.*
+import java.util.concurrent.ForkJoinPool
+import java.util.stream.IntStream
+
+/**
+ * Normalize urls in batch.
+ *
+ * All the urls in a batch share the [LoadOptions] derived from the given options: the item options conversion
+ * and the configuration override are done once for the batch rather than once for each url, and the url
+ * normalizers run once for each distinct url. If [parallelThreshold] is set, large batches are normalized in
+ * a bounded fork join pool, which requires the url normalizers to be thread safe.
+ *
+ * Urls carrying their own arguments or event handlers are normalized one by one by [CombinedUrlNormalizer],
+ * so the result is always the same as normalizing the urls separately.
+ * */
+class BatchUrlNormalizer(
+    private val urlNormalizers: ChainedUrlNormalizer? = null,
+    /**
+     * Normalize in parallel if there are more distinct urls than this threshold, disabled by default
+     * */
+    val parallelThreshold: Int = PARALLEL_DISABLED
+) {
+    companion object {
+        /**
+         * The threshold to disable the parallel normalization
+         * */
+        const val PARALLEL_DISABLED = Int.MAX_VALUE
+
+        /**
+         * The pool is bounded so a huge batch never takes all the cores
+         * */
+        val pool by lazy { ForkJoinPool(AppContext.NCPU.coerceIn(1, 8)) }
+
+        private val registry = MetricsSystem.reg
+        private val batchSizes = registry.histogram(BatchUrlNormalizer::class, "batchSizes")
+        private val duplicates = registry.meter(BatchUrlNormalizer::class, "duplicates")
+        private val dedupTimer = registry.timer(BatchUrlNormalizer::class, "dedup")
+        private val optionsTimer = registry.timer(BatchUrlNormalizer::class, "options")
+        private val normalizeTimer = registry.timer(BatchUrlNormalizer::class, "normalize")
+    }
+
+    private val combinedUrlNormalizer = CombinedUrlNormalizer(urlNormalizers)
+
+    /**
+     * Normalize urls, the urls failed to normalize are removed.
+     *
+     * @param urls the urls to be normalized
+     * @param options the options to be used
+     * @param toItemOption whether to create item options
+     * @return the normalized urls in the same order as [urls], an invalid url is normalized to [NormURL.NIL]
+     * */
+    fun normalize(urls: Collection<UrlAware>, options: LoadOptions, toItemOption: Boolean): List<NormURL> {
+        if (urls.isEmpty()) {
+            return listOf()
+        }
+        batchSizes.update(urls.size)
+
+        val rawEvent = options.rawEvent
+        if (rawEvent?.loadEvent?.onNormalize?.isNotEmpty == true) {
+            // the normalizer in the event handlers is not guaranteed to be thread safe
+            return urls.mapNotNull { normalizeOrNull(it, options, toItemOption) }
+        }
+
+        // 1. find out the distinct urls which can share the options
+        val specs = dedupTimer.measure { collectSharedSpecs(urls) }
+        if (specs.isEmpty()) {
+            return urls.mapNotNull { normalizeOrNull(it, options, toItemOption) }
+        }
+
+        // 2. derive the shared options
+        val sharedOptions = optionsTimer.measure { createSharedOptions(options, toItemOption) }
+
+        // 3. normalize every distinct url only once
+        val distinctSpecs = specs.values.distinct()
+        duplicates.mark((specs.size - distinctSpecs.size).toLong())
+        val normalizedSpecs = normalizeTimer.measure {
+            normalizeSpecs(distinctSpecs, options)
+        }
+
+        return urls.mapNotNull { url ->
+            val spec = specs[url] ?: return@mapNotNull normalizeOrNull(url, options, toItemOption)
+            if (!normalizedSpecs.containsKey(spec)) {
+                // failed to normalize
+                return@mapNotNull null
+            }
+
+            val normURL = normalizedSpecs[spec] ?: return@mapNotNull NormURL.NIL
+            val finalOptions = sharedOptions.clone().also { it.nMaxRetry = url.nMaxRetry }
+            val href = url.href?.let { UrlUtils.splitUrlArgs(it).first }?.takeIf { UrlUtils.isStandard(it) }
+            NormURL(normURL, finalOptions, href, url)
+        }
+    }
+
+    private fun normalizeOrNull(url: UrlAware, options: LoadOptions, toItemOption: Boolean): NormURL? {
+        return kotlin.runCatching { combinedUrlNormalizer.normalize(url, options, toItemOption) }.getOrNull()
+    }
+
+    /**
+     * Collect the urls without arguments and event handlers, map them to their url specifications.
+     * */
+    private fun collectSharedSpecs(urls: Collection<UrlAware>): Map<UrlAware, String> {
+        val specs = IdentityHashMap<UrlAware, String>()
+        urls.forEach { url ->
+            if (url is ListenableUrl || !url.args.isNullOrBlank()) {
+                return@forEach
+            }
+
+            val (spec, args) = UrlUtils.splitUrlArgs(url.url)
+            if (args.isBlank()) {
+                specs[url] = spec
+            }
+        }
+        return specs
+    }
+
+    /**
+     * Create the options shared by all urls, it's the same as [CombinedUrlNormalizer] does for each url.
+     * */
+    private fun createSharedOptions(options: LoadOptions, toItemOption: Boolean): LoadOptions {
+        val sharedOptions = if (toItemOption) options.createItemOptions() else options.clone()
+        sharedOptions.conf.name = sharedOptions.label
+        sharedOptions.overrideConfiguration()
+        return sharedOptions
+    }
+
+    /**
+     * Normalize the url specifications, a url is mapped to null if it's invalid, and is absent in the result
+     * if the normalizers throw.
+     * */
+    private fun normalizeSpecs(specs: List<String>, options: LoadOptions): Map<String, String?> {
+        val results = arrayOfNulls<String>(specs.size)
+        val failures = BooleanArray(specs.size)
+        val normalize = { i: Int ->
+            try {
+                results[i] = normalizeSpec(specs[i], options)
+            } catch (e: Exception) {
+                failures[i] = true
+            }
+        }
+
+        if (specs.size > parallelThreshold) {
+            pool.submit(Runnable { IntStream.range(0, specs.size).parallel().forEach { normalize(it) } }).get()
+        } else {
+            specs.indices.forEach { normalize(it) }
+        }
+
+        val normalizedSpecs = HashMap<String, String?>(specs.size)
+        specs.forEachIndexed { i, spec ->
+            if (!failures[i]) {
+                normalizedSpecs[spec] = results[i]
+            }
+        }
+        return normalizedSpecs
+    }
+
+    /**
+     * Normalize a url specification the same way as [CombinedUrlNormalizer] does, except the event handlers.
+     * */
+    private fun normalizeSpec(spec: String, options: LoadOptions): String? {
+        val normalizers = urlNormalizers
+        val normURL = if (!options.noNorm && normalizers != null) {
+            normalizers.normalize(spec) ?: return null
+        } else spec
+
+        return UrlUtils.normalizeOrNull(normURL, options.ignoreUrlQuery)
+    }
+}
+
+private inline fun <T> Timer.measure(block: () -> T): T {
+    val context = time()
+    try {
+        return block()
+    } finally {
+        context.stop()
+    }
+}
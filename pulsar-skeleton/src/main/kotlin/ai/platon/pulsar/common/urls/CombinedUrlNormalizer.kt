@@ -18,12 +18,11 @@ class CombinedUrlNormalizer(private val urlNormalizers: ChainedUrlNormalizer? =
     fun normalize(url: UrlAware, options: LoadOptions, toItemOption: Boolean): NormURL {
         val (spec, args1) = UrlUtils.splitUrlArgs(url.url)
         val args2 = url.args ?: ""
-        val args3 = options.toString()
-        // args1 has the #1 priority, and then args2, and at last args3.
+        // args1 has the #1 priority, and then args2, and at last the options.
         // the later args overwrites the earlier ones.
-        val args = "$args3 $args2 $args1".trim()
+        val args = "$args2 $args1".trim()
 
-        val finalOptions = createLoadOptions(url, LoadOptions.parse(args, options), toItemOption)
+        val finalOptions = createLoadOptions(url, LoadOptions.merge(options, args), toItemOption)
         val rawEvent = finalOptions.rawEvent
 
         var normURL = if (rawEvent?.loadEvent?.onNormalize?.isNotEmpty == true) {
@@ -57,14 +56,9 @@ class CombinedUrlNormalizer(private val urlNormalizers: ChainedUrlNormalizer? =
     }
 
     private fun createLoadOptions0(url: UrlAware, options: LoadOptions): LoadOptions {
+        // the options are copied field by field, no need to check the arguments string any more
         val clone = options.clone()
 
-        // TODO: disable in product environment for performance issue
-        require(options.toString() == clone.toString())
-
-        require(options.rawEvent == clone.rawEvent)
-        require(options.rawItemEvent == clone.rawItemEvent)
-
         clone.conf.name = clone.label
         clone.nMaxRetry = url.nMaxRetry
 
@@ -2,7 +2,10 @@ package ai.platon.pulsar.context.support
 
 import ai.platon.pulsar.common.*
 import ai.platon.pulsar.common.collect.UrlPool
+import ai.platon.pulsar.common.config.CapabilityTypes.LOAD_NORMALIZE_PARALLEL_THRESHOLD
 import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.options.LoadOptions
 import ai.platon.pulsar.common.urls.*
 import ai.platon.pulsar.context.PulsarContext
@@ -196,8 +199,7 @@ abstract class AbstractPulsarContext(
     }
 
     override fun normalize(url: String, options: LoadOptions, toItemOption: Boolean): NormURL {
-        val url0 = url.takeIf { it.contains("://") } ?: String(Base64.getUrlDecoder().decode(url))
-        return normalize(PlainUrl(url0), options, toItemOption)
+        return normalize(toPlainUrl(url), options, toItemOption)
     }
 
     override fun normalizeOrNull(url: String?, options: LoadOptions, toItemOption: Boolean): NormURL? {
@@ -205,12 +207,19 @@ abstract class AbstractPulsarContext(
         return kotlin.runCatching { normalize(url, options, toItemOption) }.getOrNull()
     }
 
+    /**
+     * Normalize urls in batch, the urls are decoded the same way as [normalize] does for a single url, the urls
+     * failed to decode are removed.
+     * */
     override fun normalize(urls: Iterable<String>, options: LoadOptions, toItemOption: Boolean): List<NormURL> {
-        return urls.mapNotNull { normalizeOrNull(it, options, toItemOption) }
+        val plainUrls = urls.mapNotNull { url -> kotlin.runCatching { toPlainUrl(url) }.getOrNull() }
+        return normalize(plainUrls, options, toItemOption)
     }
     
     override fun normalize(url: UrlAware, options: LoadOptions, toItemOption: Boolean): NormURL {
-        return CombinedUrlNormalizer(urlNormalizerOrNull).normalize(url, options, toItemOption)
+        return LoadSpans.trace(LoadStage.NORMALIZE) {
+            CombinedUrlNormalizer(urlNormalizerOrNull).normalize(url, options, toItemOption)
+        }
     }
 
     override fun normalizeOrNull(url: UrlAware?, options: LoadOptions, toItemOption: Boolean): NormURL? {
@@ -218,8 +227,21 @@ abstract class AbstractPulsarContext(
         return kotlin.runCatching { normalize(url, options, toItemOption) }.getOrNull()
     }
 
+    /**
+     * Normalize urls in batch, see [BatchUrlNormalizer].
+     * */
     override fun normalize(urls: Collection<UrlAware>, options: LoadOptions, toItemOption: Boolean): List<NormURL> {
-        return urls.mapNotNull { normalizeOrNull(it, options, toItemOption) }
+        val parallelThreshold = unmodifiedConfig.getInt(LOAD_NORMALIZE_PARALLEL_THRESHOLD, BatchUrlNormalizer.PARALLEL_DISABLED)
+        return LoadSpans.trace(LoadStage.NORMALIZE) {
+            BatchUrlNormalizer(urlNormalizerOrNull, parallelThreshold).normalize(urls, options, toItemOption)
+        }
+    }
+
+    /**
+     * Create a plain url from a url string, the url is Base64 encoded if it's not an absolute url.
+     * */
+    private fun toPlainUrl(url: String): PlainUrl {
+        return PlainUrl(url.takeIf { it.contains("://") } ?: String(Base64.getUrlDecoder().decode(url)))
     }
 
     /**
@@ -9,6 +9,8 @@ import ai.platon.pulsar.common.config.Parameterized
 import ai.platon.pulsar.common.config.Params
 import ai.platon.pulsar.common.emoji.PopularEmoji
 import ai.platon.pulsar.common.measure.ByteUnitConverter
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.message.MiscMessageWriter
 import ai.platon.pulsar.common.metrics.MetricsSystem
 import ai.platon.pulsar.crawl.common.URLUtil
@@ -16,6 +18,8 @@ import ai.platon.pulsar.crawl.component.LoadComponent
 import ai.platon.pulsar.crawl.component.ParseComponent
 import ai.platon.pulsar.crawl.fetch.UrlStat
 import ai.platon.pulsar.crawl.parse.html.JsoupParser
+import ai.platon.pulsar.dom.FeaturedDocument
+import ai.platon.pulsar.persist.ContentCodecs
 import ai.platon.pulsar.persist.WebDb
 import ai.platon.pulsar.persist.WebPage
 import ai.platon.pulsar.session.AbstractPulsarSession
@@ -47,6 +51,11 @@ class CoreMetrics(
                 "runningChromeProcesses" to Gauge { runningChromeProcesses },
                 "usedMemory" to Gauge { Strings.compactFormat(usedMemory) },
                 "cpuLoad" to Gauge { String.format("%.2f", cpuLoad) },
+                "resourceSampleInterval" to Gauge { AppSystemInfo.resourceSampler.interval },
+                "resourceSamples" to Gauge { AppSystemInfo.resourceSampler.numSamples },
+                "resourceSampleAveMicros" to Gauge { AppSystemInfo.resourceSampler.averageSampleCost.toNanos() / 1000 },
+                "resourceSampleLastMicros" to Gauge { AppSystemInfo.resourceSampler.lastSampleCost.toNanos() / 1000 },
+                "resourceSnapshotAge" to Gauge { AppSystemInfo.resourceSnapshot.age },
 
                 "pulsarSessionPageCacheHits" to Gauge { AbstractPulsarSession.pageCacheHits },
                 "pulsarSessionPageCacheHits/s" to Gauge { 1.0 * AbstractPulsarSession.pageCacheHits.get() / DateTimes.elapsedSeconds() },
@@ -57,6 +66,8 @@ class CoreMetrics(
                 "parses/s" to Gauge { 1.0 * ParseComponent.numParses.get() / DateTimes.elapsedSeconds() },
                 "jsoupParses" to Gauge { JsoupParser.numJsoupParses.get() },
                 "jsoupParses/s" to Gauge { 1.0 * JsoupParser.numJsoupParses.get() / DateTimes.elapsedSeconds() },
+                "documents" to Gauge { FeaturedDocument.globalNumDocuments },
+                "featuredDocuments" to Gauge { FeaturedDocument.globalNumFeaturedDocuments },
 
                 "loadCompPageCacheHits" to Gauge { LoadComponent.pageCacheHits },
                 "loadCompPageCacheHits/s" to Gauge { 1.0 * LoadComponent.pageCacheHits.get() / DateTimes.elapsedSeconds() },
@@ -70,7 +81,23 @@ class CoreMetrics(
                 "dbPuts" to Gauge { WebDb.dbPutCount },
                 "dbPuts/s" to Gauge { 1.0 * WebDb.dbPutCount.get() / DateTimes.elapsedSeconds() },
                 "dbPutAveMillis" to Gauge { WebDb.dbPutAveMillis },
+
+                "contentEncodes" to Gauge { ContentCodecs.numEncoded },
+                "contentIncompressible" to Gauge { ContentCodecs.numIncompressible },
+                "contentDecodes" to Gauge { ContentCodecs.numDecoded },
+                "contentEncodedMBytes" to Gauge { ContentCodecs.encodedBytes.get() / 1024 / 1024 },
+                "contentSavedMBytes" to Gauge { ContentCodecs.bytesSaved / 1024 / 1024 },
             ).forEach { MetricsSystem.reg.register(this, it.key, it.value) }
+
+            // the latency percentiles of the load pipeline stages, they are zeros unless load tracing is enabled
+            LoadStage.values().forEach { stage ->
+                val histogram = LoadSpans.histogram(stage)
+                mapOf(
+                    "${stage.label}Spans" to Gauge { histogram.count },
+                    "${stage.label}P50Millis" to Gauge { histogram.p50.toMillis() },
+                    "${stage.label}P99Millis" to Gauge { histogram.p99.toMillis() },
+                ).forEach { MetricsSystem.reg.register(this, it.key, it.value) }
+            }
         }
     }
 
@@ -83,6 +110,11 @@ class CoreMetrics(
      */
     private var maxUrlLength: Int = conf.getInt(PARSE_MAX_URL_LENGTH, 1024)
 
+    /**
+     * Trace the time spent in each stage of the load pipeline
+     */
+    private val loadTraceEnabled = conf.getBoolean(LOAD_TRACE_ENABLED, false)
+
     /**
      * The start time of the program process
      */
@@ -185,12 +217,17 @@ class CoreMetrics(
             }
         }.onFailure { warnInterruptible(this, it) }
 
+        if (loadTraceEnabled) {
+            LoadSpans.isEnabled = true
+        }
+
         params.withLogger(logger).info(true)
     }
 
     override fun getParams(): Params {
         return Params.of(
             "maxUrlLength", maxUrlLength,
+            "loadTraceEnabled", loadTraceEnabled,
             "timeoutUrls", timeoutUrls.size,
             "failedUrls", failedUrls.size,
             "deadUrls", deadUrls.size
@@ -380,6 +417,10 @@ class CoreMetrics(
                 logger.info(getSuccessReport())
             }
 
+            if (LoadSpans.isEnabled) {
+                logger.info("Load stage latencies: \n{}", LoadSpans.format())
+            }
+
             if (fetchTasks.count > 0) {
                 logAvailableHosts()
             }
@@ -407,8 +448,10 @@ class CoreMetrics(
         meterTotalNetworkIFsRecvMBytes.mark(totalNetworkIFsRecvBytes / 1024 / 1024)
 
         runningChromeProcesses = Runtimes.countSystemProcess("chrome")
-        usedMemory = AppSystemInfo.usedMemory ?: 0
-        cpuLoad = AppSystemInfo.systemCpuLoad
+        // read from the snapshot refreshed by the resource sampler
+        val snapshot = AppSystemInfo.resourceSnapshot
+        usedMemory = snapshot.usedMemory ?: 0
+        cpuLoad = snapshot.cpuLoad
     }
 
     private fun startReporter() {
@@ -439,6 +482,10 @@ class CoreMetrics(
         } else {
             reportWhenLowThroughput()
         }
+
+        if (LoadSpans.isEnabled) {
+            logger.info("Load stage latencies: \n{}", LoadSpans.format())
+        }
     }
 
     private fun reportWhenLowThroughput() {
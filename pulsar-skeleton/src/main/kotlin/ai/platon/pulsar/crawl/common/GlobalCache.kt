@@ -1,25 +1,89 @@
 package ai.platon.pulsar.crawl.common
 
+import ai.platon.pulsar.common.AppPaths
+import ai.platon.pulsar.common.Systems
 import ai.platon.pulsar.common.collect.ConcurrentUrlPool
+import ai.platon.pulsar.common.collect.SpillingUrlPool
 import ai.platon.pulsar.common.collect.UrlPool
 import ai.platon.pulsar.common.concurrent.ConcurrentExpiringLRUCache
 import ai.platon.pulsar.common.concurrent.ConcurrentExpiringLRUCache.Companion.CACHE_CAPACITY
 import ai.platon.pulsar.common.config.CapabilityTypes
-import ai.platon.pulsar.common.config.CapabilityTypes.GLOBAL_DOCUMENT_CACHE_SIZE
-import ai.platon.pulsar.common.config.CapabilityTypes.GLOBAL_PAGE_CACHE_SIZE
+import ai.platon.pulsar.common.config.CapabilityTypes.*
 import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.metrics.MetricsSystem
 import ai.platon.pulsar.dom.FeaturedDocument
+import ai.platon.pulsar.dom.nodes.node.ext.featureStore
+import ai.platon.pulsar.dom.nodes.node.ext.sourceLength
 import ai.platon.pulsar.persist.WebPage
+import com.codahale.metrics.Gauge
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.future.asCompletableFuture
+import kotlinx.coroutines.withTimeoutOrNull
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentSkipListSet
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
 
 typealias PageCatch = ConcurrentExpiringLRUCache<String, WebPage>
 
 typealias DocumentCatch = ConcurrentExpiringLRUCache<String, FeaturedDocument>
 
+/**
+ * A fetch in flight. The first caller fetching a url is the leader, the later callers are followers which
+ * await the leader's result instead of fetching the same url again.
+ * */
+class InFlightFetch internal constructor(
+    val url: String,
+    val isLeader: Boolean,
+    internal val deferred: CompletableDeferred<WebPage?>
+) {
+    /**
+     * Await the leader's page, return null if the leader failed or the timeout is reached.
+     * */
+    suspend fun await(timeout: Duration): WebPage? {
+        return withTimeoutOrNull(timeout.toMillis()) { deferred.await() }
+    }
+
+    /**
+     * Await the leader's page in blocking mode, return null if the leader failed or the timeout is reached.
+     * */
+    @Throws(InterruptedException::class)
+    fun awaitBlocking(timeout: Duration): WebPage? {
+        return try {
+            deferred.asCompletableFuture().get(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            null
+        }
+    }
+}
+
 class FetchingCache {
 
     private val fetchingUrls = ConcurrentSkipListSet<String>()
 
+    private val inFlightFetches = ConcurrentHashMap<String, CompletableDeferred<WebPage?>>()
+
+    private val coalescedFetches = AtomicLong()
+
+    private val savedFetches = AtomicLong()
+
+    /**
+     * The number of fetches in flight which can be joined
+     * */
+    val numInFlightFetches get() = inFlightFetches.size
+
+    /**
+     * The number of callers which joined a fetch in flight
+     * */
+    val numCoalescedFetches get() = coalescedFetches.get()
+
+    /**
+     * The number of callers which shared the leader's result, so the fetches are saved
+     * */
+    val numSavedFetches get() = savedFetches.get()
+
     fun isFetching(url: String) = fetchingUrls.contains(url)
 
     fun add(url: String) {
@@ -38,15 +102,134 @@ class FetchingCache {
         fetchingUrls.removeAll(urls)
     }
 
-    fun clear() = fetchingUrls.clear()
+    /**
+     * Join the fetch in flight of the url, or start a new one if there is none, in which case the caller is
+     * the leader and must call [complete] once the fetch is done, no matter it's successful or not.
+     *
+     * The [url] is the coalescing key, it can carry the options affecting the fetch after the url, so only
+     * compatible loads are coalesced.
+     * */
+    fun join(url: String): InFlightFetch {
+        val deferred = CompletableDeferred<WebPage?>()
+        val existing = inFlightFetches.putIfAbsent(url, deferred)
+        if (existing != null) {
+            coalescedFetches.incrementAndGet()
+            return InFlightFetch(url, false, existing)
+        }
+
+        return InFlightFetch(url, true, deferred)
+    }
+
+    /**
+     * Complete the fetch in flight, all the followers are resumed with the [page], a null page means the fetch
+     * is failed, and the followers should fetch by themselves.
+     * */
+    fun complete(fetch: InFlightFetch, page: WebPage?) {
+        require(fetch.isLeader) { "Only the leader can complete a fetch in flight | ${fetch.url}" }
+        inFlightFetches.remove(fetch.url, fetch.deferred)
+        fetch.deferred.complete(page)
+    }
+
+    /**
+     * Record that a follower shared the leader's result.
+     * */
+    fun markSaved() {
+        savedFetches.incrementAndGet()
+    }
+
+    fun clear() {
+        fetchingUrls.clear()
+        // resume the followers, they fetch by themselves
+        inFlightFetches.values.forEach { it.complete(null) }
+        inFlightFetches.clear()
+    }
 
     operator fun contains(url: String) = fetchingUrls.contains(url)
 }
 
+/**
+ * Estimate the retained heap size of the cached items in bytes.
+ * */
+object CacheWeighers {
+    /**
+     * The estimated size of a page without the content, including the fields, the metadata and the variables
+     * */
+    const val PAGE_OVERHEAD_BYTES = 8 * 1024L
+    /**
+     * The estimated heap bytes of a parsed document per source character, including the nodes, the attributes
+     * and the texts
+     * */
+    const val DOCUMENT_BYTES_PER_CHAR = 8L
+    /**
+     * The estimated size of a document if the source length is unknown
+     * */
+    const val UNKNOWN_DOCUMENT_BYTES = 1024 * 1024L
+    /**
+     * The estimated size of a feature vector object without the elements, the elements are kept in the feature store
+     * */
+    const val VECTOR_OVERHEAD_BYTES = 32L
+
+    /**
+     * Estimate the retained size of a page, the page content dominates.
+     * The content is not loaded if it's lazy loaded.
+     * */
+    fun estimatePageSize(page: WebPage): Long {
+        val tmpContentBytes = page.tmpContent?.capacity()?.toLong() ?: 0L
+        val contentBytes = maxOf(page.contentLength, page.persistedContentLength, tmpContentBytes)
+        return PAGE_OVERHEAD_BYTES + contentBytes
+    }
+
+    /**
+     * Estimate the retained size of a document from the length of its source, which is O(1) since the cache
+     * weighs every document it holds. The features are charged only if they are already calculated.
+     * */
+    fun estimateDocumentSize(document: FeaturedDocument): Long {
+        val doc = document.unbox()
+        val sourceLength = doc.sourceLength
+        val domBytes = if (sourceLength > 0) DOCUMENT_BYTES_PER_CHAR * sourceLength else UNKNOWN_DOCUMENT_BYTES
+        // do not use FeaturedDocument.featureStore, which calculates the features
+        val store = doc.featureStore ?: return domBytes
+        val featureBytes = store.size * VECTOR_OVERHEAD_BYTES + java.lang.Double.BYTES.toLong() * store.dimension * store.capacity
+        return domBytes + featureBytes
+    }
+}
+
 /**
  * The global cache.
  * */
 open class GlobalCache(val conf: ImmutableConfig) {
+    companion object {
+        /**
+         * The most recently created global cache, which the gauges report
+         * */
+        @Volatile
+        private var active: GlobalCache? = null
+
+        init {
+            mapOf(
+                "pageCacheSize" to gauge { pageCache.size },
+                "pageCacheHits" to gauge { pageCache.hitCount },
+                "pageCacheMisses" to gauge { pageCache.missCount },
+                "pageCacheEvictions" to gauge { pageCache.evictionCount },
+                "pageCacheWeight" to gauge { pageCache.weight },
+                "documentCacheSize" to gauge { documentCache.size },
+                "documentCacheHits" to gauge { documentCache.hitCount },
+                "documentCacheMisses" to gauge { documentCache.missCount },
+                "documentCacheEvictions" to gauge { documentCache.evictionCount },
+                "documentCacheWeight" to gauge { documentCache.weight },
+                "inFlightFetches" to gauge { fetchingCache.numInFlightFetches },
+                "coalescedFetches" to gauge { fetchingCache.numCoalescedFetches },
+                "savedFetches" to gauge { fetchingCache.numSavedFetches },
+                "urlHistoryMemoryBytes" to gauge { urlPool.historyMemoryBytes },
+            ).let { MetricsSystem.reg.registerAll(GlobalCache::class, it) }
+        }
+
+        /**
+         * The gauges are registered only once, so they read the active cache rather than capture an instance.
+         * */
+        private fun gauge(value: GlobalCache.() -> Number) = Gauge<Number> { active?.value() ?: 0 }
+    }
+
     /**
      * The page cache capacity
      * */
@@ -55,26 +238,47 @@ open class GlobalCache(val conf: ImmutableConfig) {
      * The document cache capacity
      * */
     private val documentCacheCapacity = conf.getUint(GLOBAL_DOCUMENT_CACHE_SIZE, CACHE_CAPACITY)
+    /**
+     * The estimated heap size in bytes the page cache can use, 10% of the max heap size by default
+     * */
+    private val pageCacheMemoryBudget = conf.getUlong(GLOBAL_PAGE_CACHE_MEMORY_BUDGET, Systems.memoryMax / 10)
+    /**
+     * The estimated heap size in bytes the document cache can use, 10% of the max heap size by default
+     * */
+    private val documentCacheMemoryBudget = conf.getUlong(GLOBAL_DOCUMENT_CACHE_MEMORY_BUDGET, Systems.memoryMax / 10)
     /**
      * A url pool contains many url caches, the urls added to the pool will be processed in crawl loops.
      * */
-    open var urlPool: UrlPool = ConcurrentUrlPool(conf).apply { initialize() }
+    open var urlPool: UrlPool = createUrlPool()
     /**
      * Fetching cache holds the URLs being fetched.
      *
      * URLs are cached before being fetched and removed from the cache after retrieval.
      *
-     * The cache is used to avoid fetching the same URL multiple times.
+     * The cache is used to avoid fetching the same URL multiple times, concurrent loads of the same URL
+     * join the fetch in flight and share its result.
      * */
     open val fetchingCache = FetchingCache()
     /**
      * The global page cache, a page will be removed automatically if it's expired or the cache is full.
      * */
-    open val pageCache = PageCatch(capacity = pageCacheCapacity)
+    open val pageCache = PageCatch(
+        capacity = pageCacheCapacity,
+        maxWeight = pageCacheMemoryBudget,
+        weigher = { _, page -> CacheWeighers.estimatePageSize(page) }
+    )
     /**
      * The global document cache, a document will be removed automatically if it's expired or the cache is full.
      * */
-    open val documentCache = DocumentCatch(capacity = documentCacheCapacity)
+    open val documentCache = DocumentCatch(
+        capacity = documentCacheCapacity,
+        maxWeight = documentCacheMemoryBudget,
+        weigher = { _, document -> CacheWeighers.estimateDocumentSize(document) }
+    )
+
+    init {
+        active = this
+    }
 
     /**
      * Reset all caches. After this operation, all caches will be empty.
@@ -83,7 +287,10 @@ open class GlobalCache(val conf: ImmutableConfig) {
         fetchingCache.clear()
         pageCache.clear()
         documentCache.clear()
-        urlPool = ConcurrentUrlPool(conf).apply { initialize() }
+        // the old pool holds the spill files, release them before it's replaced
+        val oldPool = urlPool
+        urlPool = createUrlPool()
+        (oldPool as? AutoCloseable)?.close()
     }
 
     /**
@@ -96,6 +303,21 @@ open class GlobalCache(val conf: ImmutableConfig) {
         urlPool.clear()
     }
 
+    /**
+     * Create the url pool, the urls spill to disk if [GLOBAL_URL_POOL_SPILL] is enabled, every spilling pool
+     * spills to its own subdirectory.
+     * */
+    private fun createUrlPool(): UrlPool {
+        val pool = if (conf.getBoolean(GLOBAL_URL_POOL_SPILL, false)) {
+            val capacity = conf.getUint(GLOBAL_URL_POOL_SPILL_CAPACITY, 10_000)
+            SpillingUrlPool(conf, AppPaths.PROC_TMP_DIR.resolve("url-pool"), capacity)
+        } else {
+            ConcurrentUrlPool(conf)
+        }
+
+        return pool.apply { initialize() }
+    }
+
     /**
      * Clear page cache and document cache. After this operation, page cache and document cache will be empty.
      * */
@@ -0,0 +1,354 @@
+package ai.platon.pulsar.crawl.common
+
+import ai.platon.pulsar.common.urls.UrlAware
+import java.time.Duration
+import kotlin.math.min
+
+/**
+ * A host aware dispatch stage for the streaming crawl loop, it's the counterpart of the per-host
+ * [ai.platon.pulsar.crawl.fetch.batch.TaskPool]s of the batch fetch path.
+ *
+ * Urls are queued by host, the host key is calculated by [groupMode]. A url is dispatched only if its host:
+ * 1. has a token in its token bucket, a token is refilled every [crawlDelay]
+ * 2. has less than [maxConcurrency] running tasks
+ * 3. is not in backoff, a host backs off exponentially after consecutive failures
+ *
+ * Hosts are served in round-robin order, and [poll] never blocks, so one slow or rate-limiting host can not
+ * hold up the other hosts.
+ *
+ * The state of a host is kept after its queue is empty, until its token bucket is refilled and its failures are
+ * expired, so a host which is offered one url at a time is still rate limited and still backs off.
+ *
+ * This class is thread safe.
+ * */
+class HostDispatcher(
+    /**
+     * Host group mode : can be by ip, by host or by domain
+     * */
+    val groupMode: URLUtil.GroupMode = URLUtil.GroupMode.BY_HOST,
+    /**
+     * The minimal interval between two dispatches of the same host, zero means no limit
+     * */
+    val crawlDelay: Duration = Duration.ZERO,
+    /**
+     * The maximal number of running tasks of the same host, zero or negative means no limit
+     * */
+    val maxConcurrency: Int = 0,
+    /**
+     * The capacity of the waiting queue of each host
+     * */
+    val queueCapacity: Int = 100,
+    /**
+     * The capacity of all the waiting queues
+     * */
+    val capacity: Int = 10_000,
+    /**
+     * The maximal backoff time of a failing host
+     * */
+    val maxBackoff: Duration = Duration.ofMinutes(1),
+    /**
+     * A host starts to back off after so many consecutive failures
+     * */
+    val failuresToBackoff: Int = 3,
+) {
+    /**
+     * A url waiting in a host queue
+     * */
+    class QueuedUrl(
+        val url: UrlAware,
+        val host: String,
+        val enqueueTime: Long = System.currentTimeMillis(),
+    ) {
+        /**
+         * The time the url waited in the host queue, valid after it's dispatched
+         * */
+        var waitTime: Duration = Duration.ZERO
+            internal set
+    }
+
+    /**
+     * The statistics of a host
+     * */
+    data class HostStat(
+        val host: String,
+        val queueDepth: Int,
+        val runningTasks: Int,
+        val dispatches: Long,
+        val averageWaitTime: Duration,
+        val backoff: Duration,
+    )
+
+    private class HostQueue(val host: String) {
+        val urls = ArrayDeque<QueuedUrl>()
+        var tokens = 1.0
+        var lastRefillTime = System.currentTimeMillis()
+        var runningTasks = 0
+        var consecutiveFailures = 0
+        var lastFailureTime = 0L
+        var backoffUntil = 0L
+        var dispatches = 0L
+        var totalWaitMillis = 0L
+    }
+
+    private val lock = Any()
+    /**
+     * The iteration order is the round-robin order, a host is moved to the tail once it's served
+     * */
+    private val hosts = LinkedHashMap<String, HostQueue>()
+    private var numQueued = 0
+    private var lastPurgeTime = System.currentTimeMillis()
+
+    /**
+     * The number of urls waiting in all the host queues
+     * */
+    val size: Int get() = synchronized(lock) { numQueued }
+
+    val isEmpty: Boolean get() = size == 0
+
+    /**
+     * The number of tracked hosts, including the hosts with no queued url whose state is not expired yet
+     * */
+    val numHosts: Int get() = synchronized(lock) { hosts.size }
+
+    /**
+     * The number of hosts in backoff
+     * */
+    val numBackoffHosts: Int get() {
+        val now = System.currentTimeMillis()
+        return synchronized(lock) { hosts.values.count { it.backoffUntil > now } }
+    }
+
+    /**
+     * Get the host key of the url, returns an empty string if the url is not a valid URL.
+     * */
+    fun hostOf(url: UrlAware): String {
+        return URLUtil.getHost(url.url, "", groupMode)
+    }
+
+    /**
+     * Add a url to its host queue.
+     *
+     * @return false if the host queue or the dispatcher is full, the caller should delay the url
+     * */
+    fun offer(url: UrlAware): Boolean {
+        val host = hostOf(url)
+        val now = System.currentTimeMillis()
+        synchronized(lock) {
+            purgeExpiredHosts(now)
+
+            // do not track a host for a rejected url
+            if (numQueued >= capacity || (hosts[host]?.urls?.size ?: 0) >= queueCapacity) {
+                return false
+            }
+
+            val queue = hosts.getOrPut(host) { HostQueue(host) }
+            queue.urls.addLast(QueuedUrl(url, host))
+            ++numQueued
+            return true
+        }
+    }
+
+    /**
+     * Take a url from the next ready host, without blocking.
+     *
+     * @return the queued url, or null if no host is ready
+     * */
+    fun poll(): QueuedUrl? {
+        val now = System.currentTimeMillis()
+        synchronized(lock) {
+            val queue = hosts.values.firstOrNull { it.urls.isNotEmpty() && isReady(it, now) } ?: return null
+
+            val queuedUrl = queue.urls.removeFirst()
+            --numQueued
+            if (crawlDelay > Duration.ZERO) {
+                queue.tokens -= 1.0
+            }
+            ++queue.runningTasks
+            ++queue.dispatches
+            queuedUrl.waitTime = Duration.ofMillis(now - queuedUrl.enqueueTime)
+            queue.totalWaitMillis += queuedUrl.waitTime.toMillis()
+
+            // move the host to the tail to serve the hosts in round-robin order
+            hosts.remove(queue.host)
+            hosts[queue.host] = queue
+
+            return queuedUrl
+        }
+    }
+
+    /**
+     * Notify that a dispatched task of the host is finished.
+     *
+     * @param success true if the task succeeded, false if it failed, and null if the result says nothing about
+     * the host, for example, the task is canceled
+     * */
+    fun finish(host: String, success: Boolean?) {
+        val now = System.currentTimeMillis()
+        synchronized(lock) {
+            val queue = hosts[host] ?: return
+            queue.runningTasks = (queue.runningTasks - 1).coerceAtLeast(0)
+
+            when (success) {
+                true -> queue.consecutiveFailures = 0
+                false -> {
+                    if (isFailureExpired(queue, now)) {
+                        queue.consecutiveFailures = 0
+                    }
+                    val failures = ++queue.consecutiveFailures
+                    queue.lastFailureTime = now
+                    if (failures >= failuresToBackoff) {
+                        queue.backoffUntil = now + backoffTime(failures).toMillis()
+                    }
+                }
+                else -> {}
+            }
+
+            if (isExpired(queue, now)) {
+                hosts.remove(host)
+            }
+            purgeExpiredHosts(now)
+        }
+    }
+
+    /**
+     * The estimated time until a url of the host can be dispatched.
+     * */
+    fun estimatedWaitTime(host: String): Duration {
+        synchronized(lock) {
+            val queue = hosts[host] ?: return Duration.ZERO
+            val backoff = (queue.backoffUntil - System.currentTimeMillis()).coerceAtLeast(0)
+            return Duration.ofMillis(backoff + crawlDelay.toMillis() * queue.urls.size)
+        }
+    }
+
+    /**
+     * The time until the first host with queued urls gets a token or leaves backoff,
+     * the crawl loop can sleep so long if there is nothing else to do.
+     * */
+    fun nextReadyDelay(): Duration {
+        val now = System.currentTimeMillis()
+        val delayMillis = crawlDelay.toMillis()
+        synchronized(lock) {
+            val delay = hosts.values.filter { it.urls.isNotEmpty() }.minOfOrNull { queue ->
+                val tokenDelay = if (delayMillis > 0 && queue.tokens < 1.0) {
+                    ((1.0 - queue.tokens) * delayMillis).toLong() - (now - queue.lastRefillTime)
+                } else 0L
+                maxOf(queue.backoffUntil - now, tokenDelay, 0L)
+            } ?: 0L
+            return Duration.ofMillis(delay)
+        }
+    }
+
+    /**
+     * The statistics of the hosts with the deepest queues.
+     * */
+    fun getHostStats(limit: Int = 10): List<HostStat> {
+        val now = System.currentTimeMillis()
+        return synchronized(lock) {
+            hosts.values.sortedByDescending { it.urls.size }.take(limit).map {
+                HostStat(
+                    it.host,
+                    it.urls.size,
+                    it.runningTasks,
+                    it.dispatches,
+                    Duration.ofMillis(it.totalWaitMillis / it.dispatches.coerceAtLeast(1)),
+                    Duration.ofMillis((it.backoffUntil - now).coerceAtLeast(0))
+                )
+            }
+        }
+    }
+
+    /**
+     * Remove all the queued urls, the hosts with running tasks, or whose state is not expired, are still tracked.
+     *
+     * @return the removed urls in the queue order of each host
+     * */
+    fun drain(): List<QueuedUrl> {
+        val now = System.currentTimeMillis()
+        synchronized(lock) {
+            val queuedUrls = hosts.values.flatMap { it.urls }
+            hosts.values.forEach { it.urls.clear() }
+            hosts.values.removeIf { isExpired(it, now) }
+            lastPurgeTime = now
+            numQueued = 0
+            return queuedUrls
+        }
+    }
+
+    fun clear() {
+        synchronized(lock) {
+            hosts.clear()
+            numQueued = 0
+        }
+    }
+
+    private fun isReady(queue: HostQueue, now: Long): Boolean {
+        if (queue.backoffUntil > now) {
+            return false
+        }
+
+        if (maxConcurrency > 0 && queue.runningTasks >= maxConcurrency) {
+            return false
+        }
+
+        val delayMillis = crawlDelay.toMillis()
+        if (delayMillis > 0) {
+            // refill the token bucket, the bucket holds at most one token, so there is no burst
+            queue.tokens = min(1.0, queue.tokens + (now - queue.lastRefillTime).toDouble() / delayMillis)
+            queue.lastRefillTime = now
+            return queue.tokens >= 1.0
+        }
+
+        return true
+    }
+
+    /**
+     * A host is forgotten only if forgetting it changes nothing: it has no queued url and no running task,
+     * its token bucket is full, and its failures are expired.
+     * */
+    private fun isExpired(queue: HostQueue, now: Long): Boolean {
+        if (queue.urls.isNotEmpty() || queue.runningTasks > 0) {
+            return false
+        }
+
+        val delayMillis = crawlDelay.toMillis()
+        if (delayMillis > 0 && queue.tokens + (now - queue.lastRefillTime).toDouble() / delayMillis < 1.0) {
+            return false
+        }
+
+        return queue.consecutiveFailures == 0 || isFailureExpired(queue, now)
+    }
+
+    /**
+     * The consecutive failures are expired if the backoff is over and there is no failure in the last [maxBackoff].
+     * */
+    private fun isFailureExpired(queue: HostQueue, now: Long): Boolean {
+        return queue.backoffUntil <= now && now - queue.lastFailureTime >= maxBackoff.toMillis()
+    }
+
+    /**
+     * Remove the expired hosts, at most once in [PURGE_INTERVAL], must be called with the lock held.
+     * */
+    private fun purgeExpiredHosts(now: Long) {
+        if (now - lastPurgeTime < PURGE_INTERVAL.toMillis()) {
+            return
+        }
+
+        lastPurgeTime = now
+        hosts.values.removeIf { isExpired(it, now) }
+    }
+
+    private fun backoffTime(failures: Int): Duration {
+        val exponent = (failures - failuresToBackoff).coerceIn(0, 16)
+        val millis = BACKOFF_BASE.toMillis() shl exponent
+        return Duration.ofMillis(millis).coerceAtMost(maxBackoff)
+    }
+
+    companion object {
+        val BACKOFF_BASE: Duration = Duration.ofSeconds(1)
+        /**
+         * The interval to remove the expired hosts
+         * */
+        val PURGE_INTERVAL: Duration = Duration.ofSeconds(10)
+    }
+}
@@ -0,0 +1,37 @@
+package ai.platon.pulsar.crawl.common
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The urls being loaded, a url can be submitted several times while it's being loaded, every submission is counted,
+ * and the url is removed only when the last submission is done.
+ * */
+class LoadingUrls {
+
+    private val submissions = ConcurrentHashMap<String, Int>()
+
+    /**
+     * The number of distinct urls being loaded
+     * */
+    val size get() = submissions.size
+
+    val isEmpty get() = submissions.isEmpty()
+
+    /**
+     * Count a submission of the url.
+     *
+     * @return true if the url is not being loaded, the submission owns the load, or false if it joins the load
+     * */
+    fun acquire(url: String): Boolean {
+        return submissions.merge(url, 1, Int::plus) == 1
+    }
+
+    /**
+     * A submission of the url is done, every [acquire] must be paired with exactly one [release].
+     * */
+    fun release(url: String) {
+        submissions.computeIfPresent(url) { _, n -> if (n > 1) n - 1 else null }
+    }
+
+    operator fun contains(url: String) = submissions.containsKey(url)
+}
@@ -6,9 +6,12 @@ import ai.platon.pulsar.common.PulsarParams.VAR_FETCH_STATE
 import ai.platon.pulsar.common.PulsarParams.VAR_PREV_FETCH_TIME_BEFORE_UPDATE
 import ai.platon.pulsar.common.Strings
 import ai.platon.pulsar.common.config.AppConstants
+import ai.platon.pulsar.common.config.AppConstants.FETCH_TASK_TIMEOUT_DEFAULT
 import ai.platon.pulsar.common.config.CapabilityTypes.*
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.measure.ByteUnitConverter
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.message.PageLoadStatusFormatter
 import ai.platon.pulsar.common.options.LoadOptions
 import ai.platon.pulsar.common.persist.ext.loadEvent
@@ -16,6 +19,7 @@ import ai.platon.pulsar.common.urls.NormURL
 import ai.platon.pulsar.crawl.common.FetchEntry
 import ai.platon.pulsar.crawl.common.FetchState
 import ai.platon.pulsar.crawl.common.GlobalCacheFactory
+import ai.platon.pulsar.crawl.common.InFlightFetch
 import ai.platon.pulsar.crawl.common.url.CompletableHyperlink
 import ai.platon.pulsar.crawl.common.url.toCompletableListenableHyperlink
 import ai.platon.pulsar.crawl.parse.ParseResult
@@ -23,6 +27,7 @@ import ai.platon.pulsar.persist.WebDb
 import ai.platon.pulsar.persist.WebPage
 import ai.platon.pulsar.persist.gora.generated.GWebPage
 import ai.platon.pulsar.persist.model.ActiveDOMStat
+import ai.platon.pulsar.persist.metadata.Name
 import kotlinx.coroutines.*
 import org.slf4j.LoggerFactory
 import java.net.URL
@@ -83,6 +88,20 @@ class LoadComponent(
      * If a page is not found in the local storage, return WebPage.NIL.
      * */
     private val deactivateFetchComponent = deactivateFetchComponent1 || deactivateFetchComponent2
+    /**
+     * Coalesce concurrent loads of the same url, only the first load fetches the page from the Internet,
+     * the others await the fetch in flight and share its result.
+     * */
+    private val coalesceFetches = immutableConfig.getBoolean(LOAD_COALESCE_FETCHES, true)
+    /**
+     * The max time to await a fetch in flight, if it's reached, the follower fetches the page by itself.
+     * */
+    private val coalesceTimeout = immutableConfig.getDuration(FETCH_TASK_TIMEOUT, FETCH_TASK_TIMEOUT_DEFAULT)
+    /**
+     * The max time a blocking follower awaits a fetch in flight, it parks a thread, so it's bounded shorter.
+     * */
+    private val coalesceBlockingTimeout = immutableConfig.getDuration(LOAD_COALESCE_BLOCKING_TIMEOUT, Duration.ofSeconds(30))
+        .coerceAtMost(coalesceTimeout)
 
     val globalCache get() = globalCacheFactory.globalCache
     val pageCache get() = globalCache.pageCache
@@ -270,44 +289,137 @@ class LoadComponent(
      * */
     @Throws(Exception::class)
     private fun load0(normURL: NormURL): WebPage {
-        val page = createPageShell(normURL)
+        val page = createTracedPageShell(normURL)
 
         if (deactivateFetchComponent && shouldFetch(page)) {
             return WebPage.NIL
         }
 
+        if (coalesceFetches && shouldFetch(page)) {
+            return loadCoalesced(normURL, page)
+        }
+
+        return load1(normURL, page)
+    }
+
+    /**
+     * Load a page which should be fetched, if the page is being fetched by another caller, await and share its
+     * result, otherwise, fetch it as the leader.
+     * */
+    @Throws(Exception::class)
+    private fun loadCoalesced(normURL: NormURL, page: WebPage): WebPage {
+        val fetch = globalCache.fetchingCache.join(coalesceKey(normURL))
+        if (fetch.isLeader) {
+            var result: WebPage? = null
+            try {
+                return load1(normURL, page).also { result = it }
+            } finally {
+                completeFetch(fetch, result)
+            }
+        }
+
+        // if the leader failed, the page is still marked to refresh, and we fetch it by ourselves
+        shareFetchResult(page, fetch.awaitBlocking(coalesceBlockingTimeout))
         return load1(normURL, page)
     }
     
     @Throws(Exception::class)
     private fun load1(normURL: NormURL, page: WebPage): WebPage {
-        onWillLoad(normURL, page)
+        LoadSpans.trace(LoadStage.LOAD, page.stageTimings) {
+            onWillLoad(normURL, page)
 
-        fetchContentIfNecessary(normURL, page)
+            fetchContentIfNecessary(normURL, page)
 
-        onLoaded(page, normURL)
+            onLoaded(page, normURL)
+        }
+        writeStageTimings(page)
 
         return page
     }
     
     @Throws(Exception::class)
     private suspend fun loadDeferred0(normURL: NormURL): WebPage {
-        val page = createPageShell(normURL)
+        val page = createTracedPageShell(normURL)
 
         if (deactivateFetchComponent && shouldFetch(page)) {
             return WebPage.NIL
         }
 
+        if (coalesceFetches && shouldFetch(page)) {
+            return loadCoalescedDeferred(normURL, page)
+        }
+
         return loadDeferred1(normURL, page)
     }
+
+    /**
+     * Load a page which should be fetched, if the page is being fetched by another caller, await and share its
+     * result, otherwise, fetch it as the leader.
+     *
+     * This method is a coroutine version of [loadCoalesced].
+     * */
+    @Throws(Exception::class)
+    private suspend fun loadCoalescedDeferred(normURL: NormURL, page: WebPage): WebPage {
+        val fetch = globalCache.fetchingCache.join(coalesceKey(normURL))
+        if (fetch.isLeader) {
+            var result: WebPage? = null
+            try {
+                return loadDeferred1(normURL, page).also { result = it }
+            } finally {
+                completeFetch(fetch, result)
+            }
+        }
+
+        // if the leader failed, the page is still marked to refresh, and we fetch it by ourselves
+        shareFetchResult(page, fetch.await(coalesceTimeout))
+        return loadDeferred1(normURL, page)
+    }
+
+    /**
+     * The key to coalesce loads. Loads of the same url are coalesced only if the options affecting the fetch
+     * are the same, otherwise, a follower could share a page fetched, parsed or stored in a different way.
+     * */
+    private fun coalesceKey(normURL: NormURL): String {
+        val o = normURL.options
+        return listOf(normURL.spec, o.refresh, o.expires, o.expireAt, o.parse, o.storeContent, o.noFeatures,
+            o.browser, o.incognito, o.noRedirect, o.hardRedirect, o.scrollCount,
+            o.requireSize, o.requireImages, o.requireNotBlank, o.waitNonBlank
+        ).joinToString(" ")
+    }
+
+    private fun completeFetch(fetch: InFlightFetch, page: WebPage?) {
+        // a canceled page or a page to retry is not a result to share
+        val result = page?.takeIf { it.isNotNil && !it.isCanceled && !it.protocolStatus.isRetry }
+        globalCache.fetchingCache.complete(fetch, result)
+    }
+
+    /**
+     * Share the fetch result of the leader, the page is treated as a cached page, so it's neither fetched
+     * nor persisted again.
+     *
+     * @return true if the leader's result is shared, false if the leader failed
+     * */
+    private fun shareFetchResult(page: WebPage, leaderPage: WebPage?): Boolean {
+        if (leaderPage == null) {
+            return false
+        }
+
+        page.removeVar(VAR_REFRESH)
+        initCachedPage(page, leaderPage)
+        globalCache.fetchingCache.markSaved()
+        return true
+    }
     
     @Throws(Exception::class)
     private suspend fun loadDeferred1(normURL: NormURL, page: WebPage): WebPage {
-        onWillLoad(normURL, page)
+        LoadSpans.trace(LoadStage.LOAD, page.stageTimings) {
+            onWillLoad(normURL, page)
 
-        fetchContentIfNecessaryDeferred(normURL, page)
+            fetchContentIfNecessaryDeferred(normURL, page)
 
-        onLoaded(page, normURL)
+            onLoaded(page, normURL)
+        }
+        writeStageTimings(page)
 
         return page
     }
@@ -330,6 +442,30 @@ class LoadComponent(
         }
     }
 
+    /**
+     * Write the stage timings into the page metadata after the load span is closed, so the timings are complete.
+     * The copy written by WebDb.put when the page is persisted during the load is partial.
+     * */
+    private fun writeStageTimings(page: WebPage) {
+        val timings = page.stageTimings ?: return
+        page.metadata.set(Name.LOAD_STAGE_TIMINGS, timings.format())
+    }
+
+    /**
+     * Create a page shell, and record the time of the cache lookup if load tracing is enabled.
+     * */
+    private fun createTracedPageShell(normURL: NormURL): WebPage {
+        if (!LoadSpans.isEnabled) {
+            return createPageShell(normURL)
+        }
+
+        // the page is not created yet, so the span is recorded manually
+        val startTime = System.nanoTime()
+        val page = createPageShell(normURL)
+        LoadSpans.record(LoadStage.CACHE_LOOKUP, System.nanoTime() - startTime, page.stageTimings)
+        return page
+    }
+
     /**
      * Create a page shell, the page shell is the process unit for most tasks.
      * */
@@ -339,20 +475,7 @@ class LoadComponent(
 
         if (cachedPage != null) {
             pageCacheHits.incrementAndGet()
-            page.isCached = true
-            // the cached page can be or not be persisted, but not guaranteed
-            // if a page is loaded from cache, the content remains unchanged and should not persist to database
-            // TODO: clone the underlying data or not?
-            page.unsafeCloneGPage(cachedPage)
-            page.clearPersistContent()
-
-            page.tmpContent = cachedPage.content
-
-            // TODO: test the dirty flag
-            // do not persist this copy
-            page.unbox().clearDirty()
-            assert(!page.isFetched)
-            assert(page.isNotInternal)
+            initCachedPage(page, cachedPage)
         } else {
             // get the metadata of the page from the database, this is very fast for a crawler
             // load page content and page model lazily, if we load page content and page model every time,
@@ -381,6 +504,26 @@ class LoadComponent(
         return page
     }
 
+    /**
+     * Initialize the page shell with the content of a cached page.
+     * */
+    private fun initCachedPage(page: WebPage, cachedPage: WebPage) {
+        page.isCached = true
+        // the cached page can be or not be persisted, but not guaranteed
+        // if a page is loaded from cache, the content remains unchanged and should not persist to database
+        // TODO: clone the underlying data or not?
+        page.unsafeCloneGPage(cachedPage)
+        page.clearPersistContent()
+
+        page.tmpContent = cachedPage.content
+
+        // TODO: test the dirty flag
+        // do not persist this copy
+        page.unbox().clearDirty()
+        assert(!page.isFetched)
+        assert(page.isNotInternal)
+    }
+
     private fun initFetchState(normURL: NormURL, page: WebPage, loadedPage: WebPage?): CheckState {
         val options = normURL.options
 
@@ -560,7 +703,7 @@ class LoadComponent(
 //            require(normURL.options.eventHandler != null)
 //            require(page.conf.getBeanOrNull(PulsarEventHandler::class) != null)
 
-            fetchComponent.fetchContent(page)
+            LoadSpans.trace(LoadStage.FETCH, page.stageTimings) { fetchComponent.fetchContent(page) }
         } finally {
             afterFetch(page, normURL.options)
         }
@@ -570,7 +713,7 @@ class LoadComponent(
     private suspend fun fetchContentDeferred(page: WebPage, normURL: NormURL) {
         try {
             beforeFetch(page, normURL.options)
-            fetchComponent.fetchContentDeferred(page)
+            LoadSpans.trace(LoadStage.FETCH, page.stageTimings) { fetchComponent.fetchContentDeferred(page) }
         } finally {
             afterFetch(page, normURL.options)
         }
@@ -682,6 +825,11 @@ class LoadComponent(
 
         collectPersistMetrics(page)
 
+        if (webDb.isWriteBehind) {
+            // the pages are written and flushed in batches by the write behind writer
+            return
+        }
+
         if (numWrite < 200) {
             flush()
         } else if (!options.lazyFlush || numWrite % 20 == 0) {
@@ -265,7 +265,8 @@ class TaskScheduler(
 
         // Remove content if storeContent is false. Content is added to page earlier
         // so PageParser is able to parse it, now, we can clear it.
-        if (page.content != null && !storeContent) {
+        // Check storeContent first, so the content bytes are not created from the content text needlessly.
+        if (!storeContent && page.content != null) {
             if (!page.isSeed) {
                 // Clear content for non-seed pages
                 page.setContent(ByteArray(0))
@@ -3,6 +3,7 @@ package ai.platon.pulsar.crawl.impl
 import ai.platon.pulsar.common.*
 import ai.platon.pulsar.common.collect.ConcurrentLoadingIterable
 import ai.platon.pulsar.common.collect.DelayUrl
+import ai.platon.pulsar.common.concurrent.AdmissionController
 import ai.platon.pulsar.common.config.AppConstants.DEFAULT_BROWSER_MAX_ACTIVE_TABS
 import ai.platon.pulsar.common.config.AppConstants.FETCH_TASK_TIMEOUT_DEFAULT
 import ai.platon.pulsar.common.config.CapabilityTypes.*
@@ -18,10 +19,15 @@ import ai.platon.pulsar.common.urls.UrlAware
 import ai.platon.pulsar.common.urls.UrlUtils
 import ai.platon.pulsar.context.PulsarContexts
 import ai.platon.pulsar.context.support.AbstractPulsarContext
+import ai.platon.pulsar.crawl.common.HostDispatcher
+import ai.platon.pulsar.crawl.common.LoadingUrls
+import ai.platon.pulsar.crawl.common.URLUtil
 import ai.platon.pulsar.crawl.common.url.ListenableUrl
 import ai.platon.pulsar.crawl.fetch.privacy.PrivacyContext
+import ai.platon.pulsar.persist.ProtocolStatus
 import ai.platon.pulsar.persist.WebDBException
 import ai.platon.pulsar.persist.WebPage
+import ai.platon.pulsar.persist.metadata.ProtocolStatusCodes
 import ai.platon.pulsar.session.PulsarSession
 import com.codahale.metrics.Gauge
 import kotlinx.coroutines.*
@@ -33,12 +39,12 @@ import java.nio.file.StandardOpenOption
 import java.nio.file.attribute.PosixFilePermissions
 import java.time.Duration
 import java.time.Instant
-import java.util.concurrent.ConcurrentSkipListSet
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
-import kotlin.random.Random
 
 private class StreamingCrawlerMetrics {
     private val registry = MetricsSystem.defaultMetricRegistry
@@ -52,8 +58,12 @@ private class StreamingCrawlerMetrics {
 
     val fetchSuccesses = registry.multiMetric(this, "fetchSuccesses")
 
+    val coalesced = registry.meter(this, "coalesced")
     val drops = registry.meter(this, "drops")
     val timeouts = registry.meter(this, "timeouts")
+
+    val admissions = registry.timer(this, "admissions")
+    val hostWaits = registry.histogram(this, "hostWaits")
 }
 
 private enum class CriticalWarning(val message: String) {
@@ -96,7 +106,22 @@ open class StreamingCrawler(
 
         private val globalMetrics = StreamingCrawlerMetrics()
 
-        private val globalLoadingUrls = ConcurrentSkipListSet<String>()
+        /**
+         * Tasks are admitted by permits, the number of permits is the fetch concurrency, and it shrinks or grows
+         * with the resource pressure
+         * */
+        private val ADMISSION_CHECK_INTERVAL = Duration.ofSeconds(1)
+        private val globalAdmission = AdmissionController(DEFAULT_BROWSER_MAX_ACTIVE_TABS, ADMISSION_CHECK_INTERVAL)
+
+        /**
+         * The host dispatchers of the running crawlers
+         * */
+        private val globalHostDispatchers = ConcurrentLinkedQueue<HostDispatcher>()
+
+        /**
+         * The urls being loaded, a url submitted several times is removed when the last submission is done
+         * */
+        private val globalLoadingUrls = LoadingUrls()
 
         private var contextLeakWaitingTime = Duration.ZERO
         private var proxyVendorWaitingTime = Duration.ZERO
@@ -117,6 +142,13 @@ open class StreamingCrawler(
                 "globalRunningInstances" to Gauge { globalRunningInstances.get() },
                 "globalRunningTasks" to Gauge { globalRunningTasks.get() },
                 "globalKilledTasks" to Gauge { globalKilledTasks.get() },
+                "admissionPermits" to Gauge { globalAdmission.numPermits },
+                "admissionThrottled" to Gauge { globalAdmission.numThrottled },
+                "admissionWaiters" to Gauge { globalAdmission.numWaiters },
+                "hostQueuedUrls" to Gauge { globalHostDispatchers.sumOf { it.size } },
+                "hosts" to Gauge { globalHostDispatchers.sumOf { it.numHosts } },
+                "backoffHosts" to Gauge { globalHostDispatchers.sumOf { it.numBackoffHosts } },
+                "hostQueues" to Gauge { formatHostQueues() },
                 "globalWebDBFailures" to Gauge { globalWebDBFailures.get() },
 
                 "contextLeakWaitingTime" to Gauge { contextLeakWaitingTime },
@@ -129,6 +161,13 @@ open class StreamingCrawler(
                 "lastFetchError" to Gauge { lastFetchError },
             ).let { MetricsSystem.reg.registerAll(this, it) }
         }
+
+        private fun formatHostQueues(): String {
+            val stats = globalHostDispatchers.flatMap { it.getHostStats() }.sortedByDescending { it.queueDepth }
+            return stats.take(10).joinToString { stat ->
+                "${stat.host}: ${stat.queueDepth}/${stat.runningTasks} ${stat.averageWaitTime.readable()}"
+            }
+        }
     }
 
     private val logger = getLogger(StreamingCrawler::class)
@@ -140,6 +179,11 @@ open class StreamingCrawler(
     private val globalCacheOrNull get() = if (isActive) session.globalCache else null
     private val isProxyEnabled get() = ProxyPoolManager.isProxyEnabled(sessionConfig)
     private val proxyPool: ProxyPool? get() = if (isProxyEnabled) context.getBeanOrNull(ProxyPool::class) else null
+    /**
+     * Urls are queued by host and dispatched with per-host politeness, so one slow host can not occupy all the
+     * permits. Each crawler has its own dispatcher configured by its own session config.
+     * */
+    private val hostDispatcher = createHostDispatcher()
     private var proxyOutOfService = 0
     
     /**
@@ -226,7 +270,7 @@ open class StreamingCrawler(
      * */
     val isIdle: Boolean
         get() {
-            return !urls.iterator().hasNext() && globalLoadingUrls.isEmpty()
+            return !urls.iterator().hasNext() && globalLoadingUrls.isEmpty
                     && idleTime > Duration.ofSeconds(10)
         }
 
@@ -300,8 +344,14 @@ open class StreamingCrawler(
         val startTime = Instant.now()
 
         globalRunningInstances.incrementAndGet()
-        runCrawlLoopWhileActive(scope)
-        globalRunningInstances.decrementAndGet()
+        globalHostDispatchers.add(hostDispatcher)
+        try {
+            runCrawlLoopWhileActive(scope)
+        } finally {
+            requeueHostQueues()
+            globalHostDispatchers.remove(hostDispatcher)
+            globalRunningInstances.decrementAndGet()
+        }
 
         logger.info(
             "All done. Total {} tasks are processed in session {} in {}",
@@ -313,6 +363,17 @@ open class StreamingCrawler(
     private suspend fun runCrawlLoopWhileActive(scope: CoroutineScope) {
         var idleSeconds = 0
         while (isActive) {
+            if (dispatchReadyUrls(0, scope) != FlowState.CONTINUE) {
+                return
+            }
+
+            if (!hostDispatcher.isEmpty && !urls.iterator().hasNext()) {
+                // all the urls are waiting for their hosts, wait until the first host is ready
+                val millis = hostDispatcher.nextReadyDelay().toMillis().coerceIn(10, 1000)
+                delay(millis)
+                continue
+            }
+
             checkEmptyUrlSequence(++idleSeconds)
             
             urls.forEachIndexed { j, url ->
@@ -329,11 +390,12 @@ open class StreamingCrawler(
                     globalTasks, globalLoadingUrls.size, globalRunningTasks, url.configuredUrl
                 )
                 
-                // The largest disk must have at least 10 GiB remaining space
-                val freeSpace =
-                    Runtimes.unallocatedDiskSpaces().maxOfOrNull { ByteUnit.BYTE.toGB(it) } ?: 0.0
+                // The largest disk must have at least 10 GiB remaining space,
+                // disk spaces are sampled in the background, no system call is issued here
+                val freeDiskSpaces = AppSystemInfo.freeDiskSpaces
+                val freeSpace = freeDiskSpaces.maxOfOrNull { ByteUnit.BYTE.toGB(it) } ?: 0.0
                 if (freeSpace < 10.0) {
-                    val diskSpaces = Runtimes.unallocatedDiskSpaces().joinToString { ByteUnit.BYTE.toGB(it).toString() }
+                    val diskSpaces = freeDiskSpaces.joinToString { ByteUnit.BYTE.toGB(it).toString() }
                     logger.error("Disk space is full! | {}", diskSpaces)
                     criticalWarning = CriticalWarning.OUT_OF_DISK_STORAGE
                     return@runCrawlLoopWhileActive
@@ -344,14 +406,14 @@ open class StreamingCrawler(
                     return@forEachIndexed
                 }
                 
-                // disabled, might be slow
+                // The same url is being loaded by another task, the load component coalesces the two tasks,
+                // so the page is fetched only once, and the later task shares the result.
                 val urlSpec = UrlUtils.splitUrlArgs(url.url).first
-                if (alwaysFalse() && doLaterIfProcessing(urlSpec, url, Duration.ofSeconds(10))) {
-                    return@forEachIndexed
+                if (!globalLoadingUrls.acquire(urlSpec)) {
+                    globalMetrics.coalesced.mark()
                 }
                 
-                globalLoadingUrls.add(urlSpec)
-                val state = runWithStatusCheck(1 + j, url, scope)
+                val state = dispatch(1 + j, url, urlSpec, scope)
                 
                 if (state != FlowState.CONTINUE) {
                     return@runCrawlLoopWhileActive
@@ -364,6 +426,78 @@ open class StreamingCrawler(
         }
     }
 
+    private fun createHostDispatcher() = HostDispatcher(
+        groupMode = sessionConfig.getEnum(FETCH_QUEUE_MODE, URLUtil.GroupMode.BY_HOST),
+        crawlDelay = sessionConfig.getDuration(MAIN_LOOP_HOST_CRAWL_DELAY, Duration.ZERO),
+        maxConcurrency = sessionConfig.getInt(MAIN_LOOP_HOST_MAX_CONCURRENCY, 0),
+        queueCapacity = sessionConfig.getInt(MAIN_LOOP_HOST_QUEUE_CAPACITY, 100),
+        maxBackoff = sessionConfig.getDuration(MAIN_LOOP_HOST_MAX_BACKOFF, Duration.ofMinutes(1)),
+    )
+
+    /**
+     * Put the urls still waiting for their hosts back to the url pool when the crawl loop exits, so they are not lost.
+     * */
+    private fun requeueHostQueues() {
+        val queuedUrls = hostDispatcher.drain()
+        if (queuedUrls.isNotEmpty()) {
+            logger.info("Put {} urls waiting for their hosts back to the url pool", queuedUrls.size)
+            queuedUrls.forEach { requeue(it.url, null) }
+        }
+    }
+
+    /**
+     * Put a url which is not launched back to the url pool, the host slot taken by the url is released.
+     *
+     * @param host the host of the url if it's polled from the host dispatcher, or null if it holds no host slot
+     * */
+    private fun requeue(url: UrlAware, host: String?) {
+        if (host != null) {
+            hostDispatcher.finish(host, null)
+        }
+
+        globalLoadingUrls.release(UrlUtils.splitUrlArgs(url.url).first)
+        runCatching { globalCache.urlPool.add(url) }
+            .onFailure { logger.warn("Failed to requeue {} | {}", url.url, it.message) }
+    }
+
+    /**
+     * Queue the url by its host, and run all the urls whose hosts are ready.
+     * Degenerate urls are not resources on the Internet, they are run immediately.
+     * */
+    private suspend fun dispatch(j: Int, url: UrlAware, urlSpec: String, scope: CoroutineScope): FlowState {
+        if (url is DegenerateUrl) {
+            return runWithStatusCheck(j, url, scope)
+        }
+
+        if (!hostDispatcher.offer(url)) {
+            // the host queue is full, do not block the loop, try the url again later
+            globalLoadingUrls.release(urlSpec)
+            val host = hostDispatcher.hostOf(url)
+            val delay = hostDispatcher.estimatedWaitTime(host).coerceAtLeast(Duration.ofSeconds(1))
+            globalCache.urlPool.delayCache.add(DelayUrl(url, delay))
+            return flowState
+        }
+
+        return dispatchReadyUrls(j, scope)
+    }
+
+    /**
+     * Run the queued urls whose hosts are ready, the hosts in backoff or out of tokens are skipped.
+     * */
+    private suspend fun dispatchReadyUrls(j: Int, scope: CoroutineScope): FlowState {
+        while (isActive) {
+            val queuedUrl = hostDispatcher.poll() ?: break
+            globalMetrics.hostWaits.update(queuedUrl.waitTime.toMillis())
+
+            val state = runWithStatusCheck(j, queuedUrl.url, scope, queuedUrl.host)
+            if (state != FlowState.CONTINUE) {
+                return state
+            }
+        }
+
+        return flowState
+    }
+
     private suspend fun checkEmptyUrlSequence(idleSeconds: Int) {
         if (urls.iterator().hasNext()) {
             return
@@ -386,7 +520,9 @@ open class StreamingCrawler(
         }
     }
 
-    private suspend fun runWithStatusCheck(j: Int, url: UrlAware, scope: CoroutineScope): FlowState {
+    private suspend fun runWithStatusCheck(
+        j: Int, url: UrlAware, scope: CoroutineScope, host: String? = null
+    ): FlowState {
         lastActiveTime = Instant.now()
         var k = 0
 
@@ -398,29 +534,6 @@ open class StreamingCrawler(
         }
         k = 0 // reset k explicitly
 
-        delayIfEstimatedNoLoadResource(j)
-
-        while (isActive && AppSystemInfo.isCriticalCPULoad) {
-            criticalWarning = CriticalWarning.HIGH_CPU_LOAD
-            // CPU load changes very fast, it drops immediately when a web driver becomes free,
-            // so we delay for short and random time.
-            randomDelay(200, 300)
-        }
-
-        /**
-         * If all memory is used up, we can do nothing but wait.
-         * */
-        k = 0
-        while (isActive && AppSystemInfo.isCriticalMemory) {
-            if (k++ % 20 == 0) {
-                // k is the number of consecutive warnings, the sequence of k is: 1, 21, 41, 61, ...
-                handleMemoryShortage(k)
-            }
-            criticalWarning = CriticalWarning.OUT_OF_MEMORY
-            randomDelay(500, 500)
-        }
-        k = 0 // reset k explicitly
-
         /**
          * If the privacy context leaks too fast, there is a good chance that there is a bug,
          * or the quality of this batch of proxy IPs is poor.
@@ -445,19 +558,18 @@ open class StreamingCrawler(
             handleWebDBLost()
         }
 
-        if (isActive && FileCommand.check("finish-job")) {
+        val finishJob = isActive && FileCommand.check("finish-job")
+        if (finishJob) {
             logger.info("Find finish-job command, quit streaming crawler ...")
-            flowState = FlowState.BREAK
-            return flowState
         }
 
-        if (!isActive) {
+        if (finishJob || !isActive || !acquirePermit(j)) {
+            // the url is not launched, do not lose it
+            requeue(url, host)
             flowState = FlowState.BREAK
             return flowState
         }
 
-        delayIfEstimatedNoLoadResource(j)
-
         criticalWarning = null
 
         val context = Dispatchers.Default + CoroutineName("w")
@@ -465,52 +577,120 @@ open class StreamingCrawler(
         // We must increase the number before the task is actually launched in a coroutine,
         // otherwise, it's easy to grow larger than fetchConcurrency.
         globalRunningTasks.incrementAndGet()
-        scope.launch(context) {
-            try {
-                globalMetrics.tasks.mark()
-                runTaskWithEventHandlers(url)
-            } finally {
-                lastActiveTime = Instant.now()
-
-                globalLoadingUrls.remove(urlSpec)
-                globalRunningTasks.decrementAndGet()
+        var page: WebPage? = null
+        val job = scope.launch(context) {
+            globalMetrics.tasks.mark()
+            page = runTaskWithEventHandlers(url)
+        }
+        // The job can be cancelled before it starts, in which case the body never runs, so the task is finished
+        // in the completion handler rather than in a finally block, and the permit is never leaked.
+        job.invokeOnCompletion {
+            lastActiveTime = Instant.now()
 
-                globalMetrics.finishes.mark()
+            if (host != null) {
+                hostDispatcher.finish(host, isHostHealthy(page))
             }
+
+            globalLoadingUrls.release(urlSpec)
+            globalRunningTasks.decrementAndGet()
+            // the first waiting task, if any, is admitted immediately
+            globalAdmission.release()
+
+            globalMetrics.finishes.mark()
         }
 
         return flowState
     }
 
     /**
-     * Delay if there is no resource to load a new task.
-     * Running task has to be no more than the available web drivers.
+     * Acquire a permit to run a new task, suspend until a running task finishes if there is no permit.
+     * Running tasks have to be no more than the available web drivers, and less under resource pressure.
+     *
+     * @return true if a permit is acquired, false if the crawler is not active any more
      * */
-    private suspend fun delayIfEstimatedNoLoadResource(j: Int, maxTry: Int = 1000) {
+    private suspend fun acquirePermit(j: Int): Boolean {
+        globalAdmission.capacity = concurrency
+
+        val startTime = System.nanoTime()
         var k = 0
-        while (isActive && ++k < maxTry && globalRunningTasks.get() >= concurrency) {
-            if (j % 120 == 0) {
+        while (isActive) {
+            adjustPermitsByResourcePressure(++k)
+
+            if (globalAdmission.acquire(ADMISSION_CHECK_INTERVAL)) {
+                globalMetrics.admissions.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS)
+                return true
+            }
+
+            if (k % 120 == 0) {
                 logger.info(
-                    "$j. Long time to run $globalRunningTasks tasks | $lastActiveTime -> {}",
-                    idleTime.readable()
+                    "$j. Long time to run $globalRunningTasks tasks | {} | $lastActiveTime -> {}",
+                    globalAdmission, idleTime.readable()
                 )
             }
-            val timeMillis = 500L + Random.nextInt(500)
-            delay(timeMillis)
         }
+
+        return false
     }
 
-    private suspend fun runTaskWithEventHandlers(url: UrlAware) {
+    /**
+     * Shrink the permits if the system is under resource pressure, and give them back when the pressure is relieved.
+     * */
+    private fun adjustPermitsByResourcePressure(k: Int) {
         when {
-            !isActive -> {
-                return
+            AppSystemInfo.isCriticalMemory -> {
+                criticalWarning = CriticalWarning.OUT_OF_MEMORY
+                if (k % 20 == 1) {
+                    // k is the number of consecutive checks, the sequence of k is: 1, 21, 41, 61, ...
+                    handleMemoryShortage(k)
+                }
+                // the permits are halved at most once in an admission check interval
+                globalAdmission.shrink()
+            }
+            // CPU load changes very fast, it drops immediately when a web driver becomes free,
+            // so the permits are given back as soon as the load drops, and they are doubled every time.
+            AppSystemInfo.isCriticalCPULoad -> {
+                criticalWarning = CriticalWarning.HIGH_CPU_LOAD
+                globalAdmission.shrink()
             }
+            else -> globalAdmission.grow()
+        }
+    }
+
+    /**
+     * Tell if the host of the page is healthy, null if the result says nothing about the host.
+     * */
+    private fun isHostHealthy(page: WebPage?): Boolean? {
+        if (page == null) {
+            return null
+        }
+
+        val status = page.protocolStatus
+        return when {
+            page.isCanceled -> null
+            status.isSuccess -> true
+            isHostFailure(status) -> false
+            // for example, 404 or a browser error, it says nothing about the host
+            else -> null
+        }
+    }
+
+    /**
+     * A host failure is a connection failure, a timeout, a rate limit (429) or a server error (5xx).
+     * Connection failures are reported as timeouts, see AbstractHttpProtocol.
+     * */
+    private fun isHostFailure(status: ProtocolStatus): Boolean {
+        val code = status.minorCode
+        return status.isTimeout || code == ProtocolStatusCodes.UNKNOWN_HOST || code == 429 || code in 500..599
+    }
+
+    private suspend fun runTaskWithEventHandlers(url: UrlAware): WebPage? {
+        return when {
+            !isActive -> null
             url is DegenerateUrl -> {
                 runDegenerateUrlTask(url)
+                null
             }
-            else -> {
-                loadWithEventHandlers(url)
-            }
+            else -> loadWithEventHandlers(url)
         }
     }
 
@@ -529,7 +709,7 @@ open class StreamingCrawler(
         }
     }
 
-    private suspend fun loadWithEventHandlers(url: UrlAware) {
+    private suspend fun loadWithEventHandlers(url: UrlAware): WebPage? {
         emit(CrawlEvents.willLoad, url)
 
         val page = loadWithTimeout(url)
@@ -544,6 +724,8 @@ open class StreamingCrawler(
         }
 
         emit(CrawlEvents.loaded, url, page)
+
+        return page
     }
 
     private suspend fun loadWithTimeout(url: UrlAware): WebPage? {
@@ -724,17 +906,6 @@ open class StreamingCrawler(
         return FlowState.CONTINUE
     }
 
-    private fun doLaterIfProcessing(urlSpec: String, url: UrlAware, delay: Duration): Boolean {
-        if (urlSpec in globalLoadingUrls || urlSpec in globalCache.fetchingCache) {
-            // process later, hope the page is fetched
-            logger.debug("Task is in process, do it {} later | {}", delay.readable(), url.configuredUrl)
-            fetchDelayed(url, delay)
-            return true
-        }
-
-        return false
-    }
-
     private suspend fun handleCanceled(url: UrlAware, page: WebPage?) {
         globalMetrics.cancels.mark()
         val delay = page?.retryDelay?.takeIf { !it.isZero } ?: Duration.ofSeconds(10)
@@ -899,8 +1070,6 @@ open class StreamingCrawler(
         }
     }
 
-    private suspend fun randomDelay(baseMills: Int, randomDelta: Int) = delay(baseMills.toLong() + Random.nextInt(randomDelta))
-
     private fun generateFinishCommand() {
         if (SystemUtils.IS_OS_UNIX) {
             generateFinishCommandUnix()
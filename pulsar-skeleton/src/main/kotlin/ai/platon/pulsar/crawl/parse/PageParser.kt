@@ -22,6 +22,8 @@ import ai.platon.pulsar.common.FlowState
 import ai.platon.pulsar.common.config.AppConstants
 import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.config.Parameterized
+import ai.platon.pulsar.common.measure.LoadSpans
+import ai.platon.pulsar.common.measure.LoadStage
 import ai.platon.pulsar.common.message.MiscMessageWriter
 import ai.platon.pulsar.common.metrics.MetricsSystem
 import ai.platon.pulsar.common.persist.ext.loadEvent
@@ -96,7 +98,7 @@ class PageParser(
         parseCount.incrementAndGet()
 
         try {
-            val parseResult = doParse(page)
+            val parseResult = LoadSpans.trace(LoadStage.PARSE, page.stageTimings) { doParse(page) }
 
             if (parseResult.isParsed) {
                 page.parseStatus = parseResult
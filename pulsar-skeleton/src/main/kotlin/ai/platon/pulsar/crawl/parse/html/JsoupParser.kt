@@ -6,6 +6,8 @@ import ai.platon.pulsar.common.config.ImmutableConfig
 import ai.platon.pulsar.common.persist.ext.options
 import ai.platon.pulsar.common.urls.UrlUtils
 import ai.platon.pulsar.dom.FeaturedDocument
+import ai.platon.pulsar.dom.nodes.node.ext.isFeatureDisabled
+import ai.platon.pulsar.dom.nodes.node.ext.sourceLength
 import ai.platon.pulsar.dom.select.selectFirstOrNull
 import ai.platon.pulsar.persist.WebPage
 import org.jsoup.Jsoup
@@ -33,16 +35,25 @@ class JsoupParser(
     fun parse(): FeaturedDocument {
         numJsoupParses.incrementAndGet()
 
-        if (page.encoding == null) {
+        // The content source, e.g. the page source rendered by a browser, is already decoded,
+        // so the encoding detection and the decoding are skipped
+        val contentSource = page.contentSource
+        if (contentSource == null && page.encoding == null) {
             val primerParser = PrimerParser(conf)
             primerParser.detectEncoding(page)
         }
 
         try {
-            val mutableDocument = Jsoup.parse(page.contentAsInputStream, page.encoding, page.baseUrl)
+            val mutableDocument = if (contentSource != null) {
+                Jsoup.parse(contentSource.toString(), page.baseUrl)
+            } else {
+                Jsoup.parse(page.contentAsInputStream, page.encoding, page.baseUrl)
+            }
             updateMetaInfos(page, mutableDocument)
+            mutableDocument.isFeatureDisabled = page.options.noFeatures
+            mutableDocument.sourceLength = contentSource?.length?.toLong() ?: page.contentLength
 
-            // Calculate features for each node in the constructor
+            // Features of the nodes are calculated on the first access
             document = FeaturedDocument(mutableDocument)
             return document
         } catch (e: IOException) {
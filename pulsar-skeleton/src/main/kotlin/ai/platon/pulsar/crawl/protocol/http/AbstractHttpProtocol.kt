@@ -153,7 +153,10 @@ abstract class AbstractHttpProtocol: Protocol {
         var u = URL(url)
         val httpCode = response.httpCode
         val pageDatum = response.pageDatum
-        val content = pageDatum.content
+        // mime magic only checks the head of the content, so the content text is not encoded entirely
+        val content = pageDatum.content ?: pageDatum.contentText?.let {
+            it.subSequence(0, minOf(it.length, MIME_MAGIC_CHARS)).toString().toByteArray()
+        }
         // bytes = bytes == null ? EMPTY_CONTENT : bytes;
         val contentType = response.getHeader(HttpHeaders.CONTENT_TYPE)
         pageDatum.contentType = resolveMimeType(contentType, url, content)
@@ -234,5 +237,6 @@ abstract class AbstractHttpProtocol: Protocol {
 
     companion object {
         private const val MAX_REY_GUARD = 10
+        private const val MIME_MAGIC_CHARS = 8192
     }
 }
@@ -0,0 +1,117 @@
+package ai.platon.pulsar.common.metrics
+
+import com.codahale.metrics.Gauge
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import kotlin.test.*
+
+class TestOpenMetricsWriter {
+    private class StreamingCrawler
+
+    private val registry = AppMetricRegistry()
+    private val obj = StreamingCrawler()
+
+    @Test
+    fun testParseName() {
+        val name = registry.name(obj, "1.g", "idleTime", ".")
+        assertEquals(AppMetricName("TestOpenMetricsWriter_StreamingCrawler", "1", "g", "idleTime"),
+            AppMetricRegistry.parseName(name))
+
+        val counterName = registry.name(obj, ".c", "tasks", ".")
+        assertEquals(AppMetricName("TestOpenMetricsWriter_StreamingCrawler", "", "c", "tasks"),
+            AppMetricRegistry.parseName(counterName))
+
+        assertEquals(AppMetricName("", "", "", "test"), AppMetricRegistry.parseName("test"))
+    }
+
+    @Test
+    fun testWriteOpenMetrics() {
+        registry.registerAll(obj, "1.g", mapOf(
+            "runningTasks" to Gauge { 3 },
+            "idleTime" to Gauge { Duration.ofSeconds(2) },
+            "paused" to Gauge { true },
+            "lastUrl" to Gauge { "https://example.com/" },
+        ))
+        registry.counter(obj, "tasks").inc(5)
+        registry.meter(obj, "finishes").mark(2)
+        registry.histogram(obj, "hostWaits").update(100)
+        registry.timer(obj, "admissions").update(1, TimeUnit.SECONDS)
+
+        val text = OpenMetricsWriter(registry).write()
+        val prefix = "pulsar_test_open_metrics_writer_streaming_crawler"
+
+        assertContains(text, "# TYPE ${prefix}_running_tasks gauge\n")
+        assertContains(text, "${prefix}_running_tasks{ident=\"1\"} 3.0\n")
+        assertContains(text, "${prefix}_idle_time{ident=\"1\"} 2.0\n")
+        assertContains(text, "${prefix}_paused{ident=\"1\"} 1.0\n")
+        // non-numeric gauges are skipped
+        assertFalse { "${prefix}_last_url" in text }
+
+        assertContains(text, "# TYPE ${prefix}_tasks counter\n")
+        assertContains(text, "${prefix}_tasks_total 5.0\n")
+        assertContains(text, "${prefix}_finishes_total 2.0\n")
+        assertContains(text, "# TYPE ${prefix}_host_waits summary\n")
+        assertContains(text, "${prefix}_host_waits{quantile=\"0.5\"} 100.0\n")
+        assertContains(text, "${prefix}_admissions_seconds{quantile=\"0.99\"} 1.0\n")
+        assertContains(text, "${prefix}_admissions_seconds_count 1.0\n")
+        assertContains(text, "${prefix}_admissions_seconds_sum 1.0\n")
+        assertContains(text, "${prefix}_host_waits_sum 100.0\n")
+        assertTrue { text.endsWith("# EOF\n") }
+    }
+
+    @Test
+    fun testSameSimpleNames() {
+        registry.register("a.b.Cache.g.size", Gauge { 1 })
+        registry.register("c.d.Cache.g.size", Gauge { 2 })
+
+        val text = OpenMetricsWriter(registry).write()
+        assertEquals(1, text.lines().count { it.startsWith("# TYPE pulsar_cache_size ") })
+        assertContains(text, "pulsar_cache_size 1.0\n")
+        assertContains(text, "pulsar_cache_size{metric=\"c.d.Cache.g.size\"} 2.0\n")
+    }
+
+    @Test
+    fun testTypeConflict() {
+        registry.register("a.b.Cache.g.size", Gauge { 1 })
+        registry.counter("c.d.Cache.c.size").inc(2)
+
+        val writer = OpenMetricsWriter(registry)
+        val text = writer.write()
+        assertContains(text, "# TYPE pulsar_cache_size gauge\n")
+        assertContains(text, "pulsar_cache_size 1.0\n")
+        assertFalse { "pulsar_cache_size_total" in text }
+        assertEquals(setOf("c.d.Cache.c.size"), writer.skippedMetrics)
+    }
+
+    @Test
+    fun testFailedMetric() {
+        registry.register("a.b.Cache.g.size", Gauge<Int> { throw IllegalStateException("Cache is closed") })
+        registry.counter(obj, "tasks").inc()
+
+        val writer = OpenMetricsWriter(registry)
+        val text = writer.write()
+        assertContains(text, "_tasks_total 1.0\n")
+        assertEquals(setOf("a.b.Cache.g.size"), writer.skippedMetrics)
+    }
+
+    @Test
+    fun testExportFilter() {
+        registry.counter(obj, "tasks").inc()
+        registry.counter(obj, "drops").inc()
+
+        val text = OpenMetricsWriter(registry, MetricFilters.not(MetricFilters.containsAny(listOf("drops")))).write()
+        assertContains(text, "_tasks_total")
+        assertFalse { "_drops_total" in text }
+    }
+
+    @Test
+    fun testJmxObjectName() {
+        val name = registry.name(obj, "1.g", "idleTime", ".")
+        val objectName = AppObjectNameFactory().createName("gauges", "pulsar", name)
+        assertEquals("pulsar", objectName.domain)
+        assertEquals("TestOpenMetricsWriter_StreamingCrawler", objectName.getKeyProperty("component"))
+        assertEquals("1", objectName.getKeyProperty("ident"))
+        assertEquals("idleTime", objectName.getKeyProperty("name"))
+        assertEquals("gauges", objectName.getKeyProperty("type"))
+    }
+}
@@ -1,9 +1,11 @@
 package ai.platon.pulsar.crawl.common
 
 import ai.platon.pulsar.common.AppSystemInfo
+import ai.platon.pulsar.common.SystemResourceSampler
 import kotlin.test.*
 import oshi.SystemInfo
 import oshi.hardware.CentralProcessor.TickType
+import java.time.Duration
 import java.time.Instant
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
@@ -49,6 +51,32 @@ class TestAppSystemInfo {
         assert(systemCpuLoad > 0)
     }
     
+    @Test
+    fun testResourceSampler() {
+        var numDiskSamples = 0
+        val sampler = SystemResourceSampler(
+            Duration.ofMillis(100),
+            Duration.ofSeconds(10),
+            cpuLoadSampler = { 0.5 },
+            memorySampler = { 1L to 2L },
+            diskSampler = { ++numDiskSamples; listOf(100L) }
+        ).start()
+
+        sampler.use {
+            val sampleTime = it.snapshot.sampleTime
+            assertEquals(0.5, it.snapshot.cpuLoad)
+            assertEquals(1L, it.snapshot.availableMemory)
+            assertEquals(listOf(100L), it.snapshot.freeDiskSpaces)
+
+            Thread.sleep(500)
+            assertTrue { it.numSamples > 1 }
+            assertTrue { it.snapshot.sampleTime > sampleTime }
+            // disk spaces are sampled less frequently
+            assertEquals(1, numDiskSamples)
+            assertEquals(listOf(100L), it.snapshot.freeDiskSpaces)
+        }
+    }
+
     @Test
     fun testCPULoad() {
         val systemInfo = AppSystemInfo.systemInfo ?: return
@@ -0,0 +1,65 @@
+package ai.platon.pulsar.crawl.common
+
+import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.persist.WebPage
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.*
+
+class TestFetchingCache {
+    private val url = "https://www.amazon.com/dp/B0C1H26C46"
+    private val conf = VolatileConfig()
+
+    @Test
+    fun testFollowersShareLeaderResult() {
+        val fetchingCache = FetchingCache()
+        val numFetches = AtomicInteger()
+
+        val pages = runBlocking {
+            (1..10).map {
+                async {
+                    val fetch = fetchingCache.join(url)
+                    if (fetch.isLeader) {
+                        numFetches.incrementAndGet()
+                        delay(200)
+                        WebPage.newWebPage(url, conf).also { fetchingCache.complete(fetch, it) }
+                    } else {
+                        fetch.await(Duration.ofSeconds(5))
+                    }
+                }
+            }.awaitAll()
+        }
+
+        assertEquals(1, numFetches.get())
+        assertEquals(9L, fetchingCache.numCoalescedFetches)
+        assertTrue { pages.all { it != null && it === pages[0] } }
+        assertEquals(0, fetchingCache.numInFlightFetches)
+    }
+
+    @Test
+    fun testFollowerResumesIfLeaderFailed() {
+        val fetchingCache = FetchingCache()
+        val leader = fetchingCache.join(url)
+        val follower = fetchingCache.join(url)
+        assertTrue { leader.isLeader }
+        assertFalse { follower.isLeader }
+
+        fetchingCache.complete(leader, null)
+        assertNull(follower.awaitBlocking(Duration.ofSeconds(1)))
+
+        // the next caller leads a new fetch
+        assertTrue { fetchingCache.join(url).isLeader }
+    }
+
+    @Test
+    fun testAwaitTimeout() {
+        val fetchingCache = FetchingCache()
+        fetchingCache.join(url)
+        val follower = fetchingCache.join(url)
+        assertNull(follower.awaitBlocking(Duration.ofMillis(100)))
+    }
+}
@@ -0,0 +1,134 @@
+package ai.platon.pulsar.crawl.common
+
+import ai.platon.pulsar.common.urls.PlainUrl
+import java.time.Duration
+import kotlin.test.*
+
+class TestHostDispatcher {
+
+    @Test
+    fun whenHostsAreNotLimited_ThenUrlsAreDispatchedInRoundRobinOrder() {
+        val dispatcher = HostDispatcher()
+        listOf("a", "a", "a", "b", "c").forEachIndexed { i, host ->
+            assertTrue { dispatcher.offer(PlainUrl("https://$host.example.com/$i")) }
+        }
+        assertEquals(5, dispatcher.size)
+        assertEquals(3, dispatcher.numHosts)
+
+        val hosts = generateSequence { dispatcher.poll() }.map { it.host.substringBefore(".") }.toList()
+        assertEquals(listOf("a", "b", "c", "a", "a"), hosts)
+        assertTrue { dispatcher.isEmpty }
+    }
+
+    @Test
+    fun whenHostReachesMaxConcurrency_ThenOtherHostsAreDispatched() {
+        val dispatcher = HostDispatcher(maxConcurrency = 1, queueCapacity = 2)
+        assertTrue { dispatcher.offer(PlainUrl("https://slow.com/1")) }
+        assertTrue { dispatcher.offer(PlainUrl("https://slow.com/2")) }
+        // the host queue is full
+        assertFalse { dispatcher.offer(PlainUrl("https://slow.com/3")) }
+        assertTrue { dispatcher.offer(PlainUrl("https://fast.com/1")) }
+
+        assertEquals("slow.com", dispatcher.poll()?.host)
+        assertEquals("fast.com", dispatcher.poll()?.host)
+        // slow.com has a running task
+        assertNull(dispatcher.poll())
+
+        dispatcher.finish("slow.com", true)
+        assertEquals("https://slow.com/2", dispatcher.poll()?.url?.url)
+    }
+
+    @Test
+    fun whenCrawlDelayIsSet_ThenHostIsRateLimited() {
+        val dispatcher = HostDispatcher(crawlDelay = Duration.ofMillis(300))
+        repeat(2) { dispatcher.offer(PlainUrl("https://example.com/$it")) }
+
+        val first = dispatcher.poll()
+        assertNotNull(first)
+        dispatcher.finish(first.host, true)
+        assertNull(dispatcher.poll())
+        assertTrue { dispatcher.nextReadyDelay() > Duration.ZERO }
+
+        Thread.sleep(400)
+        val second = dispatcher.poll()
+        assertNotNull(second)
+        assertTrue { second.waitTime >= Duration.ofMillis(300) }
+    }
+
+    @Test
+    fun whenHostFailsContinuously_ThenHostBacksOff() {
+        val dispatcher = HostDispatcher(failuresToBackoff = 2)
+        repeat(3) { dispatcher.offer(PlainUrl("https://failing.com/$it")) }
+
+        repeat(2) {
+            val queuedUrl = dispatcher.poll()
+            assertNotNull(queuedUrl)
+            dispatcher.finish(queuedUrl.host, false)
+        }
+
+        assertEquals(1, dispatcher.numBackoffHosts)
+        assertNull(dispatcher.poll())
+        assertTrue { dispatcher.estimatedWaitTime("failing.com") > Duration.ZERO }
+        assertEquals(1, dispatcher.getHostStats().single().queueDepth)
+    }
+
+    @Test
+    fun whenUrlsAreOfferedOneByOne_ThenHostIsStillRateLimited() {
+        val dispatcher = HostDispatcher(crawlDelay = Duration.ofMillis(300))
+        assertTrue { dispatcher.offer(PlainUrl("https://example.com/1")) }
+        val first = dispatcher.poll()
+        assertNotNull(first)
+        dispatcher.finish(first.host, true)
+        // the host queue is empty, but the state of the host is kept until the token bucket is refilled
+        assertEquals(1, dispatcher.numHosts)
+
+        assertTrue { dispatcher.offer(PlainUrl("https://example.com/2")) }
+        assertNull(dispatcher.poll())
+        assertTrue { dispatcher.nextReadyDelay() > Duration.ZERO }
+
+        Thread.sleep(400)
+        val second = dispatcher.poll()
+        assertNotNull(second)
+        assertTrue { second.waitTime >= Duration.ofMillis(300) }
+    }
+
+    @Test
+    fun whenUrlsAreOfferedOneByOneAndFail_ThenHostBacksOff() {
+        val dispatcher = HostDispatcher(failuresToBackoff = 2)
+        repeat(2) {
+            assertTrue { dispatcher.offer(PlainUrl("https://failing.com/$it")) }
+            val queuedUrl = dispatcher.poll()
+            assertNotNull(queuedUrl)
+            dispatcher.finish(queuedUrl.host, false)
+        }
+
+        assertEquals(1, dispatcher.numBackoffHosts)
+        assertTrue { dispatcher.offer(PlainUrl("https://failing.com/2")) }
+        assertNull(dispatcher.poll())
+        assertTrue { dispatcher.estimatedWaitTime("failing.com") > Duration.ZERO }
+    }
+
+    @Test
+    fun whenUrlIsRejected_ThenHostIsNotTracked() {
+        val dispatcher = HostDispatcher(capacity = 1)
+        assertTrue { dispatcher.offer(PlainUrl("https://a.com/1")) }
+        assertFalse { dispatcher.offer(PlainUrl("https://b.com/1")) }
+        assertEquals(1, dispatcher.numHosts)
+    }
+
+    @Test
+    fun whenDrained_ThenQueuedUrlsAreReturnedAndRunningHostsAreKept() {
+        val dispatcher = HostDispatcher()
+        listOf("a", "a", "b").forEachIndexed { i, host -> dispatcher.offer(PlainUrl("https://$host.com/$i")) }
+        val running = dispatcher.poll()
+        assertNotNull(running)
+
+        val drained = dispatcher.drain().map { it.url.url }
+        assertEquals(listOf("https://b.com/2", "https://a.com/1"), drained)
+        assertTrue { dispatcher.isEmpty }
+        // the host with a running task is still tracked until the task is finished
+        assertEquals(1, dispatcher.numHosts)
+        dispatcher.finish(running.host, true)
+        assertEquals(0, dispatcher.numHosts)
+    }
+}
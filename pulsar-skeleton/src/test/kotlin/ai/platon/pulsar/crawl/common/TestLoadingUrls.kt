@@ -0,0 +1,56 @@
+package ai.platon.pulsar.crawl.common
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.*
+
+class TestLoadingUrls {
+
+    private val url = "https://www.example.com/"
+
+    @Test
+    fun whenDuplicatesAreDone_ThenTheUrlIsStillLoadingUntilTheOwnerIsDone() {
+        val loadingUrls = LoadingUrls()
+        assertTrue { loadingUrls.acquire(url) }
+        assertFalse { loadingUrls.acquire(url) }
+        assertFalse { loadingUrls.acquire(url) }
+
+        // the duplicates are done first, the first load is still in progress
+        loadingUrls.release(url)
+        loadingUrls.release(url)
+        assertTrue { url in loadingUrls }
+
+        loadingUrls.release(url)
+        assertFalse { url in loadingUrls }
+        assertTrue { loadingUrls.isEmpty }
+    }
+
+    @Test
+    fun whenThreeSubmissionsAreConcurrent_ThenExactlyOneOwnsTheLoad() {
+        val loadingUrls = LoadingUrls()
+        val executor = Executors.newFixedThreadPool(3)
+        val start = CountDownLatch(1)
+        try {
+            val owners = (1..3).map {
+                executor.submit<Boolean> {
+                    start.await()
+                    loadingUrls.acquire(url)
+                }
+            }
+            start.countDown()
+            assertEquals(1, owners.count { it.get(10, TimeUnit.SECONDS) })
+            assertEquals(1, loadingUrls.size)
+
+            // a new submission while the load is in progress joins it rather than starts another one
+            loadingUrls.release(url)
+            loadingUrls.release(url)
+            assertFalse { loadingUrls.acquire(url) }
+
+            repeat(2) { loadingUrls.release(url) }
+            assertTrue { loadingUrls.isEmpty }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
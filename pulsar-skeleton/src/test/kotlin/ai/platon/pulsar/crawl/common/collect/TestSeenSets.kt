@@ -0,0 +1,61 @@
+package ai.platon.pulsar.crawl.common.collect
+
+import ai.platon.pulsar.common.collect.queue.*
+import ai.platon.pulsar.common.urls.Hyperlink
+import ai.platon.pulsar.common.urls.UrlAware
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.*
+
+class TestSeenSets {
+    private val urls = IntRange(1, 10_000)
+        .map { "https://www.amazon.com/s?k=insomnia&i=aps&page=$it" }
+        .map { Hyperlink(it) }
+
+    @Test
+    fun whenAddTheSameUrl_ThenExactSeenSetCountsIt() {
+        val seen = ExactSeenSet<UrlAware>()
+        assertTrue { seen.tryAdd(urls[0], 2) }
+        assertTrue { seen.tryAdd(Hyperlink(urls[0].url), 2) }
+        assertFalse { seen.tryAdd(urls[0], 2) }
+        assertEquals(2, seen.count(urls[0]))
+        assertEquals(0, seen.count(urls[1]))
+    }
+
+    @Test
+    fun whenAddManyUrls_ThenBloomSeenSetGrowsAndKeepsFalsePositivesLow() {
+        val seen = BloomSeenSet<UrlAware>(expectedInsertions = 1000, fpp = 0.01, recentCapacity = 100)
+        val added = urls.count { seen.tryAdd(it) }
+
+        assertTrue { seen.numFilters > 1 }
+        // rejected distinct urls are false positives
+        assertTrue("Added: $added") { urls.size - added < urls.size * 0.01 }
+        assertTrue { urls.all { seen.count(it) >= 1 } }
+        assertTrue { seen.estimatedMemoryBytes > 0 }
+    }
+
+    @Test
+    fun whenAddTheSameUrlNTimes_ThenBloomSeenSetRejectsIt() {
+        val seen = BloomSeenSet<UrlAware>(expectedInsertions = 1000, fpp = 0.001, recentCapacity = 0)
+        repeat(3) { assertTrue { seen.tryAdd(urls[0], 3) } }
+        assertFalse { seen.tryAdd(urls[0], 3) }
+        assertEquals(3, seen.count(urls[0]))
+    }
+
+    @Test
+    fun whenOfferConcurrently_ThenNonReentrantQueueAcceptsEachUrlOnce() {
+        val queue = ConcurrentNonReentrantQueue<UrlAware>(BloomSeenSet(expectedInsertions = 100_000))
+        val accepted = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(8)
+        repeat(8) {
+            executor.submit { urls.take(1000).forEach { if (queue.offer(Hyperlink(it.url))) accepted.incrementAndGet() } }
+        }
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+
+        assertEquals(1000, accepted.get())
+        assertEquals(1000, queue.size)
+        assertTrue { queue.historyMemoryBytes > 0 }
+    }
+}
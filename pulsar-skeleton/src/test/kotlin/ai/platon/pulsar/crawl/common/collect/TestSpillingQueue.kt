@@ -0,0 +1,143 @@
+package ai.platon.pulsar.crawl.common.collect
+
+import ai.platon.pulsar.common.AppPaths
+import ai.platon.pulsar.common.collect.SpillingUrlCache
+import ai.platon.pulsar.common.collect.SpillingUrlPool
+import ai.platon.pulsar.common.collect.queue.ConcurrentNonReentrantQueue
+import ai.platon.pulsar.common.collect.queue.SpillingQueue
+import ai.platon.pulsar.common.collect.queue.UrlAwareCodec
+import ai.platon.pulsar.common.collect.queue.UrlSpillStore
+import ai.platon.pulsar.common.config.ImmutableConfig
+import ai.platon.pulsar.common.urls.Hyperlink
+import ai.platon.pulsar.common.urls.PlainUrl
+import ai.platon.pulsar.common.urls.UrlAware
+import org.apache.commons.io.FileUtils
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.concurrent.thread
+import kotlin.test.*
+
+class TestSpillingQueue {
+    private val directory = AppPaths.TEST_DIR.resolve("unittests/TestSpillingQueue")
+    private val urls = IntRange(1, 1000)
+        .map { "https://www.amazon.com/s?k=insomnia&i=aps&page=$it" }
+        .map { Hyperlink(it, "page $it", it, referrer = "https://www.amazon.com/", args = "-i 1d") }
+
+    @AfterTest
+    fun tearDown() {
+        runCatching { FileUtils.deleteDirectory(directory.toFile()) }.onFailure { it.printStackTrace() }
+    }
+
+    @Test
+    fun whenEncodeUrl_ThenDecodedUrlIsTheSame() {
+        val link = urls[0].also { it.depth = 2; it.priority = 3; it.lang = "en"; it.nMaxRetry = 5 }
+        val plainUrl = PlainUrl("https://www.amazon.com/dp/B0C1H26C46", "-expires 1s")
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { out -> listOf(link, plainUrl).forEach { UrlAwareCodec.encode(it, out) } }
+
+        val input = DataInputStream(ByteArrayInputStream(bytes.toByteArray()))
+        val link2 = UrlAwareCodec.decode(input)
+        assertTrue { link2 is Hyperlink }
+        link2 as Hyperlink
+        assertEquals(link.url, link2.url)
+        assertEquals(link.text, link2.text)
+        assertEquals(link.order, link2.order)
+        assertEquals(link.referrer, link2.referrer)
+        assertEquals(link.args, link2.args)
+        assertEquals(2, link2.depth)
+        assertEquals(3, link2.priority)
+        assertEquals("en", link2.lang)
+        assertEquals(5, link2.nMaxRetry)
+
+        val plainUrl2 = UrlAwareCodec.decode(input)
+        assertEquals(PlainUrl::class.java, plainUrl2.javaClass)
+        assertEquals(plainUrl.args, plainUrl2.args)
+    }
+
+    @Test
+    fun whenQueueIsFull_ThenUrlsAreSpilledAndReloadedInOrder() {
+        val store = UrlSpillStore(directory.resolve("queue"), maxFileRecords = 100)
+        val queue = SpillingQueue(ConcurrentNonReentrantQueue(), store, capacity = 50)
+        queue.addAll(urls)
+
+        assertEquals(urls.size, queue.size)
+        assertEquals(urls.size - 50, queue.spilledSize)
+
+        val polled = mutableListOf<UrlAware>()
+        while (true) {
+            polled.add(queue.poll() ?: break)
+        }
+        assertEquals(urls.map { it.url }, polled.map { it.url })
+        assertTrue { queue.isEmpty() }
+        store.close()
+    }
+
+    @Test
+    fun whenUrlCanNotBeEncoded_ThenItIsKeptInMemory() {
+        val store = UrlSpillStore(directory.resolve("memory"))
+        val queue = SpillingQueue(ConcurrentNonReentrantQueue(), store, capacity = 1)
+        queue.add(urls[0])
+        queue.add(object : Hyperlink(urls[1].url) {})
+
+        assertEquals(0, queue.spilledSize)
+        assertEquals(2, queue.size)
+        store.close()
+    }
+
+    @Test
+    fun whenClearCache_ThenSpilledUrlsAreRemoved() {
+        val cache = SpillingUrlCache("normal", 0, directory, capacity = 10)
+        cache.reentrantQueue.addAll(urls)
+        assertEquals(urls.size, cache.size)
+        assertEquals(urls.size - 10, cache.spilledSize)
+
+        cache.clear()
+        assertEquals(0, cache.size)
+        assertNull(cache.reentrantQueue.poll())
+        cache.close()
+    }
+
+    @Test
+    fun whenOfferAndPollConcurrently_ThenNoUrlIsLost() {
+        val store = UrlSpillStore(directory.resolve("concurrent"), maxFileRecords = 100)
+        val queue = SpillingQueue(ConcurrentNonReentrantQueue(), store, capacity = 20)
+        val polled = ConcurrentLinkedQueue<UrlAware>()
+
+        val producers = urls.chunked(250).map { chunk -> thread { chunk.forEach { queue.add(it) } } }
+        val consumer = thread {
+            while (producers.any { it.isAlive } || queue.isNotEmpty()) {
+                queue.poll()?.let { polled.add(it) }
+            }
+        }
+        producers.forEach { it.join() }
+        consumer.join()
+
+        assertEquals(urls.map { it.url }.toSet(), polled.map { it.url }.toSet())
+        assertEquals(urls.size, polled.size)
+        store.close()
+    }
+
+    @Test
+    fun whenPoolsShareDirectory_ThenTheirSpilledUrlsAreIsolated() {
+        val conf = ImmutableConfig()
+        val pool1 = SpillingUrlPool(conf, directory, capacity = 10).apply { initialize() }
+        pool1.normalCache.reentrantQueue.addAll(urls)
+        val pool2 = SpillingUrlPool(conf, directory, capacity = 10).apply { initialize() }
+        pool2.normalCache.reentrantQueue.addAll(urls.take(20))
+        assertNotEquals(pool1.poolDirectory, pool2.poolDirectory)
+
+        var count = 0
+        while (pool1.normalCache.reentrantQueue.poll() != null) {
+            ++count
+        }
+        assertEquals(urls.size, count)
+
+        pool1.close()
+        pool2.close()
+        assertFalse { Files.exists(pool1.poolDirectory) }
+    }
+}
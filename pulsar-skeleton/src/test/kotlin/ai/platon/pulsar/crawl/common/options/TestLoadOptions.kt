@@ -2,6 +2,7 @@ package ai.platon.pulsar.crawl.common.options
 
 import ai.platon.pulsar.common.AppPaths
 import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.common.options.CompiledLoadOptions
 import ai.platon.pulsar.common.options.Condition
 import ai.platon.pulsar.common.options.LoadOptionDefaults
 import ai.platon.pulsar.common.options.LoadOptions
@@ -309,6 +310,51 @@ class TestLoadOptions {
         assertEquals(40, normUrl2.options.topLinks)
     }
 
+    @Test
+    fun testCompiledOptionsAreInterned() {
+        val args = "-expires 1d -parse -label testCompiledOptionsAreInterned"
+        val compiled = CompiledLoadOptions.compile(args)
+        val numCompiled = CompiledLoadOptions.numCompiled
+
+        assertSame(compiled, CompiledLoadOptions.compile(" $args "))
+        assertEquals(numCompiled, CompiledLoadOptions.numCompiled)
+        assertEquals(LoadOptions.parse(args, conf), LoadOptions.parse(args, conf))
+    }
+
+    @Test
+    fun testMergeIsTheSameAsParsing() {
+        val options = LoadOptions.parse("-incognito -expires 1s -ignoreFailure -storeContent false -tl 20", conf)
+        val args2 = "-expires 1d -storeContent true -tl 40 -parse"
+
+        assertEquals(LoadOptions.parse("$options $args2", conf), LoadOptions.merge(options, args2))
+        val options2 = LoadOptions.parse(args2, conf)
+        assertEquals(LoadOptions.parse("$options $options2", conf), LoadOptions.merge(options, options2))
+        // explicitly specified default values override the values in the base options
+        assertTrue { LoadOptions.merge(options, args2).storeContent }
+    }
+
+    /**
+     * Measure the throughput of normalizing urls with the same options, the options are never parsed
+     * again once compiled.
+     * */
+    @Ignore("Time consuming task, should be run separately")
+    @Test
+    fun benchNormalize() {
+        val options = i.options("$args -incognito -expires 1s -ignoreFailure")
+        val urls = IntRange(1, 100_000).map { "https://www.amazon.com/dp/B0C1H26C$it" }
+        // warm up
+        i.normalize(urls.take(1000), options)
+
+        val numCompiled = CompiledLoadOptions.numCompiled
+        val startTime = System.nanoTime()
+        val normUrls = i.normalize(urls, options)
+        val millis = Duration.ofNanos(System.nanoTime() - startTime).toMillis()
+
+        assertEquals(urls.size, normUrls.size)
+        assertEquals(numCompiled, CompiledLoadOptions.numCompiled)
+        println("Normalized ${urls.size} urls in ${millis}ms, ${urls.size * 1000 / millis.coerceAtLeast(1)} urls/s")
+    }
+
     private fun assertOptions(options: LoadOptions) {
         assertTrue(options.incognito)
         // already corrected
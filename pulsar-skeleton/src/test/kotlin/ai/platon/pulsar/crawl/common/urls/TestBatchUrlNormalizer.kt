@@ -0,0 +1,41 @@
+package ai.platon.pulsar.crawl.common.urls
+
+import ai.platon.pulsar.common.config.VolatileConfig
+import ai.platon.pulsar.common.options.LoadOptions
+import ai.platon.pulsar.common.urls.*
+import kotlin.test.*
+
+class TestBatchUrlNormalizer {
+    private val conf = VolatileConfig()
+    private val options = LoadOptions.parse("-expires 1d -itemExpires 7d -parse", conf)
+    private val links = IntRange(1, 1000).map { Hyperlink("https://www.amazon.com/dp/B0C1H26C${it % 800}#reviews") }
+
+    @Test
+    fun whenNormalizeInBatch_ThenTheSameAsNormalizingOneByOne() {
+        val urls = links + listOf(
+            PlainUrl("https://www.amazon.com/dp/B0C1H26C46 -expires 1s"),
+            Hyperlink("https://www.amazon.com/dp/B0C1H26C47", args = "-tl 40"),
+            PlainUrl("not a url")
+        )
+
+        // a small threshold to normalize in the pool
+        val batchNormalizer = BatchUrlNormalizer(parallelThreshold = 100)
+        val combinedNormalizer = CombinedUrlNormalizer()
+        listOf(false, true).forEach { toItemOption ->
+            val expected = urls.mapNotNull { runCatching { combinedNormalizer.normalize(it, options, toItemOption) }.getOrNull() }
+            val actual = batchNormalizer.normalize(urls, options, toItemOption)
+
+            assertEquals(expected.map { it.configuredUrl }, actual.map { it.configuredUrl })
+            assertEquals(expected.map { it.options.expires }, actual.map { it.options.expires })
+        }
+    }
+
+    @Test
+    fun whenNormalizeInBatch_ThenOptionsAreNotShared() {
+        val normURLs = BatchUrlNormalizer().normalize(links.take(2), options, false)
+
+        assertEquals(2, normURLs.size)
+        assertNotSame(normURLs[0].options, normURLs[1].options)
+        assertEquals(options, normURLs[0].options)
+    }
+}
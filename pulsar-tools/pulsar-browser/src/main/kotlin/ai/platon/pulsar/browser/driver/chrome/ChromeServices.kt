@@ -1,5 +1,6 @@
 package ai.platon.pulsar.browser.driver.chrome
 
+import ai.platon.pulsar.browser.driver.chrome.util.ChromeRPCException
 import ai.platon.pulsar.browser.driver.chrome.util.ChromeServiceException
 import ai.platon.pulsar.browser.driver.chrome.util.WebSocketServiceException
 import com.github.kklisura.cdt.protocol.v2023.ChromeDevTools
@@ -69,6 +70,29 @@ interface RemoteDevTools: ChromeDevTools, AutoCloseable {
             method: MethodInvocation
     ): T?
     
+    /**
+     * Invokes a remote method and suspends until the response arrives, the calling thread is never parked.
+     * */
+    @Throws(ChromeRPCException::class)
+    suspend fun <T> invokeDeferred(
+        returnProperty: String?,
+        clazz: Class<T>,
+        returnTypeClasses: Array<Class<out Any>>?,
+        method: MethodInvocation
+    ): T?
+    
+    /**
+     * Invokes a remote method by its name, for example, "DOM.getOuterHTML", and suspends until the response arrives,
+     * the calling thread is never parked.
+     * */
+    @Throws(ChromeRPCException::class)
+    suspend fun <T> invokeDeferred(
+        method: String,
+        params: Map<String, Any>?,
+        returnProperty: String?,
+        clazz: Class<T>
+    ): T? = invokeDeferred(returnProperty, clazz, null, MethodInvocation(MethodInvocation.nextId(), method, params))
+    
     @Throws(InterruptedException::class)
     fun awaitTermination()
 
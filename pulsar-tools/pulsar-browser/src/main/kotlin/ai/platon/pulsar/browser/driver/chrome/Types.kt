@@ -3,6 +3,7 @@ package ai.platon.pulsar.browser.driver.chrome
 import com.fasterxml.jackson.annotation.JsonProperty
 import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.atomic.AtomicLong
 
 class ChromeVersion {
     @JsonProperty("Browser")
@@ -46,6 +47,15 @@ class MethodInvocation(
         var method: String,
         var params: Map<String, Any>? = null
 ) {
+    companion object {
+        private val ID_SUPPLIER = AtomicLong(1L)
+
+        /**
+         * Generate the next invocation id, the id is unique across all the dev tools in the process.
+         * */
+        fun nextId() = ID_SUPPLIER.getAndIncrement()
+    }
+
     override fun toString(): String {
         val parameters = params?.entries?.joinToString(", ") { it.key + ": " + "..." }
         return if (parameters != null) "$method($parameters)" else "$method()"
@@ -35,7 +35,9 @@ abstract class ChromeDevToolsImpl(
         private val metrics = SharedMetricRegistries.getOrCreate(AppConstants.DEFAULT_METRICS_NAME)
         private val metricsPrefix = "c.i.BasicDevTools.global"
         private val numInvokes = metrics.counter("$metricsPrefix.invokes")
+        private val numDeferredInvokes = metrics.counter("$metricsPrefix.deferredInvokes")
         val numAccepts = metrics.counter("$metricsPrefix.accepts")
+        val numSkippedEvents = metrics.counter("$metricsPrefix.skippedEvents")
         private val gauges = mapOf(
             "idleTime" to Gauge { idleTime.readable() }
         )
@@ -93,7 +95,7 @@ abstract class ChromeDevToolsImpl(
      * Invokes a remote method and returns the result.
      * The method is blocking and will wait for the response.
      *
-     * TODO: use non-blocking version
+     * @see invokeDeferred for the non-blocking version.
      *
      * @param returnProperty The property to return from the response.
      * @param clazz The class of the return type.
@@ -121,6 +123,34 @@ abstract class ChromeDevToolsImpl(
         }
     }
     
+    /**
+     * Invokes a remote method and returns the result.
+     * The method suspends the calling coroutine until the response arrives, and never parks the calling thread,
+     * so the number of concurrent invocations is not limited by the size of the thread pool.
+     *
+     * @param returnProperty The property to return from the response.
+     * @param clazz The class of the return type.
+     * @param returnTypeClasses The classes of the return type.
+     * @param method The method to invoke.
+     * @param <T> The return type.
+     * @return The result of the invocation.
+     * */
+    @Throws(ChromeRPCException::class)
+    override suspend fun <T> invokeDeferred(
+        returnProperty: String?,
+        clazz: Class<T>,
+        returnTypeClasses: Array<Class<out Any>>?,
+        method: MethodInvocation
+    ): T? {
+        try {
+            return invokeDeferred0(returnProperty, clazz, returnTypeClasses, method)
+        } catch (e: WebSocketServiceException) {
+            throw ChromeRPCException("Web socket connection lost", e)
+        } catch (e: IOException) {
+            throw ChromeRPCException("Failed reading response message", e)
+        }
+    }
+    
     @Throws(InterruptedException::class, ChromeServiceException::class, IOException::class)
     private fun <T> invoke0(
         returnProperty: String?,
@@ -141,6 +171,40 @@ abstract class ChromeDevToolsImpl(
             throw ChromeRPCTimeoutException("Response timeout $methodName | #${numInvokes.count}, ($readTimeout)")
         }
         
+        return decode(future, clazz, returnTypeClasses)
+    }
+    
+    @Throws(ChromeServiceException::class, IOException::class)
+    private suspend fun <T> invokeDeferred0(
+        returnProperty: String?,
+        clazz: Class<T>,
+        returnTypeClasses: Array<Class<out Any>>?,
+        method: MethodInvocation
+    ): T? {
+        numInvokes.inc()
+        numDeferredInvokes.inc()
+        lastActiveTime = Instant.now()
+        
+        val future = dispatcher.subscribe(method.id, returnProperty)
+        val responded = try {
+            send(method)
+            // suspends the current coroutine, the calling thread is free to run other coroutines
+            future.awaitDeferred(config.readTimeout)
+        } finally {
+            dispatcher.unsubscribe(method.id)
+        }
+        
+        if (!responded) {
+            val methodName = method.method
+            val readTimeout = config.readTimeout
+            throw ChromeRPCTimeoutException("Response timeout $methodName | #${numInvokes.count}, ($readTimeout)")
+        }
+        
+        return decode(future, clazz, returnTypeClasses)
+    }
+    
+    @Throws(ChromeRPCException::class, IOException::class)
+    private fun <T> decode(future: InvocationFuture, clazz: Class<T>, returnTypeClasses: Array<Class<out Any>>?): T? {
         return when {
             !future.isSuccess -> handleFailedFurther(future).let { throw ChromeRPCException(it.first.code, it.second) }
             Void.TYPE == clazz -> null
@@ -149,12 +213,8 @@ abstract class ChromeDevToolsImpl(
         }
     }
     
-    @Throws(InterruptedException::class)
-    private fun invoke1(
-        returnProperty: String?,
-        method: MethodInvocation
-    ): Pair<InvocationFuture, Boolean> {
-        val future = dispatcher.subscribe(method.id, returnProperty)
+    @Throws(WebSocketServiceException::class)
+    private fun send(method: MethodInvocation) {
         val message = dispatcher.serialize(method)
         
         // See https://github.com/hardkoded/puppeteer-sharp/issues/796 to understand why we need handle Target methods
@@ -164,6 +224,15 @@ abstract class ChromeDevToolsImpl(
         } else {
             pageTransport.sendAsync(message)
         }
+    }
+    
+    @Throws(InterruptedException::class)
+    private fun invoke1(
+        returnProperty: String?,
+        method: MethodInvocation
+    ): Pair<InvocationFuture, Boolean> {
+        val future = dispatcher.subscribe(method.id, returnProperty)
+        send(method)
 
         // await() blocks the current thread
         // 1. the current thread is optimized by Kotlin since this method is running within withContext(Dispatchers.IO)
@@ -172,6 +241,7 @@ abstract class ChromeDevToolsImpl(
         // 4. unfortunately, there is no easy way to combine the coroutine with the [ProxyClasses.createProxyFromAbstract]
         // 5. a possible solutions is to send CDP messages directly instead of using the proxy classes
         // 6. kotlin channel can help which do not block the current thread
+        // 7. [invokeDeferred] is the non-blocking version, which is used when the caller sends CDP messages directly
 
         // see: https://ktor.io/docs/websocket-client.html
         val responded = future.await(config.readTimeout)
@@ -12,12 +12,109 @@ import java.lang.reflect.InvocationHandler
 import java.lang.reflect.Method
 import java.lang.reflect.ParameterizedType
 import java.util.*
-import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.ConcurrentHashMap
 
-class DevToolsInvocationHandler: InvocationHandler {
+/**
+ * The metadata of a CDP method, which is resolved by reflection only once for each [Method].
+ * */
+class DevToolsMethodMetadata(
+    /**
+     * The domain name, e.g., DOM, Page, Network, etc.
+     * */
+    val domainName: String,
+    /**
+     * The full method name, e.g., DOM.getDocument.
+     * */
+    val fullMethodName: String,
+    /**
+     * Whether the method is an event subscription method, that is: EventListener on*(EventHandler)
+     * */
+    val isEventSubscription: Boolean,
+    /**
+     * The event name if the method is an event subscription method.
+     * */
+    val eventName: String?,
+    /**
+     * The event handler type if the method is an event subscription method.
+     * */
+    val eventHandlerType: Class<*>?,
+    val returnType: Class<*>,
+    val returnTypeClasses: Array<Class<out Any>>?,
+    val returnProperty: String?,
+    /**
+     * The parameter names declared by [ParamName], in the declaration order.
+     * */
+    val paramNames: Array<String>
+) {
     companion object {
         private const val EVENT_LISTENER_PREFIX = "on"
-        private val ID_SUPPLIER = AtomicLong(1L)
+
+        /**
+         * Resolve the metadata of a CDP method by reflection.
+         * */
+        fun create(method: Method): DevToolsMethodMetadata {
+            val domainName = method.declaringClass.simpleName
+            val isEventSubscription = isEventSubscription(method)
+
+            return DevToolsMethodMetadata(
+                domainName = domainName,
+                fullMethodName = "$domainName.${method.name}",
+                isEventSubscription = isEventSubscription,
+                eventName = if (isEventSubscription) method.getAnnotation(EventName::class.java)?.value else null,
+                eventHandlerType = if (isEventSubscription) getEventHandlerType(method) else null,
+                returnType = method.returnType,
+                returnTypeClasses = method.getAnnotation(ReturnTypeParameter::class.java)
+                    ?.value?.map { it.java }?.toTypedArray(),
+                returnProperty = method.getAnnotation(Returns::class.java)?.value,
+                paramNames = if (isEventSubscription) emptyArray() else getParamNames(method)
+            )
+        }
+
+        /**
+         * The CDP parameter names of a command, every parameter must be annotated by [ParamName].
+         * */
+        private fun getParamNames(method: Method): Array<String> {
+            return method.parameters.map { parameter ->
+                val paramName = requireNotNull(parameter.getAnnotation(ParamName::class.java)) {
+                    "Parameter ${parameter.name} of ${method.declaringClass.simpleName}.${method.name} has no @ParamName"
+                }
+                paramName.value
+            }.toTypedArray()
+        }
+
+        private fun getEventHandlerType(method: Method): Class<*> {
+            return (method.genericParameterTypes[0] as ParameterizedType).actualTypeArguments[0] as Class<*>
+        }
+
+        /**
+         * Checks if given method has signature of event subscription.
+         *
+         * @param method Method to check.
+         * @return True if this is event subscription method that is: EventListener on*(EventHandler)
+         */
+        private fun isEventSubscription(method: Method): Boolean {
+            val name = method.name
+            val parameters = method.parameters
+            return (name.startsWith(EVENT_LISTENER_PREFIX)
+                    && EventListener::class.java == method.returnType
+                    && parameters != null
+                    && parameters.size == 1
+                    && EventHandler::class.java.isAssignableFrom(parameters[0].type))
+        }
+    }
+}
+
+class DevToolsInvocationHandler: InvocationHandler {
+    companion object {
+        /**
+         * The method metadata cache, the metadata is resolved only once for each method, and the number of
+         * methods is limited by the CDP protocol, so there is no need to evict.
+         * */
+        private val METHOD_METADATA = ConcurrentHashMap<Method, DevToolsMethodMetadata>()
+
+        fun getMetadata(method: Method): DevToolsMethodMetadata {
+            return METHOD_METADATA.computeIfAbsent(method) { DevToolsMethodMetadata.create(it) }
+        }
     }
 
     lateinit var devTools: RemoteDevTools
@@ -27,59 +124,33 @@ class DevToolsInvocationHandler: InvocationHandler {
      * */
     @Throws(InterruptedException::class)
     override fun invoke(unused: Any, method: Method, args: Array<Any>?): Any? {
-        if (isEventSubscription(method)) {
-            val domainName = method.declaringClass.simpleName
-            val eventName: String = getEventName(method)
-            val eventHandlerType: Class<*> = getEventHandlerType(method)
-            return devTools.addEventListener(domainName, eventName, args!![0] as EventHandler<Any>, eventHandlerType)
+        val metadata = getMetadata(method)
+
+        if (metadata.isEventSubscription) {
+            val eventName = requireNotNull(metadata.eventName)
+            val eventHandlerType = requireNotNull(metadata.eventHandlerType)
+            return devTools.addEventListener(metadata.domainName, eventName, args!![0] as EventHandler<Any>, eventHandlerType)
         }
 
-        val returnType = method.returnType
-        val returnTypeClasses = method.getAnnotation(ReturnTypeParameter::class.java)
-                ?.value?.map { it.java }?.toTypedArray()
-        val returnProperty = method.getAnnotation(Returns::class.java)?.value
-        val methodInvocation = createMethodInvocation(method, args)
-        return devTools.invoke(returnProperty, returnType, returnTypeClasses, methodInvocation)
+        val methodInvocation = createMethodInvocation(metadata, args)
+        return devTools.invoke(metadata.returnProperty, metadata.returnType, metadata.returnTypeClasses, methodInvocation)
     }
 
-    private fun createMethodInvocation(method: Method, args: Array<Any>? = null): MethodInvocation {
-        val domainName = method.declaringClass.simpleName
-        val methodName = method.name
-        return MethodInvocation(ID_SUPPLIER.getAndIncrement(), "$domainName.$methodName", buildMethodParams(method, args))
+    private fun createMethodInvocation(metadata: DevToolsMethodMetadata, args: Array<Any>? = null): MethodInvocation {
+        return MethodInvocation(MethodInvocation.nextId(), metadata.fullMethodName, buildMethodParams(metadata, args))
     }
 
-    private fun buildMethodParams(method: Method, args: Array<Any>? = null): Map<String, Any> {
-        val params: MutableMap<String, Any> = HashMap()
-        val parameters = method.parameters
-        if (args != null) {
-            for (i in args.indices) {
-                params[parameters[i].getAnnotation(ParamName::class.java).value] = args[i]
-            }
+    private fun buildMethodParams(metadata: DevToolsMethodMetadata, args: Array<Any>? = null): Map<String, Any> {
+        if (args == null || args.isEmpty()) {
+            return Collections.emptyMap()
         }
-        return params
-    }
-
-    private fun getEventName(method: Method): String {
-        return method.getAnnotation(EventName::class.java).value
-    }
 
-    private fun getEventHandlerType(method: Method): Class<*> {
-        return (method.genericParameterTypes[0] as ParameterizedType).actualTypeArguments[0] as Class<*>
-    }
-
-    /**
-     * Checks if given method has signature of event subscription.
-     *
-     * @param method Method to check.
-     * @return True if this is event subscription method that is: EventListener on*(EventHandler)
-     */
-    private fun isEventSubscription(method: Method): Boolean {
-        val name = method.name
-        val parameters = method.parameters
-        return (name.startsWith(EVENT_LISTENER_PREFIX)
-                && EventListener::class.java == method.returnType
-                && parameters != null
-                && parameters.size == 1
-                && EventHandler::class.java.isAssignableFrom(parameters[0].type))
+        // the map is serialized only once, so there is no need to keep spare capacity
+        val params: MutableMap<String, Any> = HashMap(args.size * 4 / 3 + 1)
+        val paramNames = metadata.paramNames
+        for (i in args.indices) {
+            params[paramNames[i]] = args[i]
+        }
+        return params
     }
 }
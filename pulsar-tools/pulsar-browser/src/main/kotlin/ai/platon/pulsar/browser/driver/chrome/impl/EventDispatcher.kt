@@ -4,7 +4,9 @@ import ai.platon.pulsar.browser.driver.chrome.util.ChromeRPCException
 import ai.platon.pulsar.common.getLogger
 import ai.platon.pulsar.common.getTracerOrNull
 import com.fasterxml.jackson.annotation.JsonInclude
+import com.fasterxml.jackson.core.JsonParser
 import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.core.JsonToken
 import com.fasterxml.jackson.databind.DeserializationFeature
 import com.fasterxml.jackson.databind.JavaType
 import com.fasterxml.jackson.databind.JsonNode
@@ -13,6 +15,7 @@ import com.fasterxml.jackson.databind.type.TypeFactory
 import kotlinx.coroutines.*
 import org.apache.commons.lang3.StringUtils
 import java.io.IOException
+import java.io.StringReader
 import java.time.Duration
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentSkipListSet
@@ -25,11 +28,28 @@ class InvocationFuture(val returnProperty: String? = null) {
     var result: JsonNode? = null
     var isSuccess = false
     private val countDownLatch = CountDownLatch(1)
+    private val deferred = CompletableDeferred<Boolean>()
     
     fun signal(isSuccess: Boolean, result: JsonNode?) {
         this.isSuccess = isSuccess
         this.result = result
         countDownLatch.countDown()
+        deferred.complete(isSuccess)
+    }
+    
+    /**
+     * Suspends the current coroutine until the future is signaled, or the specified waiting time elapses.
+     * Unlike [await], this method never parks the calling thread.
+     *
+     * @return true if the future is signaled, false if the waiting time elapsed before the future is signaled
+     * */
+    suspend fun awaitDeferred(timeout: Duration): Boolean {
+        return if (timeout.isZero) {
+            deferred.await()
+            true
+        } else {
+            withTimeoutOrNull(timeout.toMillis()) { deferred.await() } != null
+        }
     }
     
     /**
@@ -63,7 +83,16 @@ internal class ErrorObject {
     var data: String? = null
 }
 
-class EventDispatcher : Consumer<String>, AutoCloseable {
+/**
+ * Dispatches the messages received from the web socket to the waiting futures and the event listeners.
+ *
+ * @param streaming If true, the messages are read by a streaming [JsonParser], only the return property of a response
+ * is materialized as a tree, event params are bound to the listener's param type directly, and events without
+ * listeners are skipped without parsing their params. Otherwise, every message is read into a [JsonNode] tree.
+ * */
+class EventDispatcher(
+    val streaming: Boolean = STREAMING_DISPATCH
+) : Consumer<String>, AutoCloseable {
     companion object {
         const val ID_PROPERTY = "id"
         const val ERROR_PROPERTY = "error"
@@ -71,6 +100,9 @@ class EventDispatcher : Consumer<String>, AutoCloseable {
         const val METHOD_PROPERTY = "method"
         const val PARAMS_PROPERTY = "params"
         
+        private const val STREAMING_DISPATCH_PROPERTY = "browser.driver.chrome.streamingDispatch"
+        private val STREAMING_DISPATCH = System.getProperty(STREAMING_DISPATCH_PROPERTY, "true").toBoolean()
+        
         val OBJECT_MAPPER = ObjectMapper()
             .setSerializationInclusion(JsonInclude.Include.NON_NULL)
             .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
@@ -156,6 +188,11 @@ class EventDispatcher : Consumer<String>, AutoCloseable {
         tracer?.trace("Accept {}", StringUtils.abbreviateMiddle(message, "...", 500))
         
         ChromeDevToolsImpl.numAccepts.inc()
+        if (streaming) {
+            acceptStreaming(message)
+            return
+        }
+        
         try {
             val jsonNode = OBJECT_MAPPER.readTree(message)
             val idNode = jsonNode.get(ID_PROPERTY)
@@ -195,6 +232,150 @@ class EventDispatcher : Consumer<String>, AutoCloseable {
         }
     }
     
+    /**
+     * Reads the message with a streaming parser.
+     *
+     * CDP messages are either responses: {"id": 1, "result": {...}} or {"id": 1, "error": {...}},
+     * or events: {"method": "Network.responseReceived", "params": {...}}.
+     * Chrome always writes "id" before the result, if it's not the case, the result is buffered as a tree.
+     * Event params are never buffered or copied, only their offsets in the message are recorded, and they are
+     * deserialized from the message itself after the whole message is read.
+     * */
+    @Throws(ChromeRPCException::class)
+    private fun acceptStreaming(message: String) {
+        try {
+            OBJECT_MAPPER.factory.createParser(message).use { acceptStreaming0(message, it) }
+        } catch (e: IOException) {
+            logger.error("Failed reading web socket message", e)
+        }
+    }
+    
+    @Throws(ChromeRPCException::class, IOException::class)
+    private fun acceptStreaming0(message: String, parser: JsonParser) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return
+        }
+        
+        var id: Long? = null
+        var method: String? = null
+        var resultNode: JsonNode? = null
+        var errorNode: JsonNode? = null
+        var paramsStart = -1
+        var resultExtracted = false
+        
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val fieldName = parser.currentName
+            parser.nextToken()
+            
+            when (fieldName) {
+                ID_PROPERTY -> id = parser.longValue
+                METHOD_PROPERTY -> method = parser.valueAsString
+                ERROR_PROPERTY -> {
+                    if (isUnknownInvocation(id)) {
+                        parser.skipChildren()
+                    } else {
+                        errorNode = parser.readValueAsTree()
+                    }
+                }
+                RESULT_PROPERTY -> {
+                    val returnProperty = id?.let { invocationFutures[it] }?.returnProperty
+                    when {
+                        // nobody is waiting for the response, do not materialize it
+                        isUnknownInvocation(id) -> parser.skipChildren()
+                        returnProperty != null -> {
+                            resultNode = readProperty(parser, returnProperty)
+                            resultExtracted = true
+                        }
+                        else -> resultNode = parser.readValueAsTree()
+                    }
+                }
+                PARAMS_PROPERTY -> {
+                    paramsStart = parser.tokenLocation.charOffset.toInt()
+                    parser.skipChildren()
+                }
+                else -> parser.skipChildren()
+            }
+        }
+        
+        if (id != null) {
+            val future = invocationFutures[id]
+            when {
+                future == null -> logger.warn("Received response with unknown invocation #{}", id)
+                errorNode != null -> future.signal(false, errorNode)
+                // the return property is not extracted yet if the result arrives before the id
+                !resultExtracted && future.returnProperty != null -> future.signal(true, resultNode?.get(future.returnProperty))
+                else -> future.signal(true, resultNode)
+            }
+        } else if (method != null) {
+            handleEventStreaming(method, message, paramsStart)
+        }
+    }
+    
+    /**
+     * Check if the id is read and there is no future waiting for it.
+     * */
+    private fun isUnknownInvocation(id: Long?) = id != null && !invocationFutures.containsKey(id)
+    
+    /**
+     * Reads only the given property of the current object, all the other properties are skipped.
+     * */
+    @Throws(IOException::class)
+    private fun readProperty(parser: JsonParser, property: String): JsonNode? {
+        if (parser.currentToken != JsonToken.START_OBJECT) {
+            parser.skipChildren()
+            return null
+        }
+        
+        var node: JsonNode? = null
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val fieldName = parser.currentName
+            parser.nextToken()
+            if (fieldName == property) {
+                node = parser.readValueAsTree()
+            } else {
+                parser.skipChildren()
+            }
+        }
+        
+        return node
+    }
+    
+    /**
+     * Binds the event params to the listener's param type directly, if there is no listener, the params are skipped.
+     *
+     * The receive thread only locates the params in the message, the params are deserialized in a coroutine, so a
+     * large event never holds up the responses behind it.
+     * */
+    @Throws(ChromeRPCException::class, IOException::class)
+    /**
+     * Dispatch an event whose params start at [paramsStart] in the message, or -1 if the event has no params.
+     * */
+    private fun handleEventStreaming(name: String, message: String, paramsStart: Int) {
+        val listeners = eventListeners[name]
+        val unmodifiedListeners = mutableSetOf<DevToolsEventListener>()
+        if (listeners != null) {
+            synchronized(listeners) { listeners.toCollection(unmodifiedListeners) }
+        }
+        
+        if (unmodifiedListeners.isEmpty()) {
+            ChromeDevToolsImpl.numSkippedEvents.inc()
+            return
+        }
+        
+        eventDispatcherScope.launch {
+            val paramType = unmodifiedListeners.first().paramType
+            val event: Any = if (paramsStart < 0) {
+                OBJECT_MAPPER.readValue("{}", paramType)
+            } else {
+                // read the params from the message in place, the parser stops at the end of the params object
+                val reader = StringReader(message)
+                reader.skip(paramsStart.toLong())
+                OBJECT_MAPPER.readValue(reader, paramType)
+            } ?: return@launch
+            dispatchEvent(event, unmodifiedListeners)
+        }
+    }
+    
     /**
      * Closes the dispatcher. All event listeners will be removed and all waiting futures are signaled with failed.
      * */
@@ -223,19 +404,19 @@ class EventDispatcher : Consumer<String>, AutoCloseable {
     
     @Throws(ChromeRPCException::class, IOException::class)
     private fun handleEvent0(params: JsonNode, unmodifiedListeners: Iterable<DevToolsEventListener>) {
-        var event: Any? = null
+        val listener = unmodifiedListeners.firstOrNull() ?: return
+        val event: Any = deserialize(listener.paramType, params)
+        dispatchEvent(event, unmodifiedListeners)
+    }
+    
+    @Throws(ChromeRPCException::class)
+    private fun dispatchEvent(event: Any, unmodifiedListeners: Iterable<DevToolsEventListener>) {
         for (listener in unmodifiedListeners) {
-            if (event == null) {
-                event = deserialize(listener.paramType, params)
-            }
-            
-            if (event != null) {
-                try {
-                    listener.handler.onEvent(event)
-                } catch (e: Exception) {
-                    // Let the exception throw again, they might be caught by RobustRPC, or somewhere else
-                    throw ChromeRPCException("Failed to handle event | ${listener.key}, ${listener.paramType}", e)
-                }
+            try {
+                listener.handler.onEvent(event)
+            } catch (e: Exception) {
+                // Let the exception throw again, they might be caught by RobustRPC, or somewhere else
+                throw ChromeRPCException("Failed to handle event | ${listener.key}, ${listener.paramType}", e)
             }
         }
     }
@@ -0,0 +1,126 @@
+package ai.platon.pulsar.browser.driver.chrome.impl
+
+import com.github.kklisura.cdt.protocol.v2023.commands.DOM
+import com.github.kklisura.cdt.protocol.v2023.commands.Network
+import com.github.kklisura.cdt.protocol.v2023.commands.Page
+import com.github.kklisura.cdt.protocol.v2023.commands.Runtime
+import com.github.kklisura.cdt.protocol.v2023.support.annotations.ParamName
+import com.github.kklisura.cdt.protocol.v2023.support.annotations.ReturnTypeParameter
+import com.github.kklisura.cdt.protocol.v2023.support.annotations.Returns
+import com.github.kklisura.cdt.protocol.v2023.support.types.EventHandler
+import com.github.kklisura.cdt.protocol.v2023.support.types.EventListener
+import org.slf4j.LoggerFactory
+import java.lang.reflect.Method
+import kotlin.test.*
+
+class DevToolsInvocationHandlerTests {
+    private val logger = LoggerFactory.getLogger(DevToolsInvocationHandlerTests::class.java)
+    private val methods = listOf(DOM::class.java, Page::class.java, Network::class.java, Runtime::class.java)
+        .flatMap { it.methods.toList() }
+
+    @Test
+    fun testMetadataIsCached() {
+        val method = DOM::class.java.getMethod("getDocument")
+        val metadata = DevToolsInvocationHandler.getMetadata(method)
+        assertSame(metadata, DevToolsInvocationHandler.getMetadata(method))
+
+        assertEquals("DOM", metadata.domainName)
+        assertEquals("DOM.getDocument", metadata.fullMethodName)
+        assertEquals("root", metadata.returnProperty)
+        assertFalse(metadata.isEventSubscription)
+    }
+
+    @Test
+    fun testMetadataMatchesReflection() {
+        methods.forEach { method ->
+            val metadata = DevToolsInvocationHandler.getMetadata(method)
+
+            assertEquals(isEventSubscriptionByReflection(method), metadata.isEventSubscription, method.name)
+            assertEquals(method.returnType, metadata.returnType, method.name)
+            assertEquals(method.getAnnotation(Returns::class.java)?.value, metadata.returnProperty, method.name)
+            if (!metadata.isEventSubscription) {
+                val paramNames = method.parameters.map { it.getAnnotation(ParamName::class.java).value }
+                assertContentEquals(paramNames, metadata.paramNames.toList(), method.name)
+            }
+        }
+    }
+
+    private interface UnnamedCommands {
+        fun enable(maxSize: Int)
+    }
+
+    @Test
+    fun whenParamNameIsMissing_ThenMetadataIsRejected() {
+        val method = UnnamedCommands::class.java.getMethod("enable", Int::class.java)
+        assertFailsWith<IllegalArgumentException> { DevToolsInvocationHandler.getMetadata(method) }
+    }
+
+    /**
+     * Compare the dispatch cost of the per-call reflection and the cached metadata.
+     * */
+    @Ignore("Benchmark, should be run separately")
+    @Test
+    fun benchDispatch() {
+        val loops = 200
+        // warm up
+        repeat(loops) { dispatchByReflection() }
+        repeat(loops) { dispatchByMetadata() }
+
+        var start = System.nanoTime()
+        var count = 0
+        repeat(loops) { count += dispatchByReflection() }
+        val reflectionNanos = System.nanoTime() - start
+
+        start = System.nanoTime()
+        repeat(loops) { count += dispatchByMetadata() }
+        val metadataNanos = System.nanoTime() - start
+
+        logger.info(String.format("Dispatch %d methods x %d loops | reflection: %.2fms, metadata: %.2fms",
+            methods.size, loops, reflectionNanos / 1e6, metadataNanos / 1e6))
+        assertTrue { count > 0 }
+    }
+
+    /**
+     * The dispatch routine before the metadata cache is introduced.
+     * */
+    private fun dispatchByReflection(): Int {
+        var count = 0
+        methods.forEach { method ->
+            if (isEventSubscriptionByReflection(method)) {
+                return@forEach
+            }
+
+            val returnTypeClasses = method.getAnnotation(ReturnTypeParameter::class.java)
+                ?.value?.map { it.java }?.toTypedArray()
+            val returnProperty = method.getAnnotation(Returns::class.java)?.value
+            val name = "${method.declaringClass.simpleName}.${method.name}"
+            val params: MutableMap<String, Any> = HashMap()
+            method.parameters.forEach { params[it.getAnnotation(ParamName::class.java).value] = name }
+            count += params.size + (returnTypeClasses?.size ?: 0) + (returnProperty?.length ?: 0)
+        }
+        return count
+    }
+
+    private fun dispatchByMetadata(): Int {
+        var count = 0
+        methods.forEach { method ->
+            val metadata = DevToolsInvocationHandler.getMetadata(method)
+            if (metadata.isEventSubscription) {
+                return@forEach
+            }
+
+            val params: MutableMap<String, Any> = HashMap()
+            metadata.paramNames.forEach { params[it] = metadata.fullMethodName }
+            count += params.size + (metadata.returnTypeClasses?.size ?: 0) + (metadata.returnProperty?.length ?: 0)
+        }
+        return count
+    }
+
+    private fun isEventSubscriptionByReflection(method: Method): Boolean {
+        val parameters = method.parameters
+        return (method.name.startsWith("on")
+                && EventListener::class.java == method.returnType
+                && parameters.size == 1
+                && EventHandler::class.java.isAssignableFrom(parameters[0].type))
+    }
+}
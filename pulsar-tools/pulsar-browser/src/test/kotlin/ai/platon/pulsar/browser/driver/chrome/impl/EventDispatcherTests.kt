@@ -0,0 +1,125 @@
+package ai.platon.pulsar.browser.driver.chrome.impl
+
+import ai.platon.pulsar.browser.driver.chrome.RemoteDevTools
+import com.github.kklisura.cdt.protocol.v2023.events.network.ResponseReceived
+import com.github.kklisura.cdt.protocol.v2023.support.types.EventHandler
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.lang.reflect.Proxy
+import java.time.Duration
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.test.*
+
+class EventDispatcherTests {
+    /**
+     * The dev tools is only used to unsubscribe a listener, which is never called in the tests
+     * */
+    private val devTools = Proxy.newProxyInstance(
+        javaClass.classLoader, arrayOf(RemoteDevTools::class.java)) { _, _, _ -> null } as RemoteDevTools
+    private val response = """{"id":1,"result":{"outerHTML":"<html></html>","ignored":{"a":[1,2,3]}}}"""
+    private val reorderedResponse = """{"result":{"ignored":"x","outerHTML":"<html></html>"},"id":1}"""
+    private val errorResponse = """{"id":1,"error":{"code":-32000,"message":"Could not find node"}}"""
+
+    @Test
+    fun testStreamingResponse() {
+        assertResponse(EventDispatcher(streaming = true), response)
+        assertResponse(EventDispatcher(streaming = true), reorderedResponse)
+    }
+
+    @Test
+    fun testTreeResponse() {
+        assertResponse(EventDispatcher(streaming = false), response)
+        assertResponse(EventDispatcher(streaming = false), reorderedResponse)
+    }
+
+    @Test
+    fun testStreamingErrorResponse() {
+        val dispatcher = EventDispatcher(streaming = true)
+        val future = dispatcher.subscribe(1, "outerHTML")
+        dispatcher.accept(errorResponse)
+
+        assertTrue { future.await(Duration.ofSeconds(1)) }
+        assertFalse { future.isSuccess }
+        assertEquals(-32000, future.result?.get("code")?.asInt())
+    }
+
+    @Test
+    fun testAwaitDeferredResponse() = runBlocking {
+        val dispatcher = EventDispatcher(streaming = true)
+        val future = dispatcher.subscribe(1, "outerHTML")
+        // the response arrives on another thread, the awaiting coroutine is resumed without parking a thread
+        launch(Dispatchers.IO) { dispatcher.accept(response) }
+
+        assertTrue { future.awaitDeferred(Duration.ofSeconds(1)) }
+        assertTrue { future.isSuccess }
+        assertEquals("<html></html>", future.result?.asText())
+    }
+
+    @Test
+    fun testAwaitDeferredTimeout() = runBlocking {
+        val future = EventDispatcher(streaming = true).subscribe(1, "outerHTML")
+        assertFalse { future.awaitDeferred(Duration.ofMillis(50)) }
+    }
+
+    @Test
+    fun testStreamingEventWithoutListener() {
+        val dispatcher = EventDispatcher(streaming = true)
+        val skippedEvents = ChromeDevToolsImpl.numSkippedEvents.count
+        // no listener is registered, the params should be skipped silently
+        dispatcher.accept("""{"method":"Network.responseReceived","params":{"requestId":"1","response":{}}}""")
+        assertEquals(skippedEvents + 1, ChromeDevToolsImpl.numSkippedEvents.count)
+
+        // the params arrive before the method, the event is counted the same way
+        dispatcher.accept("""{"params":{"requestId":"1"},"method":"Network.responseReceived"}""")
+        assertEquals(skippedEvents + 2, ChromeDevToolsImpl.numSkippedEvents.count)
+    }
+
+    @Test
+    fun testStreamingEventIsBoundToListener() {
+        assertEventIsBoundToListener(EventDispatcher(streaming = true))
+    }
+
+    @Test
+    fun testTreeEventIsBoundToListener() {
+        assertEventIsBoundToListener(EventDispatcher(streaming = false))
+    }
+
+    @Test
+    fun testStreamingResponseWithUnknownId() {
+        val dispatcher = EventDispatcher(streaming = true)
+        val future = dispatcher.subscribe(2, "outerHTML")
+        // the response of an unknown invocation is skipped, and the other futures are not affected
+        dispatcher.accept(response)
+        dispatcher.accept(errorResponse)
+        assertFalse { future.await(Duration.ofMillis(50)) }
+    }
+
+    private fun assertEventIsBoundToListener(dispatcher: EventDispatcher) {
+        val events = LinkedBlockingQueue<ResponseReceived>()
+        val handler = EventHandler<Any> { events.add(it as ResponseReceived) }
+        val key = "Network.responseReceived"
+        dispatcher.registerListener(key, DevToolsEventListener(key, handler, ResponseReceived::class.java, devTools))
+
+        dispatcher.accept("""{"method":"$key","params":{"requestId":"1","loaderId":"2","response":{"status":200}}}""")
+        dispatcher.accept("""{"params":{"requestId":"3","response":{"status":404}},"method":"$key"}""")
+
+        val first = events.poll(5, TimeUnit.SECONDS)
+        val second = events.poll(5, TimeUnit.SECONDS)
+        assertNotNull(first)
+        assertNotNull(second)
+        assertEquals(setOf("1", "3"), setOf(first.requestId, second.requestId))
+        assertEquals(setOf(200, 404), setOf(first.response.status, second.response.status))
+    }
+
+    private fun assertResponse(dispatcher: EventDispatcher, message: String) {
+        val future = dispatcher.subscribe(1, "outerHTML")
+        dispatcher.accept(message)
+
+        assertTrue { future.await(Duration.ofSeconds(1)) }
+        assertTrue { future.isSuccess }
+        assertEquals("<html></html>", future.result?.asText())
+        dispatcher.unsubscribe(1)
+    }
+}